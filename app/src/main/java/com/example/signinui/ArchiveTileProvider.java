@@ -0,0 +1,130 @@
+package com.example.signinui;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.osmdroid.tileprovider.MapTileProviderBasic;
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.modules.MapTileFileArchiveProvider;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+import org.osmdroid.util.MapTileIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The usual osmdroid tile provider with downloaded tile packs in front of it.
+ *
+ * A tile in any pack for the current tile source is served from the pack. Everything else goes
+ * through the normal chain of file cache, network and lower zoom approximation, so the map
+ * still works outside the downloaded regions.
+ */
+final class ArchiveTileProvider extends MapTileProviderBasic {
+    private static final String TAG = "ArchiveTileProvider";
+    static final String PACK_EXTENSION = ".tpk";
+
+    ArchiveTileProvider(Context context, ITileSource tileSource, File packDirectory) {
+        super(context, tileSource);
+        List<IArchiveFile> archives = new ArrayList<>();
+        File[] files = packDirectory.listFiles((dir, name) -> name.endsWith(PACK_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                try {
+                    archives.add(new PackArchiveFile(TileArchive.open(file)));
+                } catch (IOException e) {
+                    Log.w(TAG, "Skipping unreadable tile pack " + file.getName(), e);
+                }
+            }
+        }
+        if (!archives.isEmpty()) {
+            // Ahead of every other module, so packed tiles never touch the cache or network
+            mTileProviderList.add(0, new MapTileFileArchiveProvider(new SimpleRegisterReceiver(context),
+                    tileSource, archives.toArray(new IArchiveFile[0])));
+        }
+        Log.d(TAG, archives.size() + " tile packs loaded");
+    }
+
+    /**
+     * Lets osmdroid's archive module read a {@link TileArchive}.
+     */
+    private static final class PackArchiveFile implements IArchiveFile {
+        private final TileArchive archive;
+        private boolean ignoreTileSource;
+
+        PackArchiveFile(TileArchive archive) {
+            this.archive = archive;
+        }
+
+        @Override
+        public void init(File file) {
+            // Opened in the constructor
+        }
+
+        @Override
+        public InputStream getInputStream(ITileSource tileSource, long mapTileIndex) {
+            if (!ignoreTileSource && !archive.getTileSourceName().equals(tileSource.name())) {
+                return null;
+            }
+            ByteBuffer tile = archive.getTile(MapTileIndex.getZoom(mapTileIndex),
+                    MapTileIndex.getX(mapTileIndex), MapTileIndex.getY(mapTileIndex));
+            return tile != null ? new ByteBufferInputStream(tile) : null;
+        }
+
+        @Override
+        public void close() {
+            try {
+                archive.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Error closing tile pack", e);
+            }
+        }
+
+        @Override
+        public Set<String> getTileSources() {
+            return Collections.singleton(archive.getTileSourceName());
+        }
+
+        @Override
+        public void setIgnoreTileSource(boolean ignoreTileSource) {
+            this.ignoreTileSource = ignoreTileSource;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package com.example.signinui;
 
-import android.Manifest;
 import android.bluetooth.BluetoothDevice;
-import android.content.pm.PackageManager;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,32 +9,39 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
-import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-public class BluetoothDeviceAdapter extends RecyclerView.Adapter<BluetoothDeviceAdapter.DeviceViewHolder> {
-    private List<BluetoothDevice> devices;
-    private Map<String, Boolean> onlineStatusMap;
-    private OnDeviceClickListener listener;
+/**
+ * Shows discovered devices. Lists are submitted as snapshots from {@link DeviceDiscoveryPipeline};
+ * DiffUtil computes the changes off the main thread and only changed rows are rebound.
+ */
+public class BluetoothDeviceAdapter extends ListAdapter<DeviceDiscoveryPipeline.DeviceItem, BluetoothDeviceAdapter.DeviceViewHolder> {
+    private final OnDeviceClickListener listener;
 
     public interface OnDeviceClickListener {
         void onDeviceClick(BluetoothDevice device);
     }
 
-    public BluetoothDeviceAdapter(List<BluetoothDevice> devices, Map<String, Boolean> onlineStatusMap, OnDeviceClickListener listener) {
-        this.devices = devices;
-        this.onlineStatusMap = onlineStatusMap;
-        this.listener = listener;
-    }
+    private static final DiffUtil.ItemCallback<DeviceDiscoveryPipeline.DeviceItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<DeviceDiscoveryPipeline.DeviceItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull DeviceDiscoveryPipeline.DeviceItem oldItem,
+                                               @NonNull DeviceDiscoveryPipeline.DeviceItem newItem) {
+                    return oldItem.address.equals(newItem.address);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull DeviceDiscoveryPipeline.DeviceItem oldItem,
+                                                  @NonNull DeviceDiscoveryPipeline.DeviceItem newItem) {
+                    return oldItem.sameContents(newItem);
+                }
+            };
 
-    // Initialize with empty list and online status map
-    public static BluetoothDeviceAdapter createWithEmptyList(OnDeviceClickListener listener) {
-        return new BluetoothDeviceAdapter(new ArrayList<>(), new HashMap<>(), listener);
+    public BluetoothDeviceAdapter(OnDeviceClickListener listener) {
+        super(DIFF_CALLBACK);
+        this.listener = listener;
     }
 
     @NonNull
@@ -49,27 +54,7 @@ public class BluetoothDeviceAdapter extends RecyclerView.Adapter<BluetoothDevice
 
     @Override
     public void onBindViewHolder(@NonNull DeviceViewHolder holder, int position) {
-        BluetoothDevice device = devices.get(position);
-        boolean isOnline = onlineStatusMap.getOrDefault(device.getAddress(), false);
-        holder.bind(device, listener, isOnline);
-    }
-
-    @Override
-    public int getItemCount() {
-        return devices.size();
-    }
-
-    public void updateDevices(List<BluetoothDevice> newDevices, Map<String, Boolean> newOnlineStatusMap) {
-        devices.clear();
-        devices.addAll(newDevices);
-        onlineStatusMap.clear();
-        onlineStatusMap.putAll(newOnlineStatusMap);
-        notifyDataSetChanged();
-    }
-
-    public void setOnlineStatus(String deviceAddress, boolean isOnline) {
-        onlineStatusMap.put(deviceAddress, isOnline);
-        notifyDataSetChanged();
+        holder.bind(getItem(position), listener);
     }
 
     static class DeviceViewHolder extends RecyclerView.ViewHolder {
@@ -86,31 +71,22 @@ public class BluetoothDeviceAdapter extends RecyclerView.Adapter<BluetoothDevice
             onlineStatus = itemView.findViewById(R.id.online_status);
         }
 
-        public void bind(final BluetoothDevice device, final OnDeviceClickListener listener, boolean isOnline) {
-            String name = "Unknown Device";
+        public void bind(final DeviceDiscoveryPipeline.DeviceItem item, final OnDeviceClickListener listener) {
+            final BluetoothDevice device = item.device;
+            final boolean isOnline = item.online;
+            // Name and bond state were resolved on the discovery thread; no binder calls here
+            String name = item.name;
             String bondStateText = "";
-
-            // Check for BLUETOOTH_CONNECT permission before accessing device name
-            if (ContextCompat.checkSelfPermission(itemView.getContext(), Manifest.permission.BLUETOOTH_CONNECT) == PackageManager.PERMISSION_GRANTED) {
-                String deviceNameStr = device.getName();
-                if (deviceNameStr != null && !deviceNameStr.isEmpty()) {
-                    name = deviceNameStr;
-                }
-
-                // Add bond state information
-                switch (device.getBondState()) {
-                    case BluetoothDevice.BOND_BONDED:
-                        bondStateText = " (Paired)";
-                        break;
-                    case BluetoothDevice.BOND_BONDING:
-                        bondStateText = " (Pairing...)";
-                        break;
-                    case BluetoothDevice.BOND_NONE:
-                        bondStateText = " (Not paired)";
-                        break;
-                }
-            } else {
-                name = "Permission required";
+            switch (item.bondState) {
+                case BluetoothDevice.BOND_BONDED:
+                    bondStateText = " (Paired)";
+                    break;
+                case BluetoothDevice.BOND_BONDING:
+                    bondStateText = " (Pairing...)";
+                    break;
+                case BluetoothDevice.BOND_NONE:
+                    bondStateText = " (Not paired)";
+                    break;
             }
 
             deviceName.setText(name + bondStateText);
@@ -118,7 +94,7 @@ public class BluetoothDeviceAdapter extends RecyclerView.Adapter<BluetoothDevice
             // Enhanced status text
             String status;
             if (isOnline) {
-                if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
+                if (item.bondState == BluetoothDevice.BOND_BONDED) {
                     status = "Online • Tap to connect";
                 } else {
                     status = "Online • Will pair & connect";
@@ -149,7 +125,7 @@ public class BluetoothDeviceAdapter extends RecyclerView.Adapter<BluetoothDevice
             itemView.setAlpha(isOnline ? 1.0f : 0.6f);
 
             // Add visual distinction for paired devices
-            if (device.getBondState() == BluetoothDevice.BOND_BONDED) {
+            if (item.bondState == BluetoothDevice.BOND_BONDED) {
                 itemView.setBackgroundResource(R.drawable.bg_paired_device); // You'll need to create this drawable
             } else {
                 itemView.setBackgroundResource(R.drawable.bg_unpaired_device); // You'll need to create this drawable
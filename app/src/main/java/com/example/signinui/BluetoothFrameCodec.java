@@ -0,0 +1,207 @@
+package com.example.signinui;
+
+import com.example.signinui.model.ChatMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format used between two devices over RFCOMM.
+ *
+ * Every frame is laid out as: [payload length: 4 bytes, big-endian][type: 1 byte][payload].
+ * Framing lets several messages arrive in one read, or one message span several reads,
+ * without being merged or split on the receiving side.
+ */
+final class BluetoothFrameCodec {
+    // Frame types. These replace the old "FRIEND_REQUEST:", "HEARTBEAT:", ... text prefixes.
+    static final byte TYPE_FRIEND_REQUEST = 1;
+    static final byte TYPE_FRIEND_ACCEPT = 2;
+    static final byte TYPE_HEARTBEAT = 3;
+    static final byte TYPE_UID_EXCHANGE = 4;
+    static final byte TYPE_CHAT = 5;
+    // Payload encoded by RouteCodec
+    static final byte TYPE_ROUTE_SHARE = 6;
+
+    static final int HEADER_SIZE = 5;
+    // Upper bound for a single payload. Anything larger is treated as a corrupt stream.
+    static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    // Separator between fields of a multi-field text payload (e.g. userId and userName).
+    static final char FIELD_SEPARATOR = ':';
+
+    private BluetoothFrameCodec() {}
+
+    /**
+     * Encodes a complete frame (header + payload) into a new byte array.
+     */
+    static byte[] encode(byte type, byte[] payload) {
+        if (payload.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload too large: " + payload.length);
+        }
+        byte[] frame = new byte[HEADER_SIZE + payload.length];
+        writeHeader(frame, 0, type, payload.length);
+        System.arraycopy(payload, 0, frame, HEADER_SIZE, payload.length);
+        return frame;
+    }
+
+    static byte[] encode(byte type, String payload) {
+        return encode(type, payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes a text payload made of several fields joined by {@link #FIELD_SEPARATOR}.
+     */
+    static byte[] encode(byte type, String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(FIELD_SEPARATOR);
+            sb.append(fields[i]);
+        }
+        return encode(type, sb.toString());
+    }
+
+    static void writeFrame(OutputStream out, byte type, byte[] payload) throws IOException {
+        out.write(encode(type, payload));
+    }
+
+    static void writeHeader(byte[] dst, int offset, byte type, int payloadLength) {
+        dst[offset] = (byte) (payloadLength >>> 24);
+        dst[offset + 1] = (byte) (payloadLength >>> 16);
+        dst[offset + 2] = (byte) (payloadLength >>> 8);
+        dst[offset + 3] = (byte) payloadLength;
+        dst[offset + 4] = type;
+    }
+
+    static String decodeText(byte[] buffer, int offset, int length) {
+        return new String(buffer, offset, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a chat frame. The payload is binary so that names and text may contain any
+     * character: [messageId][senderId][timestamp: 8 bytes][senderName][text], strings in
+     * modified UTF-8 with a 2-byte length.
+     */
+    static byte[] encodeChat(ChatMessage message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + message.getMessageText().length());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(message.getMessageId());
+            out.writeUTF(message.getSenderId());
+            out.writeLong(message.getTimestamp());
+            out.writeUTF(message.getSenderName() != null ? message.getSenderName() : "");
+            out.writeUTF(message.getMessageText());
+        } catch (IOException e) {
+            // Strings longer than 64 KB are the only way to get here
+            throw new IllegalArgumentException("Chat message too large", e);
+        }
+        return encode(TYPE_CHAT, bytes.toByteArray());
+    }
+
+    /**
+     * Decodes the payload of a {@link #TYPE_CHAT} frame.
+     * @throws IOException if the payload is truncated or malformed.
+     */
+    static ChatMessage decodeChat(byte[] buffer, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, offset, length));
+        ChatMessage message = new ChatMessage();
+        message.setMessageId(in.readUTF());
+        message.setSenderId(in.readUTF());
+        message.setTimestamp(in.readLong());
+        String senderName = in.readUTF();
+        message.setSenderName(senderName.isEmpty() ? null : senderName);
+        message.setMessageText(in.readUTF());
+        return message;
+    }
+
+    /**
+     * Callback for decoded frames. The payload is a view into the decoder's internal buffer
+     * and is only valid for the duration of the call.
+     */
+    interface FrameHandler {
+        void onFrame(byte type, byte[] buffer, int offset, int length);
+    }
+
+    /**
+     * Streaming decoder that reads from a socket stream into a single reusable buffer
+     * and hands out complete frames. It does not allocate per read.
+     */
+    static final class Decoder {
+        private final InputStream inputStream;
+        private byte[] buffer;
+        private int start = 0; // first unconsumed byte
+        private int end = 0;   // one past the last byte read
+
+        Decoder(InputStream inputStream) {
+            this(inputStream, 4096);
+        }
+
+        Decoder(InputStream inputStream, int initialCapacity) {
+            this.inputStream = inputStream;
+            this.buffer = new byte[initialCapacity];
+        }
+
+        /**
+         * Performs one blocking read and dispatches every complete frame now in the buffer.
+         * @return the number of frames dispatched, or -1 once the stream has ended.
+         * @throws IOException on read failure or when the stream contains an invalid frame.
+         */
+        int readFrames(FrameHandler handler) throws IOException {
+            ensureWritableSpace();
+            int read = inputStream.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                return -1;
+            }
+            end += read;
+
+            int dispatched = 0;
+            while (end - start >= HEADER_SIZE) {
+                int length = ((buffer[start] & 0xFF) << 24)
+                        | ((buffer[start + 1] & 0xFF) << 16)
+                        | ((buffer[start + 2] & 0xFF) << 8)
+                        | (buffer[start + 3] & 0xFF);
+                if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (end - start < HEADER_SIZE + length) {
+                    break; // Wait for the rest of the frame
+                }
+                byte type = buffer[start + 4];
+                handler.onFrame(type, buffer, start + HEADER_SIZE, length);
+                start += HEADER_SIZE + length;
+                dispatched++;
+            }
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+            return dispatched;
+        }
+
+        /**
+         * Makes room for the next read, compacting partial frames to the front of the buffer
+         * and growing it only when a single frame does not fit.
+         */
+        private void ensureWritableSpace() {
+            if (end < buffer.length) {
+                return;
+            }
+            int pending = end - start;
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, pending);
+                start = 0;
+                end = pending;
+            }
+            if (end == buffer.length) {
+                int newCapacity = Math.min(buffer.length * 2, HEADER_SIZE + MAX_PAYLOAD_SIZE);
+                byte[] grown = new byte[newCapacity];
+                System.arraycopy(buffer, 0, grown, 0, end);
+                buffer = grown;
+            }
+        }
+    }
+}
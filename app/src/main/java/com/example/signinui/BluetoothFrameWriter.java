@@ -0,0 +1,199 @@
+package com.example.signinui;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains a bounded queue of outbound frames onto a socket from a single writer thread.
+ *
+ * Callers (usually the main thread) only enqueue and never touch the socket. Frames that are
+ * queued together are coalesced into one socket write, and a full queue rejects new frames
+ * instead of blocking the caller.
+ */
+final class BluetoothFrameWriter implements Runnable {
+    private static final String TAG = "BluetoothFrameWriter";
+
+    static final int DEFAULT_QUEUE_CAPACITY = 64;
+    // Small frames are packed into one write up to this size (roughly one RFCOMM burst).
+    static final int MAX_BATCH_BYTES = 4096;
+    private static final long RATE_WINDOW_NANOS = 1_000_000_000L;
+
+    private final OutputStream outputStream;
+    private final BlockingQueue<byte[]> queue;
+    private final byte[] batchBuffer = new byte[MAX_BATCH_BYTES];
+    private final List<byte[]> drained = new ArrayList<>();
+
+    private volatile boolean running = true;
+    private volatile Thread writerThread;
+
+    // Statistics
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong socketWrites = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private long rateWindowStart = System.nanoTime();
+    private long rateWindowBytes = 0;
+    private volatile long bytesPerSecond = 0;
+    private volatile long lastWriteNanos = 0;
+    // Last write that carried something other than a heartbeat
+    private volatile long lastTrafficNanos = 0;
+
+    BluetoothFrameWriter(OutputStream outputStream) {
+        this(outputStream, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    BluetoothFrameWriter(OutputStream outputStream, int queueCapacity) {
+        this.outputStream = outputStream;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Queues a complete frame for sending. Never blocks.
+     * @return false if the writer is closed or the queue is full (the frame is dropped).
+     */
+    boolean enqueue(byte[] frame) {
+        if (!running) {
+            return false;
+        }
+        if (!queue.offer(frame)) {
+            droppedFrames.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        writerThread = Thread.currentThread();
+        try {
+            while (running) {
+                drained.add(queue.take());
+                queue.drainTo(drained);
+                writeBatch(drained);
+                drained.clear();
+            }
+        } catch (InterruptedException e) {
+            // close() interrupts the writer; nothing left to do
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing to output stream", e);
+        } finally {
+            running = false;
+            queue.clear();
+        }
+    }
+
+    /**
+     * Stops the writer thread and discards any frames still queued.
+     */
+    void close() {
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private void writeBatch(List<byte[]> frames) throws IOException {
+        int buffered = 0;
+        for (byte[] frame : frames) {
+            if (buffered + frame.length > MAX_BATCH_BYTES) {
+                if (buffered > 0) {
+                    writeToSocket(batchBuffer, buffered);
+                    buffered = 0;
+                }
+                if (frame.length > MAX_BATCH_BYTES) {
+                    writeToSocket(frame, frame.length);
+                    continue;
+                }
+            }
+            System.arraycopy(frame, 0, batchBuffer, buffered, frame.length);
+            buffered += frame.length;
+        }
+        if (buffered > 0) {
+            writeToSocket(batchBuffer, buffered);
+        }
+        outputStream.flush();
+        framesWritten.addAndGet(frames.size());
+        for (byte[] frame : frames) {
+            if (frame.length < BluetoothFrameCodec.HEADER_SIZE
+                    || frame[BluetoothFrameCodec.HEADER_SIZE - 1] != BluetoothFrameCodec.TYPE_HEARTBEAT) {
+                lastTrafficNanos = lastWriteNanos;
+                break;
+            }
+        }
+    }
+
+    private void writeToSocket(byte[] data, int length) throws IOException {
+        outputStream.write(data, 0, length);
+        socketWrites.incrementAndGet();
+        bytesWritten.addAndGet(length);
+
+        long now = System.nanoTime();
+        lastWriteNanos = now;
+        rateWindowBytes += length;
+        long elapsed = now - rateWindowStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            bytesPerSecond = rateWindowBytes * RATE_WINDOW_NANOS / elapsed;
+            rateWindowStart = now;
+            rateWindowBytes = 0;
+        }
+    }
+
+    // =============================================================================================
+    // Statistics
+    // =============================================================================================
+
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Throughput over the last completed one-second window, or 0 if the link has been idle.
+     */
+    long getBytesPerSecond() {
+        if (System.nanoTime() - lastWriteNanos > 2 * RATE_WINDOW_NANOS) {
+            return 0;
+        }
+        return bytesPerSecond;
+    }
+
+    long getFramesWritten() {
+        return framesWritten.get();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    long getSocketWrites() {
+        return socketWrites.get();
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    /**
+     * {@link System#nanoTime()} of the last socket write, or 0 if nothing has been written yet.
+     */
+    long getLastWriteNanos() {
+        return lastWriteNanos;
+    }
+
+    /**
+     * Whether no frame other than a heartbeat has been written within the given interval before
+     * {@code nowNanos}. Our own heartbeats do not count, so a link that only carries heartbeats
+     * gets one on every tick.
+     */
+    boolean isIdle(long nowNanos, long intervalNanos) {
+        long lastTraffic = lastTrafficNanos;
+        return lastTraffic == 0 || nowNanos - lastTraffic >= intervalNanos;
+    }
+}
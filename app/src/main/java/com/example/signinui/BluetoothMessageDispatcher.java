@@ -0,0 +1,165 @@
+package com.example.signinui;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Routes decoded Bluetooth frames to the handlers registered for their type byte.
+ *
+ * Handlers live in a 256-entry table indexed by the type, so dispatch is one array read with no
+ * parsing. Each handler runs on the executor it was registered with. Every type also keeps
+ * a message counter and a latency histogram, measured from when the frame was received to when
+ * the handler returned. The histogram has log2 buckets in microseconds: bucket i counts latencies
+ * in [2^(i-1), 2^i) µs, and bucket 0 counts anything under 1 µs.
+ */
+final class BluetoothMessageDispatcher {
+    static final int HISTOGRAM_BUCKETS = 32;
+    private static final int TYPE_COUNT = 256;
+
+    interface MessageHandler {
+        /**
+         * @param deviceAddress address of the device the frame came from.
+         * @param payload the frame payload. The array is shared between handlers of the same
+         *                frame and must not be modified.
+         */
+        void onMessage(String deviceAddress, byte[] payload);
+    }
+
+    /**
+     * Told about exceptions thrown by handlers, which are otherwise swallowed so that one broken
+     * handler cannot take down the reading thread.
+     */
+    interface ErrorReporter {
+        void onHandlerError(byte type, RuntimeException error);
+    }
+
+    private static final class Registration {
+        final MessageHandler handler;
+        final Executor executor;
+
+        Registration(MessageHandler handler, Executor executor) {
+            this.handler = handler;
+            this.executor = executor;
+        }
+    }
+
+    private static final Registration[] NO_REGISTRATIONS = new Registration[0];
+
+    // Copy-on-write per type; readers never lock
+    private final AtomicReferenceArray<Registration[]> handlers = new AtomicReferenceArray<>(TYPE_COUNT);
+    private final AtomicLongArray messageCounts = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLongArray latencyHistograms = new AtomicLongArray(TYPE_COUNT * HISTOGRAM_BUCKETS);
+    private final AtomicLong unhandledCount = new AtomicLong();
+    private final AtomicLong handlerErrorCount = new AtomicLong();
+    private final LongSupplier nanoClock;
+    private final ErrorReporter errorReporter;
+
+    BluetoothMessageDispatcher(ErrorReporter errorReporter) {
+        this(System::nanoTime, errorReporter);
+    }
+
+    BluetoothMessageDispatcher(LongSupplier nanoClock, ErrorReporter errorReporter) {
+        this.nanoClock = nanoClock;
+        this.errorReporter = errorReporter;
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            handlers.set(i, NO_REGISTRATIONS);
+        }
+    }
+
+    synchronized void register(byte type, MessageHandler handler, Executor executor) {
+        int index = type & 0xFF;
+        Registration[] current = handlers.get(index);
+        Registration[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = new Registration(handler, executor);
+        handlers.set(index, updated);
+    }
+
+    synchronized void unregister(byte type, MessageHandler handler) {
+        int index = type & 0xFF;
+        Registration[] current = handlers.get(index);
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].handler == handler) {
+                Registration[] updated = new Registration[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                handlers.set(index, updated);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Hands a frame to every handler registered for its type.
+     * @return false if nobody handles this type.
+     */
+    boolean dispatch(String deviceAddress, byte type, byte[] buffer, int offset, int length) {
+        int index = type & 0xFF;
+        messageCounts.incrementAndGet(index);
+        Registration[] registrations = handlers.get(index);
+        if (registrations.length == 0) {
+            unhandledCount.incrementAndGet();
+            return false;
+        }
+
+        long receivedAt = nanoClock.getAsLong();
+        // The decoder reuses its buffer, so handlers get their own copy of the payload
+        byte[] payload = Arrays.copyOfRange(buffer, offset, offset + length);
+        for (Registration registration : registrations) {
+            registration.executor.execute(() -> {
+                try {
+                    registration.handler.onMessage(deviceAddress, payload);
+                } catch (RuntimeException e) {
+                    handlerErrorCount.incrementAndGet();
+                    errorReporter.onHandlerError(type, e);
+                } finally {
+                    recordLatency(index, nanoClock.getAsLong() - receivedAt);
+                }
+            });
+        }
+        return true;
+    }
+
+    private void recordLatency(int typeIndex, long nanos) {
+        latencyHistograms.incrementAndGet(typeIndex * HISTOGRAM_BUCKETS + bucketFor(nanos));
+    }
+
+    static int bucketFor(long nanos) {
+        long micros = nanos / 1000;
+        if (micros <= 0) {
+            return 0;
+        }
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    // =============================================================================================
+    // Statistics
+    // =============================================================================================
+
+    long getMessageCount(byte type) {
+        return messageCounts.get(type & 0xFF);
+    }
+
+    /**
+     * Copy of the latency histogram of one type; see the class comment for the bucket layout.
+     */
+    long[] getLatencyHistogram(byte type) {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        int base = (type & 0xFF) * HISTOGRAM_BUCKETS;
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = latencyHistograms.get(base + i);
+        }
+        return histogram;
+    }
+
+    long getUnhandledCount() {
+        return unhandledCount.get();
+    }
+
+    long getHandlerErrorCount() {
+        return handlerErrorCount.get();
+    }
+}
@@ -16,20 +16,38 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
 import androidx.core.app.ActivityCompat;
 
+import com.example.signinui.model.ChatMessage;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.reflect.Method;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class BluetoothService extends Service {
     // =============================================================================================
@@ -39,23 +57,62 @@ public class BluetoothService extends Service {
     private static final String APP_NAME = "AdventureApp";
     // Using well-known SPP UUID for better compatibility. Both client and server MUST use the same UUID.
     private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+    // Maximum number of simultaneous RFCOMM links (a group hike of up to this many phones).
+    private static final int MAX_PEERS = 10;
+    // How long after an incoming link drops the peer dialing back in counts as a reconnect;
+    // about as long as the peer's ReconnectPolicy keeps retrying.
+    private static final long AWAIT_RECONNECT_MS = 5 * 60_000;
+    // Heartbeat cadence. Both stay well inside PeerPresenceTable's TTL on the receiving side.
+    private static final long HEARTBEAT_INTERVAL_SCREEN_ON_MS = 30_000;
+    private static final long HEARTBEAT_INTERVAL_SCREEN_OFF_MS = 60_000;
 
     private final IBinder binder = new LocalBinder();
     private final Handler handler = new Handler(Looper.getMainLooper());
 
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothDiscoveryListener discoveryListener;
+    // Routes inbound frames by type; UI handlers run on the main thread
+    private final BluetoothMessageDispatcher dispatcher = new BluetoothMessageDispatcher(
+            (type, error) -> Log.e(TAG, "Handler for frame type " + type + " failed", error));
+    private final Executor mainExecutor = handler::post;
     private BroadcastReceiver discoveryReceiver;
     private BroadcastReceiver pairingReceiver;
+    private BroadcastReceiver screenStateReceiver;
 
     // Threads for managing Bluetooth connections
     private AcceptThread acceptThread;
-    private ConnectThread connectThread;
-    private ConnectedThread connectedThread;
+    // Pending outgoing connection attempts and established links, keyed by device address
+    private final Map<String, ConnectThread> pendingConnections = new ConcurrentHashMap<>();
+    private final Map<String, PeerConnection> connections = new ConcurrentHashMap<>();
+    // Shared pool running the reader and writer of every link. Threads are reused across
+    // reconnects instead of creating two raw threads per socket.
+    private ExecutorService ioExecutor;
+    // Runs delayed work such as reconnect attempts
+    private ScheduledExecutorService scheduler;
+
+    // Socket type that last connected to each device; it is tried first on the next attempt
+    private final Map<String, SocketStrategy> preferredStrategies = new ConcurrentHashMap<>();
+    // Outgoing links that dropped and are being re-established, keyed by device address
+    private final Map<String, ReconnectState> reconnects = new ConcurrentHashMap<>();
+    // Incoming links that dropped, kept so the peer dialing back in is recognised as a reconnect
+    private final Map<String, ReconnectState> awaitedReconnects = new ConcurrentHashMap<>();
+    private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy();
+    private final AtomicLong reconnectCount = new AtomicLong();
+    private final AtomicLong totalReconnectMillis = new AtomicLong();
+    private volatile long lastReconnectMillis = -1;
 
     // Data collections for friend management
-    private Set<String> pairedFriends = new HashSet<>();
-    private Map<String, Boolean> friendOnlineStatus = new HashMap<>();
+    private final Set<String> pairedFriends = ConcurrentHashMap.newKeySet();
+    // Last-seen times of peers; entries expire when no frame arrives within the TTL
+    private final PeerPresenceTable presenceTable = new PeerPresenceTable();
+    private final List<PeerPresenceTable.PresenceListener> presenceListeners = new CopyOnWriteArrayList<>();
+
+    // Heartbeat state. Heartbeats are only sent on links that have been idle for a full interval.
+    private volatile String heartbeatUserId;
+    private volatile boolean screenOn = true;
+    private ScheduledFuture<?> heartbeatFuture;
+    private final AtomicLong heartbeatsSent = new AtomicLong();
+    private final AtomicLong heartbeatsSaved = new AtomicLong();
 
     // =============================================================================================
     // Service Lifecycle & Binding
@@ -65,6 +122,11 @@ public class BluetoothService extends Service {
     public void onCreate() {
         super.onCreate();
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        ioExecutor = createIoExecutor();
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "BluetoothScheduler"));
+        startPresenceTracking();
+        registerInternalHandlers();
         initializeDiscoveryReceiver();
         initializePairingReceiver();
 
@@ -72,6 +134,14 @@ public class BluetoothService extends Service {
         IntentFilter pairingFilter = new IntentFilter(BluetoothDevice.ACTION_BOND_STATE_CHANGED);
         registerReceiver(pairingReceiver, pairingFilter);
 
+        // Heartbeats relax while the screen is off
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        screenOn = powerManager == null || powerManager.isInteractive();
+        initializeScreenStateReceiver();
+        IntentFilter screenFilter = new IntentFilter(Intent.ACTION_SCREEN_ON);
+        screenFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(screenStateReceiver, screenFilter);
+
         Log.d(TAG, "BluetoothService created");
     }
 
@@ -84,6 +154,9 @@ public class BluetoothService extends Service {
     public void onDestroy() {
         super.onDestroy();
         stopServer(); // Clean up everything when the service is destroyed
+        stopHeartbeat();
+        scheduler.shutdownNow();
+        ioExecutor.shutdownNow();
 
         // Unregister pairing receiver
         try {
@@ -91,6 +164,11 @@ public class BluetoothService extends Service {
         } catch (IllegalArgumentException e) {
             // Receiver was not registered
         }
+        try {
+            unregisterReceiver(screenStateReceiver);
+        } catch (IllegalArgumentException e) {
+            // Receiver was not registered
+        }
 
         Log.d(TAG, "BluetoothService destroyed");
     }
@@ -105,10 +183,31 @@ public class BluetoothService extends Service {
         void onDeviceDiscovered(BluetoothDevice device);
         void onDiscoveryFinished();
         void onDeviceConnected(BluetoothDevice device);
+        /**
+         * A dropped link to the device came back. The peer's UID carried over, so there is
+         * nothing to exchange.
+         */
+        void onDeviceReconnected(BluetoothDevice device);
         void onConnectionError(String message);
-        void onPartnerUIDReceived(String uid);
-        void onFriendRequestReceived(String userId, String userName);
-        void onFriendPaired(String userId, boolean success);
+    }
+
+    /**
+     * Registers a handler for one frame type (see {@link BluetoothFrameCodec}). It runs on the
+     * main thread. Several handlers may be registered for the same type.
+     */
+    public void registerMessageHandler(byte type, BluetoothMessageDispatcher.MessageHandler messageHandler) {
+        dispatcher.register(type, messageHandler, mainExecutor);
+    }
+
+    /**
+     * Registers a handler that runs on the given executor instead of the main thread.
+     */
+    public void registerMessageHandler(byte type, BluetoothMessageDispatcher.MessageHandler messageHandler, Executor executor) {
+        dispatcher.register(type, messageHandler, executor);
+    }
+
+    public void unregisterMessageHandler(byte type, BluetoothMessageDispatcher.MessageHandler messageHandler) {
+        dispatcher.unregister(type, messageHandler);
     }
 
     // =============================================================================================
@@ -125,21 +224,11 @@ public class BluetoothService extends Service {
 
     /**
      * Starts the server to listen for incoming connections.
-     * This makes the device ready to accept friend requests.
+     * This makes the device ready to accept friend requests. Existing links are kept.
      */
     public synchronized void startServer() {
         Log.d(TAG, "Starting Bluetooth server...");
 
-        // Cancel any thread attempting to make a connection
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
-        }
-        // Cancel any thread currently running a connection
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
-        }
         // Start the thread to listen on a BluetoothServerSocket
         if (acceptThread == null) {
             acceptThread = new AcceptThread();
@@ -154,14 +243,19 @@ public class BluetoothService extends Service {
     public synchronized void stopServer() {
         Log.d(TAG, "Stopping Bluetooth server...");
         stopDiscovery();
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
+        for (ReconnectState state : reconnects.values()) {
+            state.cancel();
+        }
+        reconnects.clear();
+        awaitedReconnects.clear();
+        for (ConnectThread thread : pendingConnections.values()) {
+            thread.cancel();
         }
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+        pendingConnections.clear();
+        for (PeerConnection connection : connections.values()) {
+            connection.cancel();
         }
+        connections.clear();
         if (acceptThread != null) {
             acceptThread.cancel();
             acceptThread = null;
@@ -272,48 +366,93 @@ public class BluetoothService extends Service {
             return; // Don't proceed with connection until paired
         }
 
-        // Cancel any thread attempting to make a connection
-        if (connectThread != null) {
-            Log.d(TAG, "Cancelling existing connect thread");
-            connectThread.cancel();
-            connectThread = null;
+        String address = device.getAddress();
+        if (connections.containsKey(address)) {
+            Log.d(TAG, "Already connected to " + address);
+            return;
+        }
+        if (pendingConnections.containsKey(address)) {
+            Log.d(TAG, "Connection attempt to " + address + " already in progress");
+            return;
+        }
+        if (connections.size() >= MAX_PEERS) {
+            notifyError("Too many connected devices");
+            return;
         }
 
-        // Cancel any thread currently running a connection
-        if (connectedThread != null) {
-            Log.d(TAG, "Cancelling existing connected thread");
-            connectedThread.cancel();
-            connectedThread = null;
+        // A manual connect replaces any scheduled reconnect to the same device
+        ReconnectState reconnect = reconnects.remove(address);
+        if (reconnect != null) {
+            reconnect.cancel();
         }
+        awaitedReconnects.remove(address);
+        startConnection(device);
+    }
 
+    private synchronized void startConnection(BluetoothDevice device) {
+        String address = device.getAddress();
+        if (connections.containsKey(address) || pendingConnections.containsKey(address)) {
+            return;
+        }
         Log.d(TAG, "Starting new connection thread");
         // Start the thread to connect with the given device
-        connectThread = new ConnectThread(device);
+        ConnectThread connectThread = new ConnectThread(device);
+        pendingConnections.put(address, connectThread);
         connectThread.start();
     }
 
     /**
-     * Manages a successful connection by starting the ConnectedThread.
+     * Manages a successful connection by adding it to the connection pool.
+     * A new link to a device that is already connected replaces the old one.
      * @param socket The connected BluetoothSocket.
      * @param device The connected BluetoothDevice.
+     * @param outgoing True if we initiated the link; only those are re-established when dropped.
      */
-    private synchronized void manageConnectedSocket(BluetoothSocket socket, BluetoothDevice device) {
-        Log.d(TAG, "Managing connected socket for device: " + device.getAddress());
+    private synchronized void manageConnectedSocket(BluetoothSocket socket, BluetoothDevice device, boolean outgoing) {
+        String address = device.getAddress();
+        Log.d(TAG, "Managing connected socket for device: " + address);
+
+        pendingConnections.remove(address);
+        PeerConnection previous = connections.remove(address);
+        if (previous != null) {
+            previous.cancel();
+        }
+        if (connections.size() >= MAX_PEERS) {
+            Log.w(TAG, "Connection limit reached, rejecting " + address);
+            closeQuietly(socket);
+            return;
+        }
 
-        // Cancel the thread that completed the connection
-        if (connectThread != null) {
-            connectThread.cancel();
-            connectThread = null;
+        PeerConnection connection = new PeerConnection(socket, device, outgoing);
+        // Either side re-establishing the link ends a pending reconnect
+        ReconnectState reconnect = reconnects.remove(address);
+        ReconnectState awaited = awaitedReconnects.remove(address);
+        if (reconnect == null && awaited != null
+                && SystemClock.elapsedRealtime() - awaited.lostAtMillis <= AWAIT_RECONNECT_MS) {
+            reconnect = awaited;
         }
-        // Cancel any thread currently running a connection
-        if (connectedThread != null) {
-            connectedThread.cancel();
-            connectedThread = null;
+        if (previous != null && previous.peerUid != null) {
+            connection.peerUid = previous.peerUid;
+        } else if (reconnect != null) {
+            connection.peerUid = reconnect.peerUid;
         }
-        // Cancel the accept thread because we only want to connect to one device at a time
-        if (acceptThread != null) {
-            acceptThread.cancel();
-            acceptThread = null;
+        boolean reconnected = connection.peerUid != null;
+        try {
+            connection.start();
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "No I/O thread available for " + address, e);
+            connection.cancel();
+            return;
+        }
+        connections.put(address, connection);
+
+        if (reconnect != null) {
+            reconnect.cancel();
+            long elapsed = SystemClock.elapsedRealtime() - reconnect.lostAtMillis;
+            lastReconnectMillis = elapsed;
+            totalReconnectMillis.addAndGet(elapsed);
+            reconnectCount.incrementAndGet();
+            Log.d(TAG, "Reconnected to " + address + " after " + elapsed + " ms (" + reconnect.attempt + " attempts)");
         }
 
         // Notify the UI that the connection was successful
@@ -322,65 +461,245 @@ public class BluetoothService extends Service {
                 if (ActivityCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
                     return;
                 }
-                discoveryListener.onDeviceConnected(device);
+                if (reconnected) {
+                    discoveryListener.onDeviceReconnected(device);
+                } else {
+                    discoveryListener.onDeviceConnected(device);
+                }
             }
         });
-
-        // Start the thread to manage the connection and perform transmissions
-        connectedThread = new ConnectedThread(socket);
-        connectedThread.start();
     }
 
-    private void connectionFailed() {
-        Log.e(TAG, "Connection failed. Restarting server to listen for new connections.");
-        // Connection failed, restart the server to listen again
-        notifyError("Failed to connect to device");
+    private void connectionFailed(BluetoothDevice device) {
+        String address = device.getAddress();
+        Log.e(TAG, "Connection to " + address + " failed.");
+        pendingConnections.remove(address);
+        ReconnectState reconnect = reconnects.get(address);
+        if (reconnect != null) {
+            scheduleReconnect(reconnect);
+        } else {
+            notifyError("Failed to connect to device");
+        }
+        // Make sure we keep listening for incoming connections
         startServer();
     }
 
-    private void connectionLost() {
-        Log.e(TAG, "Connection lost. Restarting server to listen for new connections.");
-        // Connection was lost, restart the server to listen again
-        notifyError("Device connection was lost");
+    private void connectionLost(PeerConnection connection) {
+        Log.e(TAG, "Connection to " + connection.address + " lost.");
+        // Only remove the entry if it has not already been replaced by a newer link
+        if (connections.remove(connection.address, connection)) {
+            ReconnectState reconnect = new ReconnectState(connection.device, SystemClock.elapsedRealtime(), connection.peerUid);
+            if (connection.outgoing) {
+                if (reconnects.putIfAbsent(connection.address, reconnect) == null) {
+                    scheduleReconnect(reconnect);
+                }
+                notifyError("Device connection was lost, reconnecting...");
+            } else {
+                // The peer dials back in
+                awaitedReconnects.put(connection.address, reconnect);
+                notifyError("Device connection was lost");
+            }
+        }
         startServer();
     }
 
+    /**
+     * Schedules the next reconnect attempt with backoff, or gives up once the policy is exhausted.
+     */
+    private synchronized void scheduleReconnect(ReconnectState reconnect) {
+        String address = reconnect.device.getAddress();
+        if (reconnects.get(address) != reconnect) {
+            return; // Cancelled or already reconnected
+        }
+        if (!reconnectPolicy.shouldRetry(reconnect.attempt)) {
+            Log.w(TAG, "Giving up reconnecting to " + address + " after " + reconnect.attempt + " attempts");
+            reconnects.remove(address, reconnect);
+            notifyError("Could not reconnect to device");
+            return;
+        }
+        long delay = reconnectPolicy.nextDelayMillis(reconnect.attempt);
+        reconnect.attempt++;
+        Log.d(TAG, "Reconnect attempt " + reconnect.attempt + " to " + address + " in " + delay + " ms");
+        try {
+            reconnect.future = scheduler.schedule(() -> startConnection(reconnect.device), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Service is shutting down
+            reconnects.remove(address, reconnect);
+        }
+    }
+
+    /**
+     * Time it took to re-establish the most recently recovered link, or -1 if none has been.
+     */
+    public long getLastReconnectMillis() {
+        return lastReconnectMillis;
+    }
+
+    public long getAverageReconnectMillis() {
+        long count = reconnectCount.get();
+        return count > 0 ? totalReconnectMillis.get() / count : -1;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    public int getPendingReconnectCount() {
+        return reconnects.size();
+    }
+
+    private void startPresenceTracking() {
+        presenceTable.addListener((cameOnline, wentOffline) -> handler.post(() -> {
+            for (PeerPresenceTable.PresenceListener listener : presenceListeners) {
+                listener.onPresenceChanged(cameOnline, wentOffline);
+            }
+        }));
+        scheduler.scheduleWithFixedDelay(presenceTable::tick, PeerPresenceTable.DEFAULT_TICK_MS,
+                PeerPresenceTable.DEFAULT_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private ExecutorService createIoExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        // Every link needs one reader and one writer; idle threads are released after 30 s.
+        return new ThreadPoolExecutor(0, MAX_PEERS * 2, 30, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                runnable -> new Thread(runnable, "BluetoothIO-" + threadCount.incrementAndGet()));
+    }
+
+    private void closeQuietly(BluetoothSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close socket", e);
+        }
+    }
+
     // =============================================================================================
     // Data Transmission Methods
     // =============================================================================================
 
     public void sendFriendRequest(String userId, String userName) {
-        if (connectedThread != null) {
-            String message = "FRIEND_REQUEST:" + userId + ":" + userName;
-            connectedThread.write(message.getBytes());
-        }
+        broadcast(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_FRIEND_REQUEST, userId, userName));
     }
 
     public void sendFriendAccept(String userId) {
-        if (connectedThread != null) {
-            String message = "FRIEND_ACCEPT:" + userId;
-            connectedThread.write(message.getBytes());
+        broadcast(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_FRIEND_ACCEPT, userId));
+    }
+
+    /**
+     * Sends our UID to one connected device, typically right after the link comes up.
+     */
+    public void sendUserUID(String deviceAddress, String uid) {
+        sendToPeer(deviceAddress, BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_UID_EXCHANGE, uid));
+    }
+
+    /**
+     * Delivers a chat message directly to the partner if they are connected.
+     * @return true if the message was queued on a link to the partner.
+     */
+    public boolean sendChatMessage(String partnerUid, ChatMessage message) {
+        PeerConnection connection = findConnectionByUid(partnerUid);
+        if (connection == null) {
+            return false;
         }
+        return connection.write(BluetoothFrameCodec.encodeChat(message));
     }
 
-    public void sendUserUID(String uid) {
-        if (connectedThread != null) {
-            String message = "UID_EXCHANGE:" + uid;
-            connectedThread.write(message.getBytes());
+    /**
+     * Sends a route encoded with {@link RouteCodec} to every connected peer, so that they can
+     * navigate it without asking the routing server themselves.
+     * @return the number of peers the route was queued for.
+     */
+    public int sendRouteShare(byte[] encodedRoute) {
+        byte[] frame = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_ROUTE_SHARE, encodedRoute);
+        int peers = 0;
+        for (PeerConnection connection : connections.values()) {
+            if (connection.write(frame)) {
+                peers++;
+            }
+        }
+        return peers;
+    }
+
+    private PeerConnection findConnectionByUid(String uid) {
+        for (PeerConnection connection : connections.values()) {
+            if (uid.equals(connection.peerUid)) {
+                return connection;
+            }
         }
+        return null;
+    }
+
+    /**
+     * Starts sending heartbeats for the given user to every connected device. Calling it again
+     * replaces the user id and restarts the schedule.
+     */
+    public synchronized void startHeartbeat(String userId) {
+        heartbeatUserId = userId;
+        scheduleHeartbeat();
     }
 
-    public void sendChatMessage(String chatMessage) {
-        if (connectedThread != null) {
-            String message = "CHAT:" + chatMessage;
-            connectedThread.write(message.getBytes());
+    public synchronized void stopHeartbeat() {
+        heartbeatUserId = null;
+        if (heartbeatFuture != null) {
+            heartbeatFuture.cancel(false);
+            heartbeatFuture = null;
         }
     }
 
-    public void sendHeartbeat(String userId) {
-        if (connectedThread != null) {
-            String message = "HEARTBEAT:" + userId;
-            connectedThread.write(message.getBytes());
+    private synchronized void scheduleHeartbeat() {
+        if (heartbeatFuture != null) {
+            heartbeatFuture.cancel(false);
+            heartbeatFuture = null;
+        }
+        if (heartbeatUserId == null) {
+            return;
+        }
+        try {
+            heartbeatFuture = scheduler.schedule(this::heartbeatTick, getHeartbeatIntervalMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Service is shutting down
+        }
+    }
+
+    /**
+     * Sends a heartbeat on each link that has not carried any other frame during the last
+     * interval; any frame we send already refreshes our presence on the other side.
+     */
+    private void heartbeatTick() {
+        String userId = heartbeatUserId;
+        if (userId == null) {
+            return;
+        }
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(getHeartbeatIntervalMillis());
+        long now = System.nanoTime();
+        byte[] frame = null;
+        for (PeerConnection connection : connections.values()) {
+            if (!connection.frameWriter.isIdle(now, intervalNanos)) {
+                heartbeatsSaved.incrementAndGet();
+                continue;
+            }
+            if (frame == null) {
+                frame = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_HEARTBEAT, userId);
+            }
+            connection.write(frame);
+            heartbeatsSent.incrementAndGet();
+        }
+        scheduleHeartbeat();
+    }
+
+    private void broadcast(byte[] frame) {
+        for (PeerConnection connection : connections.values()) {
+            connection.write(frame);
+        }
+    }
+
+    private void sendToPeer(String deviceAddress, byte[] frame) {
+        PeerConnection connection = connections.get(deviceAddress);
+        if (connection != null) {
+            connection.write(frame);
+        } else {
+            Log.w(TAG, "Not connected to " + deviceAddress + ", frame dropped");
         }
     }
 
@@ -389,13 +708,74 @@ public class BluetoothService extends Service {
     // =============================================================================================
 
     public int getNearbyFriendCount() {
-        int count = 0;
-        for (Boolean online : friendOnlineStatus.values()) {
-            if (online != null && online) {
-                count++;
-            }
+        return presenceTable.getOnlineCount();
+    }
+
+    public boolean isFriendOnline(String userId) {
+        return presenceTable.isOnline(userId);
+    }
+
+    /**
+     * Registers a listener for batched presence changes. Callbacks arrive on the main thread.
+     */
+    public void addPresenceListener(PeerPresenceTable.PresenceListener listener) {
+        presenceListeners.add(listener);
+    }
+
+    public void removePresenceListener(PeerPresenceTable.PresenceListener listener) {
+        presenceListeners.remove(listener);
+    }
+
+    public long getHeartbeatIntervalMillis() {
+        return screenOn ? HEARTBEAT_INTERVAL_SCREEN_ON_MS : HEARTBEAT_INTERVAL_SCREEN_OFF_MS;
+    }
+
+    public long getHeartbeatsSent() {
+        return heartbeatsSent.get();
+    }
+
+    /**
+     * Heartbeats skipped because the link had carried other traffic within the interval.
+     */
+    public long getHeartbeatsSaved() {
+        return heartbeatsSaved.get();
+    }
+
+    public long getInboundMessageCount(byte type) {
+        return dispatcher.getMessageCount(type);
+    }
+
+    /**
+     * Handling latency of one frame type as log2 buckets in microseconds.
+     */
+    public long[] getInboundLatencyHistogram(byte type) {
+        return dispatcher.getLatencyHistogram(type);
+    }
+
+    public int getConnectedPeerCount() {
+        return connections.size();
+    }
+
+    /**
+     * Number of frames waiting to be written, summed over all connections.
+     */
+    public int getOutboundQueueDepth() {
+        int depth = 0;
+        for (PeerConnection connection : connections.values()) {
+            depth += connection.frameWriter.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Outbound throughput over the last second, summed over all connections.
+     */
+    public long getOutboundBytesPerSecond() {
+        long bytesPerSecond = 0;
+        for (PeerConnection connection : connections.values()) {
+            bytesPerSecond += connection.frameWriter.getBytesPerSecond();
         }
-        return count;
+        return bytesPerSecond;
     }
 
     // =============================================================================================
@@ -436,6 +816,21 @@ public class BluetoothService extends Service {
         }
     }
 
+    private void initializeScreenStateReceiver() {
+        screenStateReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                boolean on = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+                if (on != screenOn) {
+                    screenOn = on;
+                    Log.d(TAG, "Screen " + (on ? "on" : "off") + ", heartbeat interval now " + getHeartbeatIntervalMillis() + " ms");
+                    // Pick up the new interval right away instead of after the current one
+                    scheduleHeartbeat();
+                }
+            }
+        };
+    }
+
     private void initializePairingReceiver() {
         pairingReceiver = new BroadcastReceiver() {
             @Override
@@ -490,44 +885,58 @@ public class BluetoothService extends Service {
         };
     }
 
-    private void processMessage(String message) {
-        Log.d(TAG, "Processing message: " + message);
+    /**
+     * Handles a single decoded frame. The payload is only decoded into a String for the
+     * frame types that need it, and only after the type has been matched.
+     */
+    private void processFrame(PeerConnection source, byte type, byte[] buffer, int offset, int length) {
+        // Any frame from a known peer proves it is still nearby
+        String peerUid = source.peerUid;
+        if (peerUid != null) {
+            presenceTable.markSeen(peerUid);
+        }
+
+        if (!dispatcher.dispatch(source.address, type, buffer, offset, length)) {
+            Log.w(TAG, "Ignoring unhandled frame type " + type);
+        }
+    }
 
-        if (message.startsWith("FRIEND_REQUEST:")) {
-            String[] parts = message.split(":", 3);
-            if (parts.length == 3) {
-                handler.post(() -> {
-                    if (discoveryListener != null) {
-                        discoveryListener.onFriendRequestReceived(parts[1], parts[2]);
-                    }
-                });
-            }
-        } else if (message.startsWith("FRIEND_ACCEPT:")) {
-            String[] parts = message.split(":", 2);
-            if (parts.length == 2) {
-                String userId = parts[1];
-                pairedFriends.add(userId);
-                friendOnlineStatus.put(userId, true);
-                handler.post(() -> {
-                    if (discoveryListener != null) {
-                        discoveryListener.onFriendPaired(userId, true);
-                    }
-                });
+    /**
+     * Bookkeeping the service itself does for inbound frames. These run directly on the
+     * connection's reader thread, before any UI handler sees the frame.
+     */
+    private void registerInternalHandlers() {
+        Executor direct = Runnable::run;
+        dispatcher.register(BluetoothFrameCodec.TYPE_HEARTBEAT, (address, payload) ->
+                presenceTable.markSeen(BluetoothFrameCodec.decodeText(payload, 0, payload.length)), direct);
+        dispatcher.register(BluetoothFrameCodec.TYPE_FRIEND_ACCEPT, (address, payload) -> {
+            String userId = BluetoothFrameCodec.decodeText(payload, 0, payload.length);
+            pairedFriends.add(userId);
+            presenceTable.markSeen(userId);
+        }, direct);
+        dispatcher.register(BluetoothFrameCodec.TYPE_UID_EXCHANGE, (address, payload) -> {
+            String uid = BluetoothFrameCodec.decodeText(payload, 0, payload.length);
+            PeerConnection connection = connections.get(address);
+            if (connection != null) {
+                connection.peerUid = uid;
             }
-        } else if (message.startsWith("HEARTBEAT:")) {
-            String[] parts = message.split(":", 2);
-            if (parts.length == 2) {
-                String userId = parts[1];
-                friendOnlineStatus.put(userId, true);
+            presenceTable.markSeen(uid);
+        }, direct);
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, (address, payload) -> {
+            ChatMessage message;
+            try {
+                message = BluetoothFrameCodec.decodeChat(payload, 0, payload.length);
+            } catch (IOException e) {
+                Log.e(TAG, "Malformed chat frame from " + address, e);
+                return;
             }
-        } else if (message.startsWith("UID_EXCHANGE:")) {
-            String uid = message.substring(13);
-            handler.post(() -> {
-                if (discoveryListener != null) {
-                    discoveryListener.onPartnerUIDReceived(uid);
-                }
-            });
-        }
+            // Persist first so the message survives even if no chat screen is open
+            FirebaseUser currentUser = FirebaseAuth.getInstance().getCurrentUser();
+            if (currentUser != null) {
+                String chatId = ChatActivity.chatIdFor(currentUser.getUid(), message.getSenderId());
+                ChatSyncBatcher.getInstance(this).submit(chatId, message);
+            }
+        }, direct);
     }
 
     private void notifyError(String message) {
@@ -570,22 +979,33 @@ public class BluetoothService extends Service {
         public void run() {
             if (serverSocket == null) {
                 Log.e(TAG, "Server socket is null, cannot accept connections.");
+                synchronized (BluetoothService.this) {
+                    if (acceptThread == this) {
+                        acceptThread = null;
+                    }
+                }
                 return;
             }
-            BluetoothSocket socket = null;
             Log.d(TAG, "Server socket listening for connections...");
-            try {
-                // This is a blocking call and will only return on a successful connection or an exception
-                socket = serverSocket.accept();
-            } catch (IOException e) {
-                Log.d(TAG, "Socket accept() failed or was cancelled.", e);
-                return;
-            }
+            // Keep accepting so that several friends can connect to this device
+            while (true) {
+                BluetoothSocket socket;
+                try {
+                    // This is a blocking call and will only return on a successful connection or an exception
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    Log.d(TAG, "Socket accept() failed or was cancelled.", e);
+                    break;
+                }
 
-            // A connection was accepted
-            if (socket != null) {
-                synchronized (BluetoothService.this) {
-                    manageConnectedSocket(socket, socket.getRemoteDevice());
+                // A connection was accepted
+                if (socket != null) {
+                    manageConnectedSocket(socket, socket.getRemoteDevice(), false);
+                }
+            }
+            synchronized (BluetoothService.this) {
+                if (acceptThread == this) {
+                    acceptThread = null;
                 }
             }
         }
@@ -602,70 +1022,132 @@ public class BluetoothService extends Service {
         }
     }
 
+    /**
+     * The ways of opening an RFCOMM socket to a device, in the order they are tried by default.
+     * Devices differ in which one works, so the last successful one is remembered per address.
+     */
+    private enum SocketStrategy {
+        INSECURE,
+        SECURE,
+        // Reflective createRfcommSocket(1) on channel 1 (common for SPP)
+        REFLECTIVE;
+
+        /**
+         * All strategies, starting with the preferred one if there is one.
+         */
+        static SocketStrategy[] orderedFrom(SocketStrategy preferred) {
+            SocketStrategy[] all = values();
+            if (preferred == null || preferred == all[0]) {
+                return all;
+            }
+            SocketStrategy[] ordered = new SocketStrategy[all.length];
+            ordered[0] = preferred;
+            int i = 1;
+            for (SocketStrategy strategy : all) {
+                if (strategy != preferred) {
+                    ordered[i++] = strategy;
+                }
+            }
+            return ordered;
+        }
+    }
+
+    /**
+     * Backoff state of one dropped link. Only outgoing links are re-dialed.
+     */
+    private static final class ReconnectState {
+        final BluetoothDevice device;
+        final long lostAtMillis;
+        // UID the peer sent on the dropped link, or null if it never did
+        final String peerUid;
+        int attempt;
+        ScheduledFuture<?> future;
+
+        ReconnectState(BluetoothDevice device, long lostAtMillis, String peerUid) {
+            this.device = device;
+            this.lostAtMillis = lostAtMillis;
+            this.peerUid = peerUid;
+        }
+
+        void cancel() {
+            ScheduledFuture<?> pending = future;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+        }
+    }
+
     /**
      * This thread runs while attempting to make an outgoing connection
      * with a device. It runs straight through; the connection either
      * succeeds or fails.
      */
     private class ConnectThread extends Thread {
-        private BluetoothSocket socket;
         private final BluetoothDevice device;
+        private volatile BluetoothSocket socket;
+        private volatile boolean cancelled;
 
         public ConnectThread(BluetoothDevice device) {
             this.device = device;
-            BluetoothSocket tmp = null;
-
-            try {
-                if (ActivityCompat.checkSelfPermission(BluetoothService.this, Manifest.permission.BLUETOOTH_CONNECT)
-                        != PackageManager.PERMISSION_GRANTED) {
-                    Log.e(TAG, "BLUETOOTH_CONNECT permission not granted for ConnectThread.");
-                    tmp = null;
-                } else {
-                    // Try insecure connection first (most compatible)
-                    tmp = device.createInsecureRfcommSocketToServiceRecord(MY_UUID);
-                    Log.d(TAG, "Created insecure client socket.");
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Insecure socket creation failed, trying secure", e);
-                try {
-                    if (ActivityCompat.checkSelfPermission(BluetoothService.this, Manifest.permission.BLUETOOTH_CONNECT)
-                            == PackageManager.PERMISSION_GRANTED) {
-                        tmp = device.createRfcommSocketToServiceRecord(MY_UUID);
-                        Log.d(TAG, "Created secure client socket as fallback.");
-                    }
-                } catch (IOException e2) {
-                    Log.e(TAG, "Secure socket creation also failed", e2);
-                    tmp = null;
-                }
-            }
-            socket = tmp;
         }
 
         public void run() {
-            if (socket == null) {
-                Log.e(TAG, "Socket is null, cannot connect.");
-                connectionFailed();
+            if (ActivityCompat.checkSelfPermission(BluetoothService.this, Manifest.permission.BLUETOOTH_CONNECT)
+                    != PackageManager.PERMISSION_GRANTED) {
+                Log.e(TAG, "BLUETOOTH_CONNECT permission not granted for ConnectThread.");
+                connectionFailed(device);
                 return;
             }
 
             // Always cancel discovery because it will slow down a connection
             stopDiscovery();
 
-            // First attempt with the created socket
-            if (attemptConnection(socket)) {
-                return; // Success
+            String address = device.getAddress();
+            for (SocketStrategy strategy : SocketStrategy.orderedFrom(preferredStrategies.get(address))) {
+                if (cancelled) {
+                    return;
+                }
+                BluetoothSocket candidate = createSocket(strategy);
+                if (candidate == null) {
+                    continue;
+                }
+                socket = candidate;
+                long start = SystemClock.elapsedRealtime();
+                if (attemptConnection(candidate)) {
+                    preferredStrategies.put(address, strategy);
+                    Log.d(TAG, "Connected to " + address + " with " + strategy + " socket in "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+                    return; // Success
+                }
+                Log.d(TAG, strategy + " connection to " + address + " failed after "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
             }
 
-            // If first attempt failed, try reflection method as fallback
-            Log.d(TAG, "Standard connection failed, trying reflection method");
-            BluetoothSocket fallbackSocket = createFallbackSocket();
-            if (fallbackSocket != null && attemptConnection(fallbackSocket)) {
-                socket = fallbackSocket; // Update socket reference
-                return; // Success
+            // All connection attempts failed
+            if (!cancelled) {
+                connectionFailed(device);
             }
+        }
 
-            // All connection attempts failed
-            connectionFailed();
+        private BluetoothSocket createSocket(SocketStrategy strategy) {
+            try {
+                switch (strategy) {
+                    case INSECURE:
+                        return device.createInsecureRfcommSocketToServiceRecord(MY_UUID);
+                    case SECURE:
+                        return device.createRfcommSocketToServiceRecord(MY_UUID);
+                    case REFLECTIVE:
+                    default:
+                        Method method = device.getClass().getMethod("createRfcommSocket", int.class);
+                        return (BluetoothSocket) method.invoke(device, 1);
+                }
+            } catch (SecurityException e) {
+                Log.e(TAG, "Missing permission for " + strategy + " socket", e);
+                return null;
+            } catch (Exception e) {
+                Log.e(TAG, strategy + " socket creation failed", e);
+                return null;
+            }
         }
 
         private boolean attemptConnection(BluetoothSocket socketToTry) {
@@ -674,13 +1156,8 @@ public class BluetoothService extends Service {
                 socketToTry.connect();
                 Log.d(TAG, "Connection successful!");
 
-                // Reset the ConnectThread because we're done
-                synchronized (BluetoothService.this) {
-                    connectThread = null;
-                }
-
-                // Start the connected thread
-                manageConnectedSocket(socketToTry, device);
+                // Hand the socket over to the connection pool
+                manageConnectedSocket(socketToTry, device, true);
                 return true;
             } catch (IOException connectException) {
                 Log.e(TAG, "Connection attempt failed: " + connectException.getMessage());
@@ -693,23 +1170,12 @@ public class BluetoothService extends Service {
             }
         }
 
-        private BluetoothSocket createFallbackSocket() {
-            try {
-                // Use reflection to create socket on channel 1 (common for SPP)
-                Method method = device.getClass().getMethod("createRfcommSocket", int.class);
-                BluetoothSocket fallbackSocket = (BluetoothSocket) method.invoke(device, 1);
-                Log.d(TAG, "Created fallback socket using reflection");
-                return fallbackSocket;
-            } catch (Exception e) {
-                Log.e(TAG, "Reflection socket creation failed", e);
-                return null;
-            }
-        }
-
         public void cancel() {
+            cancelled = true;
             try {
-                if (socket != null) {
-                    socket.close();
+                BluetoothSocket current = socket;
+                if (current != null) {
+                    current.close();
                 }
             } catch (IOException e) {
                 Log.e(TAG, "Could not close the client socket", e);
@@ -718,15 +1184,27 @@ public class BluetoothService extends Service {
     }
 
     /**
-     * Handles data transmission over an established connection.
+     * One established link to a remote device. Incoming frames are read by a task on the shared
+     * I/O pool; outgoing frames are handed to a {@link BluetoothFrameWriter} running as a second
+     * pool task, so that callers never block on the socket.
      */
-    private class ConnectedThread extends Thread {
+    private class PeerConnection {
         private final BluetoothSocket socket;
+        private final BluetoothDevice device;
+        private final String address;
         private final InputStream inputStream;
-        private final OutputStream outputStream;
-
-        public ConnectedThread(BluetoothSocket socket) {
+        private final BluetoothFrameWriter frameWriter;
+        private final boolean outgoing;
+        // UID of the user on the other end, known after UID_EXCHANGE
+        private volatile String peerUid;
+        // Set when we close the link ourselves, so that it is not reported as lost
+        private volatile boolean closed;
+
+        PeerConnection(BluetoothSocket socket, BluetoothDevice device, boolean outgoing) {
             this.socket = socket;
+            this.device = device;
+            this.outgoing = outgoing;
+            this.address = device.getAddress();
             InputStream tmpIn = null;
             OutputStream tmpOut = null;
             try {
@@ -736,41 +1214,57 @@ public class BluetoothService extends Service {
                 Log.e(TAG, "Error getting streams from socket", e);
             }
             inputStream = tmpIn;
-            outputStream = tmpOut;
-            Log.d(TAG, "ConnectedThread created.");
+            frameWriter = new BluetoothFrameWriter(tmpOut);
+            Log.d(TAG, "PeerConnection created for " + address);
         }
 
-        public void run() {
-            byte[] buffer = new byte[1024];
-            int bytes;
-            while (true) {
-                try {
-                    bytes = inputStream.read(buffer);
-                    String message = new String(buffer, 0, bytes);
-                    processMessage(message);
-                } catch (IOException e) {
-                    Log.d(TAG, "Input stream was disconnected", e);
-                    connectionLost();
-                    break;
-                }
+        void start() {
+            ioExecutor.execute(frameWriter);
+            try {
+                ioExecutor.execute(this::readLoop);
+            } catch (RejectedExecutionException e) {
+                frameWriter.close();
+                throw e;
             }
         }
 
-        public void write(byte[] bytes) {
+        private void readLoop() {
+            BluetoothFrameCodec.Decoder decoder = new BluetoothFrameCodec.Decoder(inputStream);
             try {
-                outputStream.write(bytes);
-                Log.d(TAG, "Message sent: " + new String(bytes));
+                while (decoder.readFrames((type, buffer, offset, length) ->
+                        processFrame(this, type, buffer, offset, length)) >= 0) {
+                    // Keep reading until the stream ends
+                }
+                Log.d(TAG, "Input stream reached end of stream for " + address);
             } catch (IOException e) {
-                Log.e(TAG, "Error writing to output stream", e);
+                Log.d(TAG, "Input stream was disconnected for " + address, e);
+            }
+            frameWriter.close();
+            if (!closed) {
+                connectionLost(this);
             }
         }
 
-        public void cancel() {
+        /**
+         * Queues a frame for sending. Safe to call from any thread, including the main thread.
+         * @return false if the frame was dropped because the queue is full or the link closed.
+         */
+        boolean write(byte[] frame) {
+            if (!frameWriter.enqueue(frame)) {
+                Log.w(TAG, "Outbound queue full or closed for " + address + ", dropped frame (" + frame.length + " bytes)");
+                return false;
+            }
+            return true;
+        }
+
+        void cancel() {
+            closed = true;
+            frameWriter.close();
             try {
                 if (socket != null) {
                     socket.close();
                 }
-                Log.d(TAG, "ConnectedThread socket closed");
+                Log.d(TAG, "PeerConnection socket closed for " + address);
             } catch (IOException e) {
                 Log.e(TAG, "Could not close the connect socket", e);
             }
@@ -28,8 +28,11 @@ import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class ChatActivity extends AppCompatActivity {
 
@@ -54,6 +57,9 @@ public class ChatActivity extends AppCompatActivity {
     // Chat Data
     private ChatAdapter messageListAdapter;
     private List<ChatMessage> messages = new ArrayList<>();
+    // Ids of messages already shown; the same message can arrive over Bluetooth, from the local store and from Firebase
+    private final Set<String> displayedMessageIds = new HashSet<>();
+    private ChatSyncBatcher chatSync;
     private String currentUserUid;
     private String partnerUid;
     private String chatId;
@@ -90,6 +96,15 @@ public class ChatActivity extends AppCompatActivity {
         loadUserNames();
         loadPartnerInfo();
 
+        // Show what we have on the device right away, even without signal
+        chatSync = ChatSyncBatcher.getInstance(this);
+        chatSync.loadHistory(chatId, history -> {
+            if (isDestroyed()) return;
+            for (ChatMessage message : history) {
+                displayMessage(message);
+            }
+        });
+
         sendButton.setOnClickListener(v -> {
             String messageText = messageInput.getText().toString().trim();
             if (!messageText.isEmpty()) {
@@ -100,11 +115,15 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void generateChatId() {
+        chatId = chatIdFor(currentUserUid, partnerUid);
+    }
+
+    static String chatIdFor(String uidA, String uidB) {
         // Sort UIDs alphabetically to ensure both users get the same chat ID
-        if (currentUserUid.compareTo(partnerUid) > 0) {
-            chatId = currentUserUid + "_" + partnerUid;
+        if (uidA.compareTo(uidB) > 0) {
+            return uidA + "_" + uidB;
         } else {
-            chatId = partnerUid + "_" + currentUserUid;
+            return uidB + "_" + uidA;
         }
     }
 
@@ -184,13 +203,35 @@ public class ChatActivity extends AppCompatActivity {
                 currentUserName != null ? currentUserName : "You"
         );
 
-        // 1. Push the message to Firebase Realtime Database
-        messagesDbRef.push().setValue(chatMessage);
+        // The push key is generated locally, so the message has its final id even offline
+        chatMessage.setMessageId(messagesDbRef.push().getKey());
 
-        // 2. Send the message over Bluetooth for instant delivery (offline support)
+        // 1. Send the message over Bluetooth for instant delivery when the partner is nearby
         if (isServiceBound && bluetoothService != null) {
-            bluetoothService.sendChatMessage(messageText);
+            bluetoothService.sendChatMessage(partnerUid, chatMessage);
         }
+
+        // 2. Store it locally; it is uploaded to Firebase in the background once there is signal
+        chatSync.submit(chatId, chatMessage);
+        displayMessage(chatMessage);
+    }
+
+    private void displayMessage(ChatMessage chatMessage) {
+        if (chatMessage.getMessageId() != null && !displayedMessageIds.add(chatMessage.getMessageId())) {
+            return; // Already shown
+        }
+        // Set sender name if not available
+        if (chatMessage.getSenderName() == null) {
+            if (chatMessage.getSenderId().equals(currentUserUid)) {
+                chatMessage.setSenderName(currentUserName != null ? currentUserName : "You");
+            } else {
+                chatMessage.setSenderName(partnerName != null ? partnerName : "Adventure Buddy");
+            }
+        }
+
+        // Add the message to the adapter and scroll to the bottom
+        messageListAdapter.add(chatMessage);
+        chatRecyclerView.scrollToPosition(messageListAdapter.getItemCount() - 1);
     }
 
     private void attachDatabaseReadListener() {
@@ -201,18 +242,12 @@ public class ChatActivity extends AppCompatActivity {
                     // A new message has been added to the database
                     ChatMessage chatMessage = snapshot.getValue(ChatMessage.class);
                     if (chatMessage != null) {
-                        // Set sender name if not available
-                        if (chatMessage.getSenderName() == null) {
-                            if (chatMessage.getSenderId().equals(currentUserUid)) {
-                                chatMessage.setSenderName(currentUserName != null ? currentUserName : "You");
-                            } else {
-                                chatMessage.setSenderName(partnerName != null ? partnerName : "Adventure Buddy");
-                            }
+                        // Older messages were stored without an id; their key is the push id
+                        if (chatMessage.getMessageId() == null) {
+                            chatMessage.setMessageId(snapshot.getKey());
                         }
-
-                        // Add the message to the adapter and scroll to the bottom
-                        messageListAdapter.add(chatMessage);
-                        chatRecyclerView.scrollToPosition(messageListAdapter.getItemCount() - 1);
+                        chatSync.recordSynced(chatId, chatMessage);
+                        displayMessage(chatMessage);
                     }
                 }
 
@@ -240,12 +275,27 @@ public class ChatActivity extends AppCompatActivity {
 
     // --- Service Binding Logic ---
 
+    // Chat messages that arrived over Bluetooth; the service has already stored them locally
+    private final BluetoothMessageDispatcher.MessageHandler chatMessageHandler = (deviceAddress, payload) -> {
+        ChatMessage message;
+        try {
+            message = BluetoothFrameCodec.decodeChat(payload, 0, payload.length);
+        } catch (IOException e) {
+            return; // Already reported by the service
+        }
+        // Only messages from the partner of this conversation
+        if (partnerUid.equals(message.getSenderId())) {
+            displayMessage(message);
+        }
+    };
+
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName name, IBinder service) {
             BluetoothService.LocalBinder binder = (BluetoothService.LocalBinder) service;
             bluetoothService = binder.getService();
             isServiceBound = true;
+            bluetoothService.registerMessageHandler(BluetoothFrameCodec.TYPE_CHAT, chatMessageHandler);
         }
 
         @Override
@@ -269,6 +319,7 @@ public class ChatActivity extends AppCompatActivity {
         super.onStop();
         // Unbind from the service
         if (isServiceBound) {
+            bluetoothService.unregisterMessageHandler(BluetoothFrameCodec.TYPE_CHAT, chatMessageHandler);
             unbindService(serviceConnection);
             isServiceBound = false;
         }
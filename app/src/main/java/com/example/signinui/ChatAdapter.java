@@ -86,10 +86,15 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.MessageViewHol
         return messageList.size();
     }
 
-    // Helper method to add a message and update the RecyclerView
+    // Helper method to add a message in timestamp order and update the RecyclerView.
+    // Messages from Bluetooth, the local store and Firebase can arrive out of order.
     public void add(ChatMessage message) {
-        messageList.add(message);
-        notifyItemInserted(messageList.size() - 1);
+        int position = messageList.size();
+        while (position > 0 && messageList.get(position - 1).getTimestamp() > message.getTimestamp()) {
+            position--;
+        }
+        messageList.add(position, message);
+        notifyItemInserted(position);
     }
 
     // Format timestamp to readable format
@@ -0,0 +1,148 @@
+package com.example.signinui;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.signinui.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * On-device copy of every chat message, written before anything goes to the network.
+ *
+ * Messages are keyed by their message id, so the same message arriving over Bluetooth and again
+ * from Firebase is stored once. Rows keep a synced flag until Firebase has acknowledged them.
+ * Not thread-safe by itself; {@link ChatSyncBatcher} serializes all access on its own thread.
+ */
+final class ChatLocalStore extends SQLiteOpenHelper {
+    private static final String DATABASE_NAME = "chat_local.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_MESSAGES = "messages";
+    private static final String COL_MESSAGE_ID = "message_id";
+    private static final String COL_CHAT_ID = "chat_id";
+    private static final String COL_SENDER_ID = "sender_id";
+    private static final String COL_SENDER_NAME = "sender_name";
+    private static final String COL_TEXT = "text";
+    private static final String COL_TIMESTAMP = "timestamp";
+    private static final String COL_SYNCED = "synced";
+
+    /**
+     * A message waiting to be uploaded, together with the chat it belongs to.
+     */
+    static final class PendingMessage {
+        final String chatId;
+        final ChatMessage message;
+
+        PendingMessage(String chatId, ChatMessage message) {
+            this.chatId = chatId;
+            this.message = message;
+        }
+    }
+
+    ChatLocalStore(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_MESSAGES + " ("
+                + COL_MESSAGE_ID + " TEXT PRIMARY KEY, "
+                + COL_CHAT_ID + " TEXT NOT NULL, "
+                + COL_SENDER_ID + " TEXT NOT NULL, "
+                + COL_SENDER_NAME + " TEXT, "
+                + COL_TEXT + " TEXT NOT NULL, "
+                + COL_TIMESTAMP + " INTEGER NOT NULL, "
+                + COL_SYNCED + " INTEGER NOT NULL DEFAULT 0)");
+        db.execSQL("CREATE INDEX idx_messages_chat ON " + TABLE_MESSAGES
+                + " (" + COL_CHAT_ID + ", " + COL_TIMESTAMP + ")");
+        // Partial index: the sync query only ever looks at the (few) unsynced rows
+        db.execSQL("CREATE INDEX idx_messages_unsynced ON " + TABLE_MESSAGES
+                + " (" + COL_TIMESTAMP + ") WHERE " + COL_SYNCED + " = 0");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only one version so far
+    }
+
+    /**
+     * Stores a message unless one with the same id already exists.
+     * @return true if the message was new.
+     */
+    boolean insert(String chatId, ChatMessage message, boolean synced) {
+        ContentValues values = new ContentValues();
+        values.put(COL_MESSAGE_ID, message.getMessageId());
+        values.put(COL_CHAT_ID, chatId);
+        values.put(COL_SENDER_ID, message.getSenderId());
+        values.put(COL_SENDER_NAME, message.getSenderName());
+        values.put(COL_TEXT, message.getMessageText());
+        values.put(COL_TIMESTAMP, message.getTimestamp());
+        values.put(COL_SYNCED, synced ? 1 : 0);
+        return getWritableDatabase().insertWithOnConflict(TABLE_MESSAGES, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE) != -1;
+    }
+
+    /**
+     * Most recent messages of a chat, oldest first.
+     */
+    List<ChatMessage> loadMessages(String chatId, int limit) {
+        List<ChatMessage> messages = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES,
+                new String[]{COL_MESSAGE_ID, COL_SENDER_ID, COL_SENDER_NAME, COL_TEXT, COL_TIMESTAMP},
+                COL_CHAT_ID + " = ?", new String[]{chatId},
+                null, null, COL_TIMESTAMP + " DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                messages.add(readMessage(cursor));
+            }
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    /**
+     * Oldest messages that Firebase has not acknowledged yet, across all chats.
+     */
+    List<PendingMessage> loadUnsynced(int limit) {
+        List<PendingMessage> pending = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_MESSAGES,
+                new String[]{COL_MESSAGE_ID, COL_SENDER_ID, COL_SENDER_NAME, COL_TEXT, COL_TIMESTAMP, COL_CHAT_ID},
+                COL_SYNCED + " = 0", null,
+                null, null, COL_TIMESTAMP, String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                pending.add(new PendingMessage(cursor.getString(5), readMessage(cursor)));
+            }
+        }
+        return pending;
+    }
+
+    void markSynced(Collection<String> messageIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_MESSAGES
+                    + " SET " + COL_SYNCED + " = 1 WHERE " + COL_MESSAGE_ID + " = ?");
+            for (String messageId : messageIds) {
+                statement.bindString(1, messageId);
+                statement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ChatMessage readMessage(Cursor cursor) {
+        ChatMessage message = new ChatMessage(cursor.getString(1), cursor.getString(3),
+                cursor.getLong(4), cursor.getString(2));
+        message.setMessageId(cursor.getString(0));
+        return message;
+    }
+}
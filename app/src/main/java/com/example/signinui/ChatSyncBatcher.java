@@ -0,0 +1,149 @@
+package com.example.signinui;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.signinui.model.ChatMessage;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local-first chat persistence. Messages are written to {@link ChatLocalStore} immediately and
+ * uploaded to Firebase ({@code chats/{chatId}/messages/{messageId}}) in batches behind the scenes.
+ *
+ * Each batch is one {@code updateChildren} call per chat, keyed by message id, so uploading a
+ * message twice (from both phones, or after a retry) leaves a single copy. A row is only marked
+ * synced once Firebase acknowledges the write, which without signal can take hours.
+ */
+final class ChatSyncBatcher {
+    private static final String TAG = "ChatSyncBatcher";
+
+    // Collects messages typed in quick succession into one upload
+    private static final long FLUSH_DELAY_MS = 2_000;
+    private static final long RETRY_DELAY_MS = 30_000;
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int HISTORY_LIMIT = 200;
+
+    interface HistoryCallback {
+        void onHistoryLoaded(List<ChatMessage> messages);
+    }
+
+    private static ChatSyncBatcher instance;
+
+    private final ChatLocalStore store;
+    // All store access and batching state live on this single thread
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "ChatSync"));
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Set<String> inFlight = new HashSet<>();
+    private boolean flushScheduled;
+
+    static synchronized ChatSyncBatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new ChatSyncBatcher(new ChatLocalStore(context));
+        }
+        return instance;
+    }
+
+    private ChatSyncBatcher(ChatLocalStore store) {
+        this.store = store;
+        // Upload anything left over from a previous session
+        executor.execute(() -> scheduleFlush(0));
+    }
+
+    /**
+     * Stores a message that has not reached Firebase yet and schedules its upload.
+     */
+    void submit(String chatId, ChatMessage message) {
+        executor.execute(() -> {
+            if (store.insert(chatId, message, false)) {
+                scheduleFlush(FLUSH_DELAY_MS);
+            }
+        });
+    }
+
+    /**
+     * Records a message that came from Firebase, so that it is available offline.
+     */
+    void recordSynced(String chatId, ChatMessage message) {
+        executor.execute(() -> {
+            if (!store.insert(chatId, message, true)) {
+                // We already had it locally; the server copy confirms the upload
+                List<String> ids = new ArrayList<>(1);
+                ids.add(message.getMessageId());
+                store.markSynced(ids);
+            }
+        });
+    }
+
+    /**
+     * Loads the locally stored history of a chat. The callback runs on the main thread.
+     */
+    void loadHistory(String chatId, HistoryCallback callback) {
+        executor.execute(() -> {
+            List<ChatMessage> messages = store.loadMessages(chatId, HISTORY_LIMIT);
+            mainHandler.post(() -> callback.onHistoryLoaded(messages));
+        });
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        executor.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        flushScheduled = false;
+        List<ChatLocalStore.PendingMessage> pending = store.loadUnsynced(MAX_BATCH_SIZE);
+
+        Map<String, Map<String, Object>> updatesByChat = new HashMap<>();
+        for (ChatLocalStore.PendingMessage item : pending) {
+            String messageId = item.message.getMessageId();
+            if (inFlight.add(messageId)) {
+                Map<String, Object> updates = updatesByChat.get(item.chatId);
+                if (updates == null) {
+                    updates = new HashMap<>();
+                    updatesByChat.put(item.chatId, updates);
+                }
+                updates.put(messageId, item.message);
+            }
+        }
+        if (updatesByChat.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, Map<String, Object>> entry : updatesByChat.entrySet()) {
+            List<String> messageIds = new ArrayList<>(entry.getValue().keySet());
+            Log.d(TAG, "Uploading " + messageIds.size() + " message(s) for chat " + entry.getKey());
+            FirebaseDatabase.getInstance().getReference()
+                    .child("chats").child(entry.getKey()).child("messages")
+                    .updateChildren(entry.getValue())
+                    .addOnCompleteListener(task -> executor.execute(() -> {
+                        inFlight.removeAll(messageIds);
+                        if (task.isSuccessful()) {
+                            store.markSynced(messageIds);
+                            // There may be more than one batch waiting
+                            if (pending.size() == MAX_BATCH_SIZE) {
+                                scheduleFlush(0);
+                            }
+                        } else {
+                            Log.w(TAG, "Chat upload failed, retrying later", task.getException());
+                            scheduleFlush(RETRY_DELAY_MS);
+                        }
+                    }));
+        }
+    }
+}
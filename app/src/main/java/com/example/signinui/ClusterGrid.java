@@ -0,0 +1,124 @@
+package com.example.signinui;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Groups points into clusters for one zoom level of a Web Mercator map.
+ *
+ * Points in the same {@value #CELL_PIXELS}-pixel cell of the world map at that zoom form one
+ * cluster. Cells line up across zoom levels: each cell is exactly four cells of the level above.
+ * So a coarser level is built by merging the clusters of a finer one, which costs time in the
+ * number of clusters rather than the number of points. A map can therefore build the finest level
+ * once and derive any other level when the user zooms to it.
+ *
+ * Contains no Android code. A grid is not modified once built, so it can be handed from a
+ * background thread to the UI thread.
+ */
+final class ClusterGrid {
+    static final int CELL_PIXELS = 64;
+    // Cells per tile edge at any zoom; 256-pixel tiles
+    private static final int CELLS_PER_TILE_SHIFT = 2;
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    final int zoom;
+    // Only grows while the grid is being built
+    private int size;
+    private final int[] cellX;
+    private final int[] cellY;
+    private final int[] counts;
+    // Some member of each cluster; for a single point cluster, that point
+    private final int[] firstMembers;
+    private final double[] latitudeSums;
+    private final double[] longitudeSums;
+
+    private ClusterGrid(int zoom, int capacity) {
+        this.zoom = zoom;
+        this.cellX = new int[capacity];
+        this.cellY = new int[capacity];
+        this.counts = new int[capacity];
+        this.firstMembers = new int[capacity];
+        this.latitudeSums = new double[capacity];
+        this.longitudeSums = new double[capacity];
+    }
+
+    /**
+     * Clusters the first {@code count} points at the given zoom.
+     */
+    static ClusterGrid build(double[] latitudes, double[] longitudes, int count, int zoom) {
+        ClusterGrid grid = new ClusterGrid(zoom, count);
+        Map<Long, Integer> clusterOfCell = new HashMap<>();
+        double cellsPerWorld = (double) (1L << (zoom + CELLS_PER_TILE_SHIFT));
+        for (int i = 0; i < count; i++) {
+            int x = (int) Math.min(cellsPerWorld - 1, Math.floor(mercatorX(longitudes[i]) * cellsPerWorld));
+            int y = (int) Math.min(cellsPerWorld - 1, Math.floor(mercatorY(latitudes[i]) * cellsPerWorld));
+            grid.addTo(clusterOfCell, x, y, 1, i, latitudes[i], longitudes[i]);
+        }
+        return grid;
+    }
+
+    /**
+     * The same points clustered at a lower zoom.
+     */
+    ClusterGrid coarsen(int targetZoom) {
+        if (targetZoom >= zoom) {
+            return this;
+        }
+        int shift = zoom - targetZoom;
+        ClusterGrid grid = new ClusterGrid(targetZoom, size);
+        Map<Long, Integer> clusterOfCell = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            grid.addTo(clusterOfCell, cellX[i] >> shift, cellY[i] >> shift,
+                    counts[i], firstMembers[i], latitudeSums[i], longitudeSums[i]);
+        }
+        return grid;
+    }
+
+    private void addTo(Map<Long, Integer> clusterOfCell, int x, int y,
+                       int count, int member, double latitudeSum, double longitudeSum) {
+        long key = ((long) x << 32) | (y & 0xffffffffL);
+        Integer cluster = clusterOfCell.get(key);
+        if (cluster == null) {
+            cluster = size++;
+            clusterOfCell.put(key, cluster);
+            cellX[cluster] = x;
+            cellY[cluster] = y;
+            firstMembers[cluster] = member;
+        }
+        counts[cluster] += count;
+        latitudeSums[cluster] += latitudeSum;
+        longitudeSums[cluster] += longitudeSum;
+    }
+
+    private static double mercatorX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    private static double mercatorY(double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getCount(int cluster) {
+        return counts[cluster];
+    }
+
+    int getFirstMember(int cluster) {
+        return firstMembers[cluster];
+    }
+
+    /**
+     * Mean position of the cluster's points.
+     */
+    double getLatitude(int cluster) {
+        return latitudeSums[cluster] / counts[cluster];
+    }
+
+    double getLongitude(int cluster) {
+        return longitudeSums[cluster] / counts[cluster];
+    }
+}
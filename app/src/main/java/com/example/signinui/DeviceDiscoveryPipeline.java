@@ -0,0 +1,158 @@
+package com.example.signinui;
+
+import android.Manifest;
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Processes Bluetooth discovery results off the main thread.
+ *
+ * Devices are resolved (name and bond state, both binder calls) and de-duplicated by address on a
+ * background {@link HandlerThread}. The UI receives immutable snapshots of the list, at most one
+ * per {@link #MIN_PUBLISH_INTERVAL_MS}, no matter how many devices are found in between.
+ */
+final class DeviceDiscoveryPipeline {
+    private static final String TAG = "DeviceDiscoveryPipeline";
+
+    // Caps list updates at ~4 per second
+    static final long MIN_PUBLISH_INTERVAL_MS = 250;
+
+    interface Listener {
+        /**
+         * Called on the main thread with the full, de-duplicated list in discovery order.
+         */
+        void onDevicesChanged(List<DeviceItem> devices);
+    }
+
+    /**
+     * A discovered device with the fields the list displays, resolved once on the background thread.
+     */
+    static final class DeviceItem {
+        final BluetoothDevice device;
+        final String address;
+        final String name;
+        final int bondState;
+        final boolean online;
+
+        DeviceItem(BluetoothDevice device, String address, String name, int bondState, boolean online) {
+            this.device = device;
+            this.address = address;
+            this.name = name;
+            this.bondState = bondState;
+            this.online = online;
+        }
+
+        boolean sameContents(DeviceItem other) {
+            return bondState == other.bondState
+                    && online == other.online
+                    && name.equals(other.name);
+        }
+    }
+
+    private final Context context;
+    private final Listener listener;
+    private final HandlerThread thread;
+    private final Handler workHandler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the background thread
+    private final Map<String, DeviceItem> devicesByAddress = new LinkedHashMap<>();
+    private boolean dirty;
+    private boolean publishScheduled;
+    private long lastPublishTime;
+
+    DeviceDiscoveryPipeline(Context context, Listener listener) {
+        this.context = context.getApplicationContext();
+        this.listener = listener;
+        this.thread = new HandlerThread("DeviceDiscovery");
+        this.thread.start();
+        this.workHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queues a discovered device. Safe to call from any thread.
+     */
+    void submit(BluetoothDevice device) {
+        workHandler.post(() -> process(device));
+    }
+
+    /**
+     * Forgets all devices and publishes an empty list.
+     */
+    void clear() {
+        workHandler.post(() -> {
+            devicesByAddress.clear();
+            dirty = true;
+            schedulePublish();
+        });
+    }
+
+    void quit() {
+        workHandler.removeCallbacksAndMessages(null);
+        mainHandler.removeCallbacksAndMessages(null);
+        thread.quitSafely();
+    }
+
+    private void process(BluetoothDevice device) {
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        String name;
+        int bondState;
+        try {
+            name = device.getName();
+            bondState = device.getBondState();
+        } catch (SecurityException e) {
+            Log.w(TAG, "Lost permission while resolving device", e);
+            return;
+        }
+        if (name == null || name.isEmpty()) {
+            return;
+        }
+
+        String address = device.getAddress();
+        DeviceItem item = new DeviceItem(device, address, name, bondState, true);
+        DeviceItem existing = devicesByAddress.get(address);
+        if (existing != null && existing.sameContents(item)) {
+            return; // Repeated ACTION_FOUND for a device we already show
+        }
+        // Replacing keeps the original insertion position in a LinkedHashMap
+        devicesByAddress.put(address, item);
+        dirty = true;
+        schedulePublish();
+    }
+
+    private void schedulePublish() {
+        if (publishScheduled) {
+            return;
+        }
+        publishScheduled = true;
+        long wait = lastPublishTime + MIN_PUBLISH_INTERVAL_MS - SystemClock.uptimeMillis();
+        workHandler.postDelayed(this::publish, Math.max(0, wait));
+    }
+
+    private void publish() {
+        publishScheduled = false;
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        lastPublishTime = SystemClock.uptimeMillis();
+        List<DeviceItem> snapshot = Collections.unmodifiableList(new ArrayList<>(devicesByAddress.values()));
+        mainHandler.post(() -> listener.onDevicesChanged(snapshot));
+    }
+}
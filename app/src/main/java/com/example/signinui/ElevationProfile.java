@@ -0,0 +1,69 @@
+package com.example.signinui;
+
+/**
+ * The heights along a route, as computed by {@link ElevationService}.
+ *
+ * Holds the total ascent and descent, a short profile for drawing, and the ascent made up to each
+ * sample, so the climb still ahead at any point of the route is a single array lookup.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+final class ElevationProfile {
+    private final float[] heights;
+    private final float[] ascentBySample;
+    private final double sampleSpacingMeters;
+    private final double lengthMeters;
+    private final double ascentMeters;
+    private final double descentMeters;
+    private final double minMeters;
+    private final double maxMeters;
+
+    ElevationProfile(float[] heights, float[] ascentBySample, double sampleSpacingMeters, double lengthMeters,
+                     double ascentMeters, double descentMeters, double minMeters, double maxMeters) {
+        this.heights = heights;
+        this.ascentBySample = ascentBySample;
+        this.sampleSpacingMeters = sampleSpacingMeters;
+        this.lengthMeters = lengthMeters;
+        this.ascentMeters = ascentMeters;
+        this.descentMeters = descentMeters;
+        this.minMeters = minMeters;
+        this.maxMeters = maxMeters;
+    }
+
+    /**
+     * Heights at evenly spaced points from the start to the end of the route, for drawing.
+     * Callers must not modify the array.
+     */
+    float[] getHeights() {
+        return heights;
+    }
+
+    double getLengthMeters() {
+        return lengthMeters;
+    }
+
+    double getAscentMeters() {
+        return ascentMeters;
+    }
+
+    double getDescentMeters() {
+        return descentMeters;
+    }
+
+    double getMinMeters() {
+        return minMeters;
+    }
+
+    double getMaxMeters() {
+        return maxMeters;
+    }
+
+    /**
+     * Ascent between a distance along the route and its end.
+     */
+    double getClimbRemaining(double metersAlong) {
+        int sample = (int) Math.round(metersAlong / sampleSpacingMeters);
+        sample = Math.max(0, Math.min(ascentBySample.length - 1, sample));
+        return ascentMeters - ascentBySample[sample];
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.signinui;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.AttributeSet;
+import android.view.View;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Draws an {@link ElevationProfile} as a filled outline, with a marker at the current position.
+ *
+ * The outline is built into a Path when the profile or the view size changes; moving the marker
+ * only redraws, so it can follow every navigation update.
+ */
+public class ElevationProfileView extends View {
+
+    private final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint markerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path fillPath = new Path();
+    private final Path linePath = new Path();
+
+    private ElevationProfile profile;
+    private float progress = 0f;    // 0–1 along the route
+    private float markerRadius;
+
+    public ElevationProfileView(Context context) {
+        super(context);
+        init();
+    }
+
+    public ElevationProfileView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public ElevationProfileView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        float density = getResources().getDisplayMetrics().density;
+        markerRadius = 4 * density;
+
+        fillPaint.setColor(0x554CAF50);    // Translucent green
+        fillPaint.setStyle(Paint.Style.FILL);
+
+        linePaint.setColor(0xFF4CAF50);    // Green
+        linePaint.setStyle(Paint.Style.STROKE);
+        linePaint.setStrokeWidth(2 * density);
+        linePaint.setStrokeJoin(Paint.Join.ROUND);
+
+        markerPaint.setColor(0xFF4285F4);  // Same blue as the route line
+        markerPaint.setStrokeWidth(2 * density);
+    }
+
+    /**
+     * Shows a profile, or nothing for null.
+     */
+    void setProfile(@Nullable ElevationProfile profile) {
+        this.profile = profile;
+        buildPaths();
+        invalidate();
+    }
+
+    /**
+     * @param progress the part of the route already walked, from 0 to 1
+     */
+    public void setProgress(float progress) {
+        progress = Math.max(0f, Math.min(progress, 1f));
+        if (progress != this.progress) {
+            this.progress = progress;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        buildPaths();
+    }
+
+    private void buildPaths() {
+        fillPath.rewind();
+        linePath.rewind();
+        if (profile == null || getWidth() == 0) {
+            return;
+        }
+        float[] heights = profile.getHeights();
+        float left = markerRadius;
+        float width = getWidth() - 2 * markerRadius;
+        float top = markerRadius;
+        float bottom = getHeight();
+        // Keep at least 50 m of range, so a flat route does not look like a mountain
+        double min = profile.getMinMeters();
+        double range = Math.max(50, profile.getMaxMeters() - min);
+
+        for (int i = 0; i < heights.length; i++) {
+            float x = left + width * i / Math.max(1, heights.length - 1);
+            float y = (float) (bottom - (bottom - top) * (heights[i] - min) / range);
+            if (i == 0) {
+                linePath.moveTo(x, y);
+            } else {
+                linePath.lineTo(x, y);
+            }
+        }
+        fillPath.addPath(linePath);
+        fillPath.lineTo(left + width, bottom);
+        fillPath.lineTo(left, bottom);
+        fillPath.close();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (profile == null) {
+            return;
+        }
+        canvas.drawPath(fillPath, fillPaint);
+        canvas.drawPath(linePath, linePaint);
+
+        float x = markerRadius + (getWidth() - 2 * markerRadius) * progress;
+        canvas.drawLine(x, markerRadius, x, getHeight(), markerPaint);
+        canvas.drawCircle(x, markerRadius, markerRadius, markerPaint);
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.signinui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Terrain heights from SRTM files in a local directory, and elevation profiles of routes.
+ *
+ * Height files ({@link HgtTile}) are opened when first needed and the few most recently used are
+ * kept mapped. A file that is not in the directory is remembered as missing, so points outside the
+ * downloaded area cost one lookup in a set.
+ *
+ * A profile samples the route every {@link #SAMPLE_SPACING_METERS} along its length, so a route
+ * with dense geometry in the hills and sparse geometry on a straight road is weighted evenly.
+ * Ascent and descent only count changes of at least {@link #HYSTERESIS_METERS}, which keeps the
+ * noise of the height data from adding up to hundreds of metres over a long flat route. Profiles
+ * are kept per route, so following a route asks for its profile once.
+ *
+ * Methods do file I/O on a cache miss and should be called off the main thread.
+ */
+final class ElevationService {
+    static final double SAMPLE_SPACING_METERS = 20;
+    static final double HYSTERESIS_METERS = 5;
+    // Points of the drawn profile; more than a phone screen's width needs of a line this small
+    static final int PROFILE_POINTS = 128;
+    // Longer routes are sampled more sparsely to stay at this many samples
+    private static final int MAX_SAMPLES = 5000;
+    // Four files cover any route crossing a corner of the degree grid
+    private static final int MAX_OPEN_TILES = 4;
+    private static final int MAX_PROFILES = 16;
+
+    private final File directory;
+    // Keyed by the south-west corner, in access order (eldest first)
+    private final LinkedHashMap<Long, HgtTile> openTiles = new LinkedHashMap<Long, HgtTile>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, HgtTile> eldest) {
+            if (size() <= MAX_OPEN_TILES) {
+                return false;
+            }
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+    private final Set<Long> missingTiles = new HashSet<>();
+    private final LinkedHashMap<String, ElevationProfile> profiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    ElevationService(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Identifies a route by its ends, length and point count, which tell apart any two routes a
+     * user follows in practice.
+     */
+    static String keyFor(PackedRoute route) {
+        int last = route.size() - 1;
+        if (last < 0) {
+            return "empty";
+        }
+        return String.format(Locale.US, "%d_%.5f_%.5f_%.5f_%.5f_%.0f", route.size(),
+                route.getLatitude(0), route.getLongitude(0),
+                route.getLatitude(last), route.getLongitude(last), route.getLengthMeters());
+    }
+
+    /**
+     * @return the height in metres, or NaN if no height file covers the point
+     */
+    synchronized double elevationAt(double latitude, double longitude) {
+        int south = (int) Math.floor(latitude);
+        int west = (int) Math.floor(longitude);
+        HgtTile tile = tile(south, west);
+        return tile != null ? tile.elevationAt(latitude, longitude) : Double.NaN;
+    }
+
+    /**
+     * @return the profile of the route, or null if it has fewer than two points or no point of it
+     * is covered by a height file
+     */
+    synchronized ElevationProfile profile(PackedRoute route) {
+        if (route.size() < 2 || route.getLengthMeters() <= 0) {
+            return null;
+        }
+        String key = keyFor(route);
+        ElevationProfile cached = profiles.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        ElevationProfile profile = computeProfile(route);
+        if (profile != null) {
+            profiles.put(key, profile);
+            Iterator<ElevationProfile> eldest = profiles.values().iterator();
+            while (profiles.size() > MAX_PROFILES) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return profile;
+    }
+
+    private ElevationProfile computeProfile(PackedRoute route) {
+        double length = route.getLengthMeters();
+        int sampleCount = (int) Math.min(MAX_SAMPLES, Math.ceil(length / SAMPLE_SPACING_METERS) + 1);
+        double spacing = length / (sampleCount - 1);
+        double[] heights = sampleHeights(route, sampleCount, spacing);
+        if (heights == null) {
+            return null;
+        }
+
+        float[] ascentBySample = new float[sampleCount];
+        double ascent = 0;
+        double descent = 0;
+        double reference = heights[0];
+        double min = heights[0];
+        double max = heights[0];
+        for (int i = 1; i < sampleCount; i++) {
+            double height = heights[i];
+            if (height - reference >= HYSTERESIS_METERS) {
+                ascent += height - reference;
+                reference = height;
+            } else if (reference - height >= HYSTERESIS_METERS) {
+                descent += reference - height;
+                reference = height;
+            }
+            ascentBySample[i] = (float) ascent;
+            min = Math.min(min, height);
+            max = Math.max(max, height);
+        }
+        return new ElevationProfile(downsample(heights, Math.min(PROFILE_POINTS, sampleCount)), ascentBySample,
+                spacing, length, ascent, descent, min, max);
+    }
+
+    /**
+     * Heights at evenly spaced distances along the route. Gaps in the height data take the last
+     * height before them.
+     *
+     * @return the heights, or null if there is no height data anywhere along the route
+     */
+    private double[] sampleHeights(PackedRoute route, int sampleCount, double spacing) {
+        double[] cumulative = route.getCumulativeMeters();
+        double[] heights = new double[sampleCount];
+        int segment = 0;
+        int firstKnown = -1;
+        for (int i = 0; i < sampleCount; i++) {
+            double along = Math.min(i * spacing, cumulative[cumulative.length - 1]);
+            while (segment < cumulative.length - 2 && cumulative[segment + 1] < along) {
+                segment++;
+            }
+            double segmentLength = cumulative[segment + 1] - cumulative[segment];
+            double t = segmentLength > 0 ? (along - cumulative[segment]) / segmentLength : 0;
+            double latitude = route.getLatitude(segment) + t * (route.getLatitude(segment + 1) - route.getLatitude(segment));
+            double longitude = route.getLongitude(segment) + t * (route.getLongitude(segment + 1) - route.getLongitude(segment));
+            heights[i] = elevationAt(latitude, longitude);
+            if (Double.isNaN(heights[i])) {
+                heights[i] = i > 0 ? heights[i - 1] : Double.NaN;
+            } else if (firstKnown < 0) {
+                firstKnown = i;
+            }
+        }
+        if (firstKnown < 0) {
+            return null;
+        }
+        for (int i = 0; i < firstKnown; i++) {
+            heights[i] = heights[firstKnown];
+        }
+        return heights;
+    }
+
+    // Mean height of each of count equal stretches of the samples
+    private static float[] downsample(double[] heights, int count) {
+        float[] points = new float[count];
+        for (int p = 0; p < count; p++) {
+            int from = (int) ((long) p * heights.length / count);
+            int to = (int) ((long) (p + 1) * heights.length / count);
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += heights[i];
+            }
+            points[p] = (float) (sum / (to - from));
+        }
+        return points;
+    }
+
+    private HgtTile tile(int south, int west) {
+        Long key = ((long) south << 32) | (west & 0xffffffffL);
+        HgtTile tile = openTiles.get(key);
+        if (tile != null || missingTiles.contains(key)) {
+            return tile;
+        }
+        File file = new File(directory, HgtTile.fileName(south, west));
+        if (!file.isFile()) {
+            // Some downloads name them in lower case
+            file = new File(directory, HgtTile.fileName(south, west).toLowerCase(Locale.US));
+        }
+        try {
+            tile = file.isFile() ? HgtTile.open(file, south, west) : null;
+        } catch (IOException e) {
+            // A damaged file is treated like a missing one
+            tile = null;
+        }
+        if (tile == null) {
+            missingTiles.add(key);
+        } else {
+            openTiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Releases the open height files. The service reopens them if used again.
+     */
+    synchronized void close() {
+        for (HgtTile tile : openTiles.values()) {
+            closeQuietly(tile);
+        }
+        openTiles.clear();
+    }
+
+    private static void closeQuietly(HgtTile tile) {
+        try {
+            tile.close();
+        } catch (IOException ignored) {
+            // Read-only file; nothing to lose
+        }
+    }
+}
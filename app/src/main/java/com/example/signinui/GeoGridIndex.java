@@ -0,0 +1,126 @@
+package com.example.signinui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uniform grid of latitude/longitude cells over items with a bounding box, for finding the items
+ * in a viewport without looking at all of them.
+ *
+ * Unlike {@link SegmentGridIndex}, items can be added at any time, so cells are kept in a hash
+ * map and only cells holding something exist. An item is listed in every cell its box overlaps.
+ * Items spanning very many cells are kept in a separate list that every query checks. A query
+ * reports each item once, however many of its cells it overlaps.
+ *
+ * Does not handle boxes crossing the antimeridian. Not thread-safe.
+ */
+final class GeoGridIndex<T> {
+    // About 2 km of latitude; a city-scale viewport covers a few dozen cells
+    static final double DEFAULT_CELL_DEGREES = 0.02;
+    private static final int MAX_CELLS_PER_ITEM = 256;
+
+    private static final class Entry<T> {
+        final T item;
+        final double south, west, north, east;
+        // Id of the last query that reported this entry
+        int queryStamp;
+
+        Entry(T item, double south, double west, double north, double east) {
+            this.item = item;
+            this.south = south;
+            this.west = west;
+            this.north = north;
+            this.east = east;
+        }
+    }
+
+    private final double cellDegrees;
+    private final Map<Long, List<Entry<T>>> cells = new HashMap<>();
+    private final List<Entry<T>> oversized = new ArrayList<>();
+    private int size;
+    private int queryStamp;
+
+    GeoGridIndex() {
+        this(DEFAULT_CELL_DEGREES);
+    }
+
+    GeoGridIndex(double cellDegrees) {
+        this.cellDegrees = cellDegrees;
+    }
+
+    void addPoint(T item, double latitude, double longitude) {
+        add(item, latitude, longitude, latitude, longitude);
+    }
+
+    void add(T item, double south, double west, double north, double east) {
+        Entry<T> entry = new Entry<>(item, south, west, north, east);
+        size++;
+        int row0 = cell(south), row1 = cell(north);
+        int col0 = cell(west), col1 = cell(east);
+        if ((long) (row1 - row0 + 1) * (col1 - col0 + 1) > MAX_CELLS_PER_ITEM) {
+            oversized.add(entry);
+            return;
+        }
+        for (int r = row0; r <= row1; r++) {
+            for (int c = col0; c <= col1; c++) {
+                List<Entry<T>> list = cells.get(key(r, c));
+                if (list == null) {
+                    list = new ArrayList<>(4);
+                    cells.put(key(r, c), list);
+                }
+                list.add(entry);
+            }
+        }
+    }
+
+    /**
+     * Appends to {@code out} every item whose box intersects the given box.
+     */
+    void query(double south, double west, double north, double east, List<T> out) {
+        queryStamp++;
+        int row0 = cell(south), row1 = cell(north);
+        int col0 = cell(west), col1 = cell(east);
+        if ((long) (row1 - row0 + 1) * (col1 - col0 + 1) > cells.size()) {
+            // Zoomed far out: walking the cells that exist is cheaper than probing empty ones
+            for (List<Entry<T>> list : cells.values()) {
+                collect(list, south, west, north, east, out);
+            }
+        } else {
+            for (int r = row0; r <= row1; r++) {
+                for (int c = col0; c <= col1; c++) {
+                    List<Entry<T>> list = cells.get(key(r, c));
+                    if (list != null) {
+                        collect(list, south, west, north, east, out);
+                    }
+                }
+            }
+        }
+        collect(oversized, south, west, north, east, out);
+    }
+
+    private void collect(List<Entry<T>> entries, double south, double west, double north, double east, List<T> out) {
+        for (int i = 0; i < entries.size(); i++) {
+            Entry<T> entry = entries.get(i);
+            if (entry.queryStamp != queryStamp
+                    && entry.north >= south && entry.south <= north
+                    && entry.east >= west && entry.west <= east) {
+                entry.queryStamp = queryStamp;
+                out.add(entry.item);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int cell(double degrees) {
+        return (int) Math.floor(degrees / cellDegrees);
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.signinui;
+
+/**
+ * Distance helpers that work on plain coordinates, without allocating.
+ *
+ * Uses a spherical earth. Over the few kilometres of a hiking route the error against the
+ * ellipsoid used by {@code Location.distanceBetween} stays well below GPS accuracy.
+ */
+final class GeoMath {
+    static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    private GeoMath() {}
+
+    /**
+     * Great-circle distance in metres (haversine).
+     */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double sinDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        double sinDeltaLambda = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        double a = sinDeltaPhi * sinDeltaPhi + Math.cos(phi1) * Math.cos(phi2) * sinDeltaLambda * sinDeltaLambda;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.signinui;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * One SRTM height file: a one by one degree square of terrain heights.
+ *
+ * The file is named after its south-west corner, like {@code N51E010.hgt}, and holds a square
+ * grid of big-endian 16 bit heights in metres, row by row from the north edge. Edge rows and
+ * columns are shared with the neighbouring files. Files with 1201 samples per side (3 arc seconds,
+ * about 90 m) and 3601 (1 arc second, about 30 m) are both read; the size follows from the file
+ * length.
+ *
+ * The file is memory-mapped, so a lookup reads the four surrounding samples straight from the page
+ * cache and a 25 MB file costs no heap.
+ *
+ * Contains no Android code.
+ */
+final class HgtTile implements Closeable {
+    static final String FILE_EXTENSION = ".hgt";
+    // Marks a sample without data, mostly over water and in steep shadows
+    private static final short VOID = Short.MIN_VALUE;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final int south;
+    private final int west;
+    private final int size;
+
+    private HgtTile(RandomAccessFile file, MappedByteBuffer buffer, int south, int west, int size) {
+        this.file = file;
+        this.buffer = buffer;
+        this.south = south;
+        this.west = west;
+        this.size = size;
+    }
+
+    /**
+     * The name of the file covering the square whose south-west corner is given.
+     */
+    static String fileName(int south, int west) {
+        return String.format(Locale.US, "%s%02d%s%03d%s",
+                south < 0 ? "S" : "N", Math.abs(south),
+                west < 0 ? "W" : "E", Math.abs(west), FILE_EXTENSION);
+    }
+
+    static HgtTile open(File hgtFile, int south, int west) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(hgtFile, "r");
+        try {
+            long length = file.length();
+            int size = (int) Math.round(Math.sqrt(length / 2.0));
+            if (size < 2 || (long) size * size * 2 != length) {
+                throw new IOException("Not a height file: " + hgtFile + " (" + length + " bytes)");
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            return new HgtTile(file, buffer, south, west, size);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * Height in metres, interpolated between the four surrounding samples. Void samples are left
+     * out of the interpolation.
+     *
+     * @return the height, or NaN if the point is outside this file or all four samples are void
+     */
+    double elevationAt(double latitude, double longitude) {
+        double row = (south + 1 - latitude) * (size - 1);
+        double column = (longitude - west) * (size - 1);
+        if (row < 0 || column < 0 || row > size - 1 || column > size - 1) {
+            return Double.NaN;
+        }
+        // On the last row or column the second sample would be outside the grid
+        int row0 = Math.min((int) row, size - 2);
+        int column0 = Math.min((int) column, size - 2);
+        double fy = row - row0;
+        double fx = column - column0;
+
+        double sum = 0;
+        double weights = 0;
+        for (int dy = 0; dy <= 1; dy++) {
+            for (int dx = 0; dx <= 1; dx++) {
+                short sample = buffer.getShort(((row0 + dy) * size + column0 + dx) * 2);
+                if (sample == VOID) {
+                    continue;
+                }
+                double weight = (dx == 0 ? 1 - fx : fx) * (dy == 0 ? 1 - fy : fy);
+                sum += weight * sample;
+                weights += weight;
+            }
+        }
+        return weights > 0 ? sum / weights : Double.NaN;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
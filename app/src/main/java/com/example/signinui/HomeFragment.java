@@ -15,7 +15,6 @@ import android.graphics.drawable.ColorDrawable;
 import android.location.Location;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -92,8 +91,9 @@ public class HomeFragment extends Fragment {
     private BluetoothService bluetoothService;
     private boolean isServiceBound = false;
     private boolean startDiscoveryAfterBind = false;
-    private List<BluetoothDevice> nearbyDevices = new ArrayList<>();
-    private Map<String, Boolean> onlineStatusMap = new HashMap<>();
+    // Latest de-duplicated snapshot published by the discovery pipeline
+    private List<DeviceDiscoveryPipeline.DeviceItem> nearbyDevices = new ArrayList<>();
+    private DeviceDiscoveryPipeline discoveryPipeline;
     private AlertDialog discoveryDialog;
     private BluetoothDeviceAdapter devicesAdapter;
     private RecyclerView devicesRecyclerView;
@@ -101,8 +101,8 @@ public class HomeFragment extends Fragment {
     private ProgressBar progressBar;
     private ActivityResultLauncher<String[]> permissionLauncher;
     private ActivityResultLauncher<Intent> enableBluetoothLauncher;
-    private Handler heartbeatHandler = new Handler();
-    private Runnable heartbeatRunnable;
+    // Refreshes the nearby count whenever friends come into or drop out of range
+    private final PeerPresenceTable.PresenceListener presenceListener = (cameOnline, wentOffline) -> updateFriendCount();
 
     // Streak System
     private SharedPreferences streakPrefs;
@@ -180,11 +180,14 @@ public class HomeFragment extends Fragment {
     public void onDestroyView() {
         super.onDestroyView();
         if (isServiceBound) {
+            bluetoothService.removePresenceListener(presenceListener);
+            unregisterMessageHandlers();
             requireContext().unbindService(serviceConnection);
             isServiceBound = false;
         }
-        if (heartbeatHandler != null && heartbeatRunnable != null) {
-            heartbeatHandler.removeCallbacks(heartbeatRunnable);
+        if (discoveryPipeline != null) {
+            discoveryPipeline.quit();
+            discoveryPipeline = null;
         }
     }
 
@@ -333,6 +336,9 @@ public class HomeFragment extends Fragment {
             isServiceBound = true;
             Log.d(TAG, "BluetoothService connected.");
             bluetoothService.startServer();
+            bluetoothService.addPresenceListener(presenceListener);
+            registerMessageHandlers();
+            updateFriendCount();
             if (startDiscoveryAfterBind) {
                 startDiscoveryAfterBind = false;
                 checkPermissionsAndStartDiscovery();
@@ -404,39 +410,21 @@ public class HomeFragment extends Fragment {
             return;
         }
 
-        nearbyDevices.clear();
-        onlineStatusMap.clear();
+        if (discoveryPipeline == null) {
+            discoveryPipeline = new DeviceDiscoveryPipeline(requireContext(), this::onDiscoveredDevicesChanged);
+        }
+        nearbyDevices = new ArrayList<>();
+        discoveryPipeline.clear();
         showDiscoveryDialog();
 
         bluetoothService.startDiscovery(new BluetoothService.BluetoothDiscoveryListener() {
             @Override
             public void onDeviceDiscovered(BluetoothDevice device) {
-                if (getActivity() == null) return;
-                getActivity().runOnUiThread(() -> {
-                    if (ContextCompat.checkSelfPermission(requireContext(), Manifest.permission.BLUETOOTH_CONNECT) != PackageManager.PERMISSION_GRANTED) {
-                        return;
-                    }
-                    if (device.getName() == null || device.getName().isEmpty()) {
-                        return;
-                    }
-
-                    String deviceName = device.getName();
-                    deviceNameMap.put(device.getAddress(), deviceName);
-
-                    boolean deviceExists = false;
-                    for (BluetoothDevice existingDevice : nearbyDevices) {
-                        if (existingDevice.getAddress().equals(device.getAddress())) {
-                            deviceExists = true;
-                            break;
-                        }
-                    }
-
-                    if (!deviceExists) {
-                        nearbyDevices.add(device);
-                        onlineStatusMap.put(device.getAddress(), true);
-                        updateDiscoveryDialog();
-                    }
-                });
+                // Resolved and de-duplicated off the main thread; results come back in onDiscoveredDevicesChanged
+                DeviceDiscoveryPipeline pipeline = discoveryPipeline;
+                if (pipeline != null) {
+                    pipeline.submit(device);
+                }
             }
 
             @Override
@@ -457,49 +445,72 @@ public class HomeFragment extends Fragment {
                     Toast.makeText(requireContext(), "Connected! Exchanging info...", Toast.LENGTH_SHORT).show();
                     FirebaseUser currentUser = mAuth.getCurrentUser();
                     if (currentUser != null && bluetoothService != null) {
-                        bluetoothService.sendUserUID(currentUser.getUid());
+                        bluetoothService.sendUserUID(device.getAddress(), currentUser.getUid());
                     }
                 });
             }
 
             @Override
-            public void onConnectionError(String message) {
-                if (getActivity() == null) return;
-                getActivity().runOnUiThread(() -> Toast.makeText(requireContext(), message, Toast.LENGTH_SHORT).show());
-            }
-
-            @Override
-            public void onPartnerUIDReceived(String uid) {
-                HomeFragment.this.partnerUid = uid;
-                FirebaseUser currentUser = mAuth.getCurrentUser();
-                if (currentUser != null && HomeFragment.this.partnerUid != null) {
-                    Intent intent = new Intent(requireContext(), ChatActivity.class);
-                    intent.putExtra("CURRENT_USER_UID", currentUser.getUid());
-                    intent.putExtra("PARTNER_UID", HomeFragment.this.partnerUid);
-                    startActivity(intent);
-                }
-            }
-
-            @Override
-            public void onFriendRequestReceived(String userId, String userName) {
+            public void onDeviceReconnected(BluetoothDevice device) {
+                // The chat is still open from the first connect, only tell the user it is back
                 if (getActivity() == null) return;
-                getActivity().runOnUiThread(() -> showFriendRequestDialog(userId, userName));
+                getActivity().runOnUiThread(() -> {
+                    if (!isAdded()) return;
+                    Toast.makeText(requireContext(), "Reconnected!", Toast.LENGTH_SHORT).show();
+                });
             }
 
             @Override
-            public void onFriendPaired(String userId, boolean success) {
+            public void onConnectionError(String message) {
                 if (getActivity() == null) return;
-                getActivity().runOnUiThread(() -> {
-                    if (success) {
-                        Toast.makeText(requireContext(), "Friend paired successfully!", Toast.LENGTH_SHORT).show();
-                        updateFriendCount();
-                    } else {
-                        Toast.makeText(requireContext(), "Failed to pair with friend", Toast.LENGTH_SHORT).show();
-                    }
-                });
+                getActivity().runOnUiThread(() -> Toast.makeText(requireContext(), message, Toast.LENGTH_SHORT).show());
             }
         });
     }
+
+    // =============================================================================================
+    // Peer Message Handlers (run on the main thread)
+    // =============================================================================================
+
+    private final BluetoothMessageDispatcher.MessageHandler partnerUidHandler = (deviceAddress, payload) -> {
+        if (!isAdded()) return;
+        partnerUid = BluetoothFrameCodec.decodeText(payload, 0, payload.length);
+        FirebaseUser currentUser = mAuth.getCurrentUser();
+        if (currentUser != null) {
+            Intent intent = new Intent(requireContext(), ChatActivity.class);
+            intent.putExtra("CURRENT_USER_UID", currentUser.getUid());
+            intent.putExtra("PARTNER_UID", partnerUid);
+            startActivity(intent);
+        }
+    };
+
+    private final BluetoothMessageDispatcher.MessageHandler friendRequestHandler = (deviceAddress, payload) -> {
+        if (!isAdded()) return;
+        String request = BluetoothFrameCodec.decodeText(payload, 0, payload.length);
+        int separator = request.indexOf(BluetoothFrameCodec.FIELD_SEPARATOR);
+        if (separator > 0) {
+            showFriendRequestDialog(request.substring(0, separator), request.substring(separator + 1));
+        }
+    };
+
+    private final BluetoothMessageDispatcher.MessageHandler friendAcceptHandler = (deviceAddress, payload) -> {
+        if (!isAdded()) return;
+        Toast.makeText(requireContext(), "Friend paired successfully!", Toast.LENGTH_SHORT).show();
+        updateFriendCount();
+    };
+
+    private void registerMessageHandlers() {
+        bluetoothService.registerMessageHandler(BluetoothFrameCodec.TYPE_UID_EXCHANGE, partnerUidHandler);
+        bluetoothService.registerMessageHandler(BluetoothFrameCodec.TYPE_FRIEND_REQUEST, friendRequestHandler);
+        bluetoothService.registerMessageHandler(BluetoothFrameCodec.TYPE_FRIEND_ACCEPT, friendAcceptHandler);
+    }
+
+    private void unregisterMessageHandlers() {
+        bluetoothService.unregisterMessageHandler(BluetoothFrameCodec.TYPE_UID_EXCHANGE, partnerUidHandler);
+        bluetoothService.unregisterMessageHandler(BluetoothFrameCodec.TYPE_FRIEND_REQUEST, friendRequestHandler);
+        bluetoothService.unregisterMessageHandler(BluetoothFrameCodec.TYPE_FRIEND_ACCEPT, friendAcceptHandler);
+    }
+
     private void showFriendDiscoveryInfoDialog() {
         AlertDialog.Builder builder = new AlertDialog.Builder(requireContext(), R.style.CustomAlertDialog);
         LayoutInflater inflater = requireActivity().getLayoutInflater();
@@ -543,7 +554,7 @@ public class HomeFragment extends Fragment {
         progressBar = dialogView.findViewById(R.id.progress_bar);
         devicesRecyclerView = dialogView.findViewById(R.id.devices_recycler);
 
-        devicesAdapter = BluetoothDeviceAdapter.createWithEmptyList(device -> {
+        devicesAdapter = new BluetoothDeviceAdapter(device -> {
             if (isServiceBound && bluetoothService != null) {
                 bluetoothService.connectToDevice(device);
                 if (discoveryDialog != null && discoveryDialog.isShowing()) {
@@ -587,11 +598,20 @@ public class HomeFragment extends Fragment {
                 searchingText.setText(nearbyDevices.size() + " adventurer(s) nearby");
                 devicesRecyclerView.setVisibility(View.VISIBLE);
                 progressBar.setVisibility(View.GONE);
-                devicesAdapter.updateDevices(nearbyDevices, onlineStatusMap);
+                devicesAdapter.submitList(nearbyDevices);
             }
         }
     }
 
+    private void onDiscoveredDevicesChanged(List<DeviceDiscoveryPipeline.DeviceItem> devices) {
+        if (!isAdded()) return;
+        nearbyDevices = devices;
+        for (DeviceDiscoveryPipeline.DeviceItem item : devices) {
+            deviceNameMap.put(item.address, item.name);
+        }
+        updateDiscoveryDialog();
+    }
+
     private void showFriendRequestDialog(String userId, String userName) {
         new AlertDialog.Builder(requireContext())
                 .setTitle("Friend Request")
@@ -626,18 +646,10 @@ public class HomeFragment extends Fragment {
 
     private void startHeartbeat() {
         FirebaseUser currentUser = mAuth.getCurrentUser();
-        if (currentUser == null) return;
+        if (currentUser == null || bluetoothService == null) return;
 
-        heartbeatRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (bluetoothService != null) {
-                    bluetoothService.sendHeartbeat(currentUser.getUid());
-                }
-                heartbeatHandler.postDelayed(this, 30000);
-            }
-        };
-        heartbeatHandler.postDelayed(heartbeatRunnable, 30000);
+        // The service owns the schedule and skips heartbeats on links that are already busy
+        bluetoothService.startHeartbeat(currentUser.getUid());
     }
 
     private void initializeViews(View view) {
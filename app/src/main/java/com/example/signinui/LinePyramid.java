@@ -0,0 +1,59 @@
+package com.example.signinui;
+
+import java.util.Arrays;
+
+/**
+ * A line simplified for several zoom levels, as lists of the vertex indices to draw.
+ *
+ * Level i holds the vertices {@link LineSimplifier} keeps at zoom {@code LEVEL_ZOOMS[i]}, so
+ * drawing it at that zoom or below stays within a pixel of the full line. A map drawing at zoom z
+ * uses the first level whose zoom is at least z; above the last level every vertex is drawn.
+ * Zoomed out over a long route, the levels hold a few dozen vertices instead of thousands, so the
+ * cost of a frame no longer grows with the length of the line.
+ *
+ * Building takes time in the number of vertices and is meant for a background thread. Instances
+ * are immutable and can then be handed to the UI thread.
+ */
+final class LinePyramid {
+    static final int[] LEVEL_ZOOMS = {6, 8, 10, 12, 14, 16, LineSimplifier.MAX_ZOOM};
+
+    private final int[][] levelIndices = new int[LEVEL_ZOOMS.length][];
+
+    private LinePyramid(byte[] vertexLevels) {
+        int[] kept = new int[vertexLevels.length];
+        int[] previous = null;
+        for (int level = 0; level < LEVEL_ZOOMS.length; level++) {
+            int count = LineSimplifier.select(vertexLevels, LEVEL_ZOOMS[level], kept);
+            // Levels are nested, so an equal count means an equal list
+            levelIndices[level] = previous != null && previous.length == count ? previous : Arrays.copyOf(kept, count);
+            previous = levelIndices[level];
+        }
+    }
+
+    static LinePyramid build(PackedRoute line) {
+        return new LinePyramid(LineSimplifier.levels(line.getLatitudes(), line.getLongitudes(), line.size()));
+    }
+
+    /**
+     * For lines whose vertex levels are already known, like stored trail ways.
+     */
+    static LinePyramid fromLevels(byte[] vertexLevels) {
+        return new LinePyramid(vertexLevels);
+    }
+
+    /**
+     * The vertex indices to draw at a map zoom level, or null to draw every vertex.
+     */
+    int[] indicesFor(double zoom) {
+        for (int level = 0; level < LEVEL_ZOOMS.length; level++) {
+            if (LEVEL_ZOOMS[level] >= zoom) {
+                return levelIndices[level];
+            }
+        }
+        return null;
+    }
+
+    int getVertexCount(int level) {
+        return levelIndices[level].length;
+    }
+}
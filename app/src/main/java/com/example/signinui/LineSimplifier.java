@@ -0,0 +1,141 @@
+package com.example.signinui;
+
+/**
+ * Douglas–Peucker simplification for every zoom level at once.
+ *
+ * Instead of simplifying a line once per tolerance, one pass works out for each vertex the
+ * lowest zoom at which it matters: the first zoom whose tolerance of {@value #TOLERANCE_PIXELS}
+ * pixel is smaller than the vertex's distance from the simplified line. Selecting the vertices
+ * whose level is at most z then gives exactly the Douglas–Peucker result for zoom z. Levels fit
+ * in a byte per vertex, so they are cheap to store next to the geometry.
+ *
+ * Contains no Android code.
+ */
+final class LineSimplifier {
+    // Highest zoom with its own level; finer detail is only kept at full resolution
+    static final int MAX_ZOOM = 18;
+    // Level of vertices that no zoom up to MAX_ZOOM needs
+    static final byte FULL_RESOLUTION_ONLY = MAX_ZOOM + 1;
+    static final double TOLERANCE_PIXELS = 1.0;
+    // Ground size of one pixel at zoom 0 on the equator, for 256-pixel tiles
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 2 * Math.PI * GeoMath.EARTH_RADIUS_METERS / 256;
+
+    private LineSimplifier() {}
+
+    /**
+     * Largest allowed distance in metres between a line and its simplification at a zoom level.
+     */
+    static double toleranceMeters(int zoom, double latitude) {
+        return TOLERANCE_PIXELS * METERS_PER_PIXEL_AT_ZOOM_0 * Math.cos(Math.toRadians(latitude)) / (1L << zoom);
+    }
+
+    /**
+     * The lowest zoom level at which each of the first {@code count} vertices is drawn. The end
+     * points are level 0.
+     */
+    static byte[] levels(double[] latitudes, double[] longitudes, int count) {
+        byte[] levels = new byte[count];
+        if (count <= 2) {
+            return levels;
+        }
+
+        // A local flat projection in metres; lines here are at most a few kilometres long
+        double latitude0 = latitudes[0];
+        double metersPerDegree = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+        double metersPerDegreeLongitude = metersPerDegree * Math.cos(Math.toRadians(latitude0));
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = (longitudes[i] - longitudes[0]) * metersPerDegreeLongitude;
+            y[i] = (latitudes[i] - latitude0) * metersPerDegree;
+        }
+
+        // A vertex's significance is its distance from the segment it splits, capped by the
+        // significance of the vertex that created that segment. That keeps the levels nested.
+        double[] significance = new double[count];
+        int[] stackFirst = new int[count];
+        int[] stackLast = new int[count];
+        double[] stackLimit = new double[count];
+        int top = 0;
+        stackFirst[0] = 0;
+        stackLast[0] = count - 1;
+        stackLimit[0] = Double.POSITIVE_INFINITY;
+        top++;
+        while (top > 0) {
+            top--;
+            int first = stackFirst[top];
+            int last = stackLast[top];
+            double limit = stackLimit[top];
+            int farthest = -1;
+            double farthestDistance = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceToSegment(x[i], y[i], x[first], y[first], x[last], y[last]);
+                if (distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            double vertexSignificance = Math.min(farthestDistance, limit);
+            significance[farthest] = vertexSignificance;
+            if (farthest - first > 1) {
+                stackFirst[top] = first;
+                stackLast[top] = farthest;
+                stackLimit[top] = vertexSignificance;
+                top++;
+            }
+            if (last - farthest > 1) {
+                stackFirst[top] = farthest;
+                stackLast[top] = last;
+                stackLimit[top] = vertexSignificance;
+                top++;
+            }
+        }
+
+        double toleranceAtZoom0 = toleranceMeters(0, latitude0);
+        for (int i = 1; i < count - 1; i++) {
+            levels[i] = levelFor(significance[i], toleranceAtZoom0);
+        }
+        return levels;
+    }
+
+    private static byte levelFor(double significance, double toleranceAtZoom0) {
+        if (significance <= 0) {
+            return FULL_RESOLUTION_ONLY;
+        }
+        // Tolerance halves with every zoom level: first z with toleranceAtZoom0 / 2^z < significance
+        double zoom = Math.floor(Math.log(toleranceAtZoom0 / significance) / Math.log(2)) + 1;
+        if (zoom > MAX_ZOOM) {
+            return FULL_RESOLUTION_ONLY;
+        }
+        return (byte) Math.max(0, zoom);
+    }
+
+    /**
+     * Writes the indices of the vertices drawn at {@code zoom} into {@code out}.
+     *
+     * @return the number of indices written
+     */
+    static int select(byte[] levels, int zoom, int[] out) {
+        int count = 0;
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] <= zoom) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    private static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        double ex = px - (ax + t * dx);
+        double ey = py - (ay + t * dy);
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
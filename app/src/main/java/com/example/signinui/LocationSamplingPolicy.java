@@ -0,0 +1,171 @@
+package com.example.signinui;
+
+/**
+ * Picks how often and how precisely to sample the location while navigating.
+ *
+ * Close to the next step, or after leaving the route, fixes come every couple of seconds at high
+ * accuracy so the instruction is spoken in time. On a long straight stretch the interval grows
+ * and the accuracy drops to balanced power, and when the user has stopped moving it relaxes
+ * further. Stopping is detected from the step counter where there is one, since GPS speed at
+ * walking pace is mostly noise; a fast GPS speed (cycling) still counts as moving. Tightening
+ * happens on the first fix that needs it, relaxing only after two in a row, so the request is not
+ * re-issued on every fix near a boundary.
+ *
+ * Also counts fixes and the distance they cover, to report fixes per km. Contains no Android
+ * code. Not thread-safe; use it from the thread that receives location updates.
+ */
+final class LocationSamplingPolicy {
+
+    enum Mode {
+        // Ordered from tightest to loosest
+        MANEUVER(true, 3_000, 1_000),
+        APPROACH(true, 8_000, 3_000),
+        CRUISE(false, 20_000, 10_000),
+        STATIONARY(false, 60_000, 30_000);
+
+        final boolean highAccuracy;
+        final long intervalMillis;
+        final long minIntervalMillis;
+
+        Mode(boolean highAccuracy, long intervalMillis, long minIntervalMillis) {
+            this.highAccuracy = highAccuracy;
+            this.intervalMillis = intervalMillis;
+            this.minIntervalMillis = minIntervalMillis;
+        }
+    }
+
+    // A step closer than this, in metres or in seconds at the current pace, gets MANEUVER
+    static final double MANEUVER_METERS = 60;
+    static final double MANEUVER_SECONDS = 30;
+    // ... and closer than this gets APPROACH
+    static final double APPROACH_METERS = 250;
+    static final double APPROACH_SECONDS = 120;
+    // No movement for this long counts as stopped
+    static final long STATIONARY_AFTER_MS = 60_000;
+    // GPS speed that counts as movement; with a step counter walking is seen from the steps, so
+    // only a speed no walker reaches counts
+    private static final double MOVING_SPEED = 0.5;
+    private static final double MOVING_SPEED_WITH_STEPS = 2.0;
+    private static final int RELAX_AFTER_UPDATES = 2;
+    // Movement within the accuracy of a fix is not counted as distance
+    private static final double MIN_MOVE_METERS = 5;
+
+    private Mode mode = Mode.MANEUVER;
+    private Mode pendingMode;
+    private int pendingUpdates;
+
+    private double speed = Double.NaN;
+    private long lastMovementMillis = Long.MIN_VALUE;
+    private boolean hasSteps;
+    private long lastStepCount;
+
+    private long fixCount;
+    private double distanceMeters;
+    private double anchorLatitude = Double.NaN;
+    private double anchorLongitude;
+    private double lastLatitude;
+    private double lastLongitude;
+    private long lastFixMillis;
+
+    /**
+     * Feeds the running total of the step counter.
+     */
+    void onStepCount(long totalSteps, long timeMillis) {
+        if (hasSteps && totalSteps > lastStepCount) {
+            lastMovementMillis = timeMillis;
+        }
+        hasSteps = true;
+        lastStepCount = totalSteps;
+    }
+
+    /**
+     * Records a fix.
+     * @param speedMetersPerSecond reported ground speed, or NaN if the fix has none.
+     */
+    void onFix(double latitude, double longitude, double accuracyMeters, double speedMetersPerSecond, long timeMillis) {
+        if (fixCount > 0 && Double.isNaN(speedMetersPerSecond) && timeMillis > lastFixMillis) {
+            speedMetersPerSecond = GeoMath.distanceMeters(lastLatitude, lastLongitude, latitude, longitude)
+                    / ((timeMillis - lastFixMillis) / 1000.0);
+        }
+        speed = speedMetersPerSecond;
+        if (fixCount == 0 || speed >= (hasSteps ? MOVING_SPEED_WITH_STEPS : MOVING_SPEED)) {
+            lastMovementMillis = Math.max(lastMovementMillis, timeMillis);
+        }
+
+        // Distance counts from an anchor that only moves once the fix is clearly elsewhere, so
+        // jitter while standing still adds nothing
+        if (Double.isNaN(anchorLatitude)) {
+            anchorLatitude = latitude;
+            anchorLongitude = longitude;
+        } else {
+            double moved = GeoMath.distanceMeters(anchorLatitude, anchorLongitude, latitude, longitude);
+            if (moved > Math.max(MIN_MOVE_METERS, accuracyMeters)) {
+                distanceMeters += moved;
+                anchorLatitude = latitude;
+                anchorLongitude = longitude;
+            }
+        }
+        fixCount++;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        lastFixMillis = timeMillis;
+    }
+
+    /**
+     * Re-evaluates the mode after a fix or a step count.
+     * @return the mode to sample in; compare with the previous result to see whether the location
+     *         request needs to change.
+     */
+    Mode update(double metersToNextStep, boolean offRoute, long nowMillis) {
+        Mode wanted = choose(metersToNextStep, offRoute, nowMillis);
+        if (wanted.ordinal() <= mode.ordinal()) {
+            mode = wanted;
+            pendingMode = null;
+        } else if (wanted != pendingMode) {
+            pendingMode = wanted;
+            pendingUpdates = 1;
+        } else if (++pendingUpdates >= RELAX_AFTER_UPDATES) {
+            mode = wanted;
+            pendingMode = null;
+        }
+        return mode;
+    }
+
+    private Mode choose(double metersToNextStep, boolean offRoute, long nowMillis) {
+        if (fixCount > 0 && nowMillis - lastMovementMillis >= STATIONARY_AFTER_MS) {
+            return Mode.STATIONARY;
+        }
+        if (offRoute) {
+            return Mode.MANEUVER;
+        }
+        // Never assume a slower pace than walking, so a vehicle or a noisy fix errs on the tight side
+        double pace = Double.isNaN(speed) ? 0 : speed;
+        double secondsToNextStep = metersToNextStep / Math.max(pace, RouteProgressTracker.WALKING_SPEED_METERS_PER_SECOND);
+        if (metersToNextStep <= MANEUVER_METERS || secondsToNextStep <= MANEUVER_SECONDS) {
+            return Mode.MANEUVER;
+        }
+        if (metersToNextStep <= APPROACH_METERS || secondsToNextStep <= APPROACH_SECONDS) {
+            return Mode.APPROACH;
+        }
+        return Mode.CRUISE;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    long getFixCount() {
+        return fixCount;
+    }
+
+    double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    /**
+     * Fixes taken per kilometre covered, or 0 before any movement.
+     */
+    double getFixesPerKm() {
+        return distanceMeters >= 1 ? fixCount / (distanceMeters / 1000) : 0;
+    }
+}
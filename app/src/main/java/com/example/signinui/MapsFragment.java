@@ -2,7 +2,10 @@ package com.example.signinui;
 
 import android.Manifest;
 import android.app.AlertDialog;
+import android.content.ComponentName;
 import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
@@ -13,13 +16,11 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
-import android.location.Location;
 import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Looper;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
-import android.speech.tts.TextToSpeech;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
@@ -41,12 +42,11 @@ import androidx.annotation.NonNull;
 import androidx.cardview.widget.CardView;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
+import androidx.fragment.app.FragmentActivity;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.example.signinui.model.TrailDetails; // IMPORT THE SHARED MODEL
 import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 import com.google.firebase.auth.FirebaseAuth;
@@ -56,17 +56,20 @@ import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 
 import org.osmdroid.config.Configuration;
+import org.osmdroid.events.MapListener;
+import org.osmdroid.events.ScrollEvent;
+import org.osmdroid.events.ZoomEvent;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
 import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.util.BoundingBox;
 import org.osmdroid.util.GeoPoint;
+import org.osmdroid.util.MapTileIndex;
 import org.osmdroid.views.MapView;
+import org.osmdroid.views.overlay.FolderOverlay;
 import org.osmdroid.views.overlay.Marker;
-import org.osmdroid.views.overlay.Polyline;
+import org.osmdroid.views.overlay.Overlay;
 import org.osmdroid.views.overlay.ScaleBarOverlay;
 import org.osmdroid.views.overlay.compass.CompassOverlay;
 import org.osmdroid.views.overlay.compass.InternalCompassOrientationProvider;
@@ -75,12 +78,18 @@ import org.osmdroid.views.overlay.mylocation.MyLocationNewOverlay;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.Call;
@@ -89,7 +98,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
-public class MapsFragment extends Fragment implements TextToSpeech.OnInitListener, SensorEventListener {
+public class MapsFragment extends Fragment implements SensorEventListener {
     private static final String STEP_PREFS = "StepPreferences";
     private static final String TOTAL_STEPS_KEY = "total_steps";
     private static final String CURRENT_LEVEL_KEY = "current_level";
@@ -104,19 +113,66 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
             .connectTimeout(30, TimeUnit.SECONDS)
             .readTimeout(30, TimeUnit.SECONDS)
             .build();
-    private final Gson gson = new Gson();
 
-    // Filter variables
-    private String currentFilter = "all";
-    private final List<Polyline> allTrailLines = new ArrayList<>();
-    private final List<Marker> allTrailMarkers = new ArrayList<>();
+    // Routing results, so repeated navigations to a trailhead start instantly and work offline
+    private static final long ROUTE_CACHE_MAX_BYTES = 5 * 1024 * 1024;
+    private RouteCache routeCache;
+    private final ExecutorService routeExecutor = Executors.newSingleThreadExecutor();
+
+    // Offline tile packs, one per downloaded trail region
+    private static final int OFFLINE_MIN_ZOOM = 12;
+    private static final int OFFLINE_MAX_ZOOM = 16;
+    // About 3 km around the trail
+    private static final double OFFLINE_PADDING_DEGREES = 0.03;
+    // The tile servers ask for modest bulk download rates
+    private static final int OFFLINE_DOWNLOAD_THREADS = 2;
+    private static final long OFFLINE_REQUEST_INTERVAL_MS = 250;
+    private File tilePackDirectory;
+    private final ExecutorService tilePackExecutor = Executors.newSingleThreadExecutor();
+    private TilePackDownloader activeTileDownload;
+
+    // Trail ways from OpenStreetMap, kept on disk in tiles
+    private static final long TRAIL_WAY_CACHE_MAX_BYTES = 10 * 1024 * 1024;
+    // Ways fetched around a trailhead, and the part of them counted as its trails
+    private static final double TRAIL_WAY_SEARCH_METERS = 1500;
+    private static final double TRAILHEAD_REACH_METERS = 300;
+    // Zoom from which panning shows stored ways; below it they would be too dense to matter
+    private static final int TRAIL_WAY_MIN_ZOOM = 14;
+    private TrailWayStore trailWayStore;
+    private final ExecutorService trailWayExecutor = Executors.newSingleThreadExecutor();
+    private final Set<Long> ingestedWayIds = new HashSet<>();
+    private boolean storedWaysLoadPending;
+
+    // Places searches for trailheads, merged and kept per area
+    private static final String[] TRAILHEAD_KEYWORDS = {"hiking trail", "nature trail", "bike trail", "running track"};
+    private static final int TRAILHEAD_RADIUS_METERS = 15000;
+    private TrailheadSearch trailheadSearch;
+
+    // Terrain heights from SRTM files copied onto the device; nothing is downloaded
+    private ElevationService elevationService;
+    private final ExecutorService elevationExecutor = Executors.newSingleThreadExecutor();
+
+    // Filter variables; every trail marker and line is classified into the filter once, when added
+    private final TrailFilter<Overlay> trailFilter = new TrailFilter<>();
     private final Map<String, TrailDetails> trailDetailsMap = new HashMap<>();
-
-    // Navigation related variables
+    private final Map<String, Marker> trailMarkers = new HashMap<>();
+
+    // Trail markers and lines, of which only those near the viewport are attached to the map
+    private final GeoGridIndex<Overlay> trailIndex = new GeoGridIndex<>();
+    private final List<Overlay> nearbyTrailOverlays = new ArrayList<>();
+    // Filter ids of the same overlays, to find which of them a filter change affects
+    private final BitSet nearbyTrailIds = new BitSet();
+    private FolderOverlay trailLayer;
+    // Trailhead markers go here instead, to be clustered at low zoom
+    private TrailClusterOverlay trailClusters;
+    private final List<Marker> nearbyTrailMarkers = new ArrayList<>();
+    // Area whose trails are attached: the viewport plus a margin, so panning within it needs no query
+    private BoundingBox attachedTrailBounds;
+    private static final float TRAIL_VIEWPORT_SCALE = 2f;
+
+    // Navigation related variables; the session itself runs in NavigationService
     private boolean isNavigating = false;
-    private NavigationData currentNavigation = null;
-    private TextToSpeech textToSpeech;
-    private LocationCallback navigationLocationCallback;
+    private NavigationViewModel navigationViewModel;
 
     // Navigation UI elements
     private CardView navigationPanel;
@@ -127,6 +183,9 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
     private TextView stepsCountView;
     private ProgressBar navigationProgress;
     private Button stopNavigationButton;
+    private View elevationSection;
+    private TextView climbRemainingView;
+    private ElevationProfileView elevationProfileView;
 
     // Step Counter variables
     private SensorManager sensorManager;
@@ -136,37 +195,12 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
 
     // Current location tracking for navigation
     private GeoPoint lastKnownLocation;
-    private Polyline navigationRoute;
-    private List<NavigationStep> navigationSteps;
-    private int currentStepIndex = 0;
-
-    // Data classes
-    private static class NavigationData {
-        String trailName, trailType;
-        List<GeoPoint> routePoints;
-        double totalDistanceMeters;
-
-        NavigationData(String trailName, List<GeoPoint> routePoints, String trailType, double totalDistanceMeters) {
-            this.trailName = trailName;
-            this.routePoints = routePoints;
-            this.trailType = trailType;
-            this.totalDistanceMeters = totalDistanceMeters;
-        }
-    }
+    private RouteOverlay navigationRoute;
+    private ElevationProfile navigationProfile;
 
-    private static class NavigationStep {
-        GeoPoint point;
-        String instruction;
-        double distance;
-        String direction;
-
-        NavigationStep(GeoPoint point, String instruction, double distance, String direction) {
-            this.point = point;
-            this.instruction = instruction;
-            this.distance = distance;
-            this.direction = direction;
-        }
-    }
+    // Bluetooth Service, used to share routes with nearby friends
+    private BluetoothService bluetoothService;
+    private boolean isServiceBound = false;
 
     private final ActivityResultLauncher<String[]> requestPermissionsLauncher =
             registerForActivityResult(new ActivityResultContracts.RequestMultiplePermissions(), permissions -> {
@@ -212,10 +246,28 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         Configuration.getInstance().setOsmdroidBasePath(new File(ctx.getCacheDir(), "osmdroid"));
         Configuration.getInstance().setOsmdroidTileCache(new File(ctx.getCacheDir(), "tiles"));
 
+        routeCache = new RouteCache(new File(ctx.getFilesDir(), "route_cache"), ROUTE_CACHE_MAX_BYTES);
+        trailWayStore = new TrailWayStore(new File(ctx.getFilesDir(), "trail_ways"), TRAIL_WAY_CACHE_MAX_BYTES,
+                new OverpassTrails(client, OverpassTrails.DEFAULT_ENDPOINT));
+        tilePackDirectory = new File(ctx.getFilesDir(), "tile_packs");
+        if (!tilePackDirectory.isDirectory() && !tilePackDirectory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + tilePackDirectory);
+        }
+        trailheadSearch = new TrailheadSearch(client, getString(R.string.map_api),
+                TRAILHEAD_KEYWORDS, TRAILHEAD_RADIUS_METERS);
+        // Shared storage if there is any, so the files can be copied over USB
+        File demDirectory = ctx.getExternalFilesDir("dem");
+        if (demDirectory == null) {
+            demDirectory = new File(ctx.getFilesDir(), "dem");
+        }
+        if (!demDirectory.isDirectory() && !demDirectory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + demDirectory);
+        }
+        elevationService = new ElevationService(demDirectory);
+
         View view = inflater.inflate(R.layout.fragment_maps, container, false);
         mapView = view.findViewById(R.id.map);
 
-        textToSpeech = new TextToSpeech(requireContext(), this);
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(requireActivity());
 
         sensorManager = (SensorManager) requireActivity().getSystemService(Context.SENSOR_SERVICE);
@@ -225,6 +277,7 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
 
         initializeLevelThresholds();
 
+        mapView.setTileProvider(new ArchiveTileProvider(ctx, TileSourceFactory.OpenTopo, tilePackDirectory));
         mapView.setTileSource(TileSourceFactory.OpenTopo);
         mapView.setMultiTouchControls(true);
 
@@ -242,6 +295,14 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         return view;
     }
 
+    @Override
+    public void onViewCreated(@NonNull View view, Bundle savedInstanceState) {
+        super.onViewCreated(view, savedInstanceState);
+        // Shared with the floating overlay: both draw whatever the navigation service publishes
+        navigationViewModel = new ViewModelProvider(requireActivity()).get(NavigationViewModel.class);
+        navigationViewModel.getNavigationState().observe(getViewLifecycleOwner(), this::renderNavigationState);
+    }
+
     private void initNavigationUI(View view) {
         navigationPanel = view.findViewById(R.id.navigation_panel);
         navigationInstruction = view.findViewById(R.id.navigation_instruction);
@@ -251,6 +312,9 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         stepsCountView = view.findViewById(R.id.steps_count);
         navigationProgress = view.findViewById(R.id.navigation_progress);
         stopNavigationButton = view.findViewById(R.id.stop_navigation_button);
+        elevationSection = view.findViewById(R.id.elevation_section);
+        climbRemainingView = view.findViewById(R.id.climb_remaining);
+        elevationProfileView = view.findViewById(R.id.elevation_profile);
         if (stopNavigationButton != null) {
             stopNavigationButton.setOnClickListener(v -> stopNavigation());
         }
@@ -259,18 +323,6 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         }
     }
 
-    @Override
-    public void onInit(int status) {
-        if (status == TextToSpeech.SUCCESS) {
-            int result = textToSpeech.setLanguage(Locale.getDefault());
-            if (result == TextToSpeech.LANG_MISSING_DATA || result == TextToSpeech.LANG_NOT_SUPPORTED) {
-                Log.w(TAG, "TTS Language not supported");
-            }
-        } else {
-            Log.e(TAG, "TTS initialization failed");
-        }
-    }
-
     private void requestLocationAndActivityPermissions() {
         List<String> permissionsToRequest = new ArrayList<>();
 
@@ -382,87 +434,83 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
     // --- NAVIGATION LOGIC ---
 
     private void stopNavigation() {
-        isNavigating = false;
-        currentNavigation = null;
-        if (navigationRoute != null) {
-            mapView.getOverlays().remove(navigationRoute);
-            navigationRoute = null;
-        }
-        if (navigationLocationCallback != null) {
-            fusedLocationClient.removeLocationUpdates(navigationLocationCallback);
-            navigationLocationCallback = null;
-        }
-        if (navigationPanel != null) {
-            navigationPanel.setVisibility(View.GONE);
-        }
-
-        // Stop the step counter and save the final count
-        stopStepCounter();
-
-        mapView.invalidate();
+        Intent intent = new Intent(requireContext(), NavigationService.class);
+        intent.setAction(NavigationService.ACTION_STOP_NAVIGATION);
+        requireContext().startService(intent);
         Toast.makeText(requireContext(), "Navigation stopped", Toast.LENGTH_SHORT).show();
     }
 
-    private void startNavigationWithRealData(TrailDetails details, List<GeoPoint> realRoutePoints, List<NavigationStep> realSteps, double totalDistanceMeters) {
-        try {
-            if (realRoutePoints.size() < 2) {
-                Toast.makeText(requireContext(), "Invalid route data received.", Toast.LENGTH_SHORT).show();
+    /**
+     * Hands the route to the navigation service, which owns the session from then on.
+     * @param encodedRoute the route encoded with {@link RouteCodec}.
+     */
+    private void startNavigationWithRealData(String trailName, byte[] encodedRoute) {
+        Intent intent = new Intent(requireContext(), NavigationService.class);
+        intent.putExtra(NavigationService.EXTRA_ROUTE, encodedRoute);
+        ContextCompat.startForegroundService(requireContext(), intent);
+        Toast.makeText(requireContext(), "Navigation started for " + trailName, Toast.LENGTH_SHORT).show();
+    }
+
+    private void renderNavigationState(NavigationSession.State state) {
+        if (state == null) {
+            if (!isNavigating) {
                 return;
             }
-            isNavigating = true;
-            currentNavigation = new NavigationData(
-                    details.name,
-                    realRoutePoints,
-                    details.type,
-                    totalDistanceMeters
-            );
+            isNavigating = false;
+            if (navigationRoute != null) {
+                mapView.getOverlays().remove(navigationRoute);
+                navigationRoute = null;
+            }
+            showElevationProfile(null);
+            if (navigationPanel != null) {
+                navigationPanel.setVisibility(View.GONE);
+            }
 
-            this.navigationSteps = realSteps;
-            this.currentStepIndex = 0;
+            // Stop the step counter and save the final count
+            stopStepCounter();
+            mapView.invalidate();
+            return;
+        }
 
+        if (!isNavigating) {
+            isNavigating = true;
             if (navigationPanel != null) {
                 navigationPanel.setVisibility(View.VISIBLE);
             }
-
             // Start the step counter
             startStepCounter();
-
-            drawNavigationRoute(realRoutePoints);
-            startNavigationLocationUpdates();
-            updateNavigationUI();
-
-            Toast.makeText(requireContext(), "Navigation started for " + details.name, Toast.LENGTH_SHORT).show();
-        } catch (Exception e) {
-            Log.e(TAG, "Error starting navigation with real data", e);
         }
-    }
-
-    private void updateNavigationUI() {
-        if (navigationSteps == null || currentStepIndex >= navigationSteps.size() || !isNavigating) {
-            return;
+        // A detour or a shared route replaces the geometry; otherwise the overlay is kept as is
+        if (navigationRoute == null || navigationRoute.getRoute() != state.route.geometry) {
+            drawNavigationRoute(state.route.geometry);
+        }
+        if (state.hasFix()) {
+            lastKnownLocation = new GeoPoint(state.latitude, state.longitude);
         }
 
-        final NavigationStep currentStep = navigationSteps.get(currentStepIndex);
-
-        requireActivity().runOnUiThread(() -> {
-            navigationInstruction.setText(currentStep.instruction);
-
-            double distanceToNextStep = calculateDistance(lastKnownLocation, currentStep.point);
-            distanceToNext.setText(String.format(Locale.US, "%.0f m", distanceToNextStep));
+        if (state.arrived) {
+            navigationInstruction.setText("You have arrived at your destination.");
+        } else {
+            navigationInstruction.setText(state.offRoute ? "Off route. Recalculating..." : state.instruction);
+        }
+        if (!state.matched) {
+            return; // A shared route can start before our first fix
+        }
 
-            double remainingDist = calculateRemainingDistance();
-            remainingDistance.setText(String.format(Locale.US, "%.1f km", remainingDist / 1000));
+        // All of these are lookups in the route's distance table, whatever the route length
+        distanceToNext.setText(String.format(Locale.US, "%.0f m", state.metersToNextStep));
+        remainingDistance.setText(String.format(Locale.US, "%.1f km", state.remainingMeters / 1000));
+        estimatedTime.setText(String.format(Locale.US, "%d min", state.etaMinutes));
 
-            int minutes = (int) ((remainingDist / 1000) / 5 * 60);
-            estimatedTime.setText(String.format(Locale.US, "%d min", minutes));
+        int progress = (int) (state.progress * 100);
+        navigationProgress.setProgress(Math.max(0, Math.min(100, progress)));
 
-            double totalDistance = currentNavigation.totalDistanceMeters;
-            if (totalDistance > 0) {
-                double traveled = totalDistance - remainingDist;
-                int progress = (int) ((traveled / totalDistance) * 100);
-                navigationProgress.setProgress(Math.max(0, Math.min(100, progress)));
-            }
-        });
+        if (navigationProfile != null) {
+            double metersAlong = navigationProfile.getLengthMeters() - state.remainingMeters;
+            climbRemainingView.setText(String.format(Locale.US, "Climb left: %.0f m",
+                    navigationProfile.getClimbRemaining(metersAlong)));
+            elevationProfileView.setProgress((float) (metersAlong / navigationProfile.getLengthMeters()));
+        }
     }
 
     // --- LIFECYCLE METHODS ---
@@ -470,16 +518,17 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (textToSpeech != null) {
-            textToSpeech.stop();
-            textToSpeech.shutdown();
-        }
-        if (navigationLocationCallback != null) {
-            fusedLocationClient.removeLocationUpdates(navigationLocationCallback);
-        }
         if (sensorManager != null) {
             sensorManager.unregisterListener(this);
         }
+        routeExecutor.shutdown();
+        if (activeTileDownload != null) {
+            activeTileDownload.cancel();
+        }
+        tilePackExecutor.shutdown();
+        trailWayExecutor.shutdown();
+        elevationExecutor.execute(elevationService::close);
+        elevationExecutor.shutdown();
         mapView.onDetach();
     }
 
@@ -501,6 +550,309 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         }
     }
 
+    @Override
+    public void onStart() {
+        super.onStart();
+        Intent intent = new Intent(requireContext(), BluetoothService.class);
+        requireContext().bindService(intent, serviceConnection, Context.BIND_AUTO_CREATE);
+    }
+
+    @Override
+    public void onStop() {
+        super.onStop();
+        if (isServiceBound) {
+            bluetoothService.unregisterMessageHandler(BluetoothFrameCodec.TYPE_ROUTE_SHARE, routeShareHandler);
+            requireContext().unbindService(serviceConnection);
+            isServiceBound = false;
+        }
+    }
+
+    // --- ROUTE SHARING ---
+
+    // Routes computed by a friend's phone; we navigate them without calling the routing server
+    private final BluetoothMessageDispatcher.MessageHandler routeShareHandler = (deviceAddress, payload) -> {
+        if (!isAdded()) return;
+        RouteCodec.Route route;
+        try {
+            route = RouteCodec.decode(payload, 0, payload.length);
+        } catch (IOException e) {
+            Log.e(TAG, "Invalid route shared by " + deviceAddress, e);
+            return;
+        }
+
+        // The service replaces any route it is following
+        Toast.makeText(requireContext(), "A friend shared a route", Toast.LENGTH_SHORT).show();
+        startNavigationWithRealData(route.details.name, payload);
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            BluetoothService.LocalBinder binder = (BluetoothService.LocalBinder) service;
+            bluetoothService = binder.getService();
+            isServiceBound = true;
+            bluetoothService.registerMessageHandler(BluetoothFrameCodec.TYPE_ROUTE_SHARE, routeShareHandler);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            isServiceBound = false;
+        }
+    };
+
+    private void shareRoute(byte[] encodedRoute) {
+        if (!isServiceBound || bluetoothService == null) {
+            return;
+        }
+        if (encodedRoute.length > BluetoothFrameCodec.MAX_PAYLOAD_SIZE) {
+            Log.w(TAG, "Route too large to share: " + encodedRoute.length + " bytes");
+            return;
+        }
+        int peers = bluetoothService.sendRouteShare(encodedRoute);
+        if (peers > 0) {
+            Log.d(TAG, "Shared route (" + encodedRoute.length + " bytes) with " + peers + " peer(s)");
+            Toast.makeText(requireContext(), "Route shared with " + peers + " nearby friend(s)", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    // --- TRAIL GEOMETRY ---
+
+    /**
+     * Fetches the OSM trails around a trailhead, draws them and replaces the made-up distance
+     * with the length of the trails that start there.
+     */
+    private void loadTrailWays(TrailDetails details, TextView distanceView) {
+        if (details.routePoints.isEmpty()) {
+            return;
+        }
+        GeoPoint trailhead = details.routePoints.get(0);
+        double latitudeSpan = Math.toDegrees(TRAIL_WAY_SEARCH_METERS / GeoMath.EARTH_RADIUS_METERS);
+        double longitudeSpan = latitudeSpan / Math.cos(Math.toRadians(trailhead.getLatitude()));
+        trailWayExecutor.execute(() -> {
+            List<TrailWay> ways;
+            try {
+                ways = trailWayStore.waysIn(trailhead.getLatitude() - latitudeSpan, trailhead.getLongitude() - longitudeSpan,
+                        trailhead.getLatitude() + latitudeSpan, trailhead.getLongitude() + longitudeSpan, true);
+            } catch (IOException e) {
+                Log.w(TAG, "Trail geometry unavailable", e);
+                return;
+            }
+            double trailMeters = 0;
+            for (TrailWay way : ways) {
+                if (way.distanceToMeters(trailhead.getLatitude(), trailhead.getLongitude()) <= TRAILHEAD_REACH_METERS) {
+                    trailMeters += way.getLengthMeters();
+                }
+            }
+            Log.d(TAG, String.format(Locale.US, "%d trail ways near %s, %.1f km from the trailhead; %d Overpass requests, %d tiles from disk",
+                    ways.size(), details.name, trailMeters / 1000, trailWayStore.getRequestCount(), trailWayStore.getTileHitCount()));
+
+            double measuredMeters = trailMeters;
+            List<LinePyramid> pyramids = buildPyramids(ways);
+            FragmentActivity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(() -> {
+                if (mapView == null || !isAdded()) return;
+                addTrailWays(ways, pyramids);
+                if (measuredMeters > 0) {
+                    details.distance = String.format(Locale.US, "%.1f km", measuredMeters / 1000);
+                    distanceView.setText(details.distance);
+                    reclassifyTrailhead(details);
+                }
+            });
+        });
+    }
+
+    /**
+     * Shows stored ways in the viewport when zoomed in, without going to the network.
+     */
+    private void loadStoredTrailWays(BoundingBox viewport) {
+        if (storedWaysLoadPending || mapView.getZoomLevelDouble() < TRAIL_WAY_MIN_ZOOM) {
+            return;
+        }
+        storedWaysLoadPending = true;
+        trailWayExecutor.execute(() -> {
+            List<TrailWay> ways;
+            try {
+                ways = trailWayStore.waysIn(viewport.getLatSouth(), viewport.getLonWest(),
+                        viewport.getLatNorth(), viewport.getLonEast(), false);
+            } catch (IOException | IllegalArgumentException e) {
+                ways = new ArrayList<>();
+            }
+            List<TrailWay> stored = ways;
+            List<LinePyramid> pyramids = buildPyramids(stored);
+            FragmentActivity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(() -> {
+                storedWaysLoadPending = false;
+                if (mapView != null && isAdded()) {
+                    addTrailWays(stored, pyramids);
+                }
+            });
+        });
+    }
+
+    private static List<LinePyramid> buildPyramids(List<TrailWay> ways) {
+        List<LinePyramid> pyramids = new ArrayList<>(ways.size());
+        for (TrailWay way : ways) {
+            pyramids.add(LinePyramid.fromLevels(way.levels));
+        }
+        return pyramids;
+    }
+
+    private void addTrailWays(List<TrailWay> ways, List<LinePyramid> pyramids) {
+        int added = 0;
+        for (int i = 0; i < ways.size(); i++) {
+            TrailWay way = ways.get(i);
+            if (!ingestedWayIds.add(way.id)) {
+                continue;
+            }
+            RouteOverlay line = new RouteOverlay(way.geometry,
+                    Color.parseColor(way.type.equals("cycleway") ? "#1E88E5" : "#8D6E63"), 6f);
+            line.setPyramid(pyramids.get(i));
+            indexTrailOverlay(line, TrailFilter.classifyWay(way.type, way.getLengthMeters()));
+            added++;
+        }
+        if (added > 0) {
+            updateVisibleTrails(true);
+        }
+    }
+
+    // --- ELEVATION ---
+
+    private void loadElevationProfile(PackedRoute route, RouteOverlay overlay) {
+        elevationExecutor.execute(() -> {
+            long startNanos = System.nanoTime();
+            ElevationProfile profile = elevationService.profile(route);
+            if (profile == null) {
+                Log.d(TAG, "No height data along the route");
+                return;
+            }
+            Log.d(TAG, String.format(Locale.US, "Elevation profile in %d ms: %.0f m up, %.0f m down",
+                    (System.nanoTime() - startNanos) / 1_000_000, profile.getAscentMeters(), profile.getDescentMeters()));
+            FragmentActivity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(() -> {
+                // The route may have been replaced or ended meanwhile
+                if (navigationRoute == overlay && isAdded()) {
+                    showElevationProfile(profile);
+                }
+            });
+        });
+    }
+
+    private void showElevationProfile(ElevationProfile profile) {
+        navigationProfile = profile;
+        if (elevationSection == null) {
+            return;
+        }
+        elevationSection.setVisibility(profile != null ? View.VISIBLE : View.GONE);
+        elevationProfileView.setProfile(profile);
+        if (profile != null) {
+            climbRemainingView.setText(String.format(Locale.US, "Climb left: %.0f m", profile.getAscentMeters()));
+            elevationProfileView.setProgress(0f);
+        }
+    }
+
+    private void loadTrailheadElevation(TrailDetails details, TextView elevationView) {
+        if (details.routePoints.isEmpty()) {
+            return;
+        }
+        GeoPoint trailhead = details.routePoints.get(0);
+        elevationExecutor.execute(() -> {
+            double meters = elevationService.elevationAt(trailhead.getLatitude(), trailhead.getLongitude());
+            if (Double.isNaN(meters)) {
+                return;
+            }
+            FragmentActivity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(() -> {
+                details.elevation = String.format(Locale.US, "%.0f m", meters);
+                elevationView.setText(details.elevation);
+            });
+        });
+    }
+
+    // --- OFFLINE MAPS ---
+
+    private void downloadOfflineMap(TrailDetails details) {
+        if (activeTileDownload != null) {
+            Toast.makeText(requireContext(), "An offline map is already downloading", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (details.routePoints.isEmpty()) {
+            return;
+        }
+        double minLat = 90, minLon = 180, maxLat = -90, maxLon = -180;
+        for (GeoPoint point : details.routePoints) {
+            minLat = Math.min(minLat, point.getLatitude());
+            maxLat = Math.max(maxLat, point.getLatitude());
+            minLon = Math.min(minLon, point.getLongitude());
+            maxLon = Math.max(maxLon, point.getLongitude());
+        }
+        double south = minLat - OFFLINE_PADDING_DEGREES;
+        double north = maxLat + OFFLINE_PADDING_DEGREES;
+        double west = minLon - OFFLINE_PADDING_DEGREES;
+        double east = maxLon + OFFLINE_PADDING_DEGREES;
+        int tiles = TilePackDownloader.countTiles(south, west, north, east, OFFLINE_MIN_ZOOM, OFFLINE_MAX_ZOOM);
+        if (tiles > TilePackDownloader.MAX_TILES) {
+            Toast.makeText(requireContext(), "This area is too large to download", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        OnlineTileSourceBase tileSource = TileSourceFactory.OpenTopo;
+        TilePackDownloader downloader = new TilePackDownloader(client,
+                (zoom, x, y) -> tileSource.getTileURLString(MapTileIndex.getTileIndex(zoom, x, y)),
+                OFFLINE_DOWNLOAD_THREADS, OFFLINE_REQUEST_INTERVAL_MS);
+        activeTileDownload = downloader;
+        Toast.makeText(requireContext(), "Downloading offline map for " + details.name, Toast.LENGTH_SHORT).show();
+
+        String fileName = details.id.replaceAll("[^A-Za-z0-9_-]", "_");
+        File partFile = new File(tilePackDirectory, fileName + ".part");
+        File packFile = new File(tilePackDirectory, fileName + ArchiveTileProvider.PACK_EXTENSION);
+        tilePackExecutor.execute(() -> {
+            String result;
+            boolean finished = false;
+            try (TileArchive.Writer writer = new TileArchive.Writer(partFile, tileSource.name())) {
+                int failed = downloader.download(south, west, north, east, OFFLINE_MIN_ZOOM, OFFLINE_MAX_ZOOM,
+                        writer, (done, total) -> {
+                            if (done % 100 == 0 || done == total) {
+                                Log.d(TAG, "Offline map: " + done + "/" + total + " tiles");
+                            }
+                        });
+                if (failed == 0) {
+                    writer.finish(packFile);
+                    finished = true;
+                    result = "Offline map ready for " + details.name;
+                } else {
+                    // Kept as a part file; downloading again fetches only the missing tiles
+                    result = failed + " map tiles failed; download again to finish";
+                }
+            } catch (InterruptedIOException e) {
+                result = null;
+            } catch (IOException e) {
+                Log.e(TAG, "Offline map download failed", e);
+                result = "Offline map download failed; download again to resume";
+            }
+
+            String message = result;
+            boolean reload = finished;
+            FragmentActivity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(() -> {
+                activeTileDownload = null;
+                if (mapView == null || !isAdded()) return;
+                if (reload) {
+                    mapView.setTileProvider(new ArchiveTileProvider(requireContext().getApplicationContext(),
+                            tileSource, tilePackDirectory));
+                    mapView.setTileSource(tileSource);
+                }
+                if (message != null) {
+                    Toast.makeText(requireContext(), message, Toast.LENGTH_LONG).show();
+                }
+            });
+        });
+    }
+
     // --- HELPER METHODS ---
 
     private void fetchRealRouteAndStartNavigation(TrailDetails details) {
@@ -511,74 +863,83 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
 
         GeoPoint startPoint = lastKnownLocation;
         GeoPoint endPoint = details.routePoints.get(0);
-
+        String cacheKey = RouteCache.keyFor(OrsDirections.PROFILE, startPoint, endPoint);
         String apiKey = getString(R.string.ors_api_key);
-        String url = "https://api.openrouteservice.org/v2/directions/foot-hiking/geojson";
 
-        String postBody = String.format(Locale.US,
-                "{\"coordinates\":[[%f,%f],[%f,%f]]}",
-                startPoint.getLongitude(), startPoint.getLatitude(),
-                endPoint.getLongitude(), endPoint.getLatitude()
-        );
+        routeExecutor.execute(() -> {
+            RouteCodec.Route cached = routeCache.get(cacheKey);
+            Log.d(TAG, String.format(Locale.US, "Route cache %s: hit ratio %.2f, %d routes, %d KB on disk",
+                    cached != null ? "hit" : "miss", routeCache.getHitRatio(),
+                    routeCache.getEntryCount(), routeCache.getDiskUsageBytes() / 1024));
+            if (cached == null) {
+                requestRoute(details, startPoint, endPoint, cacheKey, apiKey);
+                return;
+            }
 
-        okhttp3.RequestBody body = okhttp3.RequestBody.create(postBody, okhttp3.MediaType.parse("application/json; charset=utf-8"));
-        Request request = new Request.Builder()
-                .url(url)
-                .header("Authorization", apiKey)
-                .post(body)
-                .build();
+            byte[] encodedRoute = RouteCodec.encode(new RouteCodec.Route(details, cached.geometry,
+                    cached.stepPointIndices, cached.stepInstructions, cached.stepDistances, cached.totalDistanceMeters));
+            FragmentActivity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(() -> {
+                if (!isAdded()) return;
+                startNavigationWithRealData(details.name, encodedRoute);
+                shareRoute(encodedRoute);
+            });
+        });
+    }
+
+    private void requestRoute(TrailDetails details, GeoPoint startPoint, GeoPoint endPoint, String cacheKey, String apiKey) {
+        Request request = OrsDirections.request(startPoint, endPoint, apiKey);
 
         client.newCall(request).enqueue(new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
                 Log.e(TAG, "Openrouteservice fetch failed", e);
-                requireActivity().runOnUiThread(() ->
-                        Toast.makeText(requireContext(), "Failed to calculate route.", Toast.LENGTH_SHORT).show()
-                );
+                showRouteFailure();
             }
 
             @Override
-            public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                if (!response.isSuccessful() || response.body() == null) {
-                    Log.e(TAG, "Openrouteservice response error: " + response.code() + " " + response.message());
-                    return;
-                }
-
-                try {
-                    String responseData = response.body().string();
-                    JsonObject json = gson.fromJson(responseData, JsonObject.class);
-
-                    JsonArray features = json.getAsJsonArray("features");
-                    if (features == null || features.size() == 0) return;
-
-                    JsonObject feature = features.get(0).getAsJsonObject();
-                    JsonObject properties = feature.getAsJsonObject("properties");
-                    JsonObject summary = properties.getAsJsonArray("segments").get(0).getAsJsonObject();
-                    JsonObject geometry = feature.getAsJsonObject("geometry");
-
-                    double realTotalDistanceMeters = summary.get("distance").getAsDouble();
-                    JsonArray stepsJson = summary.getAsJsonArray("steps");
-                    JsonArray coordinates = geometry.getAsJsonArray("coordinates");
-
-                    List<GeoPoint> routePoints = new ArrayList<>();
-                    for (JsonElement coord : coordinates) {
-                        JsonArray lonLat = coord.getAsJsonArray();
-                        routePoints.add(new GeoPoint(lonLat.get(1).getAsDouble(), lonLat.get(0).getAsDouble()));
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                try (response) {
+                    if (!response.isSuccessful() || response.body() == null) {
+                        Log.e(TAG, "Openrouteservice response error: " + response.code() + " " + response.message());
+                        showRouteFailure();
+                        return;
                     }
 
-                    List<NavigationStep> navigationSteps = parseOrsSteps(stepsJson, routePoints);
-
-                    requireActivity().runOnUiThread(() -> {
-                        startNavigationWithRealData(details, routePoints, navigationSteps, realTotalDistanceMeters);
+                    // Streamed straight from the socket; the body is never held as a String or JSON tree
+                    OrsRouteParser.ParsedRoute parsed = OrsRouteParser.parse(response.body().charStream());
+                    PackedRoute route = PackedRoute.of(parsed.latitudes, parsed.longitudes);
+                    byte[] encodedRoute = RouteCodec.encode(new RouteCodec.Route(details, route, parsed.stepPointIndices,
+                            parsed.stepInstructions, parsed.stepDistances, parsed.totalDistanceMeters));
+                    routeCache.put(cacheKey, encodedRoute);
+
+                    FragmentActivity activity = getActivity();
+                    if (activity == null) return;
+                    activity.runOnUiThread(() -> {
+                        if (!isAdded()) return;
+                        startNavigationWithRealData(details.name, encodedRoute);
+                        shareRoute(encodedRoute);
                     });
 
                 } catch (Exception e) {
                     Log.e(TAG, "Error parsing ORS response", e);
+                    showRouteFailure();
                 }
             }
         });
     }
 
+    // Called from OkHttp's threads, possibly after the fragment was detached
+    private void showRouteFailure() {
+        FragmentActivity activity = getActivity();
+        if (activity == null) return;
+        activity.runOnUiThread(() -> {
+            if (!isAdded()) return;
+            Toast.makeText(requireContext(), "Failed to calculate route.", Toast.LENGTH_SHORT).show();
+        });
+    }
+
     private void setupTrailTypeSpinner(View view) {
         trailTypeSpinner = view.findViewById(R.id.trail_type_spinner);
         ArrayAdapter<CharSequence> adapter = ArrayAdapter.createFromResource(requireContext(), R.array.trail_types_array, android.R.layout.simple_spinner_item);
@@ -597,87 +958,194 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
 
     private void applyFilterFromSpinner(String selectedItem) {
         String filter;
+        int activities;
         switch (selectedItem) {
             case "Hiking Trails":
                 filter = "hiking";
+                activities = TrailFilter.Trait.HIKING.bit;
                 break;
             case "Running Trails":
                 filter = "running";
+                activities = TrailFilter.Trait.RUNNING.bit;
                 break;
             case "Cycling Trails":
                 filter = "cycling";
+                activities = TrailFilter.Trait.CYCLING.bit;
                 break;
             default:
                 filter = "all";
+                activities = 0;
                 break;
         }
-        applyFilter(filter);
+        applyFilter(filter, activities);
     }
 
-    private void applyFilter(String filterType) {
-        currentFilter = filterType;
-        filterTrails();
+    private void applyFilter(String filterType, int activities) {
+        filterTrails(trailFilter.getCriteria().withActivities(activities));
         Toast.makeText(requireContext(), "Showing " + filterType + " trails", Toast.LENGTH_SHORT).show();
     }
 
-    private void filterTrails() {
-        List<org.osmdroid.views.overlay.Overlay> overlaysToKeep = new ArrayList<>();
-        if (myLocationOverlay != null) overlaysToKeep.add(myLocationOverlay);
-        if (navigationRoute != null) overlaysToKeep.add(navigationRoute);
-
-        mapView.getOverlays().retainAll(overlaysToKeep);
+    /**
+     * Applies new filter criteria by attaching and detaching only the nearby trails whose
+     * visibility changed.
+     */
+    private void filterTrails(TrailFilter.Criteria criteria) {
+        long startNanos = System.nanoTime();
+        BitSet changed = trailFilter.setCriteria(criteria);
+        int changedCount = changed.cardinality();
+        changed.and(nearbyTrailIds);
+        applyTrailVisibilityChanges(changed);
+        Log.d(TAG, String.format(Locale.US, "Filter over %d trails in %d us: %d changed, %d of them nearby",
+                trailFilter.size(), (System.nanoTime() - startNanos) / 1000, changedCount, changed.cardinality()));
+    }
 
-        for (Marker marker : allTrailMarkers) {
-            String subDescription = marker.getSubDescription();
-            if (shouldShowMarker(subDescription)) {
-                mapView.getOverlays().add(marker);
-            }
+    /**
+     * Attaches or detaches the given trails to match the filter.
+     * @param changed filter ids of nearby trails whose visibility changed.
+     */
+    private void applyTrailVisibilityChanges(BitSet changed) {
+        if (changed.isEmpty() || trailLayer == null) {
+            return;
         }
-
-        for (Polyline line : allTrailLines) {
-            String snippet = line.getSnippet();
-            if (snippet != null && snippet.startsWith("Type: ")) {
-                String trailType = snippet.replace("Type: ", "").toLowerCase();
-                if (shouldShowPolyline(trailType)) {
-                    mapView.getOverlays().add(line);
-                }
+        List<Overlay> attached = trailLayer.getItems();
+        Set<Overlay> detached = new HashSet<>();
+        boolean markersChanged = false;
+        for (int id = changed.nextSetBit(0); id >= 0; id = changed.nextSetBit(id + 1)) {
+            Overlay overlay = trailFilter.get(id);
+            boolean marker = overlay instanceof Marker;
+            markersChanged |= marker;
+            if (!trailFilter.isVisible(id)) {
+                detached.add(overlay);
+            } else if (marker) {
+                nearbyTrailMarkers.add((Marker) overlay);
+            } else {
+                attached.add(overlay);
             }
         }
+        // One pass over each list, however many trails were detached
+        if (!detached.isEmpty()) {
+            attached.removeIf(detached::contains);
+            nearbyTrailMarkers.removeIf(detached::contains);
+        }
+        if (markersChanged) {
+            trailClusters.setMarkers(nearbyTrailMarkers);
+        }
         mapView.invalidate();
     }
-    private boolean shouldShowMarker(String category) {
-        if (category == null) return currentFilter.equals("all");
-        String lc = category.toLowerCase();
-        switch (currentFilter) {
-            case "all":
-                return true;
-            case "hiking":
-                return lc.contains("hiking") || lc.contains("nature") || lc.contains("mountain");
-            case "running":
-                return lc.contains("running") || lc.contains("jogging");
-            case "cycling":
-                return lc.contains("bike") || lc.contains("cycling");
-            default:
-                return false;
+
+    private int classifyTrailhead(Marker marker, TrailDetails details) {
+        return TrailFilter.classifyPlace(marker.getSubDescription(), details.difficulty,
+                parseKilometers(details.distance) * 1000, details.isLiked, details.isSaved);
+    }
+
+    // Distances are shown as "4.2 km"
+    private static double parseKilometers(String distance) {
+        if (distance == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(distance.replace("km", "").trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
         }
     }
 
-    private boolean shouldShowPolyline(String trailType) {
-        switch (currentFilter) {
-            case "all":
-                return true;
-            case "hiking":
-                return trailType.equals("footway") || trailType.equals("path") || trailType.equals("steps");
-            case "running":
-                return trailType.equals("track") || trailType.equals("path");
-            case "cycling":
-                return trailType.equals("cycleway");
-            default:
-                return false;
+    /**
+     * Classifies a trailhead again after its details changed, such as being liked or measured.
+     */
+    private void reclassifyTrailhead(TrailDetails details) {
+        Marker marker = trailMarkers.get(details.id);
+        if (marker == null || !trailFilter.setTraits(marker, classifyTrailhead(marker, details))) {
+            return;
+        }
+        int id = trailFilter.idOf(marker);
+        if (nearbyTrailIds.get(id)) {
+            BitSet changed = new BitSet();
+            changed.set(id);
+            applyTrailVisibilityChanges(changed);
+        }
+    }
+
+    /**
+     * Attaches the trail overlays that are near the viewport and pass the current filter, and
+     * detaches the rest, so that osmdroid only draws and hit-tests what can be on screen.
+     * @param force re-query even if the viewport is still inside the attached area.
+     */
+    private void updateVisibleTrails(boolean force) {
+        if (trailLayer == null || mapView.getWidth() == 0) {
+            return; // Not laid out yet; the first layout triggers an update
+        }
+        BoundingBox viewport = mapView.getBoundingBox();
+        if (!force && attachedTrailBounds != null
+                && viewport.getLatNorth() <= attachedTrailBounds.getLatNorth()
+                && viewport.getLatSouth() >= attachedTrailBounds.getLatSouth()
+                && viewport.getLonEast() <= attachedTrailBounds.getLonEast()
+                && viewport.getLonWest() >= attachedTrailBounds.getLonWest()
+                // After zooming well in, drop what is now far off screen
+                && viewport.getLatitudeSpan() * TRAIL_VIEWPORT_SCALE * 2 >= attachedTrailBounds.getLatitudeSpan()) {
+            return;
+        }
+        attachedTrailBounds = viewport.increaseByScale(TRAIL_VIEWPORT_SCALE);
+        if (!force) {
+            Log.d(TAG, String.format(Locale.US, "Zoom %.1f: %d line vertices in the last frame",
+                    mapView.getZoomLevelDouble(), countDrawnLineVertices()));
+            loadStoredTrailWays(viewport);
+        }
+
+        nearbyTrailOverlays.clear();
+        nearbyTrailIds.clear();
+        trailIndex.query(attachedTrailBounds.getLatSouth(), attachedTrailBounds.getLonWest(),
+                attachedTrailBounds.getLatNorth(), attachedTrailBounds.getLonEast(), nearbyTrailOverlays);
+        List<Overlay> attached = trailLayer.getItems();
+        attached.clear();
+        nearbyTrailMarkers.clear();
+        for (Overlay overlay : nearbyTrailOverlays) {
+            int id = trailFilter.idOf(overlay);
+            nearbyTrailIds.set(id);
+            if (!trailFilter.isVisible(id)) {
+                continue;
+            }
+            if (overlay instanceof Marker) {
+                nearbyTrailMarkers.add((Marker) overlay);
+            } else {
+                attached.add(overlay);
+            }
+        }
+        trailClusters.setMarkers(nearbyTrailMarkers);
+        mapView.invalidate();
+    }
+
+    private void indexTrailOverlay(Overlay overlay, int traits) {
+        trailFilter.add(overlay, traits);
+        if (overlay instanceof Marker) {
+            GeoPoint position = ((Marker) overlay).getPosition();
+            trailIndex.addPoint(overlay, position.getLatitude(), position.getLongitude());
+        } else if (overlay instanceof RouteOverlay) {
+            RouteOverlay line = (RouteOverlay) overlay;
+            trailIndex.add(overlay, line.getSouth(), line.getWest(), line.getNorth(), line.getEast());
         }
     }
 
     private void addMapOverlays() {
+        trailLayer = new FolderOverlay();
+        mapView.getOverlays().add(trailLayer);
+        trailClusters = new TrailClusterOverlay(mapView);
+        mapView.getOverlays().add(trailClusters);
+        mapView.addMapListener(new MapListener() {
+            @Override
+            public boolean onScroll(ScrollEvent event) {
+                updateVisibleTrails(false);
+                return false;
+            }
+
+            @Override
+            public boolean onZoom(ZoomEvent event) {
+                updateVisibleTrails(false);
+                return false;
+            }
+        });
+        mapView.addOnFirstLayoutListener((v, left, top, right, bottom) -> updateVisibleTrails(true));
+
         CompassOverlay compassOverlay = new CompassOverlay(requireContext(), new InternalCompassOrientationProvider(requireContext()), mapView);
         compassOverlay.enableCompass();
         mapView.getOverlays().add(compassOverlay);
@@ -778,77 +1246,44 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
     }
 
     private void fetchNearbyTrailheadsFromGoogle(GeoPoint center) {
-        String apiKey = getString(R.string.map_api);
-        String[] searchTerms = {"hiking trail", "nature trail", "bike trail", "running track"};
-        int radiusMeters = 15000;
-
-        for (String keyword : searchTerms) {
-            String url = "https://maps.googleapis.com/maps/api/place/nearbysearch/json" +
-                    "?location=" + center.getLatitude() + "," + center.getLongitude() +
-                    "&radius=" + radiusMeters +
-                    "&type=park&keyword=" + keyword +
-                    "&key=" + apiKey;
-
-            Request request = new Request.Builder().url(url).build();
-            client.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    Log.e(TAG, "Places fetch failed: " + keyword, e);
-                }
+        trailheadSearch.search(center.getLatitude(), center.getLongitude(), trailheads -> {
+            FragmentActivity activity = getActivity();
+            if (activity != null) {
+                activity.runOnUiThread(() -> addTrailheads(trailheads));
+            }
+        });
+    }
 
-                @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    if (!response.isSuccessful()) return;
-                    String jsonData = response.body().string();
-                    try {
-                        JsonObject root = gson.fromJson(jsonData, JsonObject.class);
-                        JsonArray results = root.getAsJsonArray("results");
-                        if (results != null) {
-                            requireActivity().runOnUiThread(() -> addTrailheadsAndQueryOSM(results, keyword));
-                        }
-                    } catch (Exception ex) {
-                        Log.e(TAG, "Places parse error", ex);
-                    }
-                }
+    private void addTrailheads(List<TrailheadSearch.Trailhead> trailheads) {
+        if (mapView == null) return;
+        int added = 0;
+        for (TrailheadSearch.Trailhead trailhead : trailheads) {
+            // Already on the map from an earlier search
+            if (trailDetailsMap.containsKey(trailhead.placeId)) continue;
+            GeoPoint gp = new GeoPoint(trailhead.latitude, trailhead.longitude);
+            String placeId = trailhead.placeId;
+
+            TrailDetails details = generateTrailDetails(placeId, trailhead.name,
+                    trailhead.categories.get(0), trailhead.rating, gp);
+            loadInitialTrailStatus(details);
+
+            trailDetailsMap.put(placeId, details);
+            Marker m = new Marker(mapView);
+            m.setPosition(gp);
+            m.setTitle(trailhead.name);
+            // All keywords the place was found under, so each matching filter shows it
+            m.setSubDescription(trailhead.getCategoryLabel());
+            m.setOnMarkerClickListener((marker, mapView) -> {
+                showTrailDetailsDialog(placeId, details);
+                return true;
             });
+            trailMarkers.put(placeId, m);
+            indexTrailOverlay(m, classifyTrailhead(m, details));
+            added++;
         }
-    }
-
-    private void addTrailheadsAndQueryOSM(JsonArray results, String category) {
-        int count = Math.min(results.size(), 20);
-        for (int i = 0; i < count; i++) {
-            try {
-                JsonObject place = results.get(i).getAsJsonObject();
-                JsonObject geometry = place.getAsJsonObject("geometry");
-                JsonObject location = geometry.getAsJsonObject("location");
-                double lat = location.get("lat").getAsDouble();
-                double lon = location.get("lng").getAsDouble();
-                GeoPoint gp = new GeoPoint(lat, lon);
-                String name = place.get("name").getAsString();
-                String placeId = place.get("place_id").getAsString();
-                double rating = place.has("rating") ? place.get("rating").getAsDouble() : 0.0;
-
-                TrailDetails details = generateTrailDetails(placeId, name, category, rating, gp);
-                loadInitialTrailStatus(details);
-
-                trailDetailsMap.put(placeId, details);
-                Marker m = new Marker(mapView);
-                m.setPosition(gp);
-                m.setTitle(name);
-                m.setSubDescription(category);
-                m.setOnMarkerClickListener((marker, mapView) -> {
-                    showTrailDetailsDialog(placeId, details);
-                    return true;
-                });
-                allTrailMarkers.add(m);
-                if (shouldShowMarker(category)) {
-                    mapView.getOverlays().add(m);
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error processing place result", e);
-            }
+        if (added > 0) {
+            updateVisibleTrails(true);
         }
-        mapView.invalidate();
     }
 
     /**
@@ -863,7 +1298,8 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         String difficulty = difficulties[random.nextInt(difficulties.length)];
         double distanceKm = 2.0 + random.nextDouble() * 8.0;
         String distance = String.format(Locale.US, "%.1f km", distanceKm);
-        String elevation = String.format(Locale.US, "%d m", 50 + random.nextInt(450));
+        // Filled in from the height data, if any covers the trailhead
+        String elevation = "Unknown";
         String description = "A scenic " + category + " trail rated as " + difficulty + ".";
         double finalRating = (rating == 0.0) ? (3.0 + random.nextDouble() * 2.0) : rating;
 
@@ -882,8 +1318,8 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
 
         addInfoRow(layout, "Type", details.type, Color.BLACK);
         addInfoRow(layout, "Difficulty", details.difficulty, getDifficultyColor(details.difficulty));
-        addInfoRow(layout, "Distance", details.distance, Color.BLACK);
-        addInfoRow(layout, "Elevation", details.elevation, Color.BLACK);
+        TextView distanceView = addInfoRow(layout, "Distance", details.distance, Color.BLACK);
+        TextView elevationView = addInfoRow(layout, "Elevation", details.elevation, Color.BLACK);
         addInfoRow(layout, "Rating", getStarRating(details.rating), Color.parseColor("#FFA500"));
 
         TextView descriptionView = new TextView(requireContext());
@@ -904,6 +1340,7 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
             likeButton.setImageResource(details.isLiked ? R.drawable.ic_fav_border : R.drawable.ic_fav);
             likeButton.setColorFilter(Color.parseColor(details.isLiked ? "#FF4081" : "#757575"));
             saveTrailLikeStatus(details);
+            reclassifyTrailhead(details);
             Toast.makeText(requireContext(), details.isLiked ? "Trail liked!" : "Trail unliked", Toast.LENGTH_SHORT).show();
         });
 
@@ -916,6 +1353,7 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
             saveButton.setImageResource(details.isSaved ? R.drawable.ic_bookmark_filled : R.drawable.ic_bookmark_outline);
             saveButton.setColorFilter(Color.parseColor(details.isSaved ? "#3F51B5" : "#757575"));
             saveTrailStatus(details);
+            reclassifyTrailhead(details);
             Toast.makeText(requireContext(), details.isSaved ? "Trail saved!" : "Trail removed", Toast.LENGTH_SHORT).show();
         });
 
@@ -926,10 +1364,13 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
 
         builder.setView(layout);
         builder.setPositiveButton("Start Navigation", (dialog, which) -> startNavigation(details));
+        builder.setNeutralButton("Offline Map", (dialog, which) -> downloadOfflineMap(details));
         builder.setNegativeButton("Close", null);
 
         AlertDialog dialog = builder.create();
         dialog.show();
+        loadTrailWays(details, distanceView);
+        loadTrailheadElevation(details, elevationView);
 
         Button positiveButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
         positiveButton.setTextColor(Color.WHITE);
@@ -971,6 +1412,7 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
                         @Override
                         public void onDataChange(@NonNull DataSnapshot snapshot) {
                             details.isSaved = snapshot.exists();
+                            reclassifyTrailhead(details);
                         }
 
                         @Override
@@ -984,6 +1426,7 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
                         @Override
                         public void onDataChange(@NonNull DataSnapshot snapshot) {
                             details.isLiked = snapshot.exists();
+                            reclassifyTrailhead(details);
                         }
 
                         @Override
@@ -1003,101 +1446,48 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         fetchRealRouteAndStartNavigation(details);
     }
 
-    private List<NavigationStep> parseOrsSteps(JsonArray stepsJson, List<GeoPoint> routePoints) {
-        List<NavigationStep> steps = new ArrayList<>();
-        if (stepsJson == null) return steps;
-
-        for (JsonElement stepElement : stepsJson) {
-            JsonObject stepObject = stepElement.getAsJsonObject();
-            String instruction = stepObject.get("instruction").getAsString();
-            double distance = stepObject.get("distance").getAsDouble();
-            JsonArray wayPoints = stepObject.get("way_points").getAsJsonArray();
-            int pointIndex = wayPoints.get(0).getAsInt();
-            GeoPoint stepLocation = routePoints.get(pointIndex);
-            steps.add(new NavigationStep(stepLocation, instruction, distance, ""));
-        }
-        return steps;
-    }
-
-    private void drawNavigationRoute(List<GeoPoint> routePoints) {
+    private void drawNavigationRoute(PackedRoute route) {
         if (navigationRoute != null) {
             mapView.getOverlays().remove(navigationRoute);
         }
-        navigationRoute = new Polyline(mapView);
-        navigationRoute.setPoints(routePoints);
-        navigationRoute.setWidth(12f);
-        navigationRoute.setColor(Color.parseColor("#4285F4"));
-        navigationRoute.setTitle("Navigation Route");
-        mapView.getOverlays().add(navigationRoute);
+        RouteOverlay overlay = new RouteOverlay(route, Color.parseColor("#4285F4"), 12f);
+        navigationRoute = overlay;
+        mapView.getOverlays().add(overlay);
         mapView.invalidate();
-    }
 
-    private void startNavigationLocationUpdates() {
-        if (navigationLocationCallback != null) {
-            fusedLocationClient.removeLocationUpdates(navigationLocationCallback);
-        }
-
-        LocationRequest locationRequest = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, 3000)
-                .setMinUpdateIntervalMillis(1000)
-                .build();
-
-        navigationLocationCallback = new LocationCallback() {
-            @Override
-            public void onLocationResult(@NonNull LocationResult locationResult) {
-                if (!isNavigating) return;
-                Location location = locationResult.getLastLocation();
-                if (location != null) {
-                    lastKnownLocation = new GeoPoint(location.getLatitude(), location.getLongitude());
-                    updateNavigation(lastKnownLocation);
+        showElevationProfile(null);
+        loadElevationProfile(route, overlay);
+
+        // Drawn at full detail until its levels are ready
+        routeExecutor.execute(() -> {
+            LinePyramid pyramid = LinePyramid.build(route);
+            FragmentActivity activity = getActivity();
+            if (activity == null) return;
+            activity.runOnUiThread(() -> {
+                if (navigationRoute == overlay && mapView != null) {
+                    overlay.setPyramid(pyramid);
+                    mapView.invalidate();
                 }
-            }
-        };
-
-        try {
-            fusedLocationClient.requestLocationUpdates(locationRequest, navigationLocationCallback, Looper.getMainLooper());
-        } catch (SecurityException e) {
-            Log.e(TAG, "SecurityException when requesting location updates", e);
-        }
+            });
+        });
     }
 
-    private void updateNavigation(GeoPoint currentLocation) {
-        if (navigationSteps == null || navigationSteps.isEmpty() || currentStepIndex >= navigationSteps.size()) {
-            return;
-        }
-
-        NavigationStep currentStep = navigationSteps.get(currentStepIndex);
-        double distanceToStep = calculateDistance(currentLocation, currentStep.point);
-
-        if (distanceToStep < 25 && currentStepIndex < navigationSteps.size() - 1) {
-            currentStepIndex++;
-            NavigationStep nextStep = navigationSteps.get(currentStepIndex);
-            if (textToSpeech != null) {
-                textToSpeech.speak(nextStep.instruction, TextToSpeech.QUEUE_FLUSH, null, null);
+    /**
+     * Line vertices drawn in the last frame by the route and the attached trail lines.
+     */
+    private int countDrawnLineVertices() {
+        int vertices = navigationRoute != null ? navigationRoute.getLastDrawnVertexCount() : 0;
+        if (trailLayer != null) {
+            for (Overlay overlay : trailLayer.getItems()) {
+                if (overlay instanceof RouteOverlay) {
+                    vertices += ((RouteOverlay) overlay).getLastDrawnVertexCount();
+                }
             }
         }
-
-        updateNavigationUI();
-    }
-
-    private double calculateRemainingDistance() {
-        if (navigationSteps == null || lastKnownLocation == null || currentStepIndex >= navigationSteps.size()) {
-            return 0;
-        }
-        double remaining = 0;
-        remaining += calculateDistance(lastKnownLocation, navigationSteps.get(currentStepIndex).point);
-        for (int i = currentStepIndex; i < navigationSteps.size() - 1; i++) {
-            remaining += calculateDistance(navigationSteps.get(i).point, navigationSteps.get(i + 1).point);
-        }
-        return remaining;
-    }
-
-    private double calculateDistance(GeoPoint p1, GeoPoint p2) {
-        float[] results = new float[1];
-        Location.distanceBetween(p1.getLatitude(), p1.getLongitude(), p2.getLatitude(), p2.getLongitude(), results);
-        return results[0];
+        return vertices;
     }
 
-    private void addInfoRow(LinearLayout parent, String label, String value, int valueColor) {
+    private TextView addInfoRow(LinearLayout parent, String label, String value, int valueColor) {
         LinearLayout row = new LinearLayout(requireContext());
         row.setOrientation(LinearLayout.HORIZONTAL);
         row.setPadding(0, 8, 0, 8);
@@ -1114,6 +1504,7 @@ public class MapsFragment extends Fragment implements TextToSpeech.OnInitListene
         row.addView(labelView);
         row.addView(valueView);
         parent.addView(row);
+        return valueView;
     }
 
     private String getStarRating(double rating) {
@@ -0,0 +1,175 @@
+package com.example.signinui;
+
+/**
+ * Turn-by-turn logic run by {@link NavigationService} for the active navigation session.
+ *
+ * Every fix is snapped to the route polyline by a {@link RouteProgressTracker} backed by a
+ * {@link SegmentGridIndex}. Steps advance by distance along the route rather than by radius
+ * around the step point. A GPS jump past a step therefore moves on to the right step instead of
+ * stalling, and noise next to a step point cannot skip it. When several fixes in a row are
+ * further from the route than the threshold, the engine reports that the user is off route.
+ * The caller can then fetch a detour back to a point ahead of the user and join it to the rest
+ * of the route with {@link #splice}.
+ *
+ * Contains no Android code, so it can be tested with recorded GPS traces on the JVM. Not
+ * thread-safe.
+ */
+final class NavigationEngine {
+    // The next step is announced this far ahead of its point
+    static final double STEP_ADVANCE_METERS = 25;
+    static final double OFF_ROUTE_METERS = 40;
+    // Consecutive fixes beyond the threshold before the user counts as off route
+    static final int OFF_ROUTE_FIXES = 3;
+    static final double ARRIVAL_METERS = 20;
+    // A detour rejoins the route this far ahead of the last matched position
+    static final double REJOIN_AHEAD_METERS = 250;
+
+    enum Event {
+        NONE,
+        STEP_CHANGED,
+        OFF_ROUTE,
+        BACK_ON_ROUTE,
+        ARRIVED
+    }
+
+    private final PackedRoute route;
+    private final int[] stepPointIndices;
+    private final RouteProgressTracker tracker;
+
+    private int stepIndex;
+    private int fixesOffRoute;
+    private boolean joined;
+    private boolean offRoute;
+    private boolean arrived;
+    private long fixCount;
+
+    /**
+     * @param stepPointIndices route point of each step, in ascending order.
+     */
+    NavigationEngine(PackedRoute route, int[] stepPointIndices) {
+        this.route = route;
+        this.stepPointIndices = stepPointIndices;
+        this.tracker = new RouteProgressTracker(route, new SegmentGridIndex(route));
+    }
+
+    /**
+     * Processes one location fix.
+     * @param accuracyMeters horizontal accuracy of the fix; a vague fix needs to be further away
+     *                       before it counts as off route.
+     * @return what changed; at most one event per fix.
+     */
+    Event update(double latitude, double longitude, double accuracyMeters) {
+        fixCount++;
+        if (arrived || route.size() < 2) {
+            return Event.NONE;
+        }
+        tracker.update(latitude, longitude);
+
+        double threshold = Math.max(OFF_ROUTE_METERS, accuracyMeters);
+        if (tracker.getDistanceFromRouteMeters() > threshold) {
+            // A route that starts away from the user (e.g. shared by a friend) is not a deviation
+            // until they have reached it once
+            if (joined && !offRoute && ++fixesOffRoute >= OFF_ROUTE_FIXES) {
+                offRoute = true;
+                return Event.OFF_ROUTE;
+            }
+            return Event.NONE;
+        }
+
+        joined = true;
+        fixesOffRoute = 0;
+        boolean wasOffRoute = offRoute;
+        offRoute = false;
+
+        if (tracker.getRemainingMeters() <= ARRIVAL_METERS) {
+            arrived = true;
+            stepIndex = Math.max(0, stepPointIndices.length - 1);
+            return Event.ARRIVED;
+        }
+
+        int previousStep = stepIndex;
+        while (stepIndex < stepPointIndices.length - 1
+                && tracker.getMetersToPoint(stepPointIndices[stepIndex]) <= STEP_ADVANCE_METERS) {
+            stepIndex++;
+        }
+        if (stepIndex != previousStep) {
+            return Event.STEP_CHANGED;
+        }
+        return wasOffRoute ? Event.BACK_ON_ROUTE : Event.NONE;
+    }
+
+    /**
+     * Index of the step whose instruction should be shown.
+     */
+    int getStepIndex() {
+        return stepIndex;
+    }
+
+    boolean isOffRoute() {
+        return offRoute;
+    }
+
+    boolean hasArrived() {
+        return arrived;
+    }
+
+    long getFixCount() {
+        return fixCount;
+    }
+
+    PackedRoute getRoute() {
+        return route;
+    }
+
+    RouteProgressTracker getProgress() {
+        return tracker;
+    }
+
+    /**
+     * Route point a detour should lead back to: a little ahead of where the user left the route,
+     * so that they do not have to walk back.
+     */
+    int getRejoinPointIndex() {
+        double target = tracker.getDistanceAlongMeters() + REJOIN_AHEAD_METERS;
+        double[] cumulative = route.getCumulativeMeters();
+        int low = tracker.getSegmentIndex() + 1;
+        int high = route.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.min(low, route.size() - 1);
+    }
+
+    // =============================================================================================
+    // Rerouting
+    // =============================================================================================
+
+    /**
+     * Joins a detour to the part of the route from {@code rejoinIndex} on. The detour's last point
+     * is replaced by the rejoin point itself.
+     */
+    static PackedRoute splice(PackedRoute detour, PackedRoute route, int rejoinIndex) {
+        int detourPoints = Math.max(0, detour.size() - 1);
+        int size = detourPoints + route.size() - rejoinIndex;
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        System.arraycopy(detour.getLatitudes(), 0, latitudes, 0, detourPoints);
+        System.arraycopy(detour.getLongitudes(), 0, longitudes, 0, detourPoints);
+        System.arraycopy(route.getLatitudes(), rejoinIndex, latitudes, detourPoints, route.size() - rejoinIndex);
+        System.arraycopy(route.getLongitudes(), rejoinIndex, longitudes, detourPoints, route.size() - rejoinIndex);
+        return PackedRoute.of(latitudes, longitudes);
+    }
+
+    /**
+     * Where a point of the old route ends up in the result of {@link #splice}.
+     * @param routeIndex a point at or after the rejoin point.
+     */
+    static int splicedPointIndex(PackedRoute detour, int rejoinIndex, int routeIndex) {
+        return Math.max(0, detour.size() - 1) + routeIndex - rejoinIndex;
+    }
+}
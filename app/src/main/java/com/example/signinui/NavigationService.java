@@ -6,11 +6,19 @@ import android.app.NotificationManager;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ServiceInfo;
 import android.graphics.PixelFormat;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.location.Location;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.Settings;
 import android.speech.tts.TextToSpeech;
 import android.util.Log;
 import android.view.Gravity;
@@ -22,6 +30,9 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Observer;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
@@ -29,47 +40,74 @@ import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 import org.osmdroid.util.GeoPoint;
 
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
 import java.util.Locale;
-
-public class NavigationService extends Service implements TextToSpeech.OnInitListener {
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Foreground service that owns the running {@link NavigationSession}.
+ *
+ * It holds the only location subscription and the only TextToSpeech queue used for navigation.
+ * After every fix it publishes a {@link NavigationSession.State}, which the map screen (through
+ * {@link NavigationViewModel}) and the floating overlay render; null means no navigation is
+ * running. Detours after leaving the route are fetched here as well.
+ *
+ * How often the location is sampled is decided by a {@link LocationSamplingPolicy}, fed with the
+ * fixes and the step counter; the request is only re-issued when its mode changes.
+ */
+public class NavigationService extends Service implements TextToSpeech.OnInitListener, SensorEventListener {
 
     private static final String TAG = "NavigationService";
     public static final String ACTION_STOP_NAVIGATION = "com.example.signinui.ACTION_STOP_NAVIGATION";
+    // Route to follow, encoded with RouteCodec
+    public static final String EXTRA_ROUTE = "com.example.signinui.EXTRA_ROUTE";
     private static final String CHANNEL_ID = "NavigationServiceChannel";
     private static final int NOTIFICATION_ID = 12345;
+    // Leaves time for the arrival announcement before the service and its TTS go away
+    private static final long ARRIVAL_STOP_DELAY_MS = 5_000;
+    private static final long REROUTE_MIN_INTERVAL_MS = 30_000;
+
+    // Published on the main thread; shared by every screen in the process
+    private static final MutableLiveData<NavigationSession.State> navigationState = new MutableLiveData<>(null);
+
+    static LiveData<NavigationSession.State> getNavigationState() {
+        return navigationState;
+    }
 
     // Overlay UI
     private WindowManager windowManager;
     private View floatingView;
     private TextView overlayInstruction;
     private TextView overlayDistance;
+    private final Observer<NavigationSession.State> overlayObserver = this::updateOverlay;
 
     // Location & Navigation
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
     private TextToSpeech textToSpeech;
-    private List<NavigationStep> navigationSteps;
-    private int currentStepIndex = 0;
-    private GeoPoint lastKnownLocation;
-
-    // Data class for navigation instructions
-    public static class NavigationStep {
-        GeoPoint point;
-        String instruction;
-
-        NavigationStep(GeoPoint point, String instruction) {
-            this.point = point;
-            this.instruction = instruction;
-        }
-    }
+    private boolean ttsReady = false;
+    private NavigationSession session;
+    private LocationSamplingPolicy samplingPolicy;
+    private LocationSamplingPolicy.Mode samplingMode;
+    private SensorManager sensorManager;
+    private Sensor stepCounterSensor;
+
+    // Rerouting after the user leaves the route
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .connectTimeout(30, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .build();
+    private boolean rerouteInFlight = false;
+    private long lastRerouteMillis = 0;
 
     @Nullable
     @Override
@@ -82,7 +120,12 @@ public class NavigationService extends Service implements TextToSpeech.OnInitLis
         super.onCreate();
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
         textToSpeech = new TextToSpeech(this, this);
+        sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        if (sensorManager != null) {
+            stepCounterSensor = sensorManager.getDefaultSensor(Sensor.TYPE_STEP_COUNTER);
+        }
         initializeOverlay();
+        navigationState.observeForever(overlayObserver);
     }
 
     @Override
@@ -98,27 +141,45 @@ public class NavigationService extends Service implements TextToSpeech.OnInitLis
                 .setContentText("Tracking your route.")
                 .setSmallIcon(R.drawable.ic_navigation)
                 .build();
-        startForeground(NOTIFICATION_ID, notification);
-
-        // Retrieve route data from the intent
-        String stepsJson = intent.getStringExtra("NAVIGATION_STEPS_JSON");
-        if (stepsJson != null) {
-            Gson gson = new Gson();
-            Type type = new TypeToken<ArrayList<NavigationStep>>() {}.getType();
-            navigationSteps = gson.fromJson(stepsJson, type);
-            if (navigationSteps != null && !navigationSteps.isEmpty()) {
-                startLocationUpdates();
-            }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
         }
 
-        return START_STICKY;
+        // Retrieve route data from the intent; a new route replaces the one being followed
+        byte[] encodedRoute = intent != null ? intent.getByteArrayExtra(EXTRA_ROUTE) : null;
+        if (encodedRoute == null) {
+            // Restarted by the system without a route to follow
+            if (session == null) {
+                stopSelf();
+            }
+            return START_NOT_STICKY;
+        }
+        try {
+            startSession(RouteCodec.decode(encodedRoute, 0, encodedRoute.length));
+        } catch (IOException e) {
+            Log.e(TAG, "Invalid route passed to navigation service", e);
+            if (session == null) {
+                stopSelf();
+            }
+        }
+        return START_NOT_STICKY;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         stopLocationUpdates();
-        if (windowManager != null && floatingView != null) {
+        logSamplingStats();
+        if (sensorManager != null) {
+            sensorManager.unregisterListener(this);
+        }
+        mainHandler.removeCallbacksAndMessages(null);
+        session = null;
+        navigationState.setValue(null);
+        navigationState.removeObserver(overlayObserver);
+        if (windowManager != null && floatingView != null && floatingView.isAttachedToWindow()) {
             windowManager.removeView(floatingView);
         }
         if (textToSpeech != null) {
@@ -132,6 +193,12 @@ public class NavigationService extends Service implements TextToSpeech.OnInitLis
         overlayInstruction = floatingView.findViewById(R.id.overlay_instruction);
         overlayDistance = floatingView.findViewById(R.id.overlay_distance);
 
+        // Without the permission the service still navigates; only the floating view is missing
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && !Settings.canDrawOverlays(this)) {
+            Log.w(TAG, "No permission to draw the navigation overlay");
+            return;
+        }
+
         int layout_params_type;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             layout_params_type = WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY;
@@ -156,59 +223,208 @@ public class NavigationService extends Service implements TextToSpeech.OnInitLis
         }
     }
 
-    private void startLocationUpdates() {
-        LocationRequest locationRequest = new LocationRequest.Builder(Priority.PRIORITY_HIGH_ACCURACY, 5000)
-                .setMinUpdateIntervalMillis(2000)
-                .build();
+    private void startSession(RouteCodec.Route route) {
+        mainHandler.removeCallbacksAndMessages(null);
+        rerouteInFlight = false;
+        logSamplingStats();
+        session = new NavigationSession(route);
+        samplingPolicy = new LocationSamplingPolicy();
+        navigationState.setValue(session.snapshot());
+        if (ttsReady) {
+            speak("Navigation started.");
+        }
+        if (locationCallback == null) {
+            startLocationUpdates();
+        }
+        if (sensorManager != null && stepCounterSensor != null) {
+            // Batched by the sensor hub; only used to tell whether the user is still walking
+            sensorManager.unregisterListener(this);
+            sensorManager.registerListener(this, stepCounterSensor, SensorManager.SENSOR_DELAY_NORMAL);
+        }
+    }
 
+    private void startLocationUpdates() {
         locationCallback = new LocationCallback() {
             @Override
             public void onLocationResult(@NonNull LocationResult locationResult) {
                 Location location = locationResult.getLastLocation();
                 if (location != null) {
-                    lastKnownLocation = new GeoPoint(location.getLatitude(), location.getLongitude());
-                    updateNavigation();
+                    updateNavigation(location);
                 }
             }
         };
 
         try {
+            // Match the last known position right away instead of waiting for the first update
+            fusedLocationClient.getLastLocation().addOnSuccessListener(location -> {
+                if (location != null && session != null && !session.hasFix()) {
+                    updateNavigation(location);
+                }
+            });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission not granted, cannot start updates.", e);
+        }
+        // Start tight so the first instruction is not late; the policy relaxes from there
+        requestLocationUpdates(LocationSamplingPolicy.Mode.MANEUVER);
+    }
+
+    private void requestLocationUpdates(LocationSamplingPolicy.Mode mode) {
+        samplingMode = mode;
+        LocationRequest locationRequest = new LocationRequest.Builder(
+                mode.highAccuracy ? Priority.PRIORITY_HIGH_ACCURACY : Priority.PRIORITY_BALANCED_POWER_ACCURACY,
+                mode.intervalMillis)
+                .setMinUpdateIntervalMillis(mode.minIntervalMillis)
+                .build();
+        try {
+            // Replaces the previous request made with the same callback
             fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
         } catch (SecurityException e) {
             Log.e(TAG, "Location permission not granted, cannot start updates.", e);
         }
     }
 
+    /**
+     * Re-issues the location request if the policy now wants a different mode.
+     */
+    private void updateSamplingMode() {
+        NavigationSession.State state = navigationState.getValue();
+        if (samplingPolicy == null || state == null || locationCallback == null) {
+            return;
+        }
+        LocationSamplingPolicy.Mode mode = samplingPolicy.update(
+                state.metersToNextStep, state.offRoute, SystemClock.elapsedRealtime());
+        if (mode != samplingMode) {
+            Log.d(TAG, "Location sampling: " + samplingMode + " -> " + mode);
+            requestLocationUpdates(mode);
+        }
+    }
+
+    private void logSamplingStats() {
+        if (samplingPolicy != null && samplingPolicy.getFixCount() > 0) {
+            Log.i(TAG, String.format(Locale.US, "Location sampling: %d fixes over %.2f km, %.1f fixes/km",
+                    samplingPolicy.getFixCount(), samplingPolicy.getDistanceMeters() / 1000,
+                    samplingPolicy.getFixesPerKm()));
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (event.sensor.getType() == Sensor.TYPE_STEP_COUNTER && samplingPolicy != null) {
+            samplingPolicy.onStepCount((long) event.values[0], SystemClock.elapsedRealtime());
+            // Walking again after a stop should not wait for the next slow fix
+            if (samplingMode == LocationSamplingPolicy.Mode.STATIONARY) {
+                updateSamplingMode();
+            }
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
     private void stopLocationUpdates() {
         if (fusedLocationClient != null && locationCallback != null) {
             fusedLocationClient.removeLocationUpdates(locationCallback);
+            locationCallback = null;
         }
     }
 
-    private void updateNavigation() {
-        if (navigationSteps == null || navigationSteps.isEmpty() || currentStepIndex >= navigationSteps.size()) {
-            overlayInstruction.setText("Route complete!");
-            overlayDistance.setText("");
-            stopSelf(); // Stop the service when navigation is done
+    private void updateNavigation(Location location) {
+        if (session == null) {
+            return;
+        }
+        NavigationEngine.Event event = session.onLocation(
+                location.getLatitude(), location.getLongitude(), location.getAccuracy());
+        samplingPolicy.onFix(location.getLatitude(), location.getLongitude(), location.getAccuracy(),
+                location.hasSpeed() ? location.getSpeed() : Double.NaN,
+                location.getElapsedRealtimeNanos() / 1_000_000);
+        switch (event) {
+            case STEP_CHANGED:
+                speak(session.getInstruction());
+                break;
+            case OFF_ROUTE:
+                speak("You are off the route. Recalculating.");
+                requestReroute();
+                break;
+            case ARRIVED:
+                speak("You have arrived at your destination.");
+                stopLocationUpdates();
+                mainHandler.postDelayed(this::stopSelf, ARRIVAL_STOP_DELAY_MS);
+                break;
+            default:
+                break;
+        }
+        navigationState.setValue(session.snapshot());
+        updateSamplingMode();
+    }
+
+    /**
+     * Asks the routing server for a detour from the current position back to a point a little
+     * ahead on the route, and joins it to the rest of the route. The rest is kept as it is, so
+     * only a short route needs to be computed.
+     */
+    private void requestReroute() {
+        long now = System.currentTimeMillis();
+        if (rerouteInFlight || now - lastRerouteMillis < REROUTE_MIN_INTERVAL_MS) {
             return;
         }
+        rerouteInFlight = true;
+        lastRerouteMillis = now;
+
+        NavigationSession currentSession = session;
+        RouteCodec.Route route = currentSession.getRoute();
+        int rejoinIndex = currentSession.getRejoinPointIndex();
+        GeoPoint currentLocation = new GeoPoint(currentSession.getLatitude(), currentSession.getLongitude());
 
-        NavigationStep currentStep = navigationSteps.get(currentStepIndex);
-        float[] results = new float[1];
-        Location.distanceBetween(lastKnownLocation.getLatitude(), lastKnownLocation.getLongitude(),
-                currentStep.point.getLatitude(), currentStep.point.getLongitude(), results);
-        double distanceToStep = results[0];
+        client.newCall(OrsDirections.request(currentLocation, route.geometry.getPoint(rejoinIndex),
+                getString(R.string.ors_api_key))).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                Log.e(TAG, "Reroute failed", e);
+                mainHandler.post(() -> rerouteInFlight = false);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                RouteCodec.Route spliced = null;
+                try {
+                    if (response.isSuccessful() && response.body() != null) {
+                        OrsRouteParser.ParsedRoute detour = OrsRouteParser.parse(response.body().charStream());
+                        spliced = NavigationSession.spliceDetour(route, rejoinIndex, detour);
+                    } else {
+                        Log.e(TAG, "Reroute response error: " + response.code());
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Error parsing reroute response", e);
+                } finally {
+                    response.close();
+                }
 
-        // Update overlay UI
-        overlayInstruction.setText(currentStep.instruction);
-        overlayDistance.setText(String.format(Locale.US, "%.0f meters", distanceToStep));
+                RouteCodec.Route newRoute = spliced;
+                mainHandler.post(() -> {
+                    rerouteInFlight = false;
+                    // Ignore the detour if navigation was stopped or restarted meanwhile
+                    if (newRoute == null || session != currentSession || session.getRoute() != route) {
+                        return;
+                    }
+                    session.replaceRoute(newRoute);
+                    navigationState.setValue(session.snapshot());
+                });
+            }
+        });
+    }
 
-        // Check if user is close enough to the next point to advance
-        if (distanceToStep < 25 && currentStepIndex < navigationSteps.size() - 1) {
-            currentStepIndex++;
-            NavigationStep nextStep = navigationSteps.get(currentStepIndex);
-            speak(nextStep.instruction);
+    private void updateOverlay(NavigationSession.State state) {
+        if (state == null) {
+            return;
         }
+        if (state.arrived) {
+            overlayInstruction.setText("Route complete!");
+            overlayDistance.setText("");
+            return;
+        }
+        overlayInstruction.setText(state.offRoute ? "Off route" : state.instruction);
+        overlayDistance.setText(state.matched ? String.format(Locale.US, "%.0f meters", state.metersToNextStep) : "");
     }
 
     @Override
@@ -218,7 +434,10 @@ public class NavigationService extends Service implements TextToSpeech.OnInitLis
             if (result == TextToSpeech.LANG_MISSING_DATA || result == TextToSpeech.LANG_NOT_SUPPORTED) {
                 Log.w(TAG, "TTS Language not supported");
             } else {
-                speak("Navigation started.");
+                ttsReady = true;
+                if (session != null) {
+                    speak("Navigation started.");
+                }
             }
         } else {
             Log.e(TAG, "TTS initialization failed");
@@ -244,4 +463,4 @@ public class NavigationService extends Service implements TextToSpeech.OnInitLis
             }
         }
     }
-}
\ No newline at end of file
+}
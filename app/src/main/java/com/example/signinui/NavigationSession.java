@@ -0,0 +1,162 @@
+package com.example.signinui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One navigation run: the route being followed and the {@link NavigationEngine} matching fixes
+ * against it.
+ *
+ * The session is owned by {@link NavigationService}, which feeds it the only location stream and
+ * speaks its events. Screens never run their own engine; they render the immutable {@link State}
+ * snapshots the service publishes after every fix, so the map panel and the floating overlay
+ * always show the same step.
+ *
+ * Contains no Android code. Not thread-safe; use it from the thread that receives location
+ * updates.
+ */
+final class NavigationSession {
+
+    /**
+     * What a screen needs to draw the navigation UI, taken after a fix.
+     */
+    static final class State {
+        final RouteCodec.Route route;
+        // Changes whenever the route is replaced by a detour, so screens know to redraw it
+        final int routeVersion;
+        final int stepIndex;
+        final String instruction;
+        final boolean matched;
+        final double metersToNextStep;
+        final double remainingMeters;
+        final int etaMinutes;
+        final double progress;
+        final boolean offRoute;
+        final boolean arrived;
+        // Last fix, or NaN before the first one
+        final double latitude;
+        final double longitude;
+
+        private State(NavigationSession session) {
+            NavigationEngine engine = session.engine;
+            RouteProgressTracker progress = engine.getProgress();
+            this.route = session.route;
+            this.routeVersion = session.routeVersion;
+            this.stepIndex = engine.getStepIndex();
+            this.instruction = route.getStepCount() > 0 ? route.stepInstructions[stepIndex] : "";
+            this.matched = progress.hasMatch();
+            this.metersToNextStep = route.getStepCount() > 0
+                    ? progress.getMetersToPoint(route.stepPointIndices[stepIndex]) : 0;
+            this.remainingMeters = progress.getRemainingMeters();
+            this.etaMinutes = progress.getEtaMinutes();
+            this.progress = progress.getProgress();
+            this.offRoute = engine.isOffRoute();
+            this.arrived = engine.hasArrived();
+            this.latitude = session.lastLatitude;
+            this.longitude = session.lastLongitude;
+        }
+
+        boolean hasFix() {
+            return !Double.isNaN(latitude);
+        }
+    }
+
+    private RouteCodec.Route route;
+    private NavigationEngine engine;
+    private int routeVersion;
+    private double lastLatitude = Double.NaN;
+    private double lastLongitude = Double.NaN;
+
+    NavigationSession(RouteCodec.Route route) {
+        this.route = route;
+        this.engine = new NavigationEngine(route.geometry, route.stepPointIndices);
+    }
+
+    /**
+     * Processes one location fix.
+     */
+    NavigationEngine.Event onLocation(double latitude, double longitude, double accuracyMeters) {
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+        return engine.update(latitude, longitude, accuracyMeters);
+    }
+
+    /**
+     * Switches to a new route, typically a detour from {@link #spliceDetour}, and matches the last
+     * fix against it straight away.
+     */
+    void replaceRoute(RouteCodec.Route newRoute) {
+        route = newRoute;
+        engine = new NavigationEngine(newRoute.geometry, newRoute.stepPointIndices);
+        routeVersion++;
+        if (!Double.isNaN(lastLatitude)) {
+            engine.update(lastLatitude, lastLongitude, 0);
+        }
+    }
+
+    State snapshot() {
+        return new State(this);
+    }
+
+    RouteCodec.Route getRoute() {
+        return route;
+    }
+
+    String getInstruction() {
+        return route.getStepCount() > 0 ? route.stepInstructions[engine.getStepIndex()] : "";
+    }
+
+    boolean hasFix() {
+        return !Double.isNaN(lastLatitude);
+    }
+
+    double getLatitude() {
+        return lastLatitude;
+    }
+
+    double getLongitude() {
+        return lastLongitude;
+    }
+
+    /**
+     * @see NavigationEngine#getRejoinPointIndex()
+     */
+    int getRejoinPointIndex() {
+        return engine.getRejoinPointIndex();
+    }
+
+    /**
+     * Joins a detour to the part of {@code route} from {@code rejoinIndex} on, steps included.
+     */
+    static RouteCodec.Route spliceDetour(RouteCodec.Route route, int rejoinIndex, OrsRouteParser.ParsedRoute detour) {
+        PackedRoute detourGeometry = PackedRoute.of(detour.latitudes, detour.longitudes);
+        PackedRoute spliced = NavigationEngine.splice(detourGeometry, route.geometry, rejoinIndex);
+
+        List<Integer> pointIndices = new ArrayList<>();
+        List<String> instructions = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        // The detour's last step is its "arrive", which is just the rejoin point
+        for (int i = 0; i < detour.getStepCount() - 1; i++) {
+            pointIndices.add(detour.stepPointIndices[i]);
+            instructions.add(detour.stepInstructions[i]);
+            distances.add(detour.stepDistances[i]);
+        }
+        for (int i = 0; i < route.getStepCount(); i++) {
+            if (route.stepPointIndices[i] >= rejoinIndex) {
+                pointIndices.add(NavigationEngine.splicedPointIndex(detourGeometry, rejoinIndex, route.stepPointIndices[i]));
+                instructions.add(route.stepInstructions[i]);
+                distances.add(route.stepDistances[i]);
+            }
+        }
+
+        int[] stepPointIndices = new int[pointIndices.size()];
+        double[] stepDistances = new double[distances.size()];
+        for (int i = 0; i < stepPointIndices.length; i++) {
+            stepPointIndices[i] = pointIndices.get(i);
+            stepDistances[i] = distances.get(i);
+        }
+        double remaining = route.geometry.getLengthMeters() - route.geometry.getDistanceAt(rejoinIndex);
+        return new RouteCodec.Route(route.details, spliced, stepPointIndices,
+                instructions.toArray(new String[0]), stepDistances, detour.totalDistanceMeters + remaining);
+    }
+}
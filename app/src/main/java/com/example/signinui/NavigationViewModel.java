@@ -15,4 +15,12 @@ public class NavigationViewModel extends ViewModel {
     public void setNavigating(boolean navigating) {
         isNavigating.setValue(navigating);
     }
-}
\ No newline at end of file
+
+    /**
+     * The session run by {@link NavigationService}, updated after every fix; null while not
+     * navigating.
+     */
+    LiveData<NavigationSession.State> getNavigationState() {
+        return NavigationService.getNavigationState();
+    }
+}
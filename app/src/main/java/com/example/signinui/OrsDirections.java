@@ -0,0 +1,36 @@
+package com.example.signinui;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.util.Locale;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * Builds OpenRouteService directions requests, for both the first route to a trailhead and the
+ * detours computed while navigating. Responses are read with {@link OrsRouteParser}.
+ */
+final class OrsDirections {
+    static final String PROFILE = "foot-hiking";
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private OrsDirections() {}
+
+    static Request request(GeoPoint startPoint, GeoPoint endPoint, String apiKey) {
+        String url = "https://api.openrouteservice.org/v2/directions/" + PROFILE + "/geojson";
+
+        String postBody = String.format(Locale.US,
+                "{\"coordinates\":[[%f,%f],[%f,%f]]}",
+                startPoint.getLongitude(), startPoint.getLatitude(),
+                endPoint.getLongitude(), endPoint.getLatitude()
+        );
+
+        return new Request.Builder()
+                .url(url)
+                .header("Authorization", apiKey)
+                .post(RequestBody.create(postBody, JSON))
+                .build();
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.signinui;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming decoder for OpenRouteService GeoJSON directions.
+ *
+ * Reads the response straight from the HTTP body with a {@link JsonReader}, so the body is never
+ * held as a String or a JSON tree. Coordinates go directly into primitive arrays, which keeps
+ * multi-day routes with tens of thousands of points from producing a burst of garbage right
+ * when navigation starts. Only the first feature and its first segment are used, as before.
+ */
+final class OrsRouteParser {
+    private static final int INITIAL_POINT_CAPACITY = 256;
+
+    private OrsRouteParser() {}
+
+    static final class ParsedRoute {
+        final double[] latitudes;
+        final double[] longitudes;
+        final int[] stepPointIndices;
+        final String[] stepInstructions;
+        final double[] stepDistances;
+        final double totalDistanceMeters;
+
+        ParsedRoute(double[] latitudes, double[] longitudes, int[] stepPointIndices,
+                    String[] stepInstructions, double[] stepDistances, double totalDistanceMeters) {
+            this.latitudes = latitudes;
+            this.longitudes = longitudes;
+            this.stepPointIndices = stepPointIndices;
+            this.stepInstructions = stepInstructions;
+            this.stepDistances = stepDistances;
+            this.totalDistanceMeters = totalDistanceMeters;
+        }
+
+        int getPointCount() {
+            return latitudes.length;
+        }
+
+        int getStepCount() {
+            return stepPointIndices.length;
+        }
+    }
+
+    /**
+     * @throws IOException if the response is not valid JSON or contains no usable route.
+     */
+    static ParsedRoute parse(Reader body) throws IOException {
+        try (JsonReader reader = new JsonReader(body)) {
+            Builder builder = new Builder();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("features")) {
+                    readFeatures(reader, builder);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return builder.build();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // Thrown by JsonReader when a value has an unexpected type
+            throw new IOException("Malformed route response", e);
+        }
+    }
+
+    private static void readFeatures(JsonReader reader, Builder builder) throws IOException {
+        reader.beginArray();
+        boolean first = true;
+        while (reader.hasNext()) {
+            if (first) {
+                readFeature(reader, builder);
+                first = false;
+            } else {
+                reader.skipValue(); // Alternative routes
+            }
+        }
+        reader.endArray();
+    }
+
+    private static void readFeature(JsonReader reader, Builder builder) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("properties")) {
+                readProperties(reader, builder);
+            } else if (name.equals("geometry")) {
+                readGeometry(reader, builder);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readProperties(JsonReader reader, Builder builder) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("segments")) {
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readSegment(reader, builder);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readSegment(JsonReader reader, Builder builder) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("distance")) {
+                builder.totalDistanceMeters = reader.nextDouble();
+            } else if (name.equals("steps")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readStep(reader, builder);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static void readStep(JsonReader reader, Builder builder) throws IOException {
+        String instruction = "";
+        double distance = 0;
+        int pointIndex = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("instruction")) {
+                instruction = reader.nextString();
+            } else if (name.equals("distance")) {
+                distance = reader.nextDouble();
+            } else if (name.equals("way_points")) {
+                // [first, last] point of the step; the step starts at the first
+                reader.beginArray();
+                pointIndex = reader.nextInt();
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (pointIndex < 0) {
+            throw new IOException("Step without way points");
+        }
+        builder.addStep(pointIndex, instruction, distance);
+    }
+
+    private static void readGeometry(JsonReader reader, Builder builder) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    // [lon, lat] or [lon, lat, elevation]
+                    reader.beginArray();
+                    double lon = reader.nextDouble();
+                    double lat = reader.nextDouble();
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                    builder.addPoint(lat, lon);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    // Growable primitive arrays; properties usually arrive before the geometry, so the step
+    // indices can only be checked once everything has been read
+    private static final class Builder {
+        double[] latitudes = new double[INITIAL_POINT_CAPACITY];
+        double[] longitudes = new double[INITIAL_POINT_CAPACITY];
+        int pointCount;
+        final List<String> stepInstructions = new ArrayList<>();
+        int[] stepPointIndices = new int[16];
+        double[] stepDistances = new double[16];
+        double totalDistanceMeters;
+
+        void addPoint(double lat, double lon) {
+            if (pointCount == latitudes.length) {
+                latitudes = Arrays.copyOf(latitudes, pointCount * 2);
+                longitudes = Arrays.copyOf(longitudes, pointCount * 2);
+            }
+            latitudes[pointCount] = lat;
+            longitudes[pointCount] = lon;
+            pointCount++;
+        }
+
+        void addStep(int pointIndex, String instruction, double distance) {
+            int count = stepInstructions.size();
+            if (count == stepPointIndices.length) {
+                stepPointIndices = Arrays.copyOf(stepPointIndices, count * 2);
+                stepDistances = Arrays.copyOf(stepDistances, count * 2);
+            }
+            stepPointIndices[count] = pointIndex;
+            stepDistances[count] = distance;
+            stepInstructions.add(instruction);
+        }
+
+        ParsedRoute build() throws IOException {
+            if (pointCount < 2) {
+                throw new IOException("Route has " + pointCount + " point(s)");
+            }
+            int stepCount = stepInstructions.size();
+            for (int i = 0; i < stepCount; i++) {
+                if (stepPointIndices[i] >= pointCount) {
+                    throw new IOException("Step " + i + " points outside the route: " + stepPointIndices[i]);
+                }
+            }
+            return new ParsedRoute(
+                    Arrays.copyOf(latitudes, pointCount),
+                    Arrays.copyOf(longitudes, pointCount),
+                    Arrays.copyOf(stepPointIndices, stepCount),
+                    stepInstructions.toArray(new String[0]),
+                    Arrays.copyOf(stepDistances, stepCount),
+                    totalDistanceMeters);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.signinui;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import okhttp3.FormBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Fetches trail ways for a bounding box from the OpenStreetMap Overpass API.
+ *
+ * The query asks for ways with a trail-like highway tag and their full geometry ({@code out geom}),
+ * so one request returns everything needed to draw and measure them. The response is read with a
+ * streaming {@link JsonReader} straight from the HTTP body; each way is simplified with
+ * {@link LineSimplifier} as it is read.
+ *
+ * Contains no Android code. {@link #fetch} blocks and must be called off the main thread.
+ */
+final class OverpassTrails {
+    static final String DEFAULT_ENDPOINT = "https://overpass-api.de/api/interpreter";
+    // Highway values drawn as trails; matches the types the trail filter knows
+    static final String TRAIL_TYPES = "path|footway|track|cycleway|steps|bridleway";
+    private static final int QUERY_TIMEOUT_SECONDS = 25;
+    private static final int INITIAL_POINT_CAPACITY = 64;
+
+    private final OkHttpClient client;
+    private final String endpoint;
+
+    OverpassTrails(OkHttpClient client, String endpoint) {
+        this.client = client;
+        this.endpoint = endpoint;
+    }
+
+    static String query(double south, double west, double north, double east) {
+        return String.format(Locale.US,
+                "[out:json][timeout:%d];way[\"highway\"~\"^(%s)$\"](%.6f,%.6f,%.6f,%.6f);out tags geom;",
+                QUERY_TIMEOUT_SECONDS, TRAIL_TYPES, south, west, north, east);
+    }
+
+    List<TrailWay> fetch(double south, double west, double north, double east) throws IOException {
+        Request request = new Request.Builder()
+                .url(endpoint)
+                .post(new FormBody.Builder().add("data", query(south, west, north, east)).build())
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("Overpass request failed: " + response.code());
+            }
+            return parse(body.charStream());
+        }
+    }
+
+    /**
+     * @throws IOException if the response is not valid Overpass JSON
+     */
+    static List<TrailWay> parse(Reader body) throws IOException {
+        List<TrailWay> ways = new ArrayList<>();
+        try (JsonReader reader = new JsonReader(body)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("elements")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        TrailWay way = readElement(reader);
+                        if (way != null) {
+                            ways.add(way);
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // Thrown by JsonReader when a value has an unexpected type
+            throw new IOException("Malformed Overpass response", e);
+        }
+        return ways;
+    }
+
+    /**
+     * @return the way, or null for other elements and ways without a usable geometry
+     */
+    private static TrailWay readElement(JsonReader reader) throws IOException {
+        String elementType = null;
+        long id = -1;
+        String highway = null;
+        String name = "";
+        double[] latitudes = new double[INITIAL_POINT_CAPACITY];
+        double[] longitudes = new double[INITIAL_POINT_CAPACITY];
+        int count = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (field.equals("type")) {
+                elementType = reader.nextString();
+            } else if (field.equals("id")) {
+                id = reader.nextLong();
+            } else if (field.equals("tags") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    if (key.equals("highway")) {
+                        highway = reader.nextString();
+                    } else if (key.equals("name")) {
+                        name = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (field.equals("geometry") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    // {"lat": .., "lon": ..}; null for nodes outside the box in some queries
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                        continue;
+                    }
+                    double lat = Double.NaN;
+                    double lon = Double.NaN;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String coordinate = reader.nextName();
+                        if (coordinate.equals("lat")) {
+                            lat = reader.nextDouble();
+                        } else if (coordinate.equals("lon")) {
+                            lon = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                        continue;
+                    }
+                    if (count == latitudes.length) {
+                        latitudes = Arrays.copyOf(latitudes, count * 2);
+                        longitudes = Arrays.copyOf(longitudes, count * 2);
+                    }
+                    latitudes[count] = lat;
+                    longitudes[count] = lon;
+                    count++;
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!"way".equals(elementType) || id < 0 || highway == null || count < 2) {
+            return null;
+        }
+        return TrailWay.simplified(id, highway, name,
+                Arrays.copyOf(latitudes, count), Arrays.copyOf(longitudes, count));
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.signinui;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.util.List;
+
+/**
+ * Route geometry stored in parallel primitive arrays.
+ *
+ * Point i is ({@code latitudes[i]}, {@code longitudes[i]}), and {@code cumulativeMeters[i]} is the
+ * distance along the route from the first point to point i. That is 24 bytes per point, against
+ * roughly 100 for a {@code GeoPoint} in a list plus the copy a {@code Polyline} keeps of it.
+ * Drawing and navigation read the arrays directly, so nothing is copied or boxed after
+ * the route has loaded.
+ *
+ * Instances are immutable. The arrays returned by the getters are the internal ones and must not
+ * be modified.
+ */
+final class PackedRoute {
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] cumulativeMeters;
+
+    /**
+     * Takes ownership of the arrays, which must have the same length.
+     */
+    static PackedRoute of(double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length) {
+            throw new IllegalArgumentException("Coordinate arrays differ in length");
+        }
+        return new PackedRoute(latitudes, longitudes);
+    }
+
+    static PackedRoute fromGeoPoints(List<GeoPoint> points) {
+        double[] latitudes = new double[points.size()];
+        double[] longitudes = new double[points.size()];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = points.get(i).getLatitude();
+            longitudes[i] = points.get(i).getLongitude();
+        }
+        return new PackedRoute(latitudes, longitudes);
+    }
+
+    private PackedRoute(double[] latitudes, double[] longitudes) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.cumulativeMeters = new double[latitudes.length];
+        for (int i = 1; i < latitudes.length; i++) {
+            cumulativeMeters[i] = cumulativeMeters[i - 1]
+                    + GeoMath.distanceMeters(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+    }
+
+    int size() {
+        return latitudes.length;
+    }
+
+    double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    /**
+     * Distance along the route from the first point to the given one, in metres.
+     */
+    double getDistanceAt(int index) {
+        return cumulativeMeters[index];
+    }
+
+    double getLengthMeters() {
+        return cumulativeMeters.length == 0 ? 0 : cumulativeMeters[cumulativeMeters.length - 1];
+    }
+
+    /**
+     * Allocates a new point; meant for one-off uses such as markers, not for loops over the route.
+     */
+    GeoPoint getPoint(int index) {
+        return new GeoPoint(latitudes[index], longitudes[index]);
+    }
+
+    double[] getLatitudes() {
+        return latitudes;
+    }
+
+    double[] getLongitudes() {
+        return longitudes;
+    }
+
+    double[] getCumulativeMeters() {
+        return cumulativeMeters;
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.signinui;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks which friends have been heard from recently.
+ *
+ * Each user id gets a fixed slot; the last-seen time of a slot lives in a primitive
+ * {@link AtomicLongArray}, so recording a heartbeat from a peer that is already online is a single
+ * lock-free store. Expiry uses a hashed timer wheel: a peer is put on the wheel once when it comes
+ * online, and when its bucket comes round it is either expired or re-filed by its latest last-seen
+ * time. {@link #tick()} therefore only touches peers whose deadline has passed, never the whole table.
+ *
+ * Online/offline transitions are collected and delivered to listeners as one batch per tick.
+ */
+final class PeerPresenceTable {
+    static final long DEFAULT_TTL_MS = 150_000;
+    static final long DEFAULT_TICK_MS = 5_000;
+    static final int DEFAULT_CAPACITY = 256;
+
+    private static final int OFFLINE = 0;
+    private static final int ONLINE = 1;
+
+    /**
+     * Receives batched presence changes. Both lists may be empty but not both at once.
+     */
+    interface PresenceListener {
+        void onPresenceChanged(List<String> cameOnline, List<String> wentOffline);
+    }
+
+    private final long ttlMillis;
+    private final long tickMillis;
+    private final LongSupplier clock;
+
+    private final Map<String, Integer> slotByUid = new ConcurrentHashMap<>();
+    private final String[] uidBySlot;
+    private final AtomicLongArray lastSeen;
+    private final AtomicIntegerArray state;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+    private final AtomicInteger onlineCount = new AtomicInteger();
+
+    // Timer wheel: one bucket per tick, enough buckets to cover a full TTL
+    private final int[][] buckets;
+    private final int[] bucketSizes;
+    private long processedTick;
+    // Slots that tick() put back online after a markSeen() had already seen them offline; that
+    // markSeen() must not count or schedule them a second time. Guarded by the wheel lock.
+    private final boolean[] keptOnline;
+
+    private final ConcurrentLinkedQueue<String> pendingOnline = new ConcurrentLinkedQueue<>();
+    private final List<PresenceListener> listeners = new CopyOnWriteArrayList<>();
+
+    PeerPresenceTable() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_MS, DEFAULT_TICK_MS, System::currentTimeMillis);
+    }
+
+    PeerPresenceTable(int capacity, long ttlMillis, long tickMillis, LongSupplier clock) {
+        if (ttlMillis < tickMillis || tickMillis <= 0) {
+            throw new IllegalArgumentException("TTL must be at least one tick");
+        }
+        this.ttlMillis = ttlMillis;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        this.uidBySlot = new String[capacity];
+        this.lastSeen = new AtomicLongArray(capacity);
+        this.state = new AtomicIntegerArray(capacity);
+        this.keptOnline = new boolean[capacity];
+
+        int wheelSize = (int) ((ttlMillis + tickMillis - 1) / tickMillis) + 1;
+        this.buckets = new int[wheelSize][];
+        this.bucketSizes = new int[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new int[4];
+        }
+        this.processedTick = clock.getAsLong() / tickMillis;
+    }
+
+    void addListener(PresenceListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(PresenceListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Records that a frame was received from the given user.
+     * @return false if the table is full and the user could not be tracked.
+     */
+    boolean markSeen(String uid) {
+        int slot = slotFor(uid);
+        if (slot < 0) {
+            return false;
+        }
+        long now = clock.getAsLong();
+        lastSeen.set(slot, now);
+        if (state.compareAndSet(slot, OFFLINE, ONLINE)) {
+            synchronized (buckets) {
+                if (keptOnline[slot]) {
+                    // tick() saw this heartbeat and never reported the peer offline
+                    keptOnline[slot] = false;
+                    return true;
+                }
+                onlineCount.incrementAndGet();
+                pendingOnline.add(uid);
+                addToBucket(slot, now + ttlMillis);
+            }
+        }
+        return true;
+    }
+
+    boolean isOnline(String uid) {
+        Integer slot = slotByUid.get(uid);
+        return slot != null && state.get(slot) == ONLINE;
+    }
+
+    int getOnlineCount() {
+        return onlineCount.get();
+    }
+
+    long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Advances the wheel to the current time, expires peers whose TTL has passed and
+     * notifies listeners of everything that changed since the previous tick.
+     */
+    void tick() {
+        long now = clock.getAsLong();
+        long currentTick = now / tickMillis;
+        List<String> wentOffline = new ArrayList<>();
+
+        synchronized (buckets) {
+            // After a long pause, one revolution covers every bucket
+            long firstTick = Math.max(processedTick + 1, currentTick - buckets.length + 1);
+            for (long t = firstTick; t <= currentTick; t++) {
+                processedTick = t;
+                int bucket = (int) (t % buckets.length);
+                int size = bucketSizes[bucket];
+                if (size == 0) {
+                    continue;
+                }
+                int[] due = Arrays.copyOf(buckets[bucket], size);
+                bucketSizes[bucket] = 0;
+                for (int slot : due) {
+                    expireOrReschedule(slot, now, wentOffline);
+                }
+            }
+            processedTick = Math.max(processedTick, currentTick);
+        }
+
+        List<String> cameOnline = new ArrayList<>();
+        String uid;
+        while ((uid = pendingOnline.poll()) != null) {
+            cameOnline.add(uid);
+        }
+        if (!cameOnline.isEmpty() || !wentOffline.isEmpty()) {
+            for (PresenceListener listener : listeners) {
+                listener.onPresenceChanged(cameOnline, wentOffline);
+            }
+        }
+    }
+
+    // Called with the wheel lock held
+    private void expireOrReschedule(int slot, long now, List<String> wentOffline) {
+        long deadline = lastSeen.get(slot) + ttlMillis;
+        if (deadline > now) {
+            // Heard from since it was filed; move it to its new deadline
+            addToBucket(slot, deadline);
+            return;
+        }
+        if (!state.compareAndSet(slot, ONLINE, OFFLINE)) {
+            return;
+        }
+        // A heartbeat may have landed between the deadline check and the CAS
+        long latest = lastSeen.get(slot) + ttlMillis;
+        if (latest > now) {
+            if (!state.compareAndSet(slot, OFFLINE, ONLINE)) {
+                // Its markSeen() already flipped the state back and is waiting for the lock
+                keptOnline[slot] = true;
+            }
+            addToBucket(slot, latest);
+            return;
+        }
+        onlineCount.decrementAndGet();
+        wentOffline.add(uidBySlot[slot]);
+    }
+
+    private void addToBucket(int slot, long deadline) {
+        // Never file into a bucket that has already been processed for this revolution
+        long deadlineTick = Math.max(deadline / tickMillis, processedTick + 1);
+        int bucket = (int) (deadlineTick % buckets.length);
+        int size = bucketSizes[bucket];
+        if (size == buckets[bucket].length) {
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], size * 2);
+        }
+        buckets[bucket][size] = slot;
+        bucketSizes[bucket] = size + 1;
+    }
+
+    private int slotFor(String uid) {
+        Integer slot = slotByUid.get(uid);
+        if (slot != null) {
+            return slot;
+        }
+        synchronized (slotByUid) {
+            slot = slotByUid.get(uid);
+            if (slot != null) {
+                return slot;
+            }
+            int next = nextSlot.get();
+            if (next >= uidBySlot.length) {
+                return -1;
+            }
+            uidBySlot[next] = uid;
+            // Publish the slot only after its uid is stored
+            nextSlot.set(next + 1);
+            slotByUid.put(uid, next);
+            return next;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.signinui;
+
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff for re-establishing dropped Bluetooth links.
+ *
+ * The n-th retry waits between half and all of min(maxDelay, baseDelay * 2^n). The random half
+ * keeps two phones that lost each other at the same moment from retrying in lock-step.
+ */
+final class ReconnectPolicy {
+    static final long DEFAULT_BASE_DELAY_MS = 1_000;
+    static final long DEFAULT_MAX_DELAY_MS = 60_000;
+    static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private final Random random;
+
+    ReconnectPolicy() {
+        this(DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_MAX_ATTEMPTS, new Random());
+    }
+
+    ReconnectPolicy(long baseDelayMs, long maxDelayMs, int maxAttempts, Random random) {
+        if (baseDelayMs <= 0 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException("Invalid delays: " + baseDelayMs + ", " + maxDelayMs);
+        }
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+    }
+
+    /**
+     * @return true if another attempt is allowed after {@code attempt} failed attempts.
+     */
+    boolean shouldRetry(int attempt) {
+        return attempt < maxAttempts;
+    }
+
+    /**
+     * Delay before the given attempt: a random value in the upper half of the base delay doubled
+     * per attempt and capped at the maximum. Attempt 0 waits between half the base delay and the
+     * full base delay.
+     */
+    long nextDelayMillis(int attempt) {
+        long ceiling = maxDelayMs;
+        // Stop doubling once the cap is reached so the shift cannot overflow
+        if (attempt < Long.numberOfLeadingZeros(baseDelayMs) - 1) {
+            ceiling = Math.min(maxDelayMs, baseDelayMs << attempt);
+        }
+        long half = ceiling / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (ceiling - half));
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.signinui;
+
+import org.osmdroid.util.GeoPoint;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * On-disk cache of routing results, so navigating to the same trailhead again needs no network.
+ *
+ * Entries are keyed by profile, start and end point. The start is snapped to a grid of about
+ * 100 m, because the user rarely taps Navigate from exactly the same spot twice; the end is a
+ * fixed trailhead and is kept at full precision. Each entry is one file holding the
+ * {@link RouteCodec} encoding of the route. Entries are evicted least recently used first once
+ * the directory exceeds its size cap.
+ *
+ * All methods do file I/O and should be called off the main thread.
+ */
+final class RouteCache {
+    private static final String FILE_SUFFIX = ".route";
+    // 1e-3 degrees is about 110 m of latitude
+    private static final double START_SNAP_SCALE = 1e3;
+    private static final double END_SCALE = 1e5;
+
+    private final File directory;
+    private final long maxBytes;
+    // File name -> size in bytes, in access order (eldest first)
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded;
+    private long diskUsageBytes;
+    private long hitCount;
+    private long missCount;
+
+    RouteCache(File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    static String keyFor(String profile, GeoPoint start, GeoPoint end) {
+        return String.format(Locale.US, "%s_%d_%d_%d_%d",
+                profile,
+                Math.round(start.getLatitude() * START_SNAP_SCALE),
+                Math.round(start.getLongitude() * START_SNAP_SCALE),
+                Math.round(end.getLatitude() * END_SCALE),
+                Math.round(end.getLongitude() * END_SCALE));
+    }
+
+    /**
+     * @return the cached route, or null on a miss. Unreadable entries are deleted and count as a miss.
+     */
+    synchronized RouteCodec.Route get(String key) {
+        ensureLoaded();
+        String fileName = key + FILE_SUFFIX;
+        if (entries.get(fileName) == null) {
+            missCount++;
+            return null;
+        }
+
+        File file = new File(directory, fileName);
+        try {
+            byte[] data = readFully(file);
+            RouteCodec.Route route = RouteCodec.decode(data, 0, data.length);
+            // Keeps the LRU order across restarts
+            file.setLastModified(System.currentTimeMillis());
+            hitCount++;
+            return route;
+        } catch (IOException e) {
+            remove(fileName);
+            missCount++;
+            return null;
+        }
+    }
+
+    /**
+     * Stores a route encoded with {@link RouteCodec#encode}, evicting old entries if needed.
+     * @return false if the route could not be written.
+     */
+    synchronized boolean put(String key, byte[] encodedRoute) {
+        ensureLoaded();
+        if (encodedRoute.length > maxBytes) {
+            return false;
+        }
+        String fileName = key + FILE_SUFFIX;
+        File file = new File(directory, fileName);
+        // Write to a temporary file first so a crash never leaves half a route behind
+        File temp = new File(directory, fileName + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(encodedRoute);
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return false;
+        }
+
+        Long previous = entries.put(fileName, (long) encodedRoute.length);
+        diskUsageBytes += encodedRoute.length - (previous != null ? previous : 0);
+        trimToSize();
+        return true;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (diskUsageBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(directory, entry.getKey()).delete();
+            diskUsageBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void remove(String fileName) {
+        Long size = entries.remove(fileName);
+        if (size != null) {
+            diskUsageBytes -= size;
+        }
+        new File(directory, fileName).delete();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> routes = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                routes.add(file);
+            } else {
+                file.delete(); // Leftover temporary file
+            }
+        }
+        // Oldest first, matching the access order of the map
+        routes.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : routes) {
+            entries.put(file.getName(), file.length());
+            diskUsageBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) {
+                    // The file shrank while we read it
+                    return Arrays.copyOf(data, read);
+                }
+                read += n;
+            }
+            return data;
+        }
+    }
+
+    // =============================================================================================
+    // Statistics
+    // =============================================================================================
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+    synchronized double getHitRatio() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    synchronized long getDiskUsageBytes() {
+        ensureLoaded();
+        return diskUsageBytes;
+    }
+
+    synchronized int getEntryCount() {
+        ensureLoaded();
+        return entries.size();
+    }
+}
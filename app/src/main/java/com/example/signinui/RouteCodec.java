@@ -0,0 +1,225 @@
+package com.example.signinui;
+
+import com.example.signinui.model.TrailDetails;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Compact binary encoding of a navigation route, used to share routes between phones.
+ *
+ * Coordinates are stored like an encoded polyline: latitude and longitude are scaled to 1e-5
+ * degrees (about 1 m), each point is written as the difference to the previous one, and the
+ * differences are zigzag varints. Hiking routes move in small steps, so most points take 2-4
+ * bytes and a 2,000-point route fits in a few KB.
+ *
+ * Layout: [version][total distance][trail details][point count][points][step count][steps].
+ */
+final class RouteCodec {
+    private static final int VERSION = 1;
+    private static final double COORDINATE_SCALE = 1e5;
+
+    private RouteCodec() {}
+
+    /**
+     * A route with its turn-by-turn steps. Steps refer to route points by index.
+     */
+    static final class Route {
+        final TrailDetails details;
+        final PackedRoute geometry;
+        final int[] stepPointIndices;
+        final String[] stepInstructions;
+        final double[] stepDistances;
+        final double totalDistanceMeters;
+
+        Route(TrailDetails details, PackedRoute geometry, int[] stepPointIndices,
+              String[] stepInstructions, double[] stepDistances, double totalDistanceMeters) {
+            if (stepPointIndices.length != stepInstructions.length || stepPointIndices.length != stepDistances.length) {
+                throw new IllegalArgumentException("Step arrays differ in length");
+            }
+            this.details = details;
+            this.geometry = geometry;
+            this.stepPointIndices = stepPointIndices;
+            this.stepInstructions = stepInstructions;
+            this.stepDistances = stepDistances;
+            this.totalDistanceMeters = totalDistanceMeters;
+        }
+
+        int getStepCount() {
+            return stepPointIndices.length;
+        }
+    }
+
+    static byte[] encode(Route route) {
+        PackedRoute geometry = route.geometry;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + geometry.size() * 4);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeDouble(route.totalDistanceMeters);
+            writeDetails(out, route.details);
+
+            writeVarint(out, geometry.size());
+            long lastLat = 0;
+            long lastLon = 0;
+            for (int i = 0; i < geometry.size(); i++) {
+                long lat = Math.round(geometry.getLatitude(i) * COORDINATE_SCALE);
+                long lon = Math.round(geometry.getLongitude(i) * COORDINATE_SCALE);
+                writeSignedVarint(out, lat - lastLat);
+                writeSignedVarint(out, lon - lastLon);
+                lastLat = lat;
+                lastLon = lon;
+            }
+
+            writeVarint(out, route.getStepCount());
+            int lastIndex = 0;
+            for (int i = 0; i < route.getStepCount(); i++) {
+                writeSignedVarint(out, route.stepPointIndices[i] - lastIndex);
+                lastIndex = route.stepPointIndices[i];
+                // Decimetres are plenty for step lengths
+                writeVarint(out, Math.round(route.stepDistances[i] * 10));
+                out.writeUTF(route.stepInstructions[i]);
+            }
+        } catch (IOException e) {
+            // Only reachable with a single string over 64 KB
+            throw new IllegalArgumentException("Route cannot be encoded", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the data is truncated, from an unknown version or inconsistent.
+     */
+    static Route decode(byte[] buffer, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer, offset, length));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported route version " + version);
+        }
+        double totalDistanceMeters = in.readDouble();
+        TrailDetails details = readDetails(in);
+
+        int pointCount = readCount(in, length);
+        double[] latitudes = new double[pointCount];
+        double[] longitudes = new double[pointCount];
+        long lat = 0;
+        long lon = 0;
+        for (int i = 0; i < pointCount; i++) {
+            lat += readSignedVarint(in);
+            lon += readSignedVarint(in);
+            latitudes[i] = lat / COORDINATE_SCALE;
+            longitudes[i] = lon / COORDINATE_SCALE;
+        }
+        PackedRoute geometry = PackedRoute.of(latitudes, longitudes);
+
+        int stepCount = readCount(in, length);
+        int[] stepPointIndices = new int[stepCount];
+        String[] stepInstructions = new String[stepCount];
+        double[] stepDistances = new double[stepCount];
+        int index = 0;
+        for (int i = 0; i < stepCount; i++) {
+            index += (int) readSignedVarint(in);
+            if (index < 0 || index >= pointCount) {
+                throw new IOException("Step " + i + " points outside the route: " + index);
+            }
+            stepPointIndices[i] = index;
+            stepDistances[i] = readVarint(in) / 10.0;
+            stepInstructions[i] = in.readUTF();
+        }
+
+        if (pointCount > 0) {
+            // The receiver navigates to the end of the shared route
+            details.routePoints = new ArrayList<>();
+            details.routePoints.add(geometry.getPoint(pointCount - 1));
+        }
+        return new Route(details, geometry, stepPointIndices, stepInstructions, stepDistances, totalDistanceMeters);
+    }
+
+    // =============================================================================================
+    // Trail Details
+    // =============================================================================================
+
+    private static void writeDetails(DataOutputStream out, TrailDetails details) throws IOException {
+        writeString(out, details.id);
+        writeString(out, details.name);
+        writeString(out, details.description);
+        writeString(out, details.difficulty);
+        writeString(out, details.distance);
+        writeString(out, details.elevation);
+        writeString(out, details.type);
+        writeString(out, details.location);
+        out.writeDouble(details.rating);
+    }
+
+    private static TrailDetails readDetails(DataInputStream in) throws IOException {
+        TrailDetails details = new TrailDetails();
+        details.id = readString(in);
+        details.name = readString(in);
+        details.description = readString(in);
+        details.difficulty = readString(in);
+        details.distance = readString(in);
+        details.elevation = readString(in);
+        details.type = readString(in);
+        details.location = readString(in);
+        details.rating = in.readDouble();
+        return details;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    // =============================================================================================
+    // Varints
+    // =============================================================================================
+
+    static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static void writeSignedVarint(DataOutputStream out, long value) throws IOException {
+        // Zigzag: small negative numbers become small positive ones
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    static long readSignedVarint(DataInputStream in) throws IOException {
+        long raw = readVarint(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+
+    private static int readCount(DataInputStream in, int maxLength) throws IOException {
+        long count = readVarint(in);
+        // Every element takes at least one byte, so a larger count means corrupt data
+        if (count < 0 || count > maxLength) {
+            throw new EOFException("Invalid element count " + count);
+        }
+        return (int) count;
+    }
+}
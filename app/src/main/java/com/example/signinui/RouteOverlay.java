@@ -0,0 +1,151 @@
+package com.example.signinui;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+
+import org.osmdroid.util.BoundingBox;
+import org.osmdroid.util.PointL;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+/**
+ * Draws a {@link PackedRoute} as a line, reading its coordinate arrays directly.
+ *
+ * Unlike {@code Polyline}, which keeps its own list of {@code GeoPoint}s, this overlay only adds
+ * the projected (zoom independent) pixel coordinates, computed once on the first draw. Each frame
+ * reuses the same Path and points, so panning and zooming allocate nothing.
+ *
+ * Once a {@link LinePyramid} is set, each frame draws only the vertices of the level matching the
+ * current zoom; until then every vertex is drawn. A line entirely outside the viewport is skipped.
+ * The number of vertices of the last frame is available for measuring.
+ */
+final class RouteOverlay extends Overlay {
+    // Consecutive points closer than this on screen are merged
+    private static final long MIN_SEGMENT_PIXELS = 1;
+
+    private final PackedRoute route;
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Path path = new Path();
+    private final PointL projected = new PointL();
+    private final PointL screen = new PointL();
+    private final double south;
+    private final double west;
+    private final double north;
+    private final double east;
+    private long[] projectedX;
+    private long[] projectedY;
+    private LinePyramid pyramid;
+    private int lastDrawnVertexCount;
+
+    RouteOverlay(PackedRoute route, int color, float widthPixels) {
+        this.route = route;
+        paint.setColor(color);
+        paint.setStrokeWidth(widthPixels);
+        paint.setStyle(Paint.Style.STROKE);
+        paint.setStrokeCap(Paint.Cap.ROUND);
+        paint.setStrokeJoin(Paint.Join.ROUND);
+        double minLat = 90, minLon = 180, maxLat = -90, maxLon = -180;
+        for (int i = 0; i < route.size(); i++) {
+            minLat = Math.min(minLat, route.getLatitude(i));
+            maxLat = Math.max(maxLat, route.getLatitude(i));
+            minLon = Math.min(minLon, route.getLongitude(i));
+            maxLon = Math.max(maxLon, route.getLongitude(i));
+        }
+        south = minLat;
+        west = minLon;
+        north = maxLat;
+        east = maxLon;
+    }
+
+    PackedRoute getRoute() {
+        return route;
+    }
+
+    double getSouth() {
+        return south;
+    }
+
+    double getWest() {
+        return west;
+    }
+
+    double getNorth() {
+        return north;
+    }
+
+    double getEast() {
+        return east;
+    }
+
+    /**
+     * Must be called on the UI thread; the map needs an invalidate to show the change.
+     */
+    void setPyramid(LinePyramid pyramid) {
+        this.pyramid = pyramid;
+    }
+
+    /**
+     * Vertices added to the path in the last frame; 0 if the line was off screen.
+     */
+    int getLastDrawnVertexCount() {
+        return lastDrawnVertexCount;
+    }
+
+    @Override
+    public void draw(Canvas canvas, Projection projection) {
+        lastDrawnVertexCount = 0;
+        int size = route.size();
+        if (size < 2) {
+            return;
+        }
+        BoundingBox viewport = projection.getBoundingBox();
+        if (north < viewport.getLatSouth() || south > viewport.getLatNorth()
+                || east < viewport.getLonWest() || west > viewport.getLonEast()) {
+            return;
+        }
+        if (projectedX == null) {
+            projectPoints(projection);
+        }
+
+        int[] indices = pyramid != null ? pyramid.indicesFor(projection.getZoomLevel()) : null;
+        int count = indices != null ? indices.length : size;
+        double powerDifference = projection.getProjectedPowerDifference();
+        path.rewind();
+        long lastX = 0;
+        long lastY = 0;
+        int drawn = 0;
+        for (int k = 0; k < count; k++) {
+            int i = indices != null ? indices[k] : k;
+            projected.set(projectedX[i], projectedY[i]);
+            projection.getLongPixelsFromProjected(projected, powerDifference, true, screen);
+            if (k == 0) {
+                path.moveTo(screen.x, screen.y);
+            } else if (k == count - 1
+                    || Math.abs(screen.x - lastX) > MIN_SEGMENT_PIXELS
+                    || Math.abs(screen.y - lastY) > MIN_SEGMENT_PIXELS) {
+                path.lineTo(screen.x, screen.y);
+            } else {
+                continue;
+            }
+            drawn++;
+            lastX = screen.x;
+            lastY = screen.y;
+        }
+        lastDrawnVertexCount = drawn;
+        canvas.drawPath(path, paint);
+    }
+
+    private void projectPoints(Projection projection) {
+        int size = route.size();
+        double[] latitudes = route.getLatitudes();
+        double[] longitudes = route.getLongitudes();
+        projectedX = new long[size];
+        projectedY = new long[size];
+        for (int i = 0; i < size; i++) {
+            projection.toProjectedPixels(latitudes[i], longitudes[i], projected);
+            projectedX[i] = projected.x;
+            projectedY[i] = projected.y;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.signinui;
+
+/**
+ * Tracks how far along a {@link PackedRoute} the user is.
+ *
+ * Each fix is projected onto the nearest route segment. Only a small window of segments around
+ * the previous match is searched, so a fix costs the same on a 20-point route as on a
+ * 20,000-point one. The distance travelled and the remaining distance then come straight from
+ * the route's cumulative distance table. When the fix lies far from every segment in the window,
+ * e.g. after a GPS jump, the segments near it are looked up in a {@link SegmentGridIndex} if one
+ * was given, and the whole route is scanned otherwise. Updates allocate nothing.
+ *
+ * Not thread-safe; use it from the thread that receives location updates.
+ */
+final class RouteProgressTracker {
+    // Segments searched behind and ahead of the last match
+    private static final int WINDOW_BEHIND = 5;
+    private static final int WINDOW_AHEAD = 40;
+    // A window match further away than this triggers a wider search
+    private static final double RESCAN_DISTANCE_METERS = 50;
+    // How far around the fix the wider search looks in the segment index
+    private static final double INDEX_SEARCH_RADIUS_METERS = 250;
+    // Average hiking pace used for the ETA
+    static final double WALKING_SPEED_METERS_PER_SECOND = 5_000 / 3_600.0;
+
+    private final PackedRoute route;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double[] cumulativeMeters;
+    private final SegmentGridIndex index;
+    private final SegmentGridIndex.SegmentVisitor indexVisitor = this::considerSegment;
+
+    private boolean matched;
+    private int segmentIndex;
+    private double distanceAlong;
+    private double distanceFromRoute;
+
+    // Scratch state of the current search
+    private double projectedAlong;
+    private double projectedDistance;
+    private double fixLatitude;
+    private double fixLongitude;
+    private double metersPerDegreeLat;
+    private double metersPerDegreeLon;
+    private boolean improved;
+
+    RouteProgressTracker(PackedRoute route) {
+        this(route, null);
+    }
+
+    /**
+     * @param index index of the same route, or null to fall back to a full scan.
+     */
+    RouteProgressTracker(PackedRoute route, SegmentGridIndex index) {
+        this.route = route;
+        this.latitudes = route.getLatitudes();
+        this.longitudes = route.getLongitudes();
+        this.cumulativeMeters = route.getCumulativeMeters();
+        this.index = index;
+    }
+
+    /**
+     * Matches a new fix against the route.
+     */
+    void update(double latitude, double longitude) {
+        int segmentCount = route.size() - 1;
+        if (segmentCount < 1) {
+            return;
+        }
+        startSearch(latitude, longitude);
+        if (matched) {
+            distanceFromRoute = Double.MAX_VALUE;
+            int from = Math.max(0, segmentIndex - WINDOW_BEHIND);
+            int to = Math.min(segmentCount, segmentIndex + WINDOW_AHEAD + 1);
+            for (int i = from; i < to; i++) {
+                considerSegment(i);
+            }
+            if (distanceFromRoute <= RESCAN_DISTANCE_METERS) {
+                return;
+            }
+        }
+        if (index != null) {
+            if (!matched) {
+                distanceFromRoute = Double.MAX_VALUE;
+            }
+            improved = false;
+            index.query(latitude, longitude, INDEX_SEARCH_RADIUS_METERS, indexVisitor);
+            if (improved || matched) {
+                // Either a closer segment was found, or the window match is still the best we know
+                matched = true;
+                return;
+            }
+        }
+        // First fix far from the route, or no index: look at every segment once
+        distanceFromRoute = Double.MAX_VALUE;
+        for (int i = 0; i < segmentCount; i++) {
+            considerSegment(i);
+        }
+        matched = true;
+    }
+
+    private void startSearch(double latitude, double longitude) {
+        // Equirectangular projection around the fix; accurate to well under a metre at segment scale
+        fixLatitude = latitude;
+        fixLongitude = longitude;
+        metersPerDegreeLat = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+        metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(latitude));
+    }
+
+    private void considerSegment(int segment) {
+        projectOnto(segment);
+        if (projectedDistance < distanceFromRoute) {
+            distanceFromRoute = projectedDistance;
+            segmentIndex = segment;
+            distanceAlong = projectedAlong;
+            improved = true;
+        }
+    }
+
+    private void projectOnto(int segment) {
+        // Local coordinates in metres, with the fix at the origin
+        double ax = (longitudes[segment] - fixLongitude) * metersPerDegreeLon;
+        double ay = (latitudes[segment] - fixLatitude) * metersPerDegreeLat;
+        double bx = (longitudes[segment + 1] - fixLongitude) * metersPerDegreeLon;
+        double by = (latitudes[segment + 1] - fixLatitude) * metersPerDegreeLat;
+
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : -(ax * dx + ay * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+
+        double px = ax + t * dx;
+        double py = ay + t * dy;
+        projectedDistance = Math.sqrt(px * px + py * py);
+        projectedAlong = cumulativeMeters[segment] + t * (cumulativeMeters[segment + 1] - cumulativeMeters[segment]);
+    }
+
+    boolean hasMatch() {
+        return matched;
+    }
+
+    /**
+     * Index of the segment (from point i to point i + 1) the last fix was matched to.
+     */
+    int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    double getDistanceAlongMeters() {
+        return distanceAlong;
+    }
+
+    double getRemainingMeters() {
+        return matched ? route.getLengthMeters() - distanceAlong : route.getLengthMeters();
+    }
+
+    /**
+     * Distance along the route from the last fix to the given point, or 0 if it lies behind.
+     */
+    double getMetersToPoint(int pointIndex) {
+        return Math.max(0, cumulativeMeters[pointIndex] - distanceAlong);
+    }
+
+    /**
+     * How far the last fix was from the route.
+     */
+    double getDistanceFromRouteMeters() {
+        return distanceFromRoute;
+    }
+
+    int getEtaMinutes() {
+        return (int) Math.round(getRemainingMeters() / WALKING_SPEED_METERS_PER_SECOND / 60);
+    }
+
+    /**
+     * Share of the route covered, from 0 to 1.
+     */
+    double getProgress() {
+        double length = route.getLengthMeters();
+        return length > 0 ? distanceAlong / length : 0;
+    }
+}
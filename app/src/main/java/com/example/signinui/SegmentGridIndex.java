@@ -0,0 +1,149 @@
+package com.example.signinui;
+
+/**
+ * Uniform grid over the segments of a {@link PackedRoute}, for finding the segments near a point
+ * without scanning the whole route.
+ *
+ * Every cell lists the segments whose bounding box overlaps it. The lists are stored as one
+ * flat array plus per-cell offsets, so the index is three arrays however long the route is and
+ * queries allocate nothing. A segment that spans several cells may be reported more than once.
+ */
+final class SegmentGridIndex {
+    static final double DEFAULT_CELL_METERS = 100;
+    // Keeps the offsets array small on very long routes by growing the cells instead
+    private static final int MAX_CELLS = 1 << 16;
+
+    interface SegmentVisitor {
+        void visit(int segment);
+    }
+
+    private final double originLat;
+    private final double originLon;
+    private final double cellDegreesLat;
+    private final double cellDegreesLon;
+    private final int columns;
+    private final int rows;
+    // Segments of cell c are segments[cellStart[c]] .. segments[cellStart[c + 1] - 1]
+    private final int[] cellStart;
+    private final int[] segments;
+
+    SegmentGridIndex(PackedRoute route) {
+        this(route, DEFAULT_CELL_METERS);
+    }
+
+    SegmentGridIndex(PackedRoute route, double cellMeters) {
+        double[] latitudes = route.getLatitudes();
+        double[] longitudes = route.getLongitudes();
+        int segmentCount = Math.max(0, route.size() - 1);
+
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        for (int i = 0; i < route.size(); i++) {
+            minLat = Math.min(minLat, latitudes[i]);
+            maxLat = Math.max(maxLat, latitudes[i]);
+            minLon = Math.min(minLon, longitudes[i]);
+            maxLon = Math.max(maxLon, longitudes[i]);
+        }
+        if (route.size() == 0) {
+            minLat = maxLat = minLon = maxLon = 0;
+        }
+
+        double metersPerDegreeLat = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+        double metersPerDegreeLon = metersPerDegreeLat * Math.max(0.01, Math.cos(Math.toRadians((minLat + maxLat) / 2)));
+        double cellLat = cellMeters / metersPerDegreeLat;
+        double cellLon = cellMeters / metersPerDegreeLon;
+        int cols = (int) ((maxLon - minLon) / cellLon) + 1;
+        int rowCount = (int) ((maxLat - minLat) / cellLat) + 1;
+        if ((long) cols * rowCount > MAX_CELLS) {
+            double scale = Math.sqrt((double) cols * rowCount / MAX_CELLS) * 1.01;
+            cellLat *= scale;
+            cellLon *= scale;
+            cols = (int) ((maxLon - minLon) / cellLon) + 1;
+            rowCount = (int) ((maxLat - minLat) / cellLat) + 1;
+        }
+        this.originLat = minLat;
+        this.originLon = minLon;
+        this.cellDegreesLat = cellLat;
+        this.cellDegreesLon = cellLon;
+        this.columns = cols;
+        this.rows = rowCount;
+
+        // First pass counts the entries per cell, second pass fills them in
+        int[] counts = new int[columns * rows + 1];
+        for (int s = 0; s < segmentCount; s++) {
+            forEachCell(latitudes, longitudes, s, counts, null);
+        }
+        cellStart = new int[columns * rows + 1];
+        for (int c = 0; c < columns * rows; c++) {
+            cellStart[c + 1] = cellStart[c] + counts[c];
+        }
+        segments = new int[cellStart[columns * rows]];
+        int[] fill = new int[columns * rows];
+        System.arraycopy(cellStart, 0, fill, 0, fill.length);
+        for (int s = 0; s < segmentCount; s++) {
+            forEachCell(latitudes, longitudes, s, null, fill);
+        }
+    }
+
+    private void forEachCell(double[] latitudes, double[] longitudes, int segment, int[] counts, int[] fill) {
+        int row0 = row(Math.min(latitudes[segment], latitudes[segment + 1]));
+        int row1 = row(Math.max(latitudes[segment], latitudes[segment + 1]));
+        int col0 = column(Math.min(longitudes[segment], longitudes[segment + 1]));
+        int col1 = column(Math.max(longitudes[segment], longitudes[segment + 1]));
+        for (int r = row0; r <= row1; r++) {
+            for (int c = col0; c <= col1; c++) {
+                int cell = r * columns + c;
+                if (counts != null) {
+                    counts[cell]++;
+                } else {
+                    segments[fill[cell]++] = segment;
+                }
+            }
+        }
+    }
+
+    private int row(double latitude) {
+        return clamp((int) Math.floor((latitude - originLat) / cellDegreesLat), rows);
+    }
+
+    private int column(double longitude) {
+        return clamp((int) Math.floor((longitude - originLon) / cellDegreesLon), columns);
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    /**
+     * Visits every segment that may lie within {@code radiusMeters} of the point.
+     * @return false if the point is too far from the route for any cell to qualify.
+     */
+    boolean query(double latitude, double longitude, double radiusMeters, SegmentVisitor visitor) {
+        double radiusLat = radiusMeters / Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+        double radiusLon = radiusLat / Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        double rowLow = Math.floor((latitude - radiusLat - originLat) / cellDegreesLat);
+        double rowHigh = Math.floor((latitude + radiusLat - originLat) / cellDegreesLat);
+        double colLow = Math.floor((longitude - radiusLon - originLon) / cellDegreesLon);
+        double colHigh = Math.floor((longitude + radiusLon - originLon) / cellDegreesLon);
+        if (rowHigh < 0 || rowLow >= rows || colHigh < 0 || colLow >= columns) {
+            return false;
+        }
+
+        int row1 = (int) Math.min(rows - 1, rowHigh);
+        int col0 = (int) Math.max(0, colLow);
+        int col1 = (int) Math.min(columns - 1, colHigh);
+        for (int r = (int) Math.max(0, rowLow); r <= row1; r++) {
+            for (int c = col0; c <= col1; c++) {
+                int cell = r * columns + c;
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    visitor.visit(segments[i]);
+                }
+            }
+        }
+        return true;
+    }
+
+    int getCellCount() {
+        return columns * rows;
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.signinui;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A tile pack: the map tiles of one offline region in a single file.
+ *
+ * The file starts with a header naming the tile source. Then come the tiles, each stored as its
+ * key, its length and the image bytes. Last is an index of every tile, sorted by key, and a
+ * fixed size footer that says where the index starts.
+ *
+ * A finished pack is memory-mapped. A lookup is a binary search in the mapped index and returns
+ * a view of the mapped image bytes. Tiles are paged in by the OS when first drawn instead of being
+ * loaded into the heap.
+ *
+ * Packs are written with a {@link Writer} to a separate file that holds only the header and the
+ * tiles. If a download stops part way, reopening that file keeps every complete tile and drops a
+ * torn last one, so the download can go on from where it was. {@link Writer#finish} appends the
+ * index and footer and moves the file into place.
+ *
+ * Contains no Android code.
+ */
+final class TileArchive implements Closeable {
+    private static final int HEADER_MAGIC = 0x54504b31; // "TPK1"
+    private static final int FOOTER_MAGIC = 0x54504b45; // "TPKE"
+    // Key, data offset, data length
+    private static final int INDEX_ENTRY_BYTES = 8 + 8 + 4;
+    // Index offset, tile count, magic
+    private static final int FOOTER_BYTES = 8 + 4 + 4;
+    // Key and length in front of each tile
+    private static final int RECORD_HEADER_BYTES = 8 + 4;
+    // Far above any real tile; guards against reading garbage as a length
+    private static final int MAX_TILE_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_SOURCE_NAME_BYTES = 256;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final String tileSourceName;
+    private final long indexOffset;
+    private final int tileCount;
+
+    private TileArchive(RandomAccessFile file, MappedByteBuffer buffer, String tileSourceName,
+                        long indexOffset, int tileCount) {
+        this.file = file;
+        this.buffer = buffer;
+        this.tileSourceName = tileSourceName;
+        this.indexOffset = indexOffset;
+        this.tileCount = tileCount;
+    }
+
+    /**
+     * Sorts tiles by zoom, then x, then y. Holds any tile up to zoom 29.
+     */
+    static long key(int zoom, int x, int y) {
+        return ((long) zoom << 58) | ((long) x << 29) | y;
+    }
+
+    static TileArchive open(File packFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(packFile, "r");
+        try {
+            long length = file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Tile pack too large to map: " + length);
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            String name = readHeader(buffer);
+            if (length < buffer.position() + FOOTER_BYTES) {
+                throw new IOException("Tile pack has no footer");
+            }
+            int footer = (int) length - FOOTER_BYTES;
+            long indexOffset = buffer.getLong(footer);
+            int count = buffer.getInt(footer + 8);
+            if (buffer.getInt(footer + 12) != FOOTER_MAGIC || count < 0 || indexOffset < buffer.position()
+                    || indexOffset + (long) count * INDEX_ENTRY_BYTES != footer) {
+                throw new IOException("Tile pack footer is invalid");
+            }
+            return new TileArchive(file, buffer, name, indexOffset, count);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt tile pack", e);
+        }
+    }
+
+    private static String readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 6 || buffer.getInt() != HEADER_MAGIC) {
+            throw new IOException("Not a tile pack");
+        }
+        int nameLength = buffer.getShort() & 0xffff;
+        if (nameLength > MAX_SOURCE_NAME_BYTES || buffer.remaining() < nameLength) {
+            throw new IOException("Tile pack header is invalid");
+        }
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    String getTileSourceName() {
+        return tileSourceName;
+    }
+
+    int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * The image bytes of a tile as a read-only view into the mapped file, or null if the pack
+     * does not have it. Safe to call from several threads.
+     */
+    ByteBuffer getTile(int zoom, int x, int y) {
+        long wanted = key(zoom, x, y);
+        int low = 0;
+        int high = tileCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = (int) (indexOffset + (long) mid * INDEX_ENTRY_BYTES);
+            long key = buffer.getLong(entry);
+            if (key < wanted) {
+                low = mid + 1;
+            } else if (key > wanted) {
+                high = mid - 1;
+            } else {
+                int offset = (int) buffer.getLong(entry + 8);
+                int length = buffer.getInt(entry + 16);
+                // duplicate() so concurrent callers never share a position
+                ByteBuffer tile = buffer.duplicate();
+                tile.limit(offset + length).position(offset);
+                return tile.slice().asReadOnlyBuffer();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping itself goes away when the buffer is collected
+        file.close();
+    }
+
+    /**
+     * Appends tiles to a partly written pack. Safe to call from several threads.
+     */
+    static final class Writer implements Closeable {
+        private final File partFile;
+        private final RandomAccessFile file;
+        private final Set<Long> keys = new HashSet<>();
+        private long[] indexKeys = new long[64];
+        private long[] indexOffsets = new long[64];
+        private int[] indexLengths = new int[64];
+        private boolean closed;
+
+        /**
+         * Opens {@code partFile}, creating it if needed. Tiles already in it are kept, unless it
+         * was started for another tile source, in which case it is emptied.
+         */
+        Writer(File partFile, String tileSourceName) throws IOException {
+            this.partFile = partFile;
+            this.file = new RandomAccessFile(partFile, "rw");
+            try {
+                if (!resume(tileSourceName)) {
+                    file.setLength(0);
+                    byte[] name = tileSourceName.getBytes(StandardCharsets.UTF_8);
+                    if (name.length > MAX_SOURCE_NAME_BYTES) {
+                        throw new IllegalArgumentException("Tile source name too long");
+                    }
+                    file.writeInt(HEADER_MAGIC);
+                    file.writeShort(name.length);
+                    file.write(name);
+                }
+            } catch (IOException | RuntimeException e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        private boolean resume(String tileSourceName) throws IOException {
+            long length = file.length();
+            if (length == 0) {
+                return false;
+            }
+            file.seek(0);
+            try {
+                if (file.readInt() != HEADER_MAGIC) {
+                    return false;
+                }
+                byte[] name = new byte[file.readUnsignedShort()];
+                file.readFully(name);
+                if (!new String(name, StandardCharsets.UTF_8).equals(tileSourceName)) {
+                    return false;
+                }
+            } catch (EOFException e) {
+                return false;
+            }
+
+            long position = file.getFilePointer();
+            while (position + RECORD_HEADER_BYTES <= length) {
+                long key = file.readLong();
+                int tileLength = file.readInt();
+                long end = position + RECORD_HEADER_BYTES + tileLength;
+                if (tileLength < 0 || tileLength > MAX_TILE_BYTES || end > length) {
+                    break;
+                }
+                addToIndex(key, position + RECORD_HEADER_BYTES, tileLength);
+                position = end;
+                file.seek(position);
+            }
+            // Drop whatever was being written when the last download stopped
+            file.setLength(position);
+            file.seek(position);
+            return true;
+        }
+
+        private void addToIndex(long key, long offset, int length) {
+            if (!keys.add(key)) {
+                return;
+            }
+            int count = keys.size() - 1;
+            if (count == indexKeys.length) {
+                indexKeys = Arrays.copyOf(indexKeys, count * 2);
+                indexOffsets = Arrays.copyOf(indexOffsets, count * 2);
+                indexLengths = Arrays.copyOf(indexLengths, count * 2);
+            }
+            indexKeys[count] = key;
+            indexOffsets[count] = offset;
+            indexLengths[count] = length;
+        }
+
+        synchronized boolean contains(int zoom, int x, int y) {
+            return keys.contains(key(zoom, x, y));
+        }
+
+        synchronized int getTileCount() {
+            return keys.size();
+        }
+
+        synchronized void add(int zoom, int x, int y, byte[] tile) throws IOException {
+            if (closed) {
+                throw new IOException("Tile pack writer is closed");
+            }
+            if (tile.length > MAX_TILE_BYTES) {
+                throw new IOException("Tile too large: " + tile.length);
+            }
+            long key = key(zoom, x, y);
+            if (keys.contains(key)) {
+                return;
+            }
+            long position = file.getFilePointer();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + tile.length);
+            record.putLong(key).putInt(tile.length).put(tile);
+            file.write(record.array());
+            addToIndex(key, position + RECORD_HEADER_BYTES, tile.length);
+        }
+
+        /**
+         * Writes the index, closes the writer and renames the finished pack to {@code packFile}.
+         */
+        synchronized void finish(File packFile) throws IOException {
+            int count = keys.size();
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Long.compare(indexKeys[a], indexKeys[b]));
+
+            long indexOffset = file.getFilePointer();
+            ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_BYTES + FOOTER_BYTES);
+            for (int i : order) {
+                index.putLong(indexKeys[i]).putLong(indexOffsets[i]).putInt(indexLengths[i]);
+            }
+            index.putLong(indexOffset).putInt(count).putInt(FOOTER_MAGIC);
+            file.write(index.array());
+            file.getFD().sync();
+            close();
+            if (packFile.exists() && !packFile.delete()) {
+                throw new IOException("Cannot replace " + packFile);
+            }
+            if (!partFile.renameTo(packFile)) {
+                throw new IOException("Cannot move tile pack to " + packFile);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                file.close();
+            }
+        }
+    }
+}
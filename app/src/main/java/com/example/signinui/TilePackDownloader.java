@@ -0,0 +1,210 @@
+package com.example.signinui;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads every tile of a bounding box over a range of zoom levels into a tile pack.
+ *
+ * A few worker threads fetch in parallel, but request starts are spaced by a minimum interval so
+ * the tile server sees a steady, modest rate. Tiles the pack already holds are skipped, which is
+ * what makes an interrupted download resumable. A tile that still fails after a retry is counted
+ * and left out; running the download again fetches only those.
+ *
+ * Contains no Android code.
+ */
+final class TilePackDownloader {
+    // Keeps a region to a few tens of MB
+    static final int MAX_TILES = 20_000;
+    private static final int ATTEMPTS = 2;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    interface TileUrls {
+        String url(int zoom, int x, int y);
+    }
+
+    interface Listener {
+        /**
+         * Called on a worker thread after each tile, fetched or failed.
+         */
+        void onProgress(int done, int total);
+    }
+
+    private final OkHttpClient client;
+    private final TileUrls tileUrls;
+    private final int threads;
+    private final long minRequestIntervalMs;
+    private final Object rateLock = new Object();
+    private long nextRequestMillis;
+    private volatile boolean cancelled;
+
+    TilePackDownloader(OkHttpClient client, TileUrls tileUrls, int threads, long minRequestIntervalMs) {
+        this.client = client;
+        this.tileUrls = tileUrls;
+        this.threads = threads;
+        this.minRequestIntervalMs = minRequestIntervalMs;
+    }
+
+    static int tileX(double longitude, int zoom) {
+        int tiles = 1 << zoom;
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor((longitude + 180) / 360 * tiles)));
+    }
+
+    static int tileY(double latitude, int zoom) {
+        int tiles = 1 << zoom;
+        double sin = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor(y * tiles)));
+    }
+
+    /**
+     * Longitude of the west edge of tile column {@code x}.
+     */
+    static double tileLongitude(int x, int zoom) {
+        return (double) x / (1 << zoom) * 360 - 180;
+    }
+
+    /**
+     * Latitude of the north edge of tile row {@code y}.
+     */
+    static double tileLatitude(int y, int zoom) {
+        double n = Math.PI * (1 - 2.0 * y / (1 << zoom));
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    static int countTiles(double south, double west, double north, double east, int minZoom, int maxZoom) {
+        long count = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            count += (long) (tileX(east, zoom) - tileX(west, zoom) + 1) * (tileY(south, zoom) - tileY(north, zoom) + 1);
+        }
+        return (int) Math.min(Integer.MAX_VALUE, count);
+    }
+
+    /**
+     * Makes a running {@link #download} stop after the requests in progress.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Fetches the region into {@code writer}, blocking until done.
+     *
+     * @return the number of tiles that could not be fetched
+     * @throws InterruptedIOException if cancelled; the tiles fetched so far stay in the pack
+     */
+    int download(double south, double west, double north, double east, int minZoom, int maxZoom,
+                 TileArchive.Writer writer, Listener listener) throws IOException {
+        int total = countTiles(south, west, north, east, minZoom, maxZoom);
+        if (total > MAX_TILES) {
+            throw new IllegalArgumentException("Region has " + total + " tiles, limit is " + MAX_TILES);
+        }
+        int[] zooms = new int[total];
+        int[] xs = new int[total];
+        int[] ys = new int[total];
+        int count = 0;
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            for (int x = tileX(west, zoom); x <= tileX(east, zoom); x++) {
+                for (int y = tileY(north, zoom); y <= tileY(south, zoom); y++) {
+                    zooms[count] = zoom;
+                    xs[count] = x;
+                    ys[count] = y;
+                    count++;
+                }
+            }
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(workers.submit(() -> {
+                int i;
+                while (!cancelled && (i = next.getAndIncrement()) < total) {
+                    if (!writer.contains(zooms[i], xs[i], ys[i]) && !fetch(zooms[i], xs[i], ys[i], writer)) {
+                        failed.incrementAndGet();
+                    }
+                    listener.onProgress(done.incrementAndGet(), total);
+                }
+                return null;
+            }));
+        }
+        workers.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Tile download interrupted");
+        } catch (ExecutionException e) {
+            cancelled = true;
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException("Tile download failed", e.getCause());
+        }
+        if (cancelled) {
+            throw new InterruptedIOException("Tile download cancelled");
+        }
+        return failed.get();
+    }
+
+    /**
+     * @return false if the tile could not be fetched
+     * @throws IOException if the pack could not be written, which ends the download
+     */
+    private boolean fetch(int zoom, int x, int y, TileArchive.Writer writer) throws IOException, InterruptedException {
+        Request request = new Request.Builder().url(tileUrls.url(zoom, x, y)).build();
+        for (int attempt = 0; attempt < ATTEMPTS && !cancelled; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_DELAY_MS);
+            }
+            awaitRequestSlot();
+            byte[] tile;
+            try (Response response = client.newCall(request).execute()) {
+                ResponseBody body = response.body();
+                if (response.code() == 404) {
+                    return false; // Retrying will not help
+                }
+                if (!response.isSuccessful() || body == null) {
+                    continue;
+                }
+                tile = body.bytes();
+            } catch (IOException e) {
+                continue;
+            }
+            writer.add(zoom, x, y, tile);
+            return true;
+        }
+        return false;
+    }
+
+    private void awaitRequestSlot() throws InterruptedException {
+        long wait;
+        synchronized (rateLock) {
+            long now = System.currentTimeMillis();
+            long start = Math.max(now, nextRequestMillis);
+            nextRequestMillis = start + minRequestIntervalMs;
+            wait = start - now;
+        }
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.signinui;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.MotionEvent;
+
+import org.osmdroid.util.GeoPoint;
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.Projection;
+import org.osmdroid.views.overlay.Marker;
+import org.osmdroid.views.overlay.Overlay;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Draws trailhead markers, merging those that would overlap into one badge with a count.
+ *
+ * Clusters come from a {@link ClusterGrid}. The finest level is built on a background thread
+ * whenever the markers change, and every other level is derived from the nearest finer one the
+ * first time the map shows that zoom, also in the background. Until a level is ready the last
+ * one drawn is shown. Above {@link #MAX_CLUSTER_ZOOM} every marker is drawn on its own.
+ *
+ * A cluster of one is drawn and tapped as its marker. Tapping a badge zooms in on it.
+ */
+final class TrailClusterOverlay extends Overlay {
+    static final int MAX_CLUSTER_ZOOM = 15;
+    private static final float BADGE_RADIUS_PIXELS = 36;
+    private static final long ZOOM_IN_ANIMATION_MS = 400;
+
+    private final MapView mapView;
+    private final ExecutorService clusterExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Paint badgePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint badgeBorderPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint countPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final GeoPoint scratchPoint = new GeoPoint(0.0, 0.0);
+    private final Point screenPoint = new Point();
+
+    // UI thread state
+    private List<Marker> markers = new ArrayList<>();
+    private final Map<Integer, ClusterGrid> levels = new HashMap<>();
+    // Bumped whenever the markers change, so results computed for older markers are dropped
+    private int generation;
+    private int pendingZoom = -1;
+    private ClusterGrid drawnGrid;
+    private float[] badgeX = new float[0];
+    private float[] badgeY = new float[0];
+
+    TrailClusterOverlay(MapView mapView) {
+        this.mapView = mapView;
+        badgePaint.setColor(Color.parseColor("#4CAF50"));
+        badgeBorderPaint.setColor(Color.WHITE);
+        badgeBorderPaint.setStyle(Paint.Style.STROKE);
+        badgeBorderPaint.setStrokeWidth(4);
+        countPaint.setColor(Color.WHITE);
+        countPaint.setTextSize(32);
+        countPaint.setTextAlign(Paint.Align.CENTER);
+        countPaint.setFakeBoldText(true);
+    }
+
+    /**
+     * Replaces the markers to draw. Must be called on the UI thread.
+     */
+    void setMarkers(List<Marker> newMarkers) {
+        markers = new ArrayList<>(newMarkers);
+        generation++;
+        levels.clear();
+        pendingZoom = -1;
+        drawnGrid = null;
+
+        int count = markers.size();
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = markers.get(i).getPosition().getLatitude();
+            longitudes[i] = markers.get(i).getPosition().getLongitude();
+        }
+        int buildGeneration = generation;
+        clusterExecutor.execute(() -> {
+            ClusterGrid grid = ClusterGrid.build(latitudes, longitudes, count, MAX_CLUSTER_ZOOM);
+            mainHandler.post(() -> onLevelReady(buildGeneration, grid));
+        });
+        mapView.invalidate();
+    }
+
+    private void onLevelReady(int buildGeneration, ClusterGrid grid) {
+        if (buildGeneration != generation) {
+            return;
+        }
+        levels.put(grid.zoom, grid);
+        if (pendingZoom == grid.zoom) {
+            pendingZoom = -1;
+        }
+        mapView.invalidate();
+    }
+
+    private void requestLevel(int zoom) {
+        if (pendingZoom == zoom) {
+            return;
+        }
+        // Derive from the closest finer level we have
+        ClusterGrid source = null;
+        for (ClusterGrid grid : levels.values()) {
+            if (grid.zoom > zoom && (source == null || grid.zoom < source.zoom)) {
+                source = grid;
+            }
+        }
+        if (source == null) {
+            return; // The finest level is still being built
+        }
+        pendingZoom = zoom;
+        ClusterGrid finer = source;
+        int buildGeneration = generation;
+        clusterExecutor.execute(() -> {
+            ClusterGrid grid = finer.coarsen(zoom);
+            mainHandler.post(() -> onLevelReady(buildGeneration, grid));
+        });
+    }
+
+    @Override
+    public void draw(Canvas canvas, Projection projection) {
+        int zoom = (int) Math.floor(projection.getZoomLevel());
+        if (zoom > MAX_CLUSTER_ZOOM) {
+            drawnGrid = null;
+            for (int i = 0; i < markers.size(); i++) {
+                markers.get(i).draw(canvas, projection);
+            }
+            return;
+        }
+
+        ClusterGrid grid = levels.get(zoom);
+        if (grid == null) {
+            requestLevel(zoom);
+            grid = drawnGrid;
+            if (grid == null) {
+                return;
+            }
+        }
+        drawnGrid = grid;
+        if (badgeX.length < grid.size()) {
+            badgeX = new float[grid.size()];
+            badgeY = new float[grid.size()];
+        }
+
+        Rect screen = projection.getIntrinsicScreenRect();
+        for (int i = 0; i < grid.size(); i++) {
+            if (grid.getCount(i) == 1) {
+                markers.get(grid.getFirstMember(i)).draw(canvas, projection);
+                continue;
+            }
+            scratchPoint.setCoords(grid.getLatitude(i), grid.getLongitude(i));
+            projection.toPixels(scratchPoint, screenPoint);
+            badgeX[i] = screenPoint.x;
+            badgeY[i] = screenPoint.y;
+            if (screenPoint.x < screen.left - BADGE_RADIUS_PIXELS || screenPoint.x > screen.right + BADGE_RADIUS_PIXELS
+                    || screenPoint.y < screen.top - BADGE_RADIUS_PIXELS || screenPoint.y > screen.bottom + BADGE_RADIUS_PIXELS) {
+                continue;
+            }
+            canvas.drawCircle(screenPoint.x, screenPoint.y, BADGE_RADIUS_PIXELS, badgePaint);
+            canvas.drawCircle(screenPoint.x, screenPoint.y, BADGE_RADIUS_PIXELS, badgeBorderPaint);
+            canvas.drawText(String.valueOf(grid.getCount(i)), screenPoint.x,
+                    screenPoint.y - (countPaint.descent() + countPaint.ascent()) / 2, countPaint);
+        }
+    }
+
+    @Override
+    public boolean onSingleTapConfirmed(MotionEvent event, MapView mapView) {
+        ClusterGrid grid = drawnGrid;
+        if (grid == null) {
+            for (int i = markers.size() - 1; i >= 0; i--) {
+                if (markers.get(i).onSingleTapConfirmed(event, mapView)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (int i = grid.size() - 1; i >= 0; i--) {
+            if (grid.getCount(i) == 1) {
+                if (markers.get(grid.getFirstMember(i)).onSingleTapConfirmed(event, mapView)) {
+                    return true;
+                }
+                continue;
+            }
+            float dx = event.getX() - badgeX[i];
+            float dy = event.getY() - badgeY[i];
+            if (dx * dx + dy * dy <= BADGE_RADIUS_PIXELS * BADGE_RADIUS_PIXELS) {
+                mapView.getController().animateTo(new GeoPoint(grid.getLatitude(i), grid.getLongitude(i)),
+                        Math.min(MAX_CLUSTER_ZOOM + 1.0, grid.zoom + 2.0), ZOOM_IN_ANIMATION_MS);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onDetach(MapView mapView) {
+        clusterExecutor.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+        super.onDetach(mapView);
+    }
+}
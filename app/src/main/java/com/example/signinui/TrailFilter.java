@@ -0,0 +1,269 @@
+package com.example.signinui;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides which trails pass the map filter, using a bit set per trait instead of string checks.
+ *
+ * Each trail is classified once, when it is added, into a set of {@link Trait}s kept as bits of an
+ * int. Every item gets a small id, and for every trait a {@link BitSet} lists the ids having it.
+ * Applying {@link Criteria} is then a few ORs and ANDs of those sets, whatever the number of
+ * trails, and comparing the result with the previous one gives exactly the items whose visibility
+ * changed. Callers attach and detach only those.
+ *
+ * Within a group (activity, difficulty, distance) a trail needs any of the selected traits; a
+ * group with none selected does not filter. Status traits (liked, saved) are all required.
+ *
+ * Not thread-safe.
+ */
+final class TrailFilter<T> {
+    // Shorter than about an hour of walking
+    static final double SHORT_MAX_METERS = 4000;
+    // Up to about three hours
+    static final double MEDIUM_MAX_METERS = 12000;
+
+    enum Trait {
+        HIKING, RUNNING, CYCLING,
+        EASY, MODERATE, CHALLENGING,
+        SHORT, MEDIUM, LONG,
+        LIKED, SAVED;
+
+        final int bit = 1 << ordinal();
+    }
+
+    static final int ACTIVITIES = Trait.HIKING.bit | Trait.RUNNING.bit | Trait.CYCLING.bit;
+    static final int DIFFICULTIES = Trait.EASY.bit | Trait.MODERATE.bit | Trait.CHALLENGING.bit;
+    static final int DISTANCES = Trait.SHORT.bit | Trait.MEDIUM.bit | Trait.LONG.bit;
+    static final int STATUSES = Trait.LIKED.bit | Trait.SAVED.bit;
+    // values() copies the array on every call
+    private static final Trait[] TRAITS = Trait.values();
+
+    /**
+     * Selected traits per group, as bit masks of {@link Trait}s. Immutable.
+     */
+    static final class Criteria {
+        static final Criteria ALL = new Criteria(0, 0, 0, 0);
+
+        final int activities;
+        final int difficulties;
+        final int distances;
+        final int statuses;
+
+        Criteria(int activities, int difficulties, int distances, int statuses) {
+            this.activities = activities & ACTIVITIES;
+            this.difficulties = difficulties & DIFFICULTIES;
+            this.distances = distances & DISTANCES;
+            this.statuses = statuses & STATUSES;
+        }
+
+        Criteria withActivities(int activities) {
+            return new Criteria(activities, difficulties, distances, statuses);
+        }
+
+        boolean accepts(int traits) {
+            return (activities == 0 || (traits & activities) != 0)
+                    && (difficulties == 0 || (traits & difficulties) != 0)
+                    && (distances == 0 || (traits & distances) != 0)
+                    && (traits & statuses) == statuses;
+        }
+    }
+
+    private final List<T> items = new ArrayList<>();
+    private final Map<T, Integer> ids = new HashMap<>();
+    private final BitSet[] byTrait = new BitSet[TRAITS.length];
+    private final BitSet all = new BitSet();
+    private BitSet visible = new BitSet();
+    private Criteria criteria = Criteria.ALL;
+
+    TrailFilter() {
+        for (int i = 0; i < byTrait.length; i++) {
+            byTrait[i] = new BitSet();
+        }
+    }
+
+    /**
+     * Traits of a Places trailhead, from the keywords it was found under and its details.
+     *
+     * @param distanceMeters the trail length, or NaN if unknown
+     */
+    static int classifyPlace(String categories, String difficulty, double distanceMeters, boolean liked, boolean saved) {
+        int traits = 0;
+        if (categories != null) {
+            String lc = categories.toLowerCase(Locale.US);
+            if (lc.contains("hiking") || lc.contains("nature") || lc.contains("mountain")) {
+                traits |= Trait.HIKING.bit;
+            }
+            if (lc.contains("running") || lc.contains("jogging")) {
+                traits |= Trait.RUNNING.bit;
+            }
+            if (lc.contains("bike") || lc.contains("cycling")) {
+                traits |= Trait.CYCLING.bit;
+            }
+        }
+        if (difficulty != null) {
+            switch (difficulty) {
+                case "Easy":
+                    traits |= Trait.EASY.bit;
+                    break;
+                case "Moderate":
+                    traits |= Trait.MODERATE.bit;
+                    break;
+                case "Challenging":
+                case "Hard":
+                    traits |= Trait.CHALLENGING.bit;
+                    break;
+            }
+        }
+        traits |= distanceTrait(distanceMeters);
+        if (liked) {
+            traits |= Trait.LIKED.bit;
+        }
+        if (saved) {
+            traits |= Trait.SAVED.bit;
+        }
+        return traits;
+    }
+
+    /**
+     * Traits of an OpenStreetMap way, from its highway type and length.
+     */
+    static int classifyWay(String highwayType, double lengthMeters) {
+        int traits = distanceTrait(lengthMeters);
+        switch (highwayType) {
+            case "footway":
+            case "steps":
+                return traits | Trait.HIKING.bit;
+            case "path":
+                return traits | Trait.HIKING.bit | Trait.RUNNING.bit;
+            case "track":
+                return traits | Trait.RUNNING.bit;
+            case "cycleway":
+                return traits | Trait.CYCLING.bit;
+            default:
+                return traits;
+        }
+    }
+
+    private static int distanceTrait(double meters) {
+        if (Double.isNaN(meters)) {
+            return 0;
+        }
+        if (meters < SHORT_MAX_METERS) {
+            return Trait.SHORT.bit;
+        }
+        return meters < MEDIUM_MAX_METERS ? Trait.MEDIUM.bit : Trait.LONG.bit;
+    }
+
+    /**
+     * Adds an item, visible if it passes the current criteria.
+     *
+     * @return the id of the item
+     */
+    int add(T item, int itemTraits) {
+        int id = items.size();
+        items.add(item);
+        ids.put(item, id);
+        all.set(id);
+        store(id, itemTraits);
+        return id;
+    }
+
+    /**
+     * Reclassifies an item, for instance after it was liked.
+     *
+     * @return whether the item's visibility changed
+     */
+    boolean setTraits(T item, int itemTraits) {
+        Integer id = ids.get(item);
+        if (id == null) {
+            return false;
+        }
+        boolean wasVisible = visible.get(id);
+        for (Trait trait : TRAITS) {
+            byTrait[trait.ordinal()].clear(id);
+        }
+        store(id, itemTraits);
+        return visible.get(id) != wasVisible;
+    }
+
+    private void store(int id, int itemTraits) {
+        for (Trait trait : TRAITS) {
+            if ((itemTraits & trait.bit) != 0) {
+                byTrait[trait.ordinal()].set(id);
+            }
+        }
+        visible.set(id, criteria.accepts(itemTraits));
+    }
+
+    /**
+     * Switches to new criteria.
+     *
+     * @return the ids of the items whose visibility changed; look them up with {@link #get}
+     */
+    BitSet setCriteria(Criteria criteria) {
+        this.criteria = criteria;
+        BitSet matching = (BitSet) all.clone();
+        andAnyOf(matching, criteria.activities);
+        andAnyOf(matching, criteria.difficulties);
+        andAnyOf(matching, criteria.distances);
+        for (Trait trait : TRAITS) {
+            if ((criteria.statuses & trait.bit) != 0) {
+                matching.and(byTrait[trait.ordinal()]);
+            }
+        }
+        BitSet changed = (BitSet) matching.clone();
+        changed.xor(visible);
+        visible = matching;
+        return changed;
+    }
+
+    private void andAnyOf(BitSet matching, int mask) {
+        if (mask == 0) {
+            return;
+        }
+        BitSet any = new BitSet();
+        for (Trait trait : TRAITS) {
+            if ((mask & trait.bit) != 0) {
+                any.or(byTrait[trait.ordinal()]);
+            }
+        }
+        matching.and(any);
+    }
+
+    Criteria getCriteria() {
+        return criteria;
+    }
+
+    /**
+     * @return the id of the item, or -1 if it was never added
+     */
+    int idOf(T item) {
+        Integer id = ids.get(item);
+        return id != null ? id : -1;
+    }
+
+    T get(int id) {
+        return items.get(id);
+    }
+
+    boolean isVisible(int id) {
+        return visible.get(id);
+    }
+
+    /**
+     * Items never added, like the navigation route, are not filtered.
+     */
+    boolean isVisible(T item) {
+        Integer id = ids.get(item);
+        return id == null || visible.get(id);
+    }
+
+    int size() {
+        return items.size();
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.signinui;
+
+/**
+ * One OpenStreetMap way usable as a trail: a path, footway, track, cycleway or the like.
+ *
+ * Keeps the full geometry, so lengths are real, and the {@link LineSimplifier} level of every
+ * vertex, so the line can be drawn at any zoom without simplifying it again.
+ *
+ * Instances are immutable.
+ */
+final class TrailWay {
+    final long id;
+    // The OSM highway tag, e.g. "path"
+    final String type;
+    // Empty if the way has no name
+    final String name;
+    final PackedRoute geometry;
+    final byte[] levels;
+    final double south;
+    final double west;
+    final double north;
+    final double east;
+
+    TrailWay(long id, String type, String name, PackedRoute geometry, byte[] levels) {
+        if (levels.length != geometry.size()) {
+            throw new IllegalArgumentException("One level per vertex expected");
+        }
+        this.id = id;
+        this.type = type;
+        this.name = name;
+        this.geometry = geometry;
+        this.levels = levels;
+        double minLat = 90, minLon = 180, maxLat = -90, maxLon = -180;
+        for (int i = 0; i < geometry.size(); i++) {
+            minLat = Math.min(minLat, geometry.getLatitude(i));
+            maxLat = Math.max(maxLat, geometry.getLatitude(i));
+            minLon = Math.min(minLon, geometry.getLongitude(i));
+            maxLon = Math.max(maxLon, geometry.getLongitude(i));
+        }
+        this.south = minLat;
+        this.west = minLon;
+        this.north = maxLat;
+        this.east = maxLon;
+    }
+
+    static TrailWay simplified(long id, String type, String name, double[] latitudes, double[] longitudes) {
+        return new TrailWay(id, type, name, PackedRoute.of(latitudes, longitudes),
+                LineSimplifier.levels(latitudes, longitudes, latitudes.length));
+    }
+
+    double getLengthMeters() {
+        return geometry.getLengthMeters();
+    }
+
+    boolean intersects(double south, double west, double north, double east) {
+        return this.north >= south && this.south <= north && this.east >= west && this.west <= east;
+    }
+
+    /**
+     * Distance in metres from a point to the nearest vertex.
+     */
+    double distanceToMeters(double latitude, double longitude) {
+        double nearest = Double.MAX_VALUE;
+        for (int i = 0; i < geometry.size(); i++) {
+            nearest = Math.min(nearest, GeoMath.distanceMeters(latitude, longitude,
+                    geometry.getLatitude(i), geometry.getLongitude(i)));
+        }
+        return nearest;
+    }
+}
@@ -0,0 +1,301 @@
+package com.example.signinui;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Trail ways on disk, in tiles, so the map can show them again without asking Overpass.
+ *
+ * The world is cut into the tiles of zoom {@value #TILE_ZOOM}, about 3 km across in Germany.
+ * Each tile is one file with every way that touches it, full geometry and simplification levels
+ * included. A way that crosses tiles is stored in each of them and reported once.
+ *
+ * Missing or expired tiles of a request are fetched together in one Overpass query over their
+ * combined bounding box. A tile with no trails is stored too, so it is not asked for again.
+ * Files are evicted least recently used first once the directory exceeds its size cap, like the
+ * {@link RouteCache}.
+ *
+ * All methods do file I/O, and may do network I/O, so they must be called off the main thread.
+ */
+final class TrailWayStore {
+    static final int TILE_ZOOM = 13;
+    // Keeps a single call to a handful of Overpass-sized areas
+    static final int MAX_TILES_PER_CALL = 64;
+    static final long MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final String FILE_SUFFIX = ".ways";
+    private static final int VERSION = 1;
+    // 1e-6 degrees is about 0.1 m, so stored lengths match the fetched ones
+    private static final double COORDINATE_SCALE = 1e6;
+    private static final int MAX_WAYS_PER_TILE = 100_000;
+    private static final int MAX_POINTS_PER_WAY = 100_000;
+
+    private final File directory;
+    private final long maxBytes;
+    private final OverpassTrails overpass;
+    // File name -> size in bytes, in access order (eldest first)
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded;
+    private long diskUsageBytes;
+    private int tileHitCount;
+    private int tileFetchCount;
+    private int requestCount;
+
+    TrailWayStore(File directory, long maxBytes, OverpassTrails overpass) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.overpass = overpass;
+    }
+
+    /**
+     * Ways touching the box.
+     *
+     * @param fetchMissing whether to fetch tiles that are not stored or have expired. If false,
+     *                     only stored tiles are used, however old.
+     * @throws IOException if fetching failed; nothing is returned then, not even stored tiles
+     */
+    synchronized List<TrailWay> waysIn(double south, double west, double north, double east,
+                                       boolean fetchMissing) throws IOException {
+        ensureLoaded();
+        int minX = TilePackDownloader.tileX(west, TILE_ZOOM);
+        int maxX = TilePackDownloader.tileX(east, TILE_ZOOM);
+        int minY = TilePackDownloader.tileY(north, TILE_ZOOM);
+        int maxY = TilePackDownloader.tileY(south, TILE_ZOOM);
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > MAX_TILES_PER_CALL) {
+            throw new IllegalArgumentException("Area spans too many tiles");
+        }
+
+        Map<Long, TrailWay> ways = new LinkedHashMap<>();
+        List<int[]> missing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                String fileName = fileName(x, y);
+                File file = new File(directory, fileName);
+                boolean stored = files.get(fileName) != null;
+                if (stored && (!fetchMissing || now - file.lastModified() < MAX_AGE_MS)) {
+                    List<TrailWay> tile = readTile(fileName);
+                    if (tile != null) {
+                        tileHitCount++;
+                        for (TrailWay way : tile) {
+                            ways.put(way.id, way);
+                        }
+                        continue;
+                    }
+                }
+                if (fetchMissing) {
+                    missing.add(new int[] {x, y});
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            int fetchWest = Integer.MAX_VALUE, fetchEast = Integer.MIN_VALUE;
+            int fetchNorth = Integer.MAX_VALUE, fetchSouth = Integer.MIN_VALUE;
+            for (int[] tile : missing) {
+                fetchWest = Math.min(fetchWest, tile[0]);
+                fetchEast = Math.max(fetchEast, tile[0]);
+                fetchNorth = Math.min(fetchNorth, tile[1]);
+                fetchSouth = Math.max(fetchSouth, tile[1]);
+            }
+            requestCount++;
+            List<TrailWay> fetched = overpass.fetch(
+                    TilePackDownloader.tileLatitude(fetchSouth + 1, TILE_ZOOM),
+                    TilePackDownloader.tileLongitude(fetchWest, TILE_ZOOM),
+                    TilePackDownloader.tileLatitude(fetchNorth, TILE_ZOOM),
+                    TilePackDownloader.tileLongitude(fetchEast + 1, TILE_ZOOM));
+            for (int[] tile : missing) {
+                double tileSouth = TilePackDownloader.tileLatitude(tile[1] + 1, TILE_ZOOM);
+                double tileNorth = TilePackDownloader.tileLatitude(tile[1], TILE_ZOOM);
+                double tileWest = TilePackDownloader.tileLongitude(tile[0], TILE_ZOOM);
+                double tileEast = TilePackDownloader.tileLongitude(tile[0] + 1, TILE_ZOOM);
+                List<TrailWay> inTile = new ArrayList<>();
+                for (TrailWay way : fetched) {
+                    if (way.intersects(tileSouth, tileWest, tileNorth, tileEast)) {
+                        inTile.add(way);
+                        ways.put(way.id, way);
+                    }
+                }
+                tileFetchCount++;
+                writeTile(fileName(tile[0], tile[1]), inTile);
+            }
+        }
+
+        List<TrailWay> result = new ArrayList<>();
+        for (TrailWay way : ways.values()) {
+            if (way.intersects(south, west, north, east)) {
+                result.add(way);
+            }
+        }
+        return result;
+    }
+
+    private static String fileName(int x, int y) {
+        return String.format(Locale.US, "%d_%d_%d%s", TILE_ZOOM, x, y, FILE_SUFFIX);
+    }
+
+    /**
+     * @return the tile's ways, or null if the file is unreadable, in which case it is deleted
+     */
+    private List<TrailWay> readTile(String fileName) {
+        File file = new File(directory, fileName);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (RouteCodec.readVarint(in) != VERSION) {
+                throw new IOException("Unknown tile version");
+            }
+            int wayCount = readCount(in, MAX_WAYS_PER_TILE);
+            List<TrailWay> ways = new ArrayList<>(wayCount);
+            for (int w = 0; w < wayCount; w++) {
+                long id = RouteCodec.readVarint(in);
+                String type = in.readUTF();
+                String name = in.readUTF();
+                int pointCount = readCount(in, MAX_POINTS_PER_WAY);
+                double[] latitudes = new double[pointCount];
+                double[] longitudes = new double[pointCount];
+                long lat = 0;
+                long lon = 0;
+                for (int i = 0; i < pointCount; i++) {
+                    lat += RouteCodec.readSignedVarint(in);
+                    lon += RouteCodec.readSignedVarint(in);
+                    latitudes[i] = lat / COORDINATE_SCALE;
+                    longitudes[i] = lon / COORDINATE_SCALE;
+                }
+                byte[] levels = new byte[pointCount];
+                in.readFully(levels);
+                ways.add(new TrailWay(id, type, name, PackedRoute.of(latitudes, longitudes), levels));
+            }
+            return ways;
+        } catch (IOException | IllegalArgumentException e) {
+            remove(fileName);
+            return null;
+        }
+    }
+
+    private void writeTile(String fileName, List<TrailWay> ways) {
+        File file = new File(directory, fileName);
+        // Write to a temporary file first so a crash never leaves half a tile behind
+        File temp = new File(directory, fileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            RouteCodec.writeVarint(out, VERSION);
+            RouteCodec.writeVarint(out, ways.size());
+            for (TrailWay way : ways) {
+                RouteCodec.writeVarint(out, way.id);
+                out.writeUTF(way.type);
+                out.writeUTF(way.name);
+                RouteCodec.writeVarint(out, way.geometry.size());
+                long previousLat = 0;
+                long previousLon = 0;
+                for (int i = 0; i < way.geometry.size(); i++) {
+                    long lat = Math.round(way.geometry.getLatitude(i) * COORDINATE_SCALE);
+                    long lon = Math.round(way.geometry.getLongitude(i) * COORDINATE_SCALE);
+                    RouteCodec.writeSignedVarint(out, lat - previousLat);
+                    RouteCodec.writeSignedVarint(out, lon - previousLon);
+                    previousLat = lat;
+                    previousLon = lon;
+                }
+                out.write(way.levels);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        long size = temp.length();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        Long previous = files.put(fileName, size);
+        diskUsageBytes += size - (previous != null ? previous : 0);
+        trimToSize();
+    }
+
+    private static int readCount(DataInputStream in, int max) throws IOException {
+        long count = RouteCodec.readVarint(in);
+        if (count < 0 || count > max) {
+            throw new IOException("Invalid count " + count);
+        }
+        return (int) count;
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> eldest = files.entrySet().iterator();
+        while (diskUsageBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            new File(directory, entry.getKey()).delete();
+            diskUsageBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    private void remove(String fileName) {
+        Long size = files.remove(fileName);
+        if (size != null) {
+            diskUsageBytes -= size;
+        }
+        new File(directory, fileName).delete();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+        File[] list = directory.listFiles();
+        if (list == null) {
+            return;
+        }
+        List<File> tiles = new ArrayList<>();
+        for (File file : list) {
+            if (file.getName().endsWith(FILE_SUFFIX)) {
+                tiles.add(file);
+            } else {
+                file.delete(); // Leftover temporary file
+            }
+        }
+        // Oldest first, matching the access order of the map
+        tiles.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : tiles) {
+            files.put(file.getName(), file.length());
+            diskUsageBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    // =============================================================================================
+    // Statistics
+    // =============================================================================================
+
+    synchronized int getTileHitCount() {
+        return tileHitCount;
+    }
+
+    synchronized int getTileFetchCount() {
+        return tileFetchCount;
+    }
+
+    /**
+     * Overpass requests made; one per call that had missing tiles.
+     */
+    synchronized int getRequestCount() {
+        return requestCount;
+    }
+
+    synchronized long getDiskUsageBytes() {
+        ensureLoaded();
+        return diskUsageBytes;
+    }
+}
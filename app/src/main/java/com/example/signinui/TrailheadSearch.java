@@ -0,0 +1,278 @@
+package com.example.signinui;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Finds trailheads around a point with one Google Places nearby search per keyword.
+ *
+ * The searches run in parallel. Their results are merged off the main thread, and a place found
+ * under several keywords becomes one trailhead that keeps all of its categories. The caller gets
+ * a single callback with the merged list.
+ *
+ * Searches are made for the centre of a grid cell of about 5 km rather than for the exact point,
+ * and results are kept per cell for a while. Re-centering the map nearby is then answered from
+ * memory. If a search for the cell is still running, the new caller simply waits for the same
+ * result instead of starting another one. An area where any search failed is not kept, so the next
+ * visit tries again.
+ */
+final class TrailheadSearch {
+    private static final String TAG = "TrailheadSearch";
+    private static final String PLACES_URL = "https://maps.googleapis.com/maps/api/place/nearbysearch/json";
+    // 0.05 degrees is about 5.5 km of latitude; well inside the search radius
+    static final double AREA_CELL_DEGREES = 0.05;
+    private static final long AREA_TTL_MS = 10 * 60_000;
+    private static final int MAX_CACHED_AREAS = 32;
+    // Results used per keyword, as before
+    static final int MAX_RESULTS_PER_KEYWORD = 20;
+
+    interface Callback {
+        /**
+         * Called once per search, on an OkHttp thread or, for a cached area, on the calling thread.
+         */
+        void onTrailheads(List<Trailhead> trailheads);
+    }
+
+    static final class Trailhead {
+        final String placeId;
+        final String name;
+        final double latitude;
+        final double longitude;
+        // 0 if Places has no rating
+        final double rating;
+        // Keywords the place was found under, in search order
+        final List<String> categories = new ArrayList<>(1);
+
+        Trailhead(String placeId, String name, double latitude, double longitude, double rating, String category) {
+            this.placeId = placeId;
+            this.name = name;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.rating = rating;
+            this.categories.add(category);
+        }
+
+        /**
+         * All categories in one string, e.g. "hiking trail, nature trail".
+         */
+        String getCategoryLabel() {
+            StringBuilder label = new StringBuilder();
+            for (String category : categories) {
+                if (label.length() > 0) {
+                    label.append(", ");
+                }
+                label.append(category);
+            }
+            return label.toString();
+        }
+    }
+
+    private static final class Area {
+        final List<Callback> waiting = new ArrayList<>();
+        final List<List<Trailhead>> resultsByKeyword = new ArrayList<>();
+        int pending;
+        // Set if any keyword failed; such results are delivered but not kept
+        boolean failed;
+        List<Trailhead> result;
+        long completedMillis;
+    }
+
+    private final OkHttpClient client;
+    private final String apiKey;
+    private final String[] keywords;
+    private final int radiusMeters;
+    private final Map<String, Area> areas = new LinkedHashMap<String, Area>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Area> eldest) {
+            return size() > MAX_CACHED_AREAS && eldest.getValue().result != null;
+        }
+    };
+
+    TrailheadSearch(OkHttpClient client, String apiKey, String[] keywords, int radiusMeters) {
+        this.client = client;
+        this.apiKey = apiKey;
+        this.keywords = keywords.clone();
+        this.radiusMeters = radiusMeters;
+    }
+
+    static String areaKey(double latitude, double longitude) {
+        return Math.round(latitude / AREA_CELL_DEGREES) + "_" + Math.round(longitude / AREA_CELL_DEGREES);
+    }
+
+    void search(double latitude, double longitude, Callback callback) {
+        String key = areaKey(latitude, longitude);
+        List<Trailhead> cached = null;
+        synchronized (areas) {
+            Area area = areas.get(key);
+            if (area != null && area.result != null
+                    && System.currentTimeMillis() - area.completedMillis > AREA_TTL_MS) {
+                areas.remove(key);
+                area = null;
+            }
+            if (area != null) {
+                if (area.result == null) {
+                    area.waiting.add(callback);
+                    return;
+                }
+                cached = area.result;
+            } else {
+                area = new Area();
+                area.waiting.add(callback);
+                area.pending = keywords.length;
+                for (int i = 0; i < keywords.length; i++) {
+                    area.resultsByKeyword.add(Collections.emptyList());
+                }
+                areas.put(key, area);
+                double cellLatitude = Math.round(latitude / AREA_CELL_DEGREES) * AREA_CELL_DEGREES;
+                double cellLongitude = Math.round(longitude / AREA_CELL_DEGREES) * AREA_CELL_DEGREES;
+                for (int i = 0; i < keywords.length; i++) {
+                    fetch(area, i, cellLatitude, cellLongitude);
+                }
+                return;
+            }
+        }
+        Log.d(TAG, "Trailheads for area " + key + " served from memory");
+        callback.onTrailheads(cached);
+    }
+
+    private void fetch(Area area, int keywordIndex, double latitude, double longitude) {
+        String keyword = keywords[keywordIndex];
+        String url = PLACES_URL +
+                "?location=" + String.format(Locale.US, "%.5f,%.5f", latitude, longitude) +
+                "&radius=" + radiusMeters +
+                "&type=park&keyword=" + keyword +
+                "&key=" + apiKey;
+        Request request = new Request.Builder().url(url).build();
+        client.newCall(request).enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                Log.e(TAG, "Places fetch failed: " + keyword, e);
+                onKeywordDone(area, keywordIndex, null);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                List<Trailhead> trailheads = null;
+                try {
+                    if (response.isSuccessful() && response.body() != null) {
+                        trailheads = parse(response.body().charStream(), keyword, MAX_RESULTS_PER_KEYWORD);
+                    } else {
+                        Log.e(TAG, "Places response error for " + keyword + ": " + response.code());
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Places parse error", e);
+                } finally {
+                    response.close();
+                }
+                onKeywordDone(area, keywordIndex, trailheads);
+            }
+        });
+    }
+
+    /**
+     * @param trailheads results for the keyword, or null if its search failed
+     */
+    private void onKeywordDone(Area area, int keywordIndex, List<Trailhead> trailheads) {
+        List<Trailhead> merged;
+        List<Callback> callbacks;
+        synchronized (areas) {
+            if (trailheads == null) {
+                area.failed = true;
+            } else {
+                area.resultsByKeyword.set(keywordIndex, trailheads);
+            }
+            if (--area.pending > 0) {
+                return;
+            }
+            merged = Collections.unmodifiableList(merge(area.resultsByKeyword));
+            area.result = merged;
+            area.completedMillis = System.currentTimeMillis();
+            if (area.failed) {
+                areas.values().remove(area);
+            }
+            callbacks = new ArrayList<>(area.waiting);
+            area.waiting.clear();
+        }
+        for (Callback callback : callbacks) {
+            callback.onTrailheads(merged);
+        }
+    }
+
+    /**
+     * Joins the results of all keywords, one trailhead per place id. A place keeps the position
+     * of its first appearance and gains the categories of the later ones.
+     */
+    static List<Trailhead> merge(List<List<Trailhead>> resultsByKeyword) {
+        Map<String, Trailhead> byPlaceId = new LinkedHashMap<>();
+        for (List<Trailhead> results : resultsByKeyword) {
+            for (Trailhead trailhead : results) {
+                Trailhead existing = byPlaceId.get(trailhead.placeId);
+                if (existing == null) {
+                    byPlaceId.put(trailhead.placeId, trailhead);
+                } else {
+                    for (String category : trailhead.categories) {
+                        if (!existing.categories.contains(category)) {
+                            existing.categories.add(category);
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(byPlaceId.values());
+    }
+
+    /**
+     * Reads a Places nearby search response. Results missing a field we need are skipped.
+     */
+    static List<Trailhead> parse(Reader reader, String category, int limit) throws IOException {
+        JsonArray results;
+        try {
+            JsonElement root = JsonParser.parseReader(reader);
+            if (!root.isJsonObject() || !root.getAsJsonObject().has("results")) {
+                return Collections.emptyList();
+            }
+            results = root.getAsJsonObject().getAsJsonArray("results");
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Malformed Places response", e);
+        }
+
+        List<Trailhead> trailheads = new ArrayList<>();
+        for (int i = 0; i < results.size() && trailheads.size() < limit; i++) {
+            try {
+                JsonObject place = results.get(i).getAsJsonObject();
+                JsonObject location = place.getAsJsonObject("geometry").getAsJsonObject("location");
+                trailheads.add(new Trailhead(
+                        place.get("place_id").getAsString(),
+                        place.get("name").getAsString(),
+                        location.get("lat").getAsDouble(),
+                        location.get("lng").getAsDouble(),
+                        place.has("rating") ? place.get("rating").getAsDouble() : 0.0,
+                        category));
+            } catch (RuntimeException e) {
+                // Missing or mistyped field; skip this place
+            }
+        }
+        return trailheads;
+    }
+}
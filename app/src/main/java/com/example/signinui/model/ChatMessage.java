@@ -1,6 +1,9 @@
 package com.example.signinui.model;
 
 public class ChatMessage {
+    // Firebase push key, generated on the sending device. Identifies the message across
+    // Bluetooth delivery, the local store and Firebase.
+    private String messageId;
     private String senderId;
     private String messageText;
     private long timestamp;
@@ -36,6 +39,14 @@ public class ChatMessage {
     }
 
     // Getters and Setters
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
     public String getSenderId() {
         return senderId;
     }
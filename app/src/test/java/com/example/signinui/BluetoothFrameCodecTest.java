@@ -0,0 +1,197 @@
+package com.example.signinui;
+
+import com.example.signinui.model.ChatMessage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class BluetoothFrameCodecTest {
+
+    private static class RecordingHandler implements BluetoothFrameCodec.FrameHandler {
+        final List<Byte> types = new ArrayList<>();
+        final List<String> payloads = new ArrayList<>();
+
+        @Override
+        public void onFrame(byte type, byte[] buffer, int offset, int length) {
+            types.add(type);
+            payloads.add(BluetoothFrameCodec.decodeText(buffer, offset, length));
+        }
+    }
+
+    @Test
+    public void framesWrittenTogether_areDecodedSeparately() throws IOException {
+        PipedInputStream in = new PipedInputStream(1 << 16);
+        PipedOutputStream out = new PipedOutputStream(in);
+
+        byte[] heartbeat = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_HEARTBEAT, "uid-1");
+        byte[] request = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_FRIEND_REQUEST, "uid-1", "Alex: the hiker");
+        byte[] combined = new byte[heartbeat.length + request.length];
+        System.arraycopy(heartbeat, 0, combined, 0, heartbeat.length);
+        System.arraycopy(request, 0, combined, heartbeat.length, request.length);
+        out.write(combined);
+        out.close();
+
+        RecordingHandler handler = new RecordingHandler();
+        BluetoothFrameCodec.Decoder decoder = new BluetoothFrameCodec.Decoder(in);
+        while (decoder.readFrames(handler) >= 0) {
+            // drain
+        }
+
+        assertEquals(2, handler.types.size());
+        assertEquals(BluetoothFrameCodec.TYPE_HEARTBEAT, (byte) handler.types.get(0));
+        assertEquals("uid-1", handler.payloads.get(0));
+        assertEquals(BluetoothFrameCodec.TYPE_FRIEND_REQUEST, (byte) handler.types.get(1));
+        assertEquals("uid-1:Alex: the hiker", handler.payloads.get(1));
+    }
+
+    @Test
+    public void frameLargerThanBuffer_isReassembledAcrossReads() throws Exception {
+        PipedInputStream in = new PipedInputStream(512);
+        PipedOutputStream out = new PipedOutputStream(in);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        String longMessage = sb.toString();
+
+        Thread writer = new Thread(() -> {
+            try {
+                out.write(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_CHAT, longMessage));
+                out.write(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_UID_EXCHANGE, "uid-2"));
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+
+        RecordingHandler handler = new RecordingHandler();
+        BluetoothFrameCodec.Decoder decoder = new BluetoothFrameCodec.Decoder(in, 64);
+        while (decoder.readFrames(handler) >= 0) {
+            // drain
+        }
+        writer.join();
+
+        assertEquals(2, handler.payloads.size());
+        assertEquals(longMessage, handler.payloads.get(0));
+        assertEquals("uid-2", handler.payloads.get(1));
+    }
+
+    @Test
+    public void byteByByteDelivery_stillProducesWholeFrames() throws IOException {
+        byte[] frame = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_FRIEND_ACCEPT, "uid-3");
+        InputStream trickle = new ByteArrayInputStream(frame) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+
+        RecordingHandler handler = new RecordingHandler();
+        BluetoothFrameCodec.Decoder decoder = new BluetoothFrameCodec.Decoder(trickle, 8);
+        while (decoder.readFrames(handler) >= 0) {
+            // drain
+        }
+
+        assertEquals(1, handler.payloads.size());
+        assertEquals("uid-3", handler.payloads.get(0));
+    }
+
+    @Test
+    public void chatMessage_roundTripsWithSeparatorsInText() throws IOException {
+        ChatMessage original = new ChatMessage("uid-4", "Meet at the hut: 14:30?", 1700000000000L, "Sam: trail lead");
+        original.setMessageId("-NxYz123");
+        byte[] frame = BluetoothFrameCodec.encodeChat(original);
+
+        List<ChatMessage> decoded = new ArrayList<>();
+        BluetoothFrameCodec.Decoder decoder = new BluetoothFrameCodec.Decoder(new ByteArrayInputStream(frame));
+        while (decoder.readFrames((type, buffer, offset, length) -> {
+            assertEquals(BluetoothFrameCodec.TYPE_CHAT, type);
+            try {
+                decoded.add(BluetoothFrameCodec.decodeChat(buffer, offset, length));
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }) >= 0) {
+            // drain
+        }
+
+        assertEquals(1, decoded.size());
+        ChatMessage message = decoded.get(0);
+        assertEquals("-NxYz123", message.getMessageId());
+        assertEquals("uid-4", message.getSenderId());
+        assertEquals(1700000000000L, message.getTimestamp());
+        assertEquals("Sam: trail lead", message.getSenderName());
+        assertEquals("Meet at the hut: 14:30?", message.getMessageText());
+    }
+
+    @Test
+    public void decodeThroughput_mixedFrames() throws IOException {
+        // The traffic of a busy link: mostly heartbeats and requests, some chat, a few shared routes
+        byte[] heartbeat = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_HEARTBEAT, "uid-1");
+        byte[] request = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_FRIEND_REQUEST, "uid-1", "Alex: the hiker");
+        ChatMessage chat = new ChatMessage("uid-4", "On the ridge now, see you at the hut in twenty minutes",
+                1700000000000L, "Sam: trail lead");
+        chat.setMessageId("-NxYz123");
+        byte[] chatFrame = BluetoothFrameCodec.encodeChat(chat);
+        byte[] route = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_ROUTE_SHARE, new byte[8 * 1024]);
+
+        int frameCount = 20_000;
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < frameCount; i++) {
+            byte[] frame = i % 100 == 99 ? route : i % 4 == 3 ? chatFrame : i % 2 == 1 ? request : heartbeat;
+            stream.write(frame, 0, frame.length);
+        }
+        byte[] traffic = stream.toByteArray();
+
+        int rounds = 20;
+        long[] decoded = new long[2];
+        BluetoothFrameCodec.FrameHandler counter = (type, buffer, offset, length) -> {
+            decoded[0]++;
+            decoded[1] += BluetoothFrameCodec.HEADER_SIZE + length;
+        };
+        // Warm up the JIT before timing
+        for (int i = 0; i < 5; i++) {
+            decodeAll(traffic, counter);
+        }
+        decoded[0] = 0;
+        decoded[1] = 0;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            decodeAll(traffic, counter);
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        assertEquals((long) frameCount * rounds, decoded[0]);
+        assertEquals((long) traffic.length * rounds, decoded[1]);
+        System.out.println(String.format(Locale.US, "Decoded %d frames (%d KB) in %.1f ms: %.0f frames/s, %.1f MB/s",
+                decoded[0], decoded[1] / 1024, seconds * 1000, decoded[0] / seconds, decoded[1] / seconds / (1024 * 1024)));
+    }
+
+    private static void decodeAll(byte[] traffic, BluetoothFrameCodec.FrameHandler handler) throws IOException {
+        BluetoothFrameCodec.Decoder decoder = new BluetoothFrameCodec.Decoder(new ByteArrayInputStream(traffic));
+        while (decoder.readFrames(handler) >= 0) {
+            // drain
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedLength_isRejected() throws IOException {
+        byte[] bogus = new byte[BluetoothFrameCodec.HEADER_SIZE];
+        BluetoothFrameCodec.writeHeader(bogus, 0, BluetoothFrameCodec.TYPE_CHAT, BluetoothFrameCodec.MAX_PAYLOAD_SIZE + 1);
+        BluetoothFrameCodec.Decoder decoder = new BluetoothFrameCodec.Decoder(new ByteArrayInputStream(bogus));
+        decoder.readFrames((type, buffer, offset, length) -> fail("No frame expected"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BluetoothFrameWriterTest {
+
+    // Records every write call separately, like the writes reaching a socket
+    private static class RecordingStream extends OutputStream {
+        final List<byte[]> writes = new ArrayList<>();
+
+        @Override
+        public synchronized void write(int b) {
+            writes.add(new byte[]{(byte) b});
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes.add(Arrays.copyOfRange(b, off, off + len));
+        }
+
+        synchronized byte[] concatenated() {
+            ByteArrayOutputStream all = new ByteArrayOutputStream();
+            for (byte[] write : writes) {
+                all.write(write, 0, write.length);
+            }
+            return all.toByteArray();
+        }
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte) value);
+        return frame;
+    }
+
+    private static void awaitFramesWritten(BluetoothFrameWriter writer, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (writer.getFramesWritten() < count) {
+            assertTrue("Writer did not drain its queue", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void framesQueuedTogether_goOutInBatchesUpToTheLimit() throws InterruptedException {
+        RecordingStream stream = new RecordingStream();
+        BluetoothFrameWriter writer = new BluetoothFrameWriter(stream);
+        // Queued before the writer thread starts, so it finds them all at once
+        for (int i = 0; i < 10; i++) {
+            assertTrue(writer.enqueue(filled(1000, i)));
+        }
+
+        Thread thread = new Thread(writer);
+        thread.start();
+        awaitFramesWritten(writer, 10);
+        writer.close();
+        thread.join(5000);
+
+        // 4 frames fit in a batch of 4096 bytes: 4 + 4 + 2
+        assertEquals(3, stream.writes.size());
+        assertEquals(3, writer.getSocketWrites());
+        for (byte[] write : stream.writes) {
+            assertTrue(write.length <= BluetoothFrameWriter.MAX_BATCH_BYTES);
+        }
+        assertEquals(4000, stream.writes.get(0).length);
+        assertEquals(2000, stream.writes.get(2).length);
+    }
+
+    @Test
+    public void frames_comeOutByteExactAndInOrder() throws InterruptedException {
+        RecordingStream stream = new RecordingStream();
+        BluetoothFrameWriter writer = new BluetoothFrameWriter(stream);
+        List<byte[]> frames = new ArrayList<>();
+        frames.add(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_HEARTBEAT, "uid-1"));
+        frames.add(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_FRIEND_REQUEST, "uid-1", "Alex: the hiker"));
+        // Larger than a batch, so it is written on its own between the others
+        frames.add(filled(BluetoothFrameWriter.MAX_BATCH_BYTES + 100, 7));
+        frames.add(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_UID_EXCHANGE, "uid-2"));
+
+        Thread thread = new Thread(writer);
+        thread.start();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (byte[] frame : frames) {
+            assertTrue(writer.enqueue(frame));
+            expected.write(frame, 0, frame.length);
+        }
+        awaitFramesWritten(writer, frames.size());
+        writer.close();
+        thread.join(5000);
+
+        assertArrayEquals(expected.toByteArray(), stream.concatenated());
+        assertEquals(expected.size(), writer.getBytesWritten());
+    }
+
+    @Test
+    public void heartbeatCadence_onlyOtherTrafficSkipsATick() throws InterruptedException {
+        BluetoothFrameWriter writer = new BluetoothFrameWriter(new RecordingStream());
+        Thread thread = new Thread(writer);
+        thread.start();
+        long interval = 30_000_000_000L;
+        byte[] heartbeat = BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_HEARTBEAT, "uid-1");
+
+        // Ticks one interval apart on a link carrying nothing else, as the service schedules them
+        long tick = System.nanoTime();
+        int heartbeats = 0;
+        for (int i = 0; i < 4; i++) {
+            if (writer.isIdle(tick, interval)) {
+                writer.enqueue(heartbeat);
+                heartbeats++;
+                awaitFramesWritten(writer, heartbeats);
+            }
+            tick += interval;
+        }
+        assertEquals("Our own heartbeat must not suppress the next one", 4, heartbeats);
+
+        // A chat message just before a tick stands in for its heartbeat
+        writer.enqueue(BluetoothFrameCodec.encode(BluetoothFrameCodec.TYPE_CHAT, "hello"));
+        awaitFramesWritten(writer, heartbeats + 1);
+        long now = System.nanoTime();
+        assertFalse(writer.isIdle(now, interval));
+        assertTrue(writer.isIdle(now + interval, interval));
+
+        writer.close();
+        thread.join(5000);
+    }
+
+    @Test
+    public void fullQueue_rejectsAndCountsTheFrame() {
+        BluetoothFrameWriter writer = new BluetoothFrameWriter(new RecordingStream(), 2);
+
+        assertTrue(writer.enqueue(filled(10, 1)));
+        assertTrue(writer.enqueue(filled(10, 2)));
+        assertFalse(writer.enqueue(filled(10, 3)));
+
+        assertEquals(1, writer.getDroppedFrames());
+        assertEquals(2, writer.getQueueDepth());
+    }
+
+    @Test
+    public void close_stopsTheWriterThread() throws InterruptedException {
+        BluetoothFrameWriter writer = new BluetoothFrameWriter(new RecordingStream());
+        Thread thread = new Thread(writer);
+        thread.start();
+        // Let it block on the empty queue
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        writer.close();
+        thread.join(5000);
+
+        assertFalse(thread.isAlive());
+        assertFalse(writer.enqueue(filled(10, 1)));
+    }
+}
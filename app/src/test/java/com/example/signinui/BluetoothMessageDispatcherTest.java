@@ -0,0 +1,91 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class BluetoothMessageDispatcherTest {
+
+    private final Executor direct = Runnable::run;
+    private final List<RuntimeException> errors = new ArrayList<>();
+
+    @Test
+    public void frames_reachOnlyHandlersOfTheirType() {
+        BluetoothMessageDispatcher dispatcher = new BluetoothMessageDispatcher((type, e) -> errors.add(e));
+        List<String> chats = new ArrayList<>();
+        List<String> heartbeats = new ArrayList<>();
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, (address, payload) -> chats.add(address), direct);
+        dispatcher.register(BluetoothFrameCodec.TYPE_HEARTBEAT, (address, payload) -> heartbeats.add(address), direct);
+
+        byte[] buffer = "xxhelloxx".getBytes();
+        assertTrue(dispatcher.dispatch("AA:BB", BluetoothFrameCodec.TYPE_CHAT, buffer, 2, 5));
+        assertFalse(dispatcher.dispatch("AA:BB", (byte) 99, buffer, 0, 0));
+
+        assertEquals(1, chats.size());
+        assertTrue(heartbeats.isEmpty());
+        assertEquals(1, dispatcher.getMessageCount(BluetoothFrameCodec.TYPE_CHAT));
+        assertEquals(1, dispatcher.getUnhandledCount());
+    }
+
+    @Test
+    public void payload_isACopyOfTheFrameRange() {
+        BluetoothMessageDispatcher dispatcher = new BluetoothMessageDispatcher((type, e) -> errors.add(e));
+        byte[][] received = new byte[1][];
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, (address, payload) -> received[0] = payload, direct);
+
+        byte[] buffer = "xxhelloxx".getBytes();
+        dispatcher.dispatch("AA:BB", BluetoothFrameCodec.TYPE_CHAT, buffer, 2, 5);
+        buffer[2] = 'j';
+
+        assertEquals("hello", new String(received[0]));
+    }
+
+    @Test
+    public void unregister_removesOnlyThatHandler() {
+        BluetoothMessageDispatcher dispatcher = new BluetoothMessageDispatcher((type, e) -> errors.add(e));
+        List<String> calls = new ArrayList<>();
+        BluetoothMessageDispatcher.MessageHandler first = (address, payload) -> calls.add("first");
+        BluetoothMessageDispatcher.MessageHandler second = (address, payload) -> calls.add("second");
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, first, direct);
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, second, direct);
+        dispatcher.unregister(BluetoothFrameCodec.TYPE_CHAT, first);
+
+        dispatcher.dispatch("AA:BB", BluetoothFrameCodec.TYPE_CHAT, new byte[0], 0, 0);
+        assertEquals(1, calls.size());
+        assertEquals("second", calls.get(0));
+    }
+
+    @Test
+    public void failingHandler_isReportedAndOthersStillRun() {
+        BluetoothMessageDispatcher dispatcher = new BluetoothMessageDispatcher((type, e) -> errors.add(e));
+        List<String> calls = new ArrayList<>();
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, (address, payload) -> {
+            throw new IllegalStateException("boom");
+        }, direct);
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, (address, payload) -> calls.add(address), direct);
+
+        dispatcher.dispatch("AA:BB", BluetoothFrameCodec.TYPE_CHAT, new byte[0], 0, 0);
+        assertEquals(1, errors.size());
+        assertEquals(1, calls.size());
+        assertEquals(1, dispatcher.getHandlerErrorCount());
+    }
+
+    @Test
+    public void latency_isRecordedInLog2MicrosecondBuckets() {
+        long[] now = {0};
+        BluetoothMessageDispatcher dispatcher = new BluetoothMessageDispatcher(() -> now[0], (type, e) -> errors.add(e));
+        // Each handler call takes 3 ms on the fake clock
+        dispatcher.register(BluetoothFrameCodec.TYPE_CHAT, (address, payload) -> now[0] += 3_000_000, direct);
+
+        dispatcher.dispatch("AA:BB", BluetoothFrameCodec.TYPE_CHAT, new byte[0], 0, 0);
+        long[] histogram = dispatcher.getLatencyHistogram(BluetoothFrameCodec.TYPE_CHAT);
+        // 3000 µs lies in [2048, 4096)
+        assertEquals(1, histogram[12]);
+        assertEquals(0, BluetoothMessageDispatcher.bucketFor(999));
+        assertEquals(1, BluetoothMessageDispatcher.bucketFor(1_000));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClusterGridTest {
+
+    @Test
+    public void nearbyPoints_shareAClusterAndFarOnesDoNot() {
+        double[] latitudes = {51.7991, 51.7995, 47.4211};
+        double[] longitudes = {10.6156, 10.6160, 10.9853};
+
+        ClusterGrid grid = ClusterGrid.build(latitudes, longitudes, 3, 10);
+
+        assertEquals(2, grid.size());
+        int brocken = grid.getCount(0) == 2 ? 0 : 1;
+        assertEquals(2, grid.getCount(brocken));
+        assertEquals(51.7993, grid.getLatitude(brocken), 1e-9);
+        assertEquals(1, grid.getCount(1 - brocken));
+        assertEquals(2, grid.getFirstMember(1 - brocken));
+    }
+
+    @Test
+    public void highZoom_keepsPointsApart() {
+        // About 300 m apart: one 64-pixel cell is about 150 m at zoom 15 here
+        double[] latitudes = {51.7991, 51.8018};
+        double[] longitudes = {10.6156, 10.6156};
+
+        assertEquals(2, ClusterGrid.build(latitudes, longitudes, 2, 15).size());
+        assertEquals(1, ClusterGrid.build(latitudes, longitudes, 2, 12).size());
+    }
+
+    @Test
+    public void coarsening_matchesBuildingAtThatZoom() {
+        Random random = new Random(9);
+        int count = 2_000;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            latitudes[i] = 50 + random.nextDouble() * 2;
+            longitudes[i] = 9 + random.nextDouble() * 3;
+        }
+        ClusterGrid finest = ClusterGrid.build(latitudes, longitudes, count, 15);
+
+        for (int zoom = 14; zoom >= 5; zoom--) {
+            ClusterGrid coarsened = finest.coarsen(zoom);
+            ClusterGrid built = ClusterGrid.build(latitudes, longitudes, count, zoom);
+            assertEquals(built.size(), coarsened.size());
+            assertEquals(countsByPosition(built), countsByPosition(coarsened));
+        }
+    }
+
+    private static Map<String, Integer> countsByPosition(ClusterGrid grid) {
+        Map<String, Integer> counts = new HashMap<>();
+        int total = 0;
+        for (int i = 0; i < grid.size(); i++) {
+            counts.put(String.format("%.6f,%.6f", grid.getLatitude(i), grid.getLongitude(i)), grid.getCount(i));
+            total += grid.getCount(i);
+        }
+        assertEquals(2_000, total);
+        return counts;
+    }
+}
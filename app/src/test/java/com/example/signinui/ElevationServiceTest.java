@@ -0,0 +1,120 @@
+package com.example.signinui;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ElevationServiceTest {
+
+    // 3 arc second files, as SRTM outside the US
+    private static final int SIZE = 1201;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private interface Terrain {
+        short heightAt(int row, int column);
+    }
+
+    private File writeTile(File directory, int south, int west, Terrain terrain) throws IOException {
+        File file = new File(directory, HgtTile.fileName(south, west));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int row = 0; row < SIZE; row++) {
+                for (int column = 0; column < SIZE; column++) {
+                    out.writeShort(terrain.heightAt(row, column));
+                }
+            }
+        }
+        return file;
+    }
+
+    // A straight route due east along a latitude
+    private static PackedRoute eastward(double latitude, double fromLongitude, double toLongitude, int points) {
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        for (int i = 0; i < points; i++) {
+            latitudes[i] = latitude;
+            longitudes[i] = fromLongitude + (toLongitude - fromLongitude) * i / (points - 1);
+        }
+        return PackedRoute.of(latitudes, longitudes);
+    }
+
+    @Test
+    public void fileName_followsTheSouthWestCorner() {
+        assertEquals("N51E010.hgt", HgtTile.fileName(51, 10));
+        assertEquals("S01W001.hgt", HgtTile.fileName(-1, -1));
+    }
+
+    @Test
+    public void elevationAt_interpolatesBetweenSamplesAndSkipsVoids() throws IOException {
+        File directory = folder.newFolder("dem");
+        // Rises 2 m per row to the south and 1 m per column to the east, with one void sample
+        writeTile(directory, 51, 10, (row, column) ->
+                row == 600 && column == 600 ? Short.MIN_VALUE : (short) (2 * row + column));
+        ElevationService service = new ElevationService(directory);
+
+        // Row 20.25 and column 10.5 from the north-west corner
+        double latitude = 52 - 20.25 / (SIZE - 1);
+        double longitude = 10 + 10.5 / (SIZE - 1);
+        assertEquals(2 * 20.25 + 10.5, service.elevationAt(latitude, longitude), 1e-6);
+        // The south-west corner, which names the file
+        assertEquals(2 * (SIZE - 1), service.elevationAt(51, 10), 1e-6);
+        // Next to the void, the other three samples fill in
+        assertEquals(2 * 600 + 601, service.elevationAt(52 - 600.0 / (SIZE - 1), 10 + 600.5 / (SIZE - 1)), 1.0);
+        assertTrue(Double.isNaN(service.elevationAt(52 - 600.0 / (SIZE - 1), 10 + 600.0 / (SIZE - 1))));
+        service.close();
+    }
+
+    @Test
+    public void profile_countsTheClimbAndWhatIsLeftOfIt() throws IOException {
+        File directory = folder.newFolder("dem");
+        // 1 m higher per column, about 58 m to the east at this latitude
+        writeTile(directory, 51, 10, (row, column) -> (short) (1000 + column));
+        ElevationService service = new ElevationService(directory);
+
+        PackedRoute route = eastward(51.5, 10.1, 10.2, 30);
+        ElevationProfile profile = service.profile(route);
+
+        assertEquals(120, profile.getAscentMeters(), ElevationService.HYSTERESIS_METERS);
+        assertEquals(0, profile.getDescentMeters(), 1e-6);
+        assertEquals(1120, profile.getMinMeters(), 1e-6);
+        assertEquals(1240, profile.getMaxMeters(), 1e-6);
+        assertEquals(ElevationService.PROFILE_POINTS, profile.getHeights().length);
+        assertEquals(profile.getAscentMeters(), profile.getClimbRemaining(0), 1e-6);
+        assertEquals(60, profile.getClimbRemaining(route.getLengthMeters() / 2), ElevationService.HYSTERESIS_METERS);
+        assertEquals(0, profile.getClimbRemaining(route.getLengthMeters()), 1e-6);
+        // Asked again, the route's profile comes from the cache
+        assertSame(profile, service.profile(eastward(51.5, 10.1, 10.2, 30)));
+        service.close();
+    }
+
+    @Test
+    public void profile_ignoresNoiseBelowTheHysteresis() throws IOException {
+        File directory = folder.newFolder("dem");
+        // Flat at 500 m with a 3 m checkerboard of noise
+        writeTile(directory, 51, 10, (row, column) -> (short) (500 + ((row + column) % 2) * 3));
+        ElevationService service = new ElevationService(directory);
+
+        ElevationProfile profile = service.profile(eastward(51.3, 10.2, 10.4, 200));
+
+        assertEquals(0, profile.getAscentMeters(), 1e-6);
+        assertEquals(0, profile.getDescentMeters(), 1e-6);
+        service.close();
+    }
+
+    @Test
+    public void withoutHeightFiles_thereIsNoProfile() throws IOException {
+        ElevationService service = new ElevationService(folder.newFolder("dem"));
+
+        assertTrue(Double.isNaN(service.elevationAt(51.5, 10.5)));
+        assertNull(service.profile(eastward(51.5, 10.1, 10.2, 30)));
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class GeoGridIndexTest {
+
+    @Test
+    public void pointQuery_findsOnlyPointsInTheBox() {
+        GeoGridIndex<String> index = new GeoGridIndex<>();
+        index.addPoint("brocken", 51.7991, 10.6156);
+        index.addPoint("zugspitze", 47.4211, 10.9853);
+        List<String> found = new ArrayList<>();
+
+        index.query(51.7, 10.5, 51.9, 10.7, found);
+
+        assertEquals(1, found.size());
+        assertEquals("brocken", found.get(0));
+    }
+
+    @Test
+    public void boxSpanningManyCells_isReportedOnce() {
+        GeoGridIndex<String> index = new GeoGridIndex<>();
+        index.add("trail", 51.70, 10.50, 51.80, 10.70);
+        List<String> found = new ArrayList<>();
+
+        index.query(51.60, 10.40, 51.90, 10.80, found);
+        assertEquals(1, found.size());
+
+        // The same entry again on the next query
+        found.clear();
+        index.query(51.75, 10.60, 51.76, 10.61, found);
+        assertEquals(1, found.size());
+    }
+
+    @Test
+    public void hugeBox_isFoundFromAnywhereInside() {
+        GeoGridIndex<String> index = new GeoGridIndex<>();
+        index.add("long distance trail", 47.0, 6.0, 55.0, 15.0);
+        List<String> found = new ArrayList<>();
+
+        index.query(50.0, 10.0, 50.01, 10.01, found);
+
+        assertEquals(1, found.size());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void randomQueries_matchABruteForceScan() {
+        Random random = new Random(5);
+        GeoGridIndex<Integer> index = new GeoGridIndex<>();
+        double[][] boxes = new double[3_000][];
+        for (int i = 0; i < boxes.length; i++) {
+            double south = 50 + random.nextDouble() * 2;
+            double west = 9 + random.nextDouble() * 3;
+            // Mostly points, some short lines
+            double height = i % 4 == 0 ? random.nextDouble() * 0.05 : 0;
+            double width = i % 4 == 0 ? random.nextDouble() * 0.05 : 0;
+            boxes[i] = new double[] {south, west, south + height, west + width};
+            index.add(i, south, west, south + height, west + width);
+        }
+
+        for (int q = 0; q < 200; q++) {
+            double south = 49.9 + random.nextDouble() * 2;
+            double west = 8.9 + random.nextDouble() * 3;
+            // From street level to the whole data set
+            double span = q % 10 == 0 ? 5 : random.nextDouble() * 0.2;
+            double north = south + span;
+            double east = west + span;
+
+            List<Integer> found = new ArrayList<>();
+            index.query(south, west, north, east, found);
+            Set<Integer> expected = new HashSet<>();
+            for (int i = 0; i < boxes.length; i++) {
+                if (boxes[i][2] >= south && boxes[i][0] <= north && boxes[i][3] >= west && boxes[i][1] <= east) {
+                    expected.add(i);
+                }
+            }
+            assertEquals(expected.size(), found.size());
+            assertEquals(expected, new HashSet<>(found));
+        }
+    }
+}
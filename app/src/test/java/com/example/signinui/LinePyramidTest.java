@@ -0,0 +1,61 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LinePyramidTest {
+
+    // A winding 20,000-point route of about 200 km
+    private static PackedRoute longRoute() {
+        Random random = new Random(11);
+        int count = 20_000;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        double lat = 50.0;
+        double lon = 9.0;
+        double heading = 0;
+        for (int i = 0; i < count; i++) {
+            heading += (random.nextDouble() - 0.5) * 0.6;
+            lat += Math.cos(heading) * 9e-5;
+            lon += Math.sin(heading) * 1.4e-4;
+            latitudes[i] = lat;
+            longitudes[i] = lon;
+        }
+        return PackedRoute.of(latitudes, longitudes);
+    }
+
+    @Test
+    public void zoomedOut_drawsFewVerticesOfALongRoute() {
+        LinePyramid pyramid = LinePyramid.build(longRoute());
+
+        assertTrue(pyramid.indicesFor(8).length < 200);
+        assertTrue(pyramid.indicesFor(12).length < 2_000);
+        assertNull(pyramid.indicesFor(LineSimplifier.MAX_ZOOM + 0.5));
+    }
+
+    @Test
+    public void levels_growWithZoomAndKeepTheEnds() {
+        LinePyramid pyramid = LinePyramid.build(longRoute());
+
+        int previous = 0;
+        for (int level = 0; level < LinePyramid.LEVEL_ZOOMS.length; level++) {
+            int[] indices = pyramid.indicesFor(LinePyramid.LEVEL_ZOOMS[level]);
+            assertEquals(pyramid.getVertexCount(level), indices.length);
+            assertTrue(indices.length >= previous);
+            assertEquals(0, indices[0]);
+            assertEquals(19_999, indices[indices.length - 1]);
+            previous = indices.length;
+        }
+    }
+
+    @Test
+    public void fractionalZoom_usesTheNextFinerLevel() {
+        LinePyramid pyramid = LinePyramid.build(longRoute());
+
+        assertSame(pyramid.indicesFor(12), pyramid.indicesFor(11.2));
+        assertSame(pyramid.indicesFor(14), pyramid.indicesFor(12.01));
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LineSimplifierTest {
+
+    @Test
+    public void straightLine_keepsOnlyItsEnds() {
+        double[] latitudes = new double[50];
+        double[] longitudes = new double[50];
+        for (int i = 0; i < 50; i++) {
+            latitudes[i] = 51.0 + i * 1e-4;
+            longitudes[i] = 10.0 + i * 1e-4;
+        }
+
+        byte[] levels = LineSimplifier.levels(latitudes, longitudes, 50);
+
+        int[] kept = new int[50];
+        assertEquals(2, LineSimplifier.select(levels, LineSimplifier.MAX_ZOOM, kept));
+        assertEquals(0, kept[0]);
+        assertEquals(49, kept[1]);
+    }
+
+    @Test
+    public void corner_appearsOnceItIsWiderThanAPixel() {
+        // A 100 m detour in the middle of a 2 km line
+        double[] latitudes = {51.0, 51.0 + 100 / 111_320.0, 51.0};
+        double[] longitudes = {10.0, 10.0143, 10.0286};
+
+        byte[] levels = LineSimplifier.levels(latitudes, longitudes, 3);
+
+        int level = levels[1];
+        assertTrue(LineSimplifier.toleranceMeters(level, 51.0) < 100);
+        assertTrue(LineSimplifier.toleranceMeters(level - 1, 51.0) >= 100);
+    }
+
+    @Test
+    public void everyZoom_matchesADouglasPeuckerRunAtItsTolerance() {
+        Random random = new Random(3);
+        int count = 400;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        double lat = 51.8;
+        double lon = 10.6;
+        for (int i = 0; i < count; i++) {
+            lat += (random.nextDouble() - 0.3) * 2e-4;
+            lon += (random.nextDouble() - 0.4) * 3e-4;
+            latitudes[i] = lat;
+            longitudes[i] = lon;
+        }
+        byte[] levels = LineSimplifier.levels(latitudes, longitudes, count);
+        int[] kept = new int[count];
+
+        int previous = 0;
+        for (int zoom = 8; zoom <= LineSimplifier.MAX_ZOOM; zoom++) {
+            int keptCount = LineSimplifier.select(levels, zoom, kept);
+            boolean[] expected = new boolean[count];
+            douglasPeucker(latitudes, longitudes, 0, count - 1,
+                    LineSimplifier.toleranceMeters(zoom, latitudes[0]), expected);
+            int expectedCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (expected[i]) {
+                    assertEquals(kept[expectedCount], i);
+                    expectedCount++;
+                }
+            }
+            assertEquals(expectedCount, keptCount);
+            // Zooming in only ever adds vertices
+            assertTrue(keptCount >= previous);
+            previous = keptCount;
+        }
+    }
+
+    // Textbook recursive version in the same flat projection
+    private static void douglasPeucker(double[] lats, double[] lons, int first, int last, double tolerance, boolean[] keep) {
+        keep[first] = true;
+        keep[last] = true;
+        double metersPerDegree = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+        double cos = Math.cos(Math.toRadians(lats[0]));
+        double ax = (lons[first] - lons[0]) * metersPerDegree * cos, ay = (lats[first] - lats[0]) * metersPerDegree;
+        double bx = (lons[last] - lons[0]) * metersPerDegree * cos, by = (lats[last] - lats[0]) * metersPerDegree;
+        int farthest = -1;
+        double farthestDistance = -1;
+        for (int i = first + 1; i < last; i++) {
+            double px = (lons[i] - lons[0]) * metersPerDegree * cos, py = (lats[i] - lats[0]) * metersPerDegree;
+            double dx = bx - ax, dy = by - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / lengthSquared));
+            double distance = Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+            if (distance > farthestDistance) {
+                farthestDistance = distance;
+                farthest = i;
+            }
+        }
+        if (farthest >= 0 && farthestDistance > tolerance) {
+            douglasPeucker(lats, lons, first, farthest, tolerance, keep);
+            douglasPeucker(lats, lons, farthest, last, tolerance, keep);
+        }
+    }
+}
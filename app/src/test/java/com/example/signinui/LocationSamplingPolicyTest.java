@@ -0,0 +1,104 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocationSamplingPolicyTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+    private static final double LAT = 51.0;
+    private static final double LON = 10.0;
+    private static final double WALKING = 1.4;
+
+    private static double latitudeAt(double metersNorth) {
+        return LAT + metersNorth / METERS_PER_DEGREE;
+    }
+
+    @Test
+    public void closeToAStep_tightensAtOnceAndRelaxesAfterTwoFixes() {
+        LocationSamplingPolicy policy = new LocationSamplingPolicy();
+        policy.onFix(LAT, LON, 5, WALKING, 0);
+        assertEquals(LocationSamplingPolicy.Mode.MANEUVER, policy.update(40, false, 0));
+
+        policy.onFix(latitudeAt(10), LON, 5, WALKING, 5_000);
+        assertEquals(LocationSamplingPolicy.Mode.MANEUVER, policy.update(2_000, false, 5_000));
+        policy.onFix(latitudeAt(20), LON, 5, WALKING, 10_000);
+        assertEquals(LocationSamplingPolicy.Mode.CRUISE, policy.update(2_000, false, 10_000));
+
+        policy.onFix(latitudeAt(30), LON, 5, WALKING, 25_000);
+        assertEquals(LocationSamplingPolicy.Mode.MANEUVER, policy.update(2_000, true, 25_000));
+    }
+
+    @Test
+    public void fastMovement_approachesEarlier() {
+        LocationSamplingPolicy policy = new LocationSamplingPolicy();
+        policy.onFix(LAT, LON, 5, 8, 0);
+        policy.update(600, false, 0);
+        // 600 m is 75 s away on a bike
+        assertEquals(LocationSamplingPolicy.Mode.APPROACH, policy.update(600, false, 0));
+    }
+
+    @Test
+    public void idleStepCounter_meansStationaryUntilStepsResume() {
+        LocationSamplingPolicy policy = new LocationSamplingPolicy();
+        policy.onStepCount(1_000, 0);
+        policy.onFix(LAT, LON, 5, WALKING, 0);
+        policy.onStepCount(1_050, 30_000);
+
+        // Drifting GPS speed alone does not count as walking when the step counter says otherwise
+        for (long t = 40_000; t <= 120_000; t += 20_000) {
+            policy.onFix(LAT, LON, 5, 0.8, t);
+            policy.update(2_000, false, t);
+        }
+        assertEquals(LocationSamplingPolicy.Mode.STATIONARY, policy.getMode());
+
+        policy.onStepCount(1_052, 125_000);
+        assertEquals(LocationSamplingPolicy.Mode.CRUISE, policy.update(2_000, false, 125_000));
+    }
+
+    @Test
+    public void jitterWhileStanding_addsNoDistance() {
+        LocationSamplingPolicy policy = new LocationSamplingPolicy();
+        for (int i = 0; i < 100; i++) {
+            policy.onFix(latitudeAt(i % 2 == 0 ? 0 : 4), LON, 8, 0, i * 1_000L);
+        }
+        assertEquals(0, policy.getDistanceMeters(), 0.0);
+        assertEquals(0, policy.getFixesPerKm(), 0.0);
+    }
+
+    /**
+     * 10 km walked at a steady pace with a step every 2 km and a 10 minute break halfway. A fixed
+     * 3 s interval takes about 238 fixes per km on the move alone.
+     */
+    @Test
+    public void simulatedHike_takesFarFewerFixesPerKm() {
+        LocationSamplingPolicy policy = new LocationSamplingPolicy();
+        double walked = 0;
+        long breakStart = Math.round(5_000 / WALKING * 1000);
+        long breakEnd = breakStart + 10 * 60_000;
+        long steps = 0;
+        long t = 0;
+        int fixedIntervalFixes = 0;
+        while (walked < 10_000) {
+            boolean resting = t >= breakStart && t < breakEnd;
+            policy.onStepCount(steps, t);
+            policy.onFix(latitudeAt(walked), LON, 5, resting ? 0.3 : WALKING, t);
+            double metersToNextStep = 2_000 - walked % 2_000;
+            long interval = policy.update(metersToNextStep, false, t).intervalMillis;
+
+            long next = t + interval;
+            long movingMillis = Math.max(0, Math.min(next, breakStart) - t) + Math.max(0, next - Math.max(t, breakEnd));
+            walked += WALKING * movingMillis / 1000;
+            steps += Math.round(WALKING / 0.7 * movingMillis / 1000);
+            if (!resting) {
+                fixedIntervalFixes += (int) (interval / 3_000);
+            }
+            t = next;
+        }
+
+        assertEquals(10, policy.getDistanceMeters() / 1000, 0.1);
+        assertTrue("fixes/km " + policy.getFixesPerKm(), policy.getFixesPerKm() < 238 / 4.0);
+        assertTrue(policy.getFixCount() < fixedIntervalFixes / 4);
+    }
+}
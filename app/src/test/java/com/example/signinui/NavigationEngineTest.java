@@ -0,0 +1,223 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NavigationEngineTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+    private static final double LAT = 51.0;
+    private static final double LON = 10.0;
+
+    // An L-shaped route: 1 km north, then 1 km east, with a point every 10 m
+    private static PackedRoute lRoute() {
+        double[] latitudes = new double[201];
+        double[] longitudes = new double[201];
+        double lonScale = Math.cos(Math.toRadians(LAT));
+        for (int i = 0; i <= 100; i++) {
+            latitudes[i] = LAT + i * 10 / METERS_PER_DEGREE;
+            longitudes[i] = LON;
+        }
+        for (int i = 1; i <= 100; i++) {
+            latitudes[100 + i] = latitudes[100];
+            longitudes[100 + i] = LON + i * 10 / (METERS_PER_DEGREE * lonScale);
+        }
+        return PackedRoute.of(latitudes, longitudes);
+    }
+
+    // Start, the corner, and the end
+    private static final int[] STEPS = {0, 100, 200};
+
+    // A long staircase route: legs of 1 km alternately north and east, with a point every 10 m
+    private static PackedRoute staircase(int points) {
+        double[] latitudes = new double[points];
+        double[] longitudes = new double[points];
+        double lonScale = Math.cos(Math.toRadians(LAT));
+        latitudes[0] = LAT;
+        longitudes[0] = LON;
+        for (int i = 1; i < points; i++) {
+            boolean north = (i - 1) / 100 % 2 == 0;
+            latitudes[i] = latitudes[i - 1] + (north ? 10 / METERS_PER_DEGREE : 0);
+            longitudes[i] = longitudes[i - 1] + (north ? 0 : 10 / (METERS_PER_DEGREE * lonScale));
+        }
+        return PackedRoute.of(latitudes, longitudes);
+    }
+
+    /**
+     * A recorded-style trace: one fix per route point with a few metres of deterministic jitter.
+     */
+    private static List<double[]> walk(PackedRoute route, int from, int to, double jitterMeters, long seed) {
+        Random random = new Random(seed);
+        List<double[]> fixes = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            double dLat = (random.nextDouble() * 2 - 1) * jitterMeters / METERS_PER_DEGREE;
+            double dLon = (random.nextDouble() * 2 - 1) * jitterMeters / METERS_PER_DEGREE;
+            fixes.add(new double[] {route.getLatitude(i) + dLat, route.getLongitude(i) + dLon});
+        }
+        return fixes;
+    }
+
+    private static List<NavigationEngine.Event> replay(NavigationEngine engine, List<double[]> fixes) {
+        List<NavigationEngine.Event> events = new ArrayList<>();
+        for (double[] fix : fixes) {
+            NavigationEngine.Event event = engine.update(fix[0], fix[1], 10);
+            if (event != NavigationEngine.Event.NONE) {
+                events.add(event);
+            }
+        }
+        return events;
+    }
+
+    @Test
+    public void noisyWalk_advancesEachStepOnceAndArrives() {
+        PackedRoute route = lRoute();
+        NavigationEngine engine = new NavigationEngine(route, STEPS);
+
+        List<NavigationEngine.Event> events = replay(engine, walk(route, 0, 200, 8, 42));
+
+        assertEquals(NavigationEngine.Event.STEP_CHANGED, events.get(0));
+        assertEquals(NavigationEngine.Event.STEP_CHANGED, events.get(1));
+        assertEquals(NavigationEngine.Event.ARRIVED, events.get(2));
+        assertEquals(3, events.size());
+        assertTrue(engine.hasArrived());
+        assertFalse(engine.isOffRoute());
+    }
+
+    @Test
+    public void gpsJumpPastTheCorner_landsOnTheRightStep() {
+        PackedRoute route = lRoute();
+        NavigationEngine engine = new NavigationEngine(route, STEPS);
+        replay(engine, walk(route, 0, 50, 5, 1));
+        assertEquals(1, engine.getStepIndex());
+
+        // One fix from 500 m north to 300 m east of the corner
+        assertEquals(NavigationEngine.Event.STEP_CHANGED,
+                engine.update(route.getLatitude(130), route.getLongitude(130), 10));
+        assertEquals(2, engine.getStepIndex());
+        assertEquals(700, engine.getProgress().getRemainingMeters(), 2);
+    }
+
+    @Test
+    public void leavingTheRoute_isReportedOnceAfterSeveralFixes() {
+        PackedRoute route = lRoute();
+        NavigationEngine engine = new NavigationEngine(route, STEPS);
+        replay(engine, walk(route, 0, 30, 5, 7));
+
+        // Walk 80 m west of the route for five fixes
+        List<NavigationEngine.Event> events = new ArrayList<>();
+        double lonScale = Math.cos(Math.toRadians(LAT));
+        for (int i = 31; i <= 35; i++) {
+            events.add(engine.update(route.getLatitude(i), LON - 80 / (METERS_PER_DEGREE * lonScale), 10));
+        }
+        assertEquals(NavigationEngine.Event.NONE, events.get(0));
+        assertEquals(NavigationEngine.Event.NONE, events.get(1));
+        assertEquals(NavigationEngine.Event.OFF_ROUTE, events.get(2));
+        assertEquals(NavigationEngine.Event.NONE, events.get(4));
+        assertTrue(engine.isOffRoute());
+
+        assertEquals(NavigationEngine.Event.BACK_ON_ROUTE,
+                engine.update(route.getLatitude(36), route.getLongitude(36), 10));
+    }
+
+    @Test
+    public void routeStartingAwayFromTheUser_isNotOffRouteUntilJoined() {
+        PackedRoute route = lRoute();
+        NavigationEngine engine = new NavigationEngine(route, STEPS);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(NavigationEngine.Event.NONE, engine.update(LAT - 0.01, LON, 10));
+        }
+        assertFalse(engine.isOffRoute());
+    }
+
+    @Test
+    public void poorAccuracy_raisesTheOffRouteThreshold() {
+        PackedRoute route = lRoute();
+        NavigationEngine engine = new NavigationEngine(route, STEPS);
+        replay(engine, walk(route, 0, 30, 5, 3));
+
+        double lonScale = Math.cos(Math.toRadians(LAT));
+        for (int i = 31; i <= 40; i++) {
+            engine.update(route.getLatitude(i), LON - 60 / (METERS_PER_DEGREE * lonScale), 100);
+        }
+        assertFalse(engine.isOffRoute());
+    }
+
+    @Test
+    public void detour_isSplicedOntoTheRestOfTheRoute() {
+        PackedRoute route = lRoute();
+        NavigationEngine engine = new NavigationEngine(route, STEPS);
+        replay(engine, walk(route, 0, 30, 0, 0));
+        int rejoin = engine.getRejoinPointIndex();
+        // 300 m along plus 250 m ahead
+        assertEquals(55, rejoin, 1);
+
+        PackedRoute detour = PackedRoute.of(
+                new double[] {LAT + 0.0027, LAT + 0.004, route.getLatitude(rejoin)},
+                new double[] {LON - 0.001, LON - 0.001, route.getLongitude(rejoin)});
+        PackedRoute spliced = NavigationEngine.splice(detour, route, rejoin);
+
+        assertEquals(2 + route.size() - rejoin, spliced.size());
+        assertEquals(LAT + 0.0027, spliced.getLatitude(0), 0.0);
+        int corner = NavigationEngine.splicedPointIndex(detour, rejoin, 100);
+        assertEquals(route.getLatitude(100), spliced.getLatitude(corner), 0.0);
+        assertEquals(route.getLongitude(200), spliced.getLongitude(spliced.size() - 1), 0.0);
+    }
+
+    @Test
+    public void segmentIndex_findsOnlyNearbySegments() {
+        PackedRoute route = lRoute();
+        SegmentGridIndex index = new SegmentGridIndex(route);
+        List<Integer> found = new ArrayList<>();
+
+        // Near the end of the eastbound leg
+        assertTrue(index.query(route.getLatitude(195), route.getLongitude(195), 20, found::add));
+        assertTrue(found.contains(194));
+        for (int segment : found) {
+            assertTrue("segment " + segment, segment >= 150);
+        }
+        // Far away from the whole route
+        assertFalse(index.query(LAT - 1, LON, 100, segment -> fail()));
+    }
+
+    @Test
+    public void replayThroughput_longRoute() {
+        int points = 20_000;
+        PackedRoute route = staircase(points);
+        // A step at every corner
+        int[] steps = new int[points / 100];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = i * 100;
+        }
+        List<double[]> fixes = walk(route, 0, points - 1, 5, 11);
+
+        int rounds = 10;
+        // Warm up the JIT before timing
+        for (int i = 0; i < 3; i++) {
+            replay(new NavigationEngine(route, steps), fixes);
+        }
+        long fixCount = 0;
+        long nanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            NavigationEngine engine = new NavigationEngine(route, steps);
+            long startNanos = System.nanoTime();
+            List<NavigationEngine.Event> events = replay(engine, fixes);
+            nanos += System.nanoTime() - startNanos;
+
+            assertEquals(steps.length, events.size());
+            assertEquals(NavigationEngine.Event.ARRIVED, events.get(events.size() - 1));
+            assertTrue(engine.hasArrived());
+            fixCount += engine.getFixCount();
+        }
+        double seconds = nanos / 1e9;
+
+        assertEquals((long) fixes.size() * rounds, fixCount);
+        System.out.println(String.format(Locale.US, "Replayed %d fixes along a %d point route in %.1f ms: %.0f fixes/s",
+                fixCount, points, seconds * 1000, fixCount / seconds));
+    }
+}
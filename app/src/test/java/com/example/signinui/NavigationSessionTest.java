@@ -0,0 +1,81 @@
+package com.example.signinui;
+
+import com.example.signinui.model.TrailDetails;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NavigationSessionTest {
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(GeoMath.EARTH_RADIUS_METERS);
+    private static final double LAT = 51.0;
+    private static final double LON = 10.0;
+
+    // 1 km straight north with a point every 10 m, and steps at the start, halfway and the end
+    private static RouteCodec.Route northRoute() {
+        double[] latitudes = new double[101];
+        double[] longitudes = new double[101];
+        for (int i = 0; i <= 100; i++) {
+            latitudes[i] = LAT + i * 10 / METERS_PER_DEGREE;
+            longitudes[i] = LON;
+        }
+        return new RouteCodec.Route(new TrailDetails(), PackedRoute.of(latitudes, longitudes),
+                new int[] {0, 50, 100}, new String[] {"Head north", "Continue straight", "Arrive"},
+                new double[] {500, 500, 0}, 1000);
+    }
+
+    @Test
+    public void snapshot_followsTheFixes() {
+        RouteCodec.Route route = northRoute();
+        NavigationSession session = new NavigationSession(route);
+        assertFalse(session.snapshot().hasFix());
+
+        for (int i = 0; i <= 40; i++) {
+            session.onLocation(route.geometry.getLatitude(i), LON, 5);
+        }
+        NavigationSession.State state = session.snapshot();
+        assertTrue(state.matched);
+        assertEquals(1, state.stepIndex);
+        assertEquals("Continue straight", state.instruction);
+        assertEquals(100, state.metersToNextStep, 1);
+        assertEquals(600, state.remainingMeters, 1);
+        assertEquals(route.geometry.getLatitude(40), state.latitude, 0.0);
+    }
+
+    @Test
+    public void detour_keepsTheStepsAfterTheRejoinPoint() {
+        RouteCodec.Route route = northRoute();
+        double[] detourLats = {LAT + 0.001, LAT + 0.002, route.geometry.getLatitude(60)};
+        double[] detourLons = {LON - 0.001, LON - 0.001, LON};
+        OrsRouteParser.ParsedRoute detour = new OrsRouteParser.ParsedRoute(detourLats, detourLons,
+                new int[] {0, 2}, new String[] {"Turn right", "Arrive"}, new double[] {250, 0}, 250);
+
+        RouteCodec.Route spliced = NavigationSession.spliceDetour(route, 60, detour);
+
+        assertEquals(2 + 41, spliced.geometry.size());
+        assertArrayEquals(new String[] {"Turn right", "Arrive"}, spliced.stepInstructions);
+        assertArrayEquals(new int[] {0, spliced.geometry.size() - 1}, spliced.stepPointIndices);
+        assertEquals(250 + 400, spliced.totalDistanceMeters, 1);
+    }
+
+    @Test
+    public void replaceRoute_rematchesTheLastFix() {
+        RouteCodec.Route route = northRoute();
+        NavigationSession session = new NavigationSession(route);
+        session.onLocation(route.geometry.getLatitude(10), LON, 5);
+        int version = session.snapshot().routeVersion;
+
+        RouteCodec.Route shorter = new RouteCodec.Route(route.details,
+                PackedRoute.of(new double[] {route.geometry.getLatitude(10), route.geometry.getLatitude(20)},
+                        new double[] {LON, LON}),
+                new int[] {0, 1}, new String[] {"Head north", "Arrive"}, new double[] {100, 0}, 100);
+        session.replaceRoute(shorter);
+
+        NavigationSession.State state = session.snapshot();
+        assertEquals(version + 1, state.routeVersion);
+        assertSame(shorter, state.route);
+        assertTrue(state.matched);
+        assertEquals(100, state.remainingMeters, 1);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class OrsRouteParserTest {
+
+    // Trimmed-down ORS foot-hiking response; properties come before the geometry, as ORS sends them
+    private static final String RESPONSE = "{\"type\":\"FeatureCollection\",\"bbox\":[10.6,51.8,10.7,51.9],"
+            + "\"features\":[{\"bbox\":[10.6,51.8,10.7,51.9],\"type\":\"Feature\",\"properties\":{"
+            + "\"segments\":[{\"distance\":1520.4,\"duration\":1094.7,\"steps\":["
+            + "{\"distance\":800.1,\"duration\":576.1,\"type\":11,\"instruction\":\"Head north\",\"name\":\"-\",\"way_points\":[0,2]},"
+            + "{\"distance\":720.3,\"duration\":518.6,\"type\":0,\"instruction\":\"Turn left\",\"name\":\"Hexenstieg\",\"way_points\":[2,3]},"
+            + "{\"distance\":0.0,\"duration\":0.0,\"type\":10,\"instruction\":\"Arrive at your destination\",\"name\":\"-\",\"way_points\":[3,3]}"
+            + "]}],\"summary\":{\"distance\":1520.4,\"duration\":1094.7},\"way_points\":[0,3]},"
+            + "\"geometry\":{\"coordinates\":[[10.61,51.81,420.0],[10.62,51.82,431.5],[10.63,51.83,440.0],[10.64,51.84,452.2]],"
+            + "\"type\":\"LineString\"}},{\"type\":\"Feature\",\"properties\":{},\"geometry\":{}}],"
+            + "\"metadata\":{\"attribution\":\"openrouteservice.org\",\"query\":{\"coordinates\":[[10.61,51.81],[10.64,51.84]]}}}";
+
+    @Test
+    public void parse_readsPointsStepsAndDistance() throws IOException {
+        OrsRouteParser.ParsedRoute route = OrsRouteParser.parse(new StringReader(RESPONSE));
+
+        assertEquals(4, route.getPointCount());
+        assertEquals(51.81, route.latitudes[0], 0.0);
+        assertEquals(10.64, route.longitudes[3], 0.0);
+        assertEquals(1520.4, route.totalDistanceMeters, 0.0);
+
+        assertEquals(3, route.getStepCount());
+        assertArrayEquals(new int[] {0, 2, 3}, route.stepPointIndices);
+        assertEquals("Turn left", route.stepInstructions[1]);
+        assertEquals(720.3, route.stepDistances[1], 0.0);
+    }
+
+    @Test
+    public void parse_growsBeyondInitialCapacity() throws IOException {
+        StringBuilder json = new StringBuilder("{\"features\":[{\"geometry\":{\"coordinates\":[");
+        for (int i = 0; i < 5000; i++) {
+            json.append(i == 0 ? "" : ",").append('[').append(10 + i * 1e-4).append(',').append(51 + i * 1e-4).append(']');
+        }
+        json.append("]}}]}");
+
+        OrsRouteParser.ParsedRoute route = OrsRouteParser.parse(new StringReader(json.toString()));
+        assertEquals(5000, route.getPointCount());
+        assertEquals(51 + 4999 * 1e-4, route.latitudes[4999], 1e-9);
+        assertEquals(0, route.getStepCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void stepOutsideTheRoute_isRejected() throws IOException {
+        OrsRouteParser.parse(new StringReader("{\"features\":[{\"properties\":{\"segments\":[{\"steps\":["
+                + "{\"instruction\":\"Head north\",\"distance\":1,\"way_points\":[7,8]}]}]},"
+                + "\"geometry\":{\"coordinates\":[[10.61,51.81],[10.62,51.82]]}}]}"));
+    }
+
+    @Test(expected = IOException.class)
+    public void errorResponse_isRejected() throws IOException {
+        OrsRouteParser.parse(new StringReader("{\"error\":{\"code\":2010,\"message\":\"Could not find routable point\"}}"));
+    }
+
+    @Test(expected = IOException.class)
+    public void wrongValueType_isRejected() throws IOException {
+        OrsRouteParser.parse(new StringReader("{\"features\":[{\"geometry\":{\"coordinates\":[[\"a\",\"b\"]]}}]}"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.signinui;
+
+import org.junit.Test;
+import org.osmdroid.util.GeoPoint;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PackedRouteTest {
+
+    @Test
+    public void cumulativeDistances_addUpSegmentLengths() {
+        // Three points 0.001 degrees of latitude apart, about 111 m each
+        PackedRoute route = PackedRoute.of(new double[] {51.800, 51.801, 51.802}, new double[] {10.6, 10.6, 10.6});
+
+        assertEquals(0, route.getDistanceAt(0), 0.0);
+        assertEquals(111.2, route.getDistanceAt(1), 0.1);
+        assertEquals(2 * route.getDistanceAt(1), route.getDistanceAt(2), 1e-6);
+        assertEquals(route.getDistanceAt(2), route.getLengthMeters(), 0.0);
+    }
+
+    @Test
+    public void fromGeoPoints_matchesPrimitiveArrays() {
+        PackedRoute route = PackedRoute.fromGeoPoints(Arrays.asList(
+                new GeoPoint(51.8, 10.6), new GeoPoint(51.81, 10.62)));
+
+        assertEquals(2, route.size());
+        assertEquals(51.81, route.getLatitude(1), 0.0);
+        assertEquals(10.62, route.getLongitude(1), 0.0);
+        assertEquals(GeoMath.distanceMeters(51.8, 10.6, 51.81, 10.62), route.getLengthMeters(), 1e-9);
+    }
+
+    @Test
+    public void emptyRoute_hasZeroLength() {
+        assertEquals(0, PackedRoute.of(new double[0], new double[0]).getLengthMeters(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedArrays_areRejected() {
+        PackedRoute.of(new double[2], new double[3]);
+    }
+
+    @Test
+    public void geoMath_matchesKnownDistance() {
+        // Brandenburg Gate to Berlin TV tower, about 2.2 km
+        assertEquals(2210, GeoMath.distanceMeters(52.51628, 13.37770, 52.52082, 13.40940), 15);
+    }
+}
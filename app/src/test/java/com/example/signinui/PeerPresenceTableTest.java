@@ -0,0 +1,174 @@
+package com.example.signinui;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PeerPresenceTableTest {
+
+    // Peers for the concurrency test, enough that every tick races many heartbeats
+    private static final int PEERS = 256;
+
+    private long now;
+    private PeerPresenceTable table;
+    private final List<List<String>> onlineBatches = new ArrayList<>();
+    private final List<List<String>> offlineBatches = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        now = 1_000_000;
+        table = new PeerPresenceTable(8, 150_000, 5_000, () -> now);
+        table.addListener((cameOnline, wentOffline) -> {
+            onlineBatches.add(new ArrayList<>(cameOnline));
+            offlineBatches.add(new ArrayList<>(wentOffline));
+        });
+    }
+
+    private void advance(long millis) {
+        // Tick the way the service does, once per tick interval
+        for (long t = 0; t < millis; t += 5_000) {
+            now += Math.min(5_000, millis - t);
+            table.tick();
+        }
+    }
+
+    @Test
+    public void peerExpires_afterTtlWithoutHeartbeat() {
+        table.markSeen("alice");
+        assertEquals(1, table.getOnlineCount());
+
+        advance(145_000);
+        assertTrue(table.isOnline("alice"));
+
+        advance(10_000);
+        assertFalse(table.isOnline("alice"));
+        assertEquals(0, table.getOnlineCount());
+    }
+
+    @Test
+    public void heartbeats_keepPeerOnline() {
+        table.markSeen("alice");
+        for (int i = 0; i < 20; i++) {
+            advance(60_000);
+            table.markSeen("alice");
+        }
+        assertTrue(table.isOnline("alice"));
+        assertEquals(1, table.getOnlineCount());
+        assertEquals(1, onlineBatches.size());
+    }
+
+    @Test
+    public void changes_areDeliveredInBatches() {
+        table.markSeen("alice");
+        table.markSeen("bob");
+        table.markSeen("alice");
+        table.tick();
+
+        assertEquals(1, onlineBatches.size());
+        assertEquals(2, onlineBatches.get(0).size());
+        assertTrue(offlineBatches.get(0).isEmpty());
+
+        advance(200_000);
+        assertEquals(2, onlineBatches.size());
+        assertTrue(onlineBatches.get(1).isEmpty());
+        assertEquals(2, offlineBatches.get(1).size());
+    }
+
+    @Test
+    public void peerComesBackOnline_afterExpiry() {
+        table.markSeen("alice");
+        advance(200_000);
+        assertFalse(table.isOnline("alice"));
+
+        table.markSeen("alice");
+        assertTrue(table.isOnline("alice"));
+        assertEquals(1, table.getOnlineCount());
+        advance(100_000);
+        assertTrue(table.isOnline("alice"));
+    }
+
+    @Test
+    public void longPauseBetweenTicks_stillExpires() {
+        table.markSeen("alice");
+        now += 10 * 150_000;
+        table.tick();
+        assertFalse(table.isOnline("alice"));
+    }
+
+    @Test
+    public void fullTable_rejectsNewPeers() {
+        for (int i = 0; i < 8; i++) {
+            assertTrue(table.markSeen("user" + i));
+        }
+        assertFalse(table.markSeen("overflow"));
+        assertTrue(table.markSeen("user3"));
+    }
+
+    @Test
+    public void heartbeatsDuringTick_neverCountAPeerTwice() throws InterruptedException {
+        AtomicLong clock = new AtomicLong(1_000_000);
+        PeerPresenceTable concurrent = new PeerPresenceTable(PEERS, 150_000, 5_000, clock::get);
+        // Net online events per peer; offline before online or online twice in a row breaks the range
+        Map<String, Integer> balance = new HashMap<>();
+        List<String> errors = new ArrayList<>();
+        concurrent.addListener((cameOnline, wentOffline) -> {
+            for (String uid : wentOffline) {
+                balance.merge(uid, -1, Integer::sum);
+            }
+            for (String uid : cameOnline) {
+                balance.merge(uid, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : balance.entrySet()) {
+                if (entry.getValue() < 0 || entry.getValue() > 1) {
+                    errors.add(entry.getKey() + " at " + entry.getValue());
+                }
+            }
+        });
+
+        // Heartbeats keep arriving while the clock jumps past every deadline and the wheel ticks
+        AtomicBoolean running = new AtomicBoolean(true);
+        String[] uids = new String[PEERS];
+        for (int i = 0; i < PEERS; i++) {
+            uids[i] = "user" + i;
+        }
+        Thread[] heartbeats = new Thread[2];
+        for (int t = 0; t < heartbeats.length; t++) {
+            heartbeats[t] = new Thread(() -> {
+                while (running.get()) {
+                    for (String uid : uids) {
+                        concurrent.markSeen(uid);
+                    }
+                }
+            });
+            heartbeats[t].start();
+        }
+        for (int round = 0; round < 5_000; round++) {
+            clock.addAndGet(155_000);
+            concurrent.tick();
+        }
+        running.set(false);
+        for (Thread thread : heartbeats) {
+            thread.join(5000);
+        }
+        concurrent.tick();
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        int online = 0;
+        for (String uid : uids) {
+            boolean isOnline = concurrent.isOnline(uid);
+            assertEquals(uid, isOnline ? 1 : 0, (int) balance.getOrDefault(uid, 0));
+            if (isOnline) {
+                online++;
+            }
+        }
+        assertEquals(online, concurrent.getOnlineCount());
+    }
+}
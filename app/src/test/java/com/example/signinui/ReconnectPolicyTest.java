@@ -0,0 +1,39 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+
+    @Test
+    public void delays_growExponentiallyWithinJitterBounds() {
+        ReconnectPolicy policy = new ReconnectPolicy(1_000, 60_000, 8, new Random(42));
+        for (int attempt = 0; attempt < 6; attempt++) {
+            long ceiling = 1_000L << attempt;
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.nextDelayMillis(attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= ceiling / 2 && delay <= ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void delays_areCappedAtMaxDelay() {
+        ReconnectPolicy policy = new ReconnectPolicy(1_000, 60_000, 100, new Random(7));
+        for (int attempt = 6; attempt < 100; attempt++) {
+            long delay = policy.nextDelayMillis(attempt);
+            assertTrue(delay >= 30_000 && delay <= 60_000);
+        }
+    }
+
+    @Test
+    public void retries_stopAfterMaxAttempts() {
+        ReconnectPolicy policy = new ReconnectPolicy(1_000, 60_000, 3, new Random());
+        assertTrue(policy.shouldRetry(0));
+        assertTrue(policy.shouldRetry(2));
+        assertFalse(policy.shouldRetry(3));
+    }
+}
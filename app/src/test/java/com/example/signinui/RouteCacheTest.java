@@ -0,0 +1,95 @@
+package com.example.signinui;
+
+import com.example.signinui.model.TrailDetails;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.osmdroid.util.GeoPoint;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RouteCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] encodedRoute(int pointCount) {
+        double[] latitudes = new double[pointCount];
+        double[] longitudes = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            latitudes[i] = 51.8 + i * 0.0001;
+            longitudes[i] = 10.6 + i * 0.0001;
+        }
+        return RouteCodec.encode(new RouteCodec.Route(new TrailDetails(), PackedRoute.of(latitudes, longitudes),
+                new int[] {0}, new String[] {"Head north"}, new double[] {10}, 1234));
+    }
+
+    @Test
+    public void nearbyStartPoints_shareAKey() {
+        GeoPoint end = new GeoPoint(51.81234, 10.61234);
+        String key = RouteCache.keyFor("foot-hiking", new GeoPoint(51.80010, 10.60010), end);
+
+        assertEquals(key, RouteCache.keyFor("foot-hiking", new GeoPoint(51.80030, 10.59980), end));
+        assertNotEquals(key, RouteCache.keyFor("foot-hiking", new GeoPoint(51.80200, 10.60010), end));
+        assertNotEquals(key, RouteCache.keyFor("cycling-mountain", new GeoPoint(51.80010, 10.60010), end));
+    }
+
+    @Test
+    public void putThenGet_countsMissAndHit() {
+        RouteCache cache = new RouteCache(folder.getRoot(), 1024 * 1024);
+        assertNull(cache.get("a"));
+        assertTrue(cache.put("a", encodedRoute(10)));
+
+        RouteCodec.Route route = cache.get("a");
+        assertNotNull(route);
+        assertEquals(10, route.geometry.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 0.0);
+    }
+
+    @Test
+    public void entries_surviveARestart() {
+        byte[] route = encodedRoute(10);
+        new RouteCache(folder.getRoot(), 1024 * 1024).put("a", route);
+
+        RouteCache reopened = new RouteCache(folder.getRoot(), 1024 * 1024);
+        assertEquals(1, reopened.getEntryCount());
+        assertEquals(route.length, reopened.getDiskUsageBytes());
+        assertNotNull(reopened.get("a"));
+    }
+
+    @Test
+    public void sizeCap_evictsLeastRecentlyUsed() {
+        byte[] route = encodedRoute(50);
+        RouteCache cache = new RouteCache(folder.getRoot(), route.length * 2);
+        cache.put("a", route);
+        cache.put("b", route);
+        cache.get("a");
+        cache.put("c", route);
+
+        assertEquals(2, cache.getEntryCount());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertTrue(cache.getDiskUsageBytes() <= route.length * 2);
+    }
+
+    @Test
+    public void corruptEntry_isDroppedAsAMiss() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(new File(folder.getRoot(), "a.route"))) {
+            out.write(new byte[] {42, 1, 2});
+        }
+        RouteCache cache = new RouteCache(folder.getRoot(), 1024 * 1024);
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getEntryCount());
+        assertFalse(new File(folder.getRoot(), "a.route").exists());
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.signinui;
+
+import com.example.signinui.model.TrailDetails;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class RouteCodecTest {
+
+    private static RouteCodec.Route hikingRoute(int pointCount) {
+        TrailDetails details = new TrailDetails("place-1", "Ridge Trail", null, "Moderate",
+                "12 km", "640 m", "Hiking", 4.5, "Harz");
+        double[] latitudes = new double[pointCount];
+        double[] longitudes = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            // Roughly 5 m between points, wandering south-east
+            latitudes[i] = 51.80000 - i * 0.00003;
+            longitudes[i] = 10.61000 + i * 0.00004 + (i % 7) * 0.00001;
+        }
+        int[] indices = {0, pointCount / 2, pointCount - 1};
+        String[] instructions = {"Head north", "Turn left onto Harzer-Hexen-Stieg", "Arrive at destination"};
+        double[] distances = {420.5, 3120.0, 0.0};
+        return new RouteCodec.Route(details, PackedRoute.of(latitudes, longitudes), indices, instructions, distances, 9876.4);
+    }
+
+    @Test
+    public void roundtrip_preservesRouteWithinOneMetre() throws IOException {
+        RouteCodec.Route route = hikingRoute(500);
+        byte[] encoded = RouteCodec.encode(route);
+        RouteCodec.Route decoded = RouteCodec.decode(encoded, 0, encoded.length);
+
+        assertEquals(route.geometry.size(), decoded.geometry.size());
+        for (int i = 0; i < route.geometry.size(); i++) {
+            assertEquals(route.geometry.getLatitude(i), decoded.geometry.getLatitude(i), 1e-5);
+            assertEquals(route.geometry.getLongitude(i), decoded.geometry.getLongitude(i), 1e-5);
+        }
+        assertArrayEquals(route.stepPointIndices, decoded.stepPointIndices);
+        assertArrayEquals(route.stepInstructions, decoded.stepInstructions);
+        assertArrayEquals(route.stepDistances, decoded.stepDistances, 0.05);
+        assertEquals(9876.4, decoded.totalDistanceMeters, 0.0);
+
+        assertEquals("Ridge Trail", decoded.details.name);
+        assertNull(decoded.details.description);
+        assertEquals(4.5, decoded.details.rating, 0.0);
+        // The destination is the end of the route
+        assertEquals(1, decoded.details.routePoints.size());
+        assertEquals(decoded.geometry.getLatitude(499), decoded.details.routePoints.get(0).getLatitude(), 0.0);
+    }
+
+    @Test
+    public void twoThousandPoints_fitInAFewKilobytes() {
+        byte[] encoded = RouteCodec.encode(hikingRoute(2000));
+        assertTrue("encoded size " + encoded.length, encoded.length < 8 * 1024);
+    }
+
+    @Test
+    public void negativeCoordinates_roundtrip() throws IOException {
+        PackedRoute points = PackedRoute.of(new double[] {-33.86785, -33.86790}, new double[] {151.20732, -0.00001});
+        RouteCodec.Route route = new RouteCodec.Route(new TrailDetails(), points,
+                new int[0], new String[0], new double[0], 0);
+        byte[] encoded = RouteCodec.encode(route);
+        RouteCodec.Route decoded = RouteCodec.decode(encoded, 0, encoded.length);
+
+        assertEquals(-33.86790, decoded.geometry.getLatitude(1), 1e-9);
+        assertEquals(-0.00001, decoded.geometry.getLongitude(1), 1e-9);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedData_isRejected() throws IOException {
+        byte[] encoded = RouteCodec.encode(hikingRoute(100));
+        RouteCodec.decode(encoded, 0, encoded.length / 2);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteProgressTrackerTest {
+
+    // A straight route due north: 1,001 points about 11 m apart, roughly 11.1 km long
+    private static PackedRoute northboundRoute() {
+        double[] latitudes = new double[1001];
+        double[] longitudes = new double[1001];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = 51.0 + i * 0.0001;
+            longitudes[i] = 10.0;
+        }
+        return PackedRoute.of(latitudes, longitudes);
+    }
+
+    @Test
+    public void beforeFirstFix_wholeRouteRemains() {
+        PackedRoute route = northboundRoute();
+        RouteProgressTracker tracker = new RouteProgressTracker(route);
+
+        assertFalse(tracker.hasMatch());
+        assertEquals(route.getLengthMeters(), tracker.getRemainingMeters(), 0.0);
+    }
+
+    @Test
+    public void fixBesideTheRoute_isProjectedOntoIt() {
+        PackedRoute route = northboundRoute();
+        RouteProgressTracker tracker = new RouteProgressTracker(route);
+
+        // Halfway between points 100 and 101, about 20 m east of the line
+        tracker.update(51.01005, 10.0003);
+
+        assertEquals(100, tracker.getSegmentIndex());
+        assertEquals(20.9, tracker.getDistanceFromRouteMeters(), 0.5);
+        double expectedAlong = (route.getDistanceAt(100) + route.getDistanceAt(101)) / 2;
+        assertEquals(expectedAlong, tracker.getDistanceAlongMeters(), 0.5);
+        assertEquals(route.getLengthMeters() - expectedAlong, tracker.getRemainingMeters(), 0.5);
+        assertEquals(route.getDistanceAt(200) - expectedAlong, tracker.getMetersToPoint(200), 0.5);
+        assertEquals(0, tracker.getMetersToPoint(50), 0.0);
+    }
+
+    @Test
+    public void walkingAlong_followsTheWindow() {
+        RouteProgressTracker tracker = new RouteProgressTracker(northboundRoute());
+        for (int i = 0; i <= 1000; i += 3) {
+            tracker.update(51.0 + i * 0.0001, 10.00002);
+            assertEquals(Math.min(i, 999), tracker.getSegmentIndex(), 1);
+        }
+        tracker.update(51.1, 10.0);
+        assertEquals(0, tracker.getRemainingMeters(), 1);
+        assertEquals(1.0, tracker.getProgress(), 0.001);
+    }
+
+    @Test
+    public void jumpBeyondTheWindow_isFoundByAFullScan() {
+        RouteProgressTracker tracker = new RouteProgressTracker(northboundRoute());
+        tracker.update(51.0, 10.0);
+        tracker.update(51.08, 10.0);
+
+        assertEquals(800, tracker.getSegmentIndex(), 1);
+        assertEquals(0, tracker.getDistanceFromRouteMeters(), 0.01);
+    }
+
+    @Test
+    public void eta_usesWalkingPace() {
+        PackedRoute route = northboundRoute();
+        RouteProgressTracker tracker = new RouteProgressTracker(route);
+        tracker.update(51.0, 10.0);
+
+        // About 11.1 km at 5 km/h
+        assertEquals(133, tracker.getEtaMinutes(), 1);
+    }
+}
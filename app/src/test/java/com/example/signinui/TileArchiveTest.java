@@ -0,0 +1,100 @@
+package com.example.signinui;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TileArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void finishedPack_returnsEveryTileAndNothingElse() throws IOException {
+        File part = new File(folder.getRoot(), "harz.part");
+        File pack = new File(folder.getRoot(), "harz.tpk");
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "OpenTopoMap")) {
+            // Out of key order on purpose
+            for (int x = 20; x >= 0; x--) {
+                for (int y = 0; y <= 20; y++) {
+                    writer.add(14, 8600 + x, 5400 + y, tileBytes(14, 8600 + x, 5400 + y));
+                }
+            }
+            writer.add(12, 2150, 1350, tileBytes(12, 2150, 1350));
+            writer.finish(pack);
+        }
+        assertFalse(part.exists());
+
+        try (TileArchive archive = TileArchive.open(pack)) {
+            assertEquals("OpenTopoMap", archive.getTileSourceName());
+            assertEquals(21 * 21 + 1, archive.getTileCount());
+            assertEquals("12/2150/1350", text(archive.getTile(12, 2150, 1350)));
+            assertEquals("14/8613/5407", text(archive.getTile(14, 8613, 5407)));
+            assertNull(archive.getTile(14, 8621, 5400));
+            assertNull(archive.getTile(13, 4300, 2700));
+        }
+    }
+
+    @Test
+    public void reopenedPart_keepsCompleteTilesAndDropsATornOne() throws IOException {
+        File part = new File(folder.getRoot(), "harz.part");
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "OpenTopoMap")) {
+            writer.add(14, 1, 1, tileBytes(14, 1, 1));
+            writer.add(14, 1, 2, tileBytes(14, 1, 2));
+        }
+        // As if the app died while writing the second tile
+        try (RandomAccessFile file = new RandomAccessFile(part, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        File pack = new File(folder.getRoot(), "harz.tpk");
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "OpenTopoMap")) {
+            assertEquals(1, writer.getTileCount());
+            assertTrue(writer.contains(14, 1, 1));
+            assertFalse(writer.contains(14, 1, 2));
+            writer.add(14, 1, 2, tileBytes(14, 1, 2));
+            writer.finish(pack);
+        }
+        try (TileArchive archive = TileArchive.open(pack)) {
+            assertEquals("14/1/2", text(archive.getTile(14, 1, 2)));
+        }
+    }
+
+    @Test
+    public void partForAnotherTileSource_startsOver() throws IOException {
+        File part = new File(folder.getRoot(), "harz.part");
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "Mapnik")) {
+            writer.add(14, 1, 1, tileBytes(14, 1, 1));
+        }
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "OpenTopoMap")) {
+            assertEquals(0, writer.getTileCount());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unfinishedPart_cannotBeOpened() throws IOException {
+        File part = new File(folder.getRoot(), "harz.part");
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "OpenTopoMap")) {
+            writer.add(14, 1, 1, tileBytes(14, 1, 1));
+        }
+        TileArchive.open(part);
+    }
+
+    private static byte[] tileBytes(int zoom, int x, int y) {
+        return (zoom + "/" + x + "/" + y).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(ByteBuffer tile) {
+        byte[] bytes = new byte[tile.remaining()];
+        tile.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
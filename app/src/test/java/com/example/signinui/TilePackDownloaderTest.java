@@ -0,0 +1,132 @@
+package com.example.signinui;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+public class TilePackDownloaderTest {
+
+    // Around the Brocken
+    private static final double SOUTH = 51.78;
+    private static final double WEST = 10.58;
+    private static final double NORTH = 51.82;
+    private static final double EAST = 10.65;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Stand-in tile server: answers every tile with its own coordinates
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    // Tiles the server refuses while set
+    private final Set<String> broken = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath().substring(1);
+            byte[] body = path.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(broken.contains(path) ? 503 : 200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private TilePackDownloader downloader() {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        return new TilePackDownloader(new OkHttpClient(), (zoom, x, y) -> base + zoom + "/" + x + "/" + y, 4, 0);
+    }
+
+    @Test
+    public void tileNumbers_matchTheSlippyMapScheme() {
+        assertEquals(8675, TilePackDownloader.tileX(10.6156, 14));
+        assertEquals(5426, TilePackDownloader.tileY(51.7991, 14));
+        assertEquals(0, TilePackDownloader.tileY(89.9, 3));
+        assertEquals(7, TilePackDownloader.tileX(180, 3));
+    }
+
+    @Test
+    public void download_fetchesEveryTileOfTheRegion() throws IOException {
+        int total = TilePackDownloader.countTiles(SOUTH, WEST, NORTH, EAST, 12, 15);
+        File pack = new File(folder.getRoot(), "brocken.tpk");
+        AtomicInteger progress = new AtomicInteger();
+
+        try (TileArchive.Writer writer = new TileArchive.Writer(new File(folder.getRoot(), "brocken.part"), "test")) {
+            int failed = downloader().download(SOUTH, WEST, NORTH, EAST, 12, 15, writer, (done, all) -> progress.set(done));
+            assertEquals(0, failed);
+            writer.finish(pack);
+        }
+
+        assertEquals(total, progress.get());
+        assertEquals(total, requests.get());
+        try (TileArchive archive = TileArchive.open(pack)) {
+            assertEquals(total, archive.getTileCount());
+            int x = TilePackDownloader.tileX(10.6156, 15);
+            int y = TilePackDownloader.tileY(51.7991, 15);
+            assertEquals("15/" + x + "/" + y, text(archive.getTile(15, x, y)));
+        }
+    }
+
+    @Test
+    public void secondRun_fetchesOnlyWhatFailedBefore() throws IOException {
+        int total = TilePackDownloader.countTiles(SOUTH, WEST, NORTH, EAST, 12, 14);
+        int x = TilePackDownloader.tileX(10.6156, 14);
+        int y = TilePackDownloader.tileY(51.7991, 14);
+        broken.add("14/" + x + "/" + y);
+        File part = new File(folder.getRoot(), "brocken.part");
+
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "test")) {
+            assertEquals(1, downloader().download(SOUTH, WEST, NORTH, EAST, 12, 14, writer, (done, all) -> { }));
+            assertEquals(total - 1, writer.getTileCount());
+        }
+
+        broken.clear();
+        requests.set(0);
+        try (TileArchive.Writer writer = new TileArchive.Writer(part, "test")) {
+            assertEquals(0, downloader().download(SOUTH, WEST, NORTH, EAST, 12, 14, writer, (done, all) -> { }));
+            assertEquals(total, writer.getTileCount());
+        }
+        assertEquals(1, requests.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void hugeRegion_isRefused() throws IOException {
+        try (TileArchive.Writer writer = new TileArchive.Writer(new File(folder.getRoot(), "alps.part"), "test")) {
+            downloader().download(45, 5, 48, 16, 10, 16, writer, (done, all) -> { });
+        }
+    }
+
+    private static String text(ByteBuffer tile) {
+        byte[] bytes = new byte[tile.remaining()];
+        tile.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
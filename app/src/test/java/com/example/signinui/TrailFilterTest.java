@@ -0,0 +1,78 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+public class TrailFilterTest {
+
+    private static final int HIKING = TrailFilter.Trait.HIKING.bit;
+    private static final int RUNNING = TrailFilter.Trait.RUNNING.bit;
+    private static final int CYCLING = TrailFilter.Trait.CYCLING.bit;
+
+    @Test
+    public void classify_matchesTheKeywordsAndWayTypes() {
+        int place = TrailFilter.classifyPlace("Nature Trail, Bike Trail", "Moderate", 6500, true, false);
+        assertEquals(HIKING | CYCLING, place & TrailFilter.ACTIVITIES);
+        assertEquals(TrailFilter.Trait.MODERATE.bit, place & TrailFilter.DIFFICULTIES);
+        assertEquals(TrailFilter.Trait.MEDIUM.bit, place & TrailFilter.DISTANCES);
+        assertEquals(TrailFilter.Trait.LIKED.bit, place & TrailFilter.STATUSES);
+        // Unknown length, no distance trait
+        assertEquals(0, TrailFilter.classifyPlace("running track", "Easy", Double.NaN, false, false) & TrailFilter.DISTANCES);
+
+        assertEquals(HIKING | RUNNING, TrailFilter.classifyWay("path", 800) & TrailFilter.ACTIVITIES);
+        assertEquals(RUNNING, TrailFilter.classifyWay("track", 800) & TrailFilter.ACTIVITIES);
+        assertEquals(CYCLING, TrailFilter.classifyWay("cycleway", 800) & TrailFilter.ACTIVITIES);
+        assertEquals(TrailFilter.Trait.SHORT.bit, TrailFilter.classifyWay("steps", 800) & TrailFilter.DISTANCES);
+    }
+
+    @Test
+    public void criteria_returnOnlyTheItemsThatChanged() {
+        TrailFilter<String> filter = new TrailFilter<>();
+        filter.add("goetheweg", TrailFilter.classifyWay("path", 1800));
+        filter.add("radweg", TrailFilter.classifyWay("cycleway", 9000));
+        filter.add("wirtschaftsweg", TrailFilter.classifyWay("track", 15000));
+        assertTrue(filter.isVisible("radweg"));
+
+        BitSet changed = filter.setCriteria(TrailFilter.Criteria.ALL.withActivities(RUNNING));
+        assertEquals(1, changed.cardinality());
+        assertEquals("radweg", filter.get(changed.nextSetBit(0)));
+        assertFalse(filter.isVisible("radweg"));
+
+        // Adding a distance range on top hides the short path, the track stays
+        changed = filter.setCriteria(new TrailFilter.Criteria(RUNNING, 0,
+                TrailFilter.Trait.MEDIUM.bit | TrailFilter.Trait.LONG.bit, 0));
+        assertEquals(1, changed.cardinality());
+        assertEquals("goetheweg", filter.get(changed.nextSetBit(0)));
+        assertTrue(filter.isVisible("wirtschaftsweg"));
+
+        assertTrue(filter.setCriteria(new TrailFilter.Criteria(RUNNING, 0,
+                TrailFilter.Trait.MEDIUM.bit | TrailFilter.Trait.LONG.bit, 0)).isEmpty());
+        assertEquals(2, filter.setCriteria(TrailFilter.Criteria.ALL).cardinality());
+    }
+
+    @Test
+    public void statuses_areAllRequiredAndFollowReclassification() {
+        TrailFilter<String> filter = new TrailFilter<>();
+        filter.add("brocken", TrailFilter.classifyPlace("hiking trail", "Challenging", 9000, true, false));
+        filter.add("ilse", TrailFilter.classifyPlace("hiking trail", "Easy", 3000, false, false));
+
+        filter.setCriteria(new TrailFilter.Criteria(0, 0, 0, TrailFilter.Trait.LIKED.bit));
+        assertTrue(filter.isVisible("brocken"));
+        assertFalse(filter.isVisible("ilse"));
+
+        // Liking a trail while the filter is on shows it
+        assertTrue(filter.setTraits("ilse", TrailFilter.classifyPlace("hiking trail", "Easy", 3000, true, false)));
+        assertTrue(filter.isVisible("ilse"));
+        assertFalse(filter.setTraits("ilse", TrailFilter.classifyPlace("hiking trail", "Easy", 3200, true, false)));
+
+        BitSet changed = filter.setCriteria(new TrailFilter.Criteria(0, 0, 0,
+                TrailFilter.Trait.LIKED.bit | TrailFilter.Trait.SAVED.bit));
+        assertEquals(2, changed.cardinality());
+        // Items the filter never saw are not filtered
+        assertTrue(filter.isVisible("navigation route"));
+        assertEquals(-1, filter.idOf("navigation route"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.signinui;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+public class TrailWayStoreTest {
+
+    // Around the Brocken trailhead
+    private static final double SOUTH = 51.790;
+    private static final double WEST = 10.600;
+    private static final double NORTH = 51.815;
+    private static final double EAST = 10.645;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Fake Overpass server replaying a canned response
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicReference<String> lastQuery = new AtomicReference<>();
+    private volatile int status = 200;
+
+    @Before
+    public void startServer() throws IOException {
+        byte[] recorded = readResource("overpass_brocken.json");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/interpreter", exchange -> {
+            requests.incrementAndGet();
+            String form = new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8);
+            lastQuery.set(URLDecoder.decode(form.substring("data=".length()), "UTF-8"));
+            byte[] body = status == 200 ? recorded : new byte[0];
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private TrailWayStore store(File directory) {
+        String endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/api/interpreter";
+        return new TrailWayStore(directory, 1024 * 1024, new OverpassTrails(new OkHttpClient(), endpoint));
+    }
+
+    @Test
+    public void parse_readsWaysWithTheirTagsAndSkipsNodes() throws IOException {
+        List<TrailWay> ways;
+        try (InputStreamReader reader = new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("overpass_brocken.json"), StandardCharsets.UTF_8)) {
+            ways = OverpassTrails.parse(reader);
+        }
+
+        assertEquals(3, ways.size());
+        TrailWay goetheweg = ways.get(0);
+        assertEquals(23791010L, goetheweg.id);
+        assertEquals("path", goetheweg.type);
+        assertEquals("Goetheweg", goetheweg.name);
+        assertEquals(40, goetheweg.geometry.size());
+        // 39 steps of 45 m
+        assertEquals(39 * 45, goetheweg.getLengthMeters(), 10);
+        assertEquals("", ways.get(1).name);
+    }
+
+    @Test
+    public void secondLookup_comesFromDiskEvenAfterARestart() throws IOException {
+        File directory = folder.newFolder("ways");
+        List<TrailWay> fetched = store(directory).waysIn(SOUTH, WEST, NORTH, EAST, true);
+        assertEquals(1, requests.get());
+        assertTrue(lastQuery.get().contains("way[\"highway\"~\"^(" + OverpassTrails.TRAIL_TYPES + ")$\"]"));
+        assertEquals(3, fetched.size());
+
+        TrailWayStore restarted = store(directory);
+        List<TrailWay> stored = restarted.waysIn(SOUTH, WEST, NORTH, EAST, true);
+
+        assertEquals(1, requests.get());
+        assertEquals(0, restarted.getRequestCount());
+        assertTrue(restarted.getTileHitCount() > 0);
+        assertEquals(3, stored.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(fetched.get(i).id, stored.get(i).id);
+            assertEquals(fetched.get(i).name, stored.get(i).name);
+            assertEquals(fetched.get(i).getLengthMeters(), stored.get(i).getLengthMeters(), 0.5);
+            assertArrayEquals(fetched.get(i).levels, stored.get(i).levels);
+        }
+    }
+
+    @Test
+    public void smallerBox_onlyReturnsWaysInIt() throws IOException {
+        TrailWayStore store = store(folder.newFolder("ways"));
+        store.waysIn(SOUTH, WEST, NORTH, EAST, true);
+
+        // Around the Urwaldstieg only
+        List<TrailWay> ways = store.waysIn(51.8120, 10.6395, 51.8130, 10.6440, true);
+
+        assertEquals(1, ways.size());
+        assertEquals("Urwaldstieg", ways.get(0).name);
+    }
+
+    @Test
+    public void withoutFetching_missingTilesAreJustEmpty() throws IOException {
+        TrailWayStore store = store(folder.newFolder("ways"));
+
+        assertTrue(store.waysIn(SOUTH, WEST, NORTH, EAST, false).isEmpty());
+        assertEquals(0, requests.get());
+    }
+
+    @Test
+    public void failedFetch_storesNothing() throws IOException {
+        File directory = folder.newFolder("ways");
+        status = 429;
+        try {
+            store(directory).waysIn(SOUTH, WEST, NORTH, EAST, true);
+            fail("Expected the fetch to fail");
+        } catch (IOException expected) {
+            assertEquals(0, directory.list().length);
+        }
+
+        status = 200;
+        assertEquals(3, store(directory).waysIn(SOUTH, WEST, NORTH, EAST, true).size());
+    }
+
+    private static byte[] readResource(String name) throws IOException {
+        try (InputStream in = TrailWayStoreTest.class.getClassLoader().getResourceAsStream(name)) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
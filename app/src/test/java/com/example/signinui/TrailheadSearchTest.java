@@ -0,0 +1,63 @@
+package com.example.signinui;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrailheadSearchTest {
+
+    private static final String RESPONSE = "{\"results\":["
+            + "{\"place_id\":\"a\",\"name\":\"Brocken\",\"rating\":4.6,"
+            + "\"geometry\":{\"location\":{\"lat\":51.7991,\"lng\":10.6156}}},"
+            + "{\"place_id\":\"b\",\"name\":\"No location\"},"
+            + "{\"place_id\":\"c\",\"name\":\"Ilsetal\","
+            + "\"geometry\":{\"location\":{\"lat\":51.8301,\"lng\":10.6803}}}"
+            + "],\"status\":\"OK\"}";
+
+    @Test
+    public void parse_skipsIncompletePlacesAndHonoursTheLimit() throws IOException {
+        List<TrailheadSearch.Trailhead> all = TrailheadSearch.parse(new StringReader(RESPONSE), "hiking trail", 20);
+
+        assertEquals(2, all.size());
+        assertEquals("a", all.get(0).placeId);
+        assertEquals(4.6, all.get(0).rating, 1e-9);
+        assertEquals(0.0, all.get(1).rating, 1e-9);
+        assertEquals(Arrays.asList("hiking trail"), all.get(1).categories);
+
+        assertEquals(1, TrailheadSearch.parse(new StringReader(RESPONSE), "hiking trail", 1).size());
+    }
+
+    @Test
+    public void merge_keepsOnePlacePerIdWithAllCategories() throws IOException {
+        List<TrailheadSearch.Trailhead> hiking = TrailheadSearch.parse(new StringReader(RESPONSE), "hiking trail", 20);
+        List<TrailheadSearch.Trailhead> nature = TrailheadSearch.parse(new StringReader(RESPONSE), "nature trail", 20);
+        List<TrailheadSearch.Trailhead> bike = Arrays.asList(
+                new TrailheadSearch.Trailhead("d", "Harz Loop", 51.7, 10.5, 0, "bike trail"),
+                new TrailheadSearch.Trailhead("a", "Brocken", 51.7991, 10.6156, 4.6, "bike trail"));
+
+        List<TrailheadSearch.Trailhead> merged = TrailheadSearch.merge(Arrays.asList(hiking, nature, bike));
+
+        assertEquals(3, merged.size());
+        assertEquals("a", merged.get(0).placeId);
+        assertEquals("hiking trail, nature trail, bike trail", merged.get(0).getCategoryLabel());
+        assertEquals("hiking trail, nature trail", merged.get(1).getCategoryLabel());
+        assertEquals("d", merged.get(2).placeId);
+    }
+
+    @Test(expected = IOException.class)
+    public void parse_rejectsMalformedJson() throws IOException {
+        TrailheadSearch.parse(new StringReader("{\"results\": ["), "hiking trail", 20);
+    }
+
+    @Test
+    public void areaKey_isSharedByNearbyCentres() {
+        String key = TrailheadSearch.areaKey(51.8001, 10.6101);
+        assertEquals(key, TrailheadSearch.areaKey(51.8102, 10.6203));
+        assertNotEquals(key, TrailheadSearch.areaKey(51.8801, 10.6101));
+    }
+}